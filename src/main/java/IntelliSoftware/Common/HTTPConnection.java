@@ -4,6 +4,9 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 
+import net.frontlinesms.http.HttpClient;
+import net.frontlinesms.http.HttpResponse;
+
 public class HTTPConnection
 {
 	public int Timeout = 60 * 1000;
@@ -44,10 +47,6 @@ public class HTTPConnection
 
 	private String HTTPRequest ( String sMethod, String sUrl, String sContentType, String sFormData ) throws MalformedURLException, IOException
 	{
-		URL objURL = new URL(sUrl);
-
-		URLConnection objURLConnection = objURL.openConnection();
-
 		if ( sUrl.startsWith("https:") )
 		{
 			if ( !m_bSSLInitialised )
@@ -75,28 +74,8 @@ public class HTTPConnection
 			}
 		}
 
-		objURLConnection.setRequestProperty( "Content-Type", sContentType ); 
-
-		objURLConnection.setDoOutput(true);
-
-		//Write Form Data
-		OutputStreamWriter objOutputStreamWriter = new OutputStreamWriter(objURLConnection.getOutputStream());
-		objOutputStreamWriter.write(sFormData);
-		objOutputStreamWriter.flush();
-
-		//Get Response
-		StringBuilder objStringBuilder = new StringBuilder();
-		BufferedReader objBufferedReader = new BufferedReader(new InputStreamReader(objURLConnection.getInputStream()));
-		String sLine;
-		while ((sLine = objBufferedReader.readLine()) != null) 
-		{
-			objStringBuilder.append ( sLine + "\n" ) ;
-		}
-
-		objOutputStreamWriter.close();
-		objBufferedReader.close();
-	
-		return objStringBuilder.toString();
+		//Write Form Data, and get Response over a pooled connection
+		HttpResponse objResponse = HttpClient.getShared().post ( sUrl, sContentType, sFormData );
+		return objResponse.throwIfError().getBodyAsString();
 	} 
 }
-
@@ -33,10 +33,68 @@ public final class AppProperties extends UserHomeFilePropertySet {
 	private static final String KEY_MMS_POLLING_FREQUENCY = "mms.polling.frequency";
 	/** Property key (String): Whether or not the device connection dialog is shown when a connection problem occurs*/
 	private static final String KEY_SHOW_DEVICE_CONNECTION_DIALOG = "smsdevice.connection.problem.dialog.show";
+	/** Property key (int): Number of worker threads used to process incoming messages */
+	private static final String KEY_INCOMING_PROCESSOR_WORKERS = "incoming.processor.workers";
+	/** Property key (int): Maximum number of messages queued for each incoming message worker */
+	private static final String KEY_INCOMING_PROCESSOR_QUEUE_DEPTH = "incoming.processor.queue.depth";
+	/** Property key (int): Number of threads used to run external commands */
+	private static final String KEY_EXTERNAL_COMMAND_THREADS = "external.command.threads";
+	/** Property key (int): Maximum number of external commands waiting to run */
+	private static final String KEY_EXTERNAL_COMMAND_QUEUE_DEPTH = "external.command.queue.depth";
+	/** Property key (int): Maximum number of executions of a single action's external command running at once */
+	private static final String KEY_EXTERNAL_COMMAND_ACTION_LIMIT = "external.command.action.limit";
+	/** Property key (int): Time, in seconds, an external command may run for before it is aborted */
+	private static final String KEY_EXTERNAL_COMMAND_TIMEOUT = "external.command.timeout";
+	/** Property key (int): Maximum number of HTTP requests in progress to a single host at once */
+	private static final String KEY_HTTP_CONNECTIONS_PER_HOST = "http.connections.per.host";
+	/** Property key (int): Time, in seconds, to wait for an HTTP connection to be made */
+	private static final String KEY_HTTP_CONNECT_TIMEOUT = "http.connect.timeout";
+	/** Property key (int): Time, in seconds, to wait for data from an HTTP connection */
+	private static final String KEY_HTTP_READ_TIMEOUT = "http.read.timeout";
+	/** Property key (boolean): Transliterate outgoing text messages to the GSM 7-bit alphabet when this reduces the number of parts they are sent as */
+	private static final String KEY_SMS_TRANSLITERATION_ENABLED = "sms.transliteration.enabled";
+	/** Property key (boolean): Enable new message indications on modems, and read only the messages they indicate rather than polling the modem's memory */
+	private static final String KEY_MODEM_RECEIVE_NOTIFICATIONS = "modem.receive.notifications";
+	/** Property key (int): Time, in seconds, between full scans of a modem's memory when new message indications are enabled */
+	private static final String KEY_MODEM_RECEIVE_SCAN_INTERVAL = "modem.receive.scan.interval";
+	/** Property key (int): Time, in seconds, allowed for detecting all of the devices found when the list of ports is refreshed */
+	private static final String KEY_MODEM_DETECTION_BUDGET = "modem.detection.budget";
+	/** Property key (int): Time, in seconds, to wait for the missing parts of a concatenated message before passing on the parts received */
+	private static final String KEY_SMS_REASSEMBLY_TIMEOUT = "sms.reassembly.timeout";
+	/** Property key (int): Maximum number of parts of concatenated messages held while waiting for their missing parts */
+	private static final String KEY_SMS_REASSEMBLY_MAX_PARTS = "sms.reassembly.max.parts";
+	/** Property key (long): ID of the last message examined when tagging untagged messages with their keyword */
+	private static final String KEY_MESSAGE_KEYWORD_TAGGED_ID = "message.keyword.tagged.id";
 	
 //> DEFAULT VALUES
 	/** Default value for {@link #KEY_DATABASE_CONFIG_PATH} */
 	private static final String DEFAULT_DATABASE_CONFIG_PATH = "h2.database.xml";
+	/** Default value for {@link #KEY_INCOMING_PROCESSOR_WORKERS} */
+	private static final int DEFAULT_INCOMING_PROCESSOR_WORKERS = 4;
+	/** Default value for {@link #KEY_INCOMING_PROCESSOR_QUEUE_DEPTH} */
+	private static final int DEFAULT_INCOMING_PROCESSOR_QUEUE_DEPTH = 10000;
+	/** Default value for {@link #KEY_EXTERNAL_COMMAND_THREADS} */
+	private static final int DEFAULT_EXTERNAL_COMMAND_THREADS = 4;
+	/** Default value for {@link #KEY_EXTERNAL_COMMAND_QUEUE_DEPTH} */
+	private static final int DEFAULT_EXTERNAL_COMMAND_QUEUE_DEPTH = 1000;
+	/** Default value for {@link #KEY_EXTERNAL_COMMAND_ACTION_LIMIT} */
+	private static final int DEFAULT_EXTERNAL_COMMAND_ACTION_LIMIT = 2;
+	/** Default value for {@link #KEY_EXTERNAL_COMMAND_TIMEOUT} */
+	private static final int DEFAULT_EXTERNAL_COMMAND_TIMEOUT = 30;
+	/** Default value for {@link #KEY_HTTP_CONNECTIONS_PER_HOST} */
+	private static final int DEFAULT_HTTP_CONNECTIONS_PER_HOST = 5;
+	/** Default value for {@link #KEY_HTTP_CONNECT_TIMEOUT} */
+	private static final int DEFAULT_HTTP_CONNECT_TIMEOUT = 30;
+	/** Default value for {@link #KEY_HTTP_READ_TIMEOUT} */
+	private static final int DEFAULT_HTTP_READ_TIMEOUT = 60;
+	/** Default value for {@link #KEY_MODEM_RECEIVE_SCAN_INTERVAL} */
+	private static final int DEFAULT_MODEM_RECEIVE_SCAN_INTERVAL = 300;
+	/** Default value for {@link #KEY_MODEM_DETECTION_BUDGET} */
+	private static final int DEFAULT_MODEM_DETECTION_BUDGET = 60;
+	/** Default value for {@link #KEY_SMS_REASSEMBLY_TIMEOUT} */
+	private static final int DEFAULT_SMS_REASSEMBLY_TIMEOUT = 600;
+	/** Default value for {@link #KEY_SMS_REASSEMBLY_MAX_PARTS} */
+	private static final int DEFAULT_SMS_REASSEMBLY_MAX_PARTS = 1000;
 	
 	/** Singleton instance of this class. */
 	private static AppProperties instance;
@@ -145,6 +203,111 @@ public final class AppProperties extends UserHomeFilePropertySet {
 		super.setPropertyAsBoolean(KEY_SHOW_DEVICE_CONNECTION_DIALOG, showDialog);
 	}
 	
+	/** @return the number of worker threads used to process incoming messages */
+	public int getIncomingMessageProcessorWorkerCount() {
+		return Math.max(1, super.getPropertyAsInt(KEY_INCOMING_PROCESSOR_WORKERS, DEFAULT_INCOMING_PROCESSOR_WORKERS));
+	}
+	/** @param workerCount the number of worker threads used to process incoming messages */
+	public void setIncomingMessageProcessorWorkerCount(int workerCount) {
+		super.setPropertyAsInteger(KEY_INCOMING_PROCESSOR_WORKERS, workerCount);
+	}
+	
+	/** @return the maximum number of messages queued for each incoming message worker */
+	public int getIncomingMessageProcessorQueueDepth() {
+		return Math.max(1, super.getPropertyAsInt(KEY_INCOMING_PROCESSOR_QUEUE_DEPTH, DEFAULT_INCOMING_PROCESSOR_QUEUE_DEPTH));
+	}
+	/** @param queueDepth the maximum number of messages queued for each incoming message worker */
+	public void setIncomingMessageProcessorQueueDepth(int queueDepth) {
+		super.setPropertyAsInteger(KEY_INCOMING_PROCESSOR_QUEUE_DEPTH, queueDepth);
+	}
+	
+	/** @return the number of threads used to run external commands */
+	public int getExternalCommandThreadCount() {
+		return Math.max(1, super.getPropertyAsInt(KEY_EXTERNAL_COMMAND_THREADS, DEFAULT_EXTERNAL_COMMAND_THREADS));
+	}
+	
+	/** @return the maximum number of external commands waiting to run */
+	public int getExternalCommandQueueDepth() {
+		return Math.max(1, super.getPropertyAsInt(KEY_EXTERNAL_COMMAND_QUEUE_DEPTH, DEFAULT_EXTERNAL_COMMAND_QUEUE_DEPTH));
+	}
+	
+	/** @return the maximum number of executions of a single action's external command running at once */
+	public int getExternalCommandActionLimit() {
+		return Math.max(1, super.getPropertyAsInt(KEY_EXTERNAL_COMMAND_ACTION_LIMIT, DEFAULT_EXTERNAL_COMMAND_ACTION_LIMIT));
+	}
+	
+	/** @return the time, in seconds, an external command may run for before it is aborted */
+	public int getExternalCommandTimeout() {
+		return Math.max(1, super.getPropertyAsInt(KEY_EXTERNAL_COMMAND_TIMEOUT, DEFAULT_EXTERNAL_COMMAND_TIMEOUT));
+	}
+	
+	/** @return the maximum number of HTTP requests in progress to a single host at once */
+	public int getHttpConnectionsPerHost() {
+		return Math.max(1, super.getPropertyAsInt(KEY_HTTP_CONNECTIONS_PER_HOST, DEFAULT_HTTP_CONNECTIONS_PER_HOST));
+	}
+	
+	/** @return the time, in seconds, to wait for an HTTP connection to be made */
+	public int getHttpConnectTimeout() {
+		return Math.max(1, super.getPropertyAsInt(KEY_HTTP_CONNECT_TIMEOUT, DEFAULT_HTTP_CONNECT_TIMEOUT));
+	}
+	
+	/** @return the time, in seconds, to wait for data from an HTTP connection */
+	public int getHttpReadTimeout() {
+		return Math.max(1, super.getPropertyAsInt(KEY_HTTP_READ_TIMEOUT, DEFAULT_HTTP_READ_TIMEOUT));
+	}
+	
+	/** @return <code>true</code> if outgoing text messages should be transliterated to the GSM 7-bit alphabet when this reduces the number of parts they are sent as */
+	public boolean isSmsTransliterationEnabled() {
+		return super.getPropertyAsBoolean(KEY_SMS_TRANSLITERATION_ENABLED, false);
+	}
+	/** @param enabled whether outgoing text messages should be transliterated to the GSM 7-bit alphabet */
+	public void setSmsTransliterationEnabled(boolean enabled) {
+		super.setPropertyAsBoolean(KEY_SMS_TRANSLITERATION_ENABLED, enabled);
+	}
+	
+	/** @return <code>true</code> if modems should read received messages when they are indicated, rather than polling for them */
+	public boolean isModemReceiveNotificationsEnabled() {
+		return super.getPropertyAsBoolean(KEY_MODEM_RECEIVE_NOTIFICATIONS, false);
+	}
+	/** @param enabled whether modems should read received messages when they are indicated, rather than polling for them */
+	public void setModemReceiveNotificationsEnabled(boolean enabled) {
+		super.setPropertyAsBoolean(KEY_MODEM_RECEIVE_NOTIFICATIONS, enabled);
+	}
+	
+	/** @return the time, in seconds, between full scans of a modem's memory when new message indications are enabled */
+	public int getModemReceiveScanInterval() {
+		return Math.max(1, super.getPropertyAsInt(KEY_MODEM_RECEIVE_SCAN_INTERVAL, DEFAULT_MODEM_RECEIVE_SCAN_INTERVAL));
+	}
+	
+	/** @return the time, in seconds, allowed for detecting all of the devices found when the list of ports is refreshed */
+	public int getModemDetectionBudget() {
+		return Math.max(1, super.getPropertyAsInt(KEY_MODEM_DETECTION_BUDGET, DEFAULT_MODEM_DETECTION_BUDGET));
+	}
+	
+	/** @return the time, in seconds, to wait for the missing parts of a concatenated message before passing on the parts received */
+	public int getSmsReassemblyTimeout() {
+		return Math.max(1, super.getPropertyAsInt(KEY_SMS_REASSEMBLY_TIMEOUT, DEFAULT_SMS_REASSEMBLY_TIMEOUT));
+	}
+	
+	/** @return the maximum number of parts of concatenated messages held while waiting for their missing parts */
+	public int getSmsReassemblyMaxParts() {
+		return Math.max(1, super.getPropertyAsInt(KEY_SMS_REASSEMBLY_MAX_PARTS, DEFAULT_SMS_REASSEMBLY_MAX_PARTS));
+	}
+	
+	/** @return the ID of the last message examined when tagging untagged messages with their keyword, or 0 if none has been */
+	public long getMessageKeywordTaggedId() {
+		String taggedId = super.getProperty(KEY_MESSAGE_KEYWORD_TAGGED_ID);
+		try {
+			return taggedId == null ? 0 : Long.parseLong(taggedId);
+		} catch(NumberFormatException ex) {
+			return 0;
+		}
+	}
+	/** @param taggedId the ID of the last message examined when tagging untagged messages with their keyword */
+	public void setMessageKeywordTaggedId(long taggedId) {
+		super.setProperty(KEY_MESSAGE_KEYWORD_TAGGED_ID, Long.toString(taggedId));
+	}
+	
 //> INSTANCE HELPER METHODS
 
 //> STATIC FACTORIES
@@ -21,9 +21,15 @@ package net.frontlinesms;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sql.DataSource;
 
 import net.frontlinesms.data.*;
 import net.frontlinesms.data.domain.*;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.data.domain.FrontlineMessage.Type;
 import net.frontlinesms.data.events.DatabaseEntityNotification;
@@ -131,6 +137,8 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 	private MmsServiceManager mmsServiceManager;
 	/** Processor of received SMS & MMS. */
 	private IncomingMessageProcessor incomingMessageProcessor;
+	/** Single thread on which {@link MessageKeywordTagger} jobs are run one at a time */
+	private ExecutorService messageKeywordTagger;
 	private PluginManager pluginManager;
 
 	//> EVENT LISTENERS
@@ -171,6 +179,8 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 		String databasePropertiesPath = ResourceUtils.getConfigDirectoryPath() + ResourceUtils.PROPERTIES_DIRECTORY_NAME + File.separatorChar + appProperties.getDatabaseConfigPath() + ".properties";
 		propertyPlaceholderConfigurer.setLocation(new FileSystemResource(new File(databasePropertiesPath)));
 		propertyPlaceholderConfigurer.setIgnoreResourceNotFound(true);
+		// Database settings files created by older versions will not contain the connection pool settings
+		propertyPlaceholderConfigurer.setProperties(ConnectionPoolUtils.getDefaultProperties());
 		applicationContext.addBeanFactoryPostProcessor(propertyPlaceholderConfigurer);
 		applicationContext.refresh();
 		
@@ -235,10 +245,21 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 		incomingMessageProcessor = new IncomingMessageProcessor(this);
 		incomingMessageProcessor.start();
 		
+		LOG.debug("Tagging messages with their keywords...");
+		messageKeywordTagger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MessageKeywordTagger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		messageKeywordTagger.execute(new MessageKeywordTagger(this.messageDao));
+		
 		LOG.debug("Starting Phone Manager...");
 		smsServiceManager = new SmsServiceManager();
 		smsServiceManager.setSmsListener(this);
 		smsServiceManager.setEventBus(getEventBus());
+		smsServiceManager.setSmsModemSettingsDao(smsModemSettingsDao);
 		smsServiceManager.listComPortsAndOwners(false);
 		smsServiceManager.start();
 		
@@ -292,6 +313,10 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 			LOG.debug("Stopping the incoming message processor...");
 			this.incomingMessageProcessor.die();
 		}
+		if(this.messageKeywordTagger != null) {
+			LOG.debug("Stopping the message keyword tagger...");
+			this.messageKeywordTagger.shutdownNow();
+		}
 	}
 	
 	/**
@@ -462,6 +487,20 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 	 * @return the {@link FrontlineMessage} describing the sent message
 	 */
 	public FrontlineMessage sendTextMessage(String targetNumber, String textContent) {
+		return sendTextMessage(targetNumber, textContent, Priority.HIGH);
+	}
+	
+	/**
+	 * Sends an SMS with the supplied priority.
+	 * @param targetNumber The recipient number.
+	 * @param textContent The message to be sent.
+	 * @param priority The priority with which the message should be sent.  Messages sent to many
+	 * recipients at once, e.g. group forwards, should use {@link Priority#BULK} so that they do not
+	 * delay interactive messages.
+	 * @return the {@link FrontlineMessage} describing the sent message
+	 * @see #sendTextMessage(String, String)
+	 */
+	public FrontlineMessage sendTextMessage(String targetNumber, String textContent, Priority priority) {
 		LOG.trace("ENTER");
 		
 		// By default, currently replaces the name by the phone number if it's not in the contacts
@@ -487,12 +526,83 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 			incomingMessageEvent(EMULATOR, new CIncomingMessage(System.currentTimeMillis(), FrontlineSMSConstants.EMULATOR_MSISDN, textContent.trim(), 1, "NYI"));
 		} else {
 			m = FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", targetNumber, textContent.trim());
+			m.setPriority(priority);
 			this.sendMessage(m);
 		}
 		LOG.trace("EXIT");
 		return m;
 	}
 	
+	/**
+	 * Sends the same SMS to many recipients.  This is equivalent to calling {@link #sendTextMessage(String, String, Priority)}
+	 * for each recipient, but the recipients' contacts are fetched together, and the messages are saved in a single
+	 * transaction and queued for sending together.
+	 * @param targetNumbers The recipient numbers.
+	 * @param textContent The message to be sent.
+	 * @param priority The priority with which the messages should be sent.
+	 * @return the {@link FrontlineMessage}s describing the sent messages
+	 */
+	public List<FrontlineMessage> sendTextMessages(Collection<String> targetNumbers, String textContent, Priority priority) {
+		return sendTextMessages(targetNumbers, textContent, priority, false);
+	}
+	
+	/**
+	 * Sends the same SMS to many recipients.  This is equivalent to calling {@link #sendTextMessage(String, String, Priority)}
+	 * for each recipient, but the recipients' contacts are fetched together, and the messages are saved in a single
+	 * transaction and queued for sending together.
+	 * @param targetNumbers The recipient numbers.
+	 * @param textContent The message to be sent.
+	 * @param priority The priority with which the messages should be sent.
+	 * @param personalise <code>true</code> if {@link FrontlineSMSConstants#USER_MARKER_TO_NAME} should be replaced with
+	 * the name of each recipient's contact, as for messages forwarded by keyword actions
+	 * @return the {@link FrontlineMessage}s describing the sent messages
+	 */
+	public List<FrontlineMessage> sendTextMessages(Collection<String> targetNumbers, String textContent, Priority priority, boolean personalise) {
+		LOG.trace("ENTER");
+		Map<String, Contact> contacts = this.contactDao.getFromMsisdns(targetNumbers);
+		
+		List<FrontlineMessage> sent = new ArrayList<FrontlineMessage>(targetNumbers.size());
+		List<FrontlineMessage> toSend = new ArrayList<FrontlineMessage>(targetNumbers.size());
+		long now = System.currentTimeMillis();
+		for(String targetNumber : targetNumbers) {
+			if (targetNumber.equals(FrontlineSMSConstants.EMULATOR_MSISDN)) {
+				sent.add(sendTextMessage(targetNumber, textContent, priority));
+			} else {
+				// By default, currently replaces the name by the phone number if it's not in the contacts
+				String recipientName = targetNumber;
+				String messageText = textContent;
+				Contact c = contacts.get(targetNumber);
+				if (c != null) {
+					recipientName = c.getDisplayName();
+					if(personalise) {
+						messageText = KeywordAction.KeywordUtils.personaliseMessage(c, messageText);
+					}
+				}
+				messageText = MessageFormatter.formatMessage(messageText, 
+						MessageFormatter.MARKER_RECIPIENT_NAME, recipientName,
+						MessageFormatter.MARKER_RECIPIENT_NUMBER, targetNumber);
+				
+				FrontlineMessage m = FrontlineMessage.createOutgoingMessage(now, "", targetNumber, messageText.trim());
+				m.setPriority(priority);
+				m.setStatus(Status.OUTBOX);
+				toSend.add(m);
+				sent.add(m);
+			}
+		}
+		
+		if(!toSend.isEmpty()) {
+			messageDao.saveMessages(toSend);
+			smsServiceManager.sendSMS(toSend);
+			if (uiListener != null) {
+				for(FrontlineMessage m : toSend) {
+					uiListener.outgoingMessageEvent(m);
+				}
+			}
+		}
+		LOG.trace("EXIT");
+		return sent;
+	}
+	
 //> ACCESSOR METHODS
 	/** @return {@link #contactDao} */
 	public ContactDao getContactDao() {
@@ -534,6 +644,16 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 	public EmailDao getEmailDao() {
 		return emailDao;
 	}
+	/**
+	 * @return statistics for the database connection pool, or <code>null</code> if the application context
+	 * has not been initialised or the configured data source is not pooled
+	 */
+	public ConnectionPoolUtils.PoolStatistics getConnectionPoolStatistics() {
+		if(applicationContext == null || !applicationContext.isActive() || !applicationContext.containsBean("dataSource")) {
+			return null;
+		}
+		return ConnectionPoolUtils.getStatistics((DataSource) applicationContext.getBean("dataSource"));
+	}
 	/** @return {@link #eventBus} */
 	public EventBus getEventBus() {
 		return eventBus;
@@ -626,7 +746,14 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 		} else if (notification instanceof DatabaseEntityNotification<?>) {
 			// Database notification
 			Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
-			if (entity instanceof EmailAccount && ((EmailAccount) entity).isForReceiving()) {
+			if (entity instanceof Keyword && notification instanceof EntitySavedNotification<?>) {
+				// Saved notifications are only published for newly-created keywords.  Messages tagged with a shorter
+				// keyword, or the blank one, may now match the new keyword.
+				Keyword keyword = (Keyword) entity;
+				if(keyword.getKeyword().length() > 0 && this.messageKeywordTagger != null && !this.messageKeywordTagger.isShutdown()) {
+					this.messageKeywordTagger.execute(new MessageKeywordTagger(this.messageDao, keyword));
+				}
+			} else if (entity instanceof EmailAccount && ((EmailAccount) entity).isForReceiving()) {
 				// If there is any change in the E-Mail accounts, we refresh the list of MmsEmailServices
 				if (notification instanceof EntityDeletedNotification<?>) {
 					this.mmsServiceManager.removeMmsEmailReceiver((EmailAccount) entity);
@@ -24,16 +24,11 @@ import static net.frontlinesms.FrontlineSMSConstants.DEFAULT_END_DATE;
 
 import java.awt.Image;
 import java.awt.Toolkit;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.text.ParseException;
@@ -162,108 +157,6 @@ public class FrontlineUtils {
 		return groups;
 	}
 
-	/**
-	 * This method makes a http request and returns the response according to the supplied parameter.
-	 * @param url URL to connect.
-	 * @param waitForResponse <code>true</code> if this method should block and return the http response body; <code>false</code> otherwise
-	 * @return the body of the http response, or empty string if the response is not requested
-	 * @throws IOException
-	 */
-	public static String makeHttpRequest(String url, boolean waitForResponse) throws IOException {
-		LOG.trace("ENTER");
-		String str = "";
-		URL hp = new URL(url);
-		HttpURLConnection conn = (HttpURLConnection) hp.openConnection();
-		int rc = conn.getResponseCode();
-		LOG.debug("RC = " + rc);
-		if (rc == HttpURLConnection.HTTP_OK) {
-			InputStream input = null;
-			try {
-				input = conn.getInputStream();
-				LOG.debug("Wait for response [" + waitForResponse + "]");
-				if (waitForResponse) {
-					// Don't check the MIME type here - we don't want to confuse anybody
-					// Get response data.
-					BufferedReader inputData = new BufferedReader(new InputStreamReader(input));
-					StringBuilder sb = new StringBuilder();
-					while (null != (str = inputData.readLine())) {
-						sb.append(str + "\n");
-					}
-					str = sb.toString();
-				}
-			} finally {
-				if(input != null) try { input.close(); } catch(IOException ex) { LOG.warn("Exception closing HTTP input stream.", ex); }
-			}
-		}
-		LOG.trace("EXIT");
-		return str;
-	}
-
-	/**
-	 * This method makes a http request and returns the input stream.
-	 * @param url URL to connect.
-	 * @return
-	 * @throws IOException
-	 */
-	public static InputStream makeHttpRequest(String url) throws IOException {
-		LOG.trace("ENTER");
-		URL hp = new URL(url);
-		URLConnection conn = hp.openConnection();
-		conn.connect();
-		LOG.trace("EXIT");
-		return conn.getInputStream();
-	}
-
-	/**
-	 * This method executes a external command and returns the input stream.
-	 * @param cmd Command to be executed.
-	 * @return
-	 * @throws IOException
-	 * @throws InterruptedException
-	 */
-	public static InputStream executeExternalProgram(String cmd) throws IOException, InterruptedException {
-		LOG.trace("ENTER");
-		Process p = Runtime.getRuntime().exec(cmd);
-		p.waitFor();
-		LOG.trace("EXIT");
-		return p.getInputStream();
-	}
-
-	/**
-	 * This method executes a external command and returns the response according to the supplied parameter.
-	 * @param cmd Command to be executed.
-	 * @param waitForResponse <code>true</code> if the command's response should be returned.  If <code>true</code>, this method blocks.
-	 * @return empty string if waitForResponse is <code>false</code> or the response was an error, or the standard output text of the command if waitForResponse was <code>true</code>
-	 * @throws IOException
-	 * @throws InterruptedException
-	 */
-	public static String executeExternalProgram(String cmd, boolean waitForResponse) throws IOException, InterruptedException {
-		LOG.trace("ENTER");
-		String str = "";
-		Process p = Runtime.getRuntime().exec(cmd);
-		LOG.debug("Wait for response [" + waitForResponse + "]");
-		if (waitForResponse) {
-			int exit = p.waitFor();
-			LOG.debug("Process exit value [" + exit + "]");
-			if (exit == 0) {
-				InputStream inputStream = null;
-				try {
-					inputStream = p.getInputStream();
-					BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-					StringBuilder sb = new StringBuilder();
-					while (null != ((str = br.readLine()))) {
-						sb.append(str + "\n");
-					}
-					str = sb.toString();
-				} finally {
-					if(inputStream != null) try { inputStream.close(); } catch(IOException ex) { LOG.warn("Error closing external program input stream.", ex); }
-				}
-			}
-		}
-		LOG.trace("EXIT");
-		return str;
-	}
-
 	/**
 	 * Encodes the supplied string into Base64.
 	 * @param password the string to encode
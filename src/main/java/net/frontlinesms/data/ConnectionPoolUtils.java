@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+/**
+ * Utility methods for the pooled {@link DataSource} configured in the database settings XML files.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public final class ConnectionPoolUtils {
+//> PROPERTY KEYS
+	/** Database property key (int): maximum number of connections open at once */
+	public static final String KEY_POOL_MAX_ACTIVE = "pool.max.active";
+	/** Database property key (int): maximum number of idle connections kept in the pool */
+	public static final String KEY_POOL_MAX_IDLE = "pool.max.idle";
+	/** Database property key (int): minimum number of idle connections kept in the pool */
+	public static final String KEY_POOL_MIN_IDLE = "pool.min.idle";
+	/** Database property key (long): time, in millis, to wait for a free connection before failing */
+	public static final String KEY_POOL_MAX_WAIT = "pool.max.wait";
+	/** Database property key (long): time, in millis, between runs of the idle connection evictor */
+	public static final String KEY_POOL_EVICTION_INTERVAL = "pool.eviction.interval";
+	/** Database property key (long): time, in millis, a connection may sit idle before it is eligible for eviction */
+	public static final String KEY_POOL_IDLE_TIMEOUT = "pool.idle.timeout";
+
+//> DEFAULT VALUES
+	/** Default value for {@link #KEY_POOL_MAX_ACTIVE} */
+	private static final int DEFAULT_POOL_MAX_ACTIVE = 8;
+	/** Default value for {@link #KEY_POOL_MAX_IDLE} */
+	private static final int DEFAULT_POOL_MAX_IDLE = 8;
+	/** Default value for {@link #KEY_POOL_MIN_IDLE} */
+	private static final int DEFAULT_POOL_MIN_IDLE = 1;
+	/** Default value for {@link #KEY_POOL_MAX_WAIT} */
+	private static final long DEFAULT_POOL_MAX_WAIT = 30000;
+	/** Default value for {@link #KEY_POOL_EVICTION_INTERVAL} */
+	private static final long DEFAULT_POOL_EVICTION_INTERVAL = 60000;
+	/** Default value for {@link #KEY_POOL_IDLE_TIMEOUT} */
+	private static final long DEFAULT_POOL_IDLE_TIMEOUT = 300000;
+
+//> CONSTRUCTORS
+	/** Utility class - should not be instantiated. */
+	private ConnectionPoolUtils() {}
+
+//> STATIC HELPER METHODS
+	/**
+	 * Gets default values for the connection pool properties.  These should be used for any properties
+	 * which are not set in the database settings file, e.g. if the file was created by an older version.
+	 * @return the default connection pool properties
+	 */
+	public static Properties getDefaultProperties() {
+		Properties defaults = new Properties();
+		defaults.setProperty(KEY_POOL_MAX_ACTIVE, Integer.toString(DEFAULT_POOL_MAX_ACTIVE));
+		defaults.setProperty(KEY_POOL_MAX_IDLE, Integer.toString(DEFAULT_POOL_MAX_IDLE));
+		defaults.setProperty(KEY_POOL_MIN_IDLE, Integer.toString(DEFAULT_POOL_MIN_IDLE));
+		defaults.setProperty(KEY_POOL_MAX_WAIT, Long.toString(DEFAULT_POOL_MAX_WAIT));
+		defaults.setProperty(KEY_POOL_EVICTION_INTERVAL, Long.toString(DEFAULT_POOL_EVICTION_INTERVAL));
+		defaults.setProperty(KEY_POOL_IDLE_TIMEOUT, Long.toString(DEFAULT_POOL_IDLE_TIMEOUT));
+		return defaults;
+	}
+
+	/**
+	 * Gets the current statistics for a {@link DataSource}.
+	 * @param dataSource
+	 * @return the statistics for the data source, or <code>null</code> if it is not a pooled data source
+	 */
+	public static PoolStatistics getStatistics(DataSource dataSource) {
+		if(dataSource instanceof BasicDataSource) {
+			BasicDataSource pool = (BasicDataSource) dataSource;
+			return new PoolStatistics(pool.getNumActive(), pool.getNumIdle(), pool.getMaxActive());
+		} else {
+			return null;
+		}
+	}
+
+//> INNER CLASSES
+	/**
+	 * Snapshot of the usage of a connection pool.
+	 * @author Alex Anderson <alex@frontlinesms.com>
+	 */
+	public static final class PoolStatistics {
+		/** Number of connections currently borrowed from the pool */
+		private final int activeConnections;
+		/** Number of connections currently idle in the pool */
+		private final int idleConnections;
+		/** Maximum number of connections that may be borrowed at once */
+		private final int maxActiveConnections;
+
+		/**
+		 * @param activeConnections
+		 * @param idleConnections
+		 * @param maxActiveConnections
+		 */
+		PoolStatistics(int activeConnections, int idleConnections, int maxActiveConnections) {
+			this.activeConnections = activeConnections;
+			this.idleConnections = idleConnections;
+			this.maxActiveConnections = maxActiveConnections;
+		}
+
+		/** @return the number of connections currently borrowed from the pool */
+		public int getActiveConnections() {
+			return activeConnections;
+		}
+		/** @return the number of connections currently idle in the pool */
+		public int getIdleConnections() {
+			return idleConnections;
+		}
+		/** @return the maximum number of connections that may be borrowed at once */
+		public int getMaxActiveConnections() {
+			return maxActiveConnections;
+		}
+
+		@Override
+		public String toString() {
+			return "active=" + activeConnections + "/" + maxActiveConnections + ", idle=" + idleConnections;
+		}
+	}
+}
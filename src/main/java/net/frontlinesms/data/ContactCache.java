@@ -0,0 +1,157 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.Contact;
+
+/**
+ * Bounded cache of {@link Contact}s by phone number, used to avoid repeating the same database lookup when
+ * a single message is handled.  Phone numbers which have no contact are cached too.  When the cache is full,
+ * the least recently used phone number is evicted.
+ * <p>A lookup which misses the cache should be followed by a database query, and then {@link #put(String, Contact, long)}
+ * with the {@link #getVersion()} read <em>before</em> the query.  If the cache has been changed in between, the
+ * result of the query may be stale and will not be cached.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ContactCache {
+	/** Default value for {@link #capacity} */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+//> INSTANCE PROPERTIES
+	/** Maximum number of phone numbers held in the cache */
+	private final int capacity;
+	/** Cached contacts, in order of least to most recently used.  A phone number with no contact maps to <code>null</code>. */
+	private final LinkedHashMap<String, Contact> contacts;
+	/** Incremented every time a cached entry is changed or removed other than by {@link #put(String, Contact, long)} */
+	private long version;
+	/** Number of lookups which were answered from the cache */
+	private long hitCount;
+	/** Number of lookups which were not answered from the cache */
+	private long missCount;
+
+//> CONSTRUCTORS
+	/** Create a new {@link ContactCache} with the default {@link #capacity}. */
+	public ContactCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new {@link ContactCache}.
+	 * @param capacity value for {@link #capacity}
+	 */
+	public ContactCache(int capacity) {
+		if(capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		this.capacity = capacity;
+		this.contacts = new LinkedHashMap<String, Contact>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Contact> eldest) {
+				return size() > ContactCache.this.capacity;
+			}
+		};
+	}
+
+//> ACCESSORS
+	/**
+	 * Looks up a phone number in the cache.
+	 * @param msisdn the phone number to look up
+	 * @param results map to add the cached contact to, if the phone number is cached and has a contact
+	 * @return <code>true</code> if the phone number was cached, whether or not it has a contact
+	 */
+	public synchronized boolean get(String msisdn, Map<String, Contact> results) {
+		if(contacts.containsKey(msisdn)) {
+			++hitCount;
+			Contact contact = contacts.get(msisdn);
+			if(contact != null) {
+				results.put(msisdn, contact);
+			}
+			return true;
+		} else {
+			++missCount;
+			return false;
+		}
+	}
+
+	/**
+	 * Caches the result of a database lookup.
+	 * @param msisdn the phone number which was looked up
+	 * @param contact the contact with the phone number, or <code>null</code> if there was none
+	 * @param version the value of {@link #getVersion()} before the lookup was made
+	 */
+	public synchronized void put(String msisdn, Contact contact, long version) {
+		if(version == this.version) {
+			contacts.put(msisdn, contact);
+		}
+	}
+
+	/**
+	 * Updates the cache for a contact which has been saved or updated.  Any other phone numbers which were
+	 * cached for the same contact are removed, as the contact's number may have been changed.
+	 * @param contact
+	 */
+	public synchronized void contactChanged(Contact contact) {
+		removeEntries(contact);
+		if(contact.getPhoneNumber() != null) {
+			contacts.put(contact.getPhoneNumber(), contact);
+		}
+		++version;
+	}
+
+	/**
+	 * Updates the cache for a contact which has been deleted.
+	 * @param contact
+	 */
+	public synchronized void contactDeleted(Contact contact) {
+		removeEntries(contact);
+		if(contact.getPhoneNumber() != null) {
+			contacts.remove(contact.getPhoneNumber());
+		}
+		++version;
+	}
+
+	/** Removes all entries from the cache. */
+	public synchronized void clear() {
+		contacts.clear();
+		++version;
+	}
+
+	/** @return {@link #version} */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/** @return the number of phone numbers currently cached */
+	public synchronized int size() {
+		return contacts.size();
+	}
+
+	/** @return {@link #hitCount} */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return {@link #missCount} */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+//> INSTANCE HELPER METHODS
+	/**
+	 * Removes all cached entries for the same contact as the one supplied.  The caller must hold this object's lock.
+	 * @param contact
+	 */
+	private void removeEntries(Contact contact) {
+		for(Iterator<Contact> values = contacts.values().iterator(); values.hasNext(); ) {
+			Contact cached = values.next();
+			if(cached != null && (cached == contact || (cached.getId() != 0 && cached.getId() == contact.getId()))) {
+				values.remove();
+			}
+		}
+	}
+}
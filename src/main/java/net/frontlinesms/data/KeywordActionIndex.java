@@ -0,0 +1,157 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.Keyword;
+import net.frontlinesms.data.domain.KeywordAction;
+
+/**
+ * In-memory index of the {@link KeywordAction}s attached to each {@link Keyword}, used to find the actions
+ * which are alive at a given time without querying the database or checking every action in turn.
+ * <p>The actions for each keyword are held in a {@link Timeline} ordered by start date.  Keywords are only
+ * present in the index once their actions have been {@link #put(Keyword, Collection, long)}; a keyword which
+ * has been put with no actions is distinct from one which has not been put at all.</p>
+ * <p>A lookup which misses the index should be followed by a database query, and then {@link #put(Keyword, Collection, long)}
+ * with the {@link #getVersion()} read <em>before</em> the query.  If the index has been changed in between, the
+ * result of the query may be stale and will not be indexed.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class KeywordActionIndex {
+//> INSTANCE PROPERTIES
+	/** The actions for each keyword, keyed by the keyword's text */
+	private final Map<String, Timeline> timelines = new HashMap<String, Timeline>();
+	/** Incremented every time an indexed keyword is removed */
+	private long version;
+
+//> ACCESSORS
+	/**
+	 * Gets the actions for a keyword which are alive at a particular time.
+	 * @param keyword
+	 * @param time
+	 * @return the actions which are alive at the supplied time, or <code>null</code> if the keyword is not indexed
+	 */
+	public List<KeywordAction> getAliveActions(Keyword keyword, long time) {
+		Timeline timeline;
+		synchronized(this) {
+			timeline = timelines.get(keyword.getKeyword());
+		}
+		return timeline == null ? null : timeline.getAliveActions(time);
+	}
+
+	/**
+	 * Adds the actions for a keyword to the index, replacing any actions already indexed for it.
+	 * @param keyword
+	 * @param actions all actions attached to the keyword
+	 * @param version the value of {@link #getVersion()} before the actions were loaded
+	 */
+	public synchronized void put(Keyword keyword, Collection<KeywordAction> actions, long version) {
+		if(version == this.version) {
+			timelines.put(keyword.getKeyword(), new Timeline(actions));
+		}
+	}
+
+	/**
+	 * Removes a keyword from the index, so that its actions will be reloaded when they are next needed.
+	 * @param keyword
+	 */
+	public synchronized void remove(Keyword keyword) {
+		timelines.remove(keyword.getKeyword());
+		++version;
+	}
+
+	/** Removes all keywords from the index. */
+	public synchronized void clear() {
+		timelines.clear();
+		++version;
+	}
+
+	/** @return {@link #version} */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/** @return the number of keywords currently indexed */
+	public synchronized int size() {
+		return timelines.size();
+	}
+
+//> INNER CLASSES
+	/**
+	 * Immutable interval index of the actions attached to a single keyword.
+	 * <p>Actions are sorted by start date.  To find the actions alive at a given time, the last action starting at
+	 * or before that time is found by binary search, and earlier actions are then checked in turn until the latest
+	 * end date of all remaining actions is before the time.</p>
+	 */
+	static class Timeline {
+		/** Orders actions by start date */
+		private static final Comparator<KeywordAction> START_DATE_COMPARATOR = new Comparator<KeywordAction>() {
+			public int compare(KeywordAction one, KeywordAction two) {
+				long startOne = one.getStartDate();
+				long startTwo = two.getStartDate();
+				return startOne < startTwo ? -1 : (startOne == startTwo ? 0 : 1);
+			}
+		};
+
+		/** The actions, sorted by start date */
+		private final KeywordAction[] actions;
+		/** The start date of each action in {@link #actions} */
+		private final long[] startDates;
+		/** For each index in {@link #actions}, the latest end date of the action at that index and all actions before it */
+		private final long[] maxEndDates;
+
+		/**
+		 * @param actions all actions attached to a keyword
+		 */
+		Timeline(Collection<KeywordAction> actions) {
+			List<KeywordAction> sorted = new ArrayList<KeywordAction>(actions);
+			Collections.sort(sorted, START_DATE_COMPARATOR);
+
+			this.actions = sorted.toArray(new KeywordAction[sorted.size()]);
+			this.startDates = new long[this.actions.length];
+			this.maxEndDates = new long[this.actions.length];
+			long maxEndDate = Long.MIN_VALUE;
+			for (int i = 0; i < this.actions.length; i++) {
+				this.startDates[i] = this.actions[i].getStartDate();
+				maxEndDate = Math.max(maxEndDate, this.actions[i].getEndDate());
+				this.maxEndDates[i] = maxEndDate;
+			}
+		}
+
+		/**
+		 * @param time
+		 * @return the actions which are alive at the supplied time, in order of start date
+		 */
+		List<KeywordAction> getAliveActions(long time) {
+			// Find the index of the last action which starts at or before the time
+			int low = 0;
+			int high = startDates.length - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				if(startDates[mid] <= time) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+
+			List<KeywordAction> alive = new ArrayList<KeywordAction>();
+			for(int i = high; i >= 0 && maxEndDates[i] >= time; --i) {
+				if(actions[i].getEndDate() >= time) {
+					alive.add(actions[i]);
+				}
+			}
+			Collections.reverse(alive);
+			return alive;
+		}
+	}
+}
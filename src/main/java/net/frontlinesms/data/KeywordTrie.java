@@ -0,0 +1,166 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.Keyword;
+
+/**
+ * In-memory index of {@link Keyword}s, used to find the longest keyword matching the start of a
+ * message without loading and checking every keyword in turn.
+ * <p>Matching follows the same rules as {@link Keyword#matches(String)}: the message text is trimmed and
+ * upper-cased, and a keyword matches if the text equals the keyword or starts with the keyword followed
+ * by a space.  Lookups only examine as many characters of the message as the longest keyword indexed.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class KeywordTrie {
+	/** The character which separates a keyword from the rest of the message */
+	private static final char WORD_SEPARATOR = ' ';
+
+//> INSTANCE PROPERTIES
+	/** Root node of the trie.  The blank keyword, if indexed, is held here. */
+	private final Node root = new Node();
+	/** The length of the longest keyword that has been indexed */
+	private int maxKeywordLength;
+	/** The number of keywords currently indexed */
+	private int size;
+
+//> ACCESSORS
+	/**
+	 * Adds a keyword to the index, replacing any keyword with the same text which is already indexed.
+	 * @param keyword
+	 */
+	public synchronized void put(Keyword keyword) {
+		String keywordString = keyword.getKeyword();
+		Node node = root;
+		for (int i = 0; i < keywordString.length(); i++) {
+			node = node.getOrCreateChild(keywordString.charAt(i));
+		}
+		if(node.keyword == null) {
+			++size;
+		}
+		node.keyword = keyword;
+		maxKeywordLength = Math.max(maxKeywordLength, keywordString.length());
+	}
+
+	/**
+	 * Removes a keyword from the index.
+	 * @param keyword
+	 * @return <code>true</code> if the keyword was indexed, <code>false</code> otherwise
+	 */
+	public synchronized boolean remove(Keyword keyword) {
+		return remove(root, keyword.getKeyword(), 0);
+	}
+
+	/**
+	 * Recursively removes a keyword from below the supplied node, pruning any nodes left empty.
+	 * @param node
+	 * @param keywordString
+	 * @param depth the index in <code>keywordString</code> of the character which selects the next child of <code>node</code>
+	 * @return <code>true</code> if the keyword was found and removed
+	 */
+	private boolean remove(Node node, String keywordString, int depth) {
+		if(depth == keywordString.length()) {
+			if(node.keyword == null) {
+				return false;
+			}
+			node.keyword = null;
+			--size;
+			return true;
+		}
+		char c = keywordString.charAt(depth);
+		Node child = node.getChild(c);
+		if(child == null) {
+			return false;
+		}
+		boolean removed = remove(child, keywordString, depth + 1);
+		if(removed && child.isEmpty()) {
+			node.children.remove(c);
+		}
+		return removed;
+	}
+
+	/** @return the blank keyword, or <code>null</code> if it has not been indexed */
+	public synchronized Keyword getBlankKeyword() {
+		return root.keyword;
+	}
+
+	/**
+	 * Gets the longest non-blank keyword which matches the supplied message text.
+	 * @param messageText
+	 * @return the longest matching keyword, or <code>null</code> if no non-blank keyword matches
+	 */
+	public synchronized Keyword getFromMessageText(String messageText) {
+		if(messageText == null || root.isEmpty()) {
+			return null;
+		}
+
+		// Find the bounds of the trimmed text without copying it
+		int start = 0;
+		int end = messageText.length();
+		while(start < end && messageText.charAt(start) <= ' ') ++start;
+		while(end > start && messageText.charAt(end - 1) <= ' ') --end;
+
+		// Only the first maxKeywordLength characters, plus the separator, can be part of a match
+		int prefixEnd = Math.min(end, start + maxKeywordLength + 1);
+		boolean truncated = prefixEnd < end;
+		String prefix = messageText.substring(start, prefixEnd).toUpperCase();
+
+		Keyword longest = null;
+		Node node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			node = node.getChild(prefix.charAt(i));
+			if(node == null) {
+				break;
+			}
+			if(node.keyword != null) {
+				boolean atEnd = i + 1 == prefix.length();
+				if((atEnd && !truncated) || (!atEnd && prefix.charAt(i + 1) == WORD_SEPARATOR)) {
+					longest = node.keyword;
+				}
+			}
+		}
+		return longest;
+	}
+
+	/** @return the number of keywords in this index */
+	public synchronized int size() {
+		return size;
+	}
+
+//> INNER CLASSES
+	/** Node of a {@link KeywordTrie}, representing a single character of a keyword. */
+	private static class Node {
+		/** Child nodes, keyed by the next character of the keyword.  Created lazily. */
+		private Map<Character, Node> children;
+		/** The keyword which ends at this node, or <code>null</code> if none does */
+		private Keyword keyword;
+
+		/** @return the child for the supplied character, or <code>null</code> if there is none */
+		Node getChild(char c) {
+			return children == null ? null : children.get(c);
+		}
+
+		/** @return the child for the supplied character, creating it if necessary */
+		Node getOrCreateChild(char c) {
+			if(children == null) {
+				children = new HashMap<Character, Node>();
+			}
+			Node child = children.get(c);
+			if(child == null) {
+				child = new Node();
+				children.put(c, child);
+			}
+			return child;
+		}
+
+		/** @return <code>true</code> if this node has no keyword and no children */
+		boolean isEmpty() {
+			return keyword == null && (children == null || children.isEmpty());
+		}
+	}
+}
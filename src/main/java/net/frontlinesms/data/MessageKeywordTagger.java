@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import net.frontlinesms.AppProperties;
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.Keyword;
+import net.frontlinesms.data.repository.MessageDao;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Background job which tags {@link FrontlineMessage}s that have no {@link Keyword} set.  This is needed for
+ * messages saved before keyword tagging was introduced, or saved when no keyword matched them.  The ID of the last
+ * message examined is kept in {@link AppProperties}, so that each message is only examined once.
+ * <p>If it is created for a new keyword, the job instead re-tags messages which were tagged with the blank
+ * keyword or a shorter keyword before the new keyword existed.</p>
+ * <p>Messages are processed in small batches so that the database is not monopolised while the job runs.  The job
+ * stops after the current batch if its thread is interrupted.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class MessageKeywordTagger implements Runnable {
+	/** Number of messages examined in each batch */
+	private static final int BATCH_SIZE = 500;
+	/** Time, in millis, to pause between batches */
+	private static final long PAUSE_BETWEEN_BATCHES = 50;
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(MessageKeywordTagger.class);
+
+//> INSTANCE PROPERTIES
+	/** DAO used to tag the messages */
+	private final MessageDao messageDao;
+	/** The new keyword to re-tag messages with, or <code>null</code> if untagged messages should be tagged */
+	private final Keyword newKeyword;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link MessageKeywordTagger}.
+	 * @param messageDao
+	 */
+	public MessageKeywordTagger(MessageDao messageDao) {
+		this(messageDao, null);
+	}
+	
+	/**
+	 * Create a new {@link MessageKeywordTagger}.
+	 * @param messageDao
+	 * @param newKeyword value for {@link #newKeyword}
+	 */
+	public MessageKeywordTagger(MessageDao messageDao, Keyword newKeyword) {
+		this.messageDao = messageDao;
+		this.newKeyword = newKeyword;
+	}
+
+//> RUNNABLE METHODS
+	/** @see Runnable#run() */
+	public void run() {
+		LOG.trace("ENTER");
+		long lastId = newKeyword == null ? AppProperties.getInstance().getMessageKeywordTaggedId() : 0;
+		int batchCount = 0;
+		try {
+			while(!Thread.currentThread().isInterrupted() && (lastId = tagBatch(lastId)) >= 0) {
+				++batchCount;
+				if(newKeyword == null) {
+					// Messages up to here need not be examined again
+					AppProperties appProperties = AppProperties.getInstance();
+					appProperties.setMessageKeywordTaggedId(lastId);
+					appProperties.saveToDisk();
+				}
+				Thread.sleep(PAUSE_BETWEEN_BATCHES);
+			}
+			LOG.debug("Message keyword tagging complete after " + batchCount + " batches.");
+		} catch(InterruptedException ex) {
+			// The job will be resumed next time services are started
+			LOG.debug("Message keyword tagging stopped after " + batchCount + " batches.");
+		} catch(Throwable t) {
+			// The job will be run again next time services are started
+			LOG.warn("Message keyword tagging failed.", t);
+		}
+		LOG.trace("EXIT");
+	}
+
+	/**
+	 * Tags the next batch of messages.
+	 * @param lastId the ID of the last message examined
+	 * @return the ID of the last message examined in this batch, or <code>-1</code> if there were none left
+	 */
+	private long tagBatch(long lastId) {
+		if(newKeyword == null) {
+			return messageDao.tagUntaggedMessages(lastId, BATCH_SIZE);
+		} else {
+			return messageDao.retagMessagesForKeyword(newKeyword, lastId, BATCH_SIZE);
+		}
+	}
+}
@@ -21,6 +21,8 @@ package net.frontlinesms.data.domain;
 
 import javax.persistence.*;
 
+import org.hibernate.annotations.Index;
+
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.EntityField;
 
@@ -41,6 +43,8 @@ public class Contact {
 	private static final String FIELD_PHONE_NUMBER = "phoneNumber";
 	/** Column name for {@link #emailAddress} */
 	private static final String FIELD_EMAIL_ADDRESS = "emailAddress";
+	/** Name of the database index on {@link #name}, used when sorting and filtering contacts by name */
+	private static final String INDEX_NAME = "contact_name_index";
 	
 //> ENTITY FIELDS
 	/** Details of the fields that this class has. */
@@ -70,7 +74,7 @@ public class Contact {
 	private long id;
 	
 	/** Name of this contact */
-	@Column(nullable=true, name=FIELD_NAME)
+	@Column(nullable=true, name=FIELD_NAME) @Index(name=INDEX_NAME)
 	private String name;
 	
 	/** Phone number of this contact.  It should be unique within the system, but may be changed. */
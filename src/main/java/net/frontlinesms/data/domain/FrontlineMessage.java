@@ -24,10 +24,11 @@ import java.util.Arrays;
 import javax.persistence.*;
 
 import org.hibernate.annotations.DiscriminatorFormula;
+import org.hibernate.annotations.Index;
 import org.smslib.util.HexUtils;
-import org.smslib.util.TpduUtils;
 
 import net.frontlinesms.data.EntityField;
+import net.frontlinesms.messaging.sms.SmsSegmenter;
 
 /**
  * Object representing an SMS message in our data structure.
@@ -35,7 +36,11 @@ import net.frontlinesms.data.EntityField;
  */
 @Entity
 // This class is mapped to the database table called "message", as this class used to be called "Message"
-@Table(name="message")
+@Table(name=FrontlineMessage.TABLE_NAME)
+@org.hibernate.annotations.Table(appliesTo=FrontlineMessage.TABLE_NAME, indexes={
+		@Index(name=FrontlineMessage.INDEX_TYPE_DATE, columnNames={"type", "date"}),
+		@Index(name=FrontlineMessage.INDEX_RECIPIENT_SMSC_REFERENCE, columnNames={"recipientMsisdn", "smscReference"})
+})
 @DiscriminatorFormula("(CASE WHEN dtype IS NULL THEN 'FrontlineMessage' ELSE dtype END)")
 public class FrontlineMessage {
 	/** Discriminator column for this class.  This was only implemented when {@link FrontlineMultimediaMessage} was
@@ -43,9 +48,21 @@ public class FrontlineMessage {
 	 * {@link DiscriminatorFormula} annotation on this class. */
 	private String dtype = this.getClass().getSimpleName();
 	
-//> DATABASE COLUMN NAMES
+//> DATABASE TABLE, COLUMN AND INDEX NAMES
+	/** Database table name for this class.  N.B. This cannot be private as it is referenced in the class annotations. */
+	static final String TABLE_NAME = "message";
 	/** Database column name for field {@link #textMessageContent} */
 	private static final String COLUMN_TEXT_CONTENT = "textContent";
+	/** Name of the database index on fields {@link #type} and {@link #date}, used when listing messages.
+	 * N.B. This cannot be private as it is referenced in the class annotations. */
+	static final String INDEX_TYPE_DATE = "message_type_date_index";
+	/** Name of the database index on fields {@link #recipientMsisdn} and {@link #smscReference}, used when matching
+	 * delivery reports and filtering by recipient.  N.B. This cannot be private as it is referenced in the class annotations. */
+	static final String INDEX_RECIPIENT_SMSC_REFERENCE = "message_recipient_smscreference_index";
+	/** Name of the database index on field {@link #senderMsisdn} */
+	private static final String INDEX_SENDER = "message_sender_index";
+	/** Name of the database index on the foreign key column for field {@link #keyword} */
+	private static final String INDEX_KEYWORD = "message_keyword_index";
 	
 //> CONSTANTS
 	public enum Type {
@@ -85,19 +102,27 @@ public class FrontlineMessage {
 		
 	}
 	
+	/** Priority with which an outgoing message is sent. */
+	public enum Priority {
+		/** Interactive messages, e.g. auto-replies and messages sent manually, which should be sent as soon as possible */
+		HIGH,
+		/** Messages sent to many recipients at once, e.g. group forwards, which may wait behind {@link #HIGH} messages */
+		BULK;
+	}
+	
 	/** Number of times a failed message send is retried before status is set to STATUS_FAILED */
 	public static final int MAX_RETRIES = 2;
 	
 	/** The maximum number of parts in an SMS message.  TODO rename this SMS_PART_LIMIT */
-	public static final int SMS_LIMIT = 255;
-	/** Maximum number of characters that can be fit into a single 7-bit GSM SMS message. TODO this value should probably be fetched from {@link TpduUtils}. */
+	public static final int SMS_LIMIT = SmsSegmenter.MAX_PARTS;
+	/** Maximum number of characters that can be fit into a single 7-bit GSM SMS message. */
 	public static final int SMS_LENGTH_LIMIT = 160;
-	/** Maximum number of characters that can be fit in one part of a multipart 7-bit GSM SMS message.  TODO this number is incorrect, I suspect.  The value should probably be fetched from {@link TpduUtils}. */
-	public static final int SMS_MULTIPART_LENGTH_LIMIT = 135;
-	/** Maximum number of characters that can be fit into a single UCS-2 SMS message. TODO this value should probably be fetched from {@link TpduUtils}. */
+	/** Maximum number of characters that can be fit in one part of a multipart 7-bit GSM SMS message.  Characters from the extension table count twice; use {@link SmsSegmenter} for exact part counts. */
+	public static final int SMS_MULTIPART_LENGTH_LIMIT = 153;
+	/** Maximum number of characters that can be fit into a single UCS-2 SMS message. */
 	public static final int SMS_LENGTH_LIMIT_UCS2 = 70;
-	/** Maximum number of characters that can be fit in one part of a multipart UCS-2 SMS message.  TODO this number is incorrect, I suspect.  The value should probably be fetched from {@link TpduUtils}. */
-	public static final int SMS_MULTIPART_LENGTH_LIMIT_UCS2 = 60;
+	/** Maximum number of characters that can be fit in one part of a multipart UCS-2 SMS message.  Use {@link SmsSegmenter} for exact part counts. */
+	public static final int SMS_MULTIPART_LENGTH_LIMIT_UCS2 = 67;
 	/** Maximum number of characters that can be fit into a 255-part GSM 7bit message */
 	public static final int SMS_MAX_CHARACTERS = 39015;
 	
@@ -112,7 +137,11 @@ public class FrontlineMessage {
 		SENDER_MSISDN("senderMsisdn"),
 		RECIPIENT_MSISDN("recipientMsisdn"),
 		MESSAGE_CONTENT("textMessageContent"),
-		SMSC_REFERENCE("smscReference");
+		SMSC_REFERENCE("smscReference"),
+		/** Refers to {@link FrontlineMessage#keyword} */
+		KEYWORD("keyword"),
+		/** Refers to {@link FrontlineMessage#priority} */
+		PRIORITY("priority");
 		/** name of a field */
 		private final String fieldName;
 		/**
@@ -136,12 +165,18 @@ public class FrontlineMessage {
 	private int smsPartsCount;
 	private long date;
 	private Integer smscReference;
+	@Index(name=INDEX_SENDER)
 	private String senderMsisdn;
 	/** Text content of this message. */
 	@Column(name=COLUMN_TEXT_CONTENT, length=SMS_MAX_CHARACTERS)
 	private String textMessageContent;
 	/** Binary content of this message. */
 	private byte[] binaryMessageContent;
+	/** The {@link Keyword} this message matched when it was saved, or <code>null</code> if it has not been matched to one. */
+	@ManyToOne(optional=true) @Index(name=INDEX_KEYWORD)
+	private Keyword keyword;
+	/** The priority with which this message should be sent.  Messages saved before this was introduced will have this set <code>null</code>. */
+	private Priority priority = Priority.HIGH;
 	
 //> CONSTRUCTOR
 	/** Default constructor empty for hibernate */
@@ -237,6 +272,14 @@ public class FrontlineMessage {
 		return this.textMessageContent;
 	}
 	
+	/**
+	 * Sets the text content of this message.
+	 * @param textContent new value for {@link #textMessageContent}
+	 */
+	public void setTextContent(String textContent) {
+		this.textMessageContent = textContent;
+	}
+	
 	/**
 	 * Gets the binary content of this message.
 	 * @return {@link #binaryMessageContent}
@@ -246,11 +289,15 @@ public class FrontlineMessage {
 	}
 	
 	/**
-	 * Gets the number of SMS sent.
-	 * @return the number of parts this message was sent as
+	 * Gets the number of SMS sent.  If this has not been recorded, it is calculated from the message content.
+	 * @return the number of parts this message was, or will be, sent as
 	 */
 	public int getNumberOfSMS() {
-		return this.smsPartsCount;
+		if(this.smsPartsCount > 0) {
+			return this.smsPartsCount;
+		} else {
+			return SmsSegmenter.DEFAULT.segment(this).getPartCount();
+		}
 	}
 	
 	/**
@@ -287,6 +334,24 @@ public class FrontlineMessage {
 	public void setRetriesRemaining(int retries) {
 		this.retriesRemaining = retries;
 	}
+	
+	/** @return {@link #keyword} */
+	public Keyword getKeyword() {
+		return this.keyword;
+	}
+	/** @param keyword new value for {@link #keyword} */
+	public void setKeyword(Keyword keyword) {
+		this.keyword = keyword;
+	}
+	
+	/** @return the priority with which this message should be sent */
+	public Priority getPriority() {
+		return this.priority == null ? Priority.HIGH : this.priority;
+	}
+	/** @param priority new value for {@link #priority} */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
 
 	/**
 	 * Check whether the content of this message is binary or text
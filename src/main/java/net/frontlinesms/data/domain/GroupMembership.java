@@ -12,17 +12,23 @@ import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Index;
+
 /**
  * @author Alex
  */
 @Entity
 @Table(uniqueConstraints=@UniqueConstraint(columnNames={"contact_contact_id", "group_path"}))
 public class GroupMembership {
+	/** Name of the database index on the foreign key column for {@link #group}.  The unique constraint's
+	 * index cannot be used for this, as the group is not its first column. */
+	private static final String INDEX_GROUP = "groupmembership_group_index";
+	
 	@SuppressWarnings("unused")
 	@Id @GeneratedValue(strategy=GenerationType.IDENTITY)
 	@Column(name="id", nullable=false, unique=true, updatable=false)
 	private long id;
-	@ManyToOne(optional=false)
+	@ManyToOne(optional=false) @Index(name=INDEX_GROUP)
 	private Group group;
 	@ManyToOne(optional=false)
 	private Contact contact;
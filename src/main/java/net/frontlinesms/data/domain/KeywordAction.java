@@ -123,7 +123,7 @@ public class KeywordAction {
 	
 //> INSTANCE PROPERTIES
 	/** Unique id for this entity.  This is for hibernate usage. */
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY) @Column(unique=true,nullable=false,updatable=false) @SuppressWarnings("unused")
+	@Id @GeneratedValue(strategy=GenerationType.IDENTITY) @Column(unique=true,nullable=false,updatable=false)
 	private long id;
 	private Type type;
 	/** Keyword which this action is attached to */
@@ -136,6 +136,8 @@ public class KeywordAction {
 	@Column(length=FrontlineMessage.SMS_MAX_CHARACTERS)
 	private String commandString;
 	private int commandInteger;
+	/** The number of times this action has been executed.  This is only changed in the database by {@link KeywordActionDao#incrementCounter(KeywordAction)}. */
+	@Column(updatable=false)
 	private int counter;
 	private long startDate;
 	private long endDate;
@@ -299,21 +301,35 @@ public class KeywordAction {
 		this.externalCommand = commandLine;
 	}
 	
+	/** @return the unique id of this action, or <code>0</code> if it has not been saved */
+	public long getId() {
+		return this.id;
+	}
+	
 	/** @return how many times this action was executed */
-	public int getCounter() {
+	public synchronized int getCounter() {
 		return this.counter;
 	}
 	
 	/** 
 	 * Increments how many times this action was executed. 
 	 * This method should ONLY be called from the {@link KeywordActionDao}, due to consistency
-	 * issues.  Avoid calling {@link KeywordActionDao#update(KeywordAction)} after incrementing
-	 * for related reasons.
+	 * issues.  Actions are shared between threads, so the counter is only changed while synchronized on this.
 	 */
-	public void incrementCounter() {
+	public synchronized void incrementCounter() {
 		++counter;
 	}
 	
+	/**
+	 * Adds executions of this action which have not yet been written to the database.
+	 * This method should ONLY be called from the {@link KeywordActionDao}, due to consistency
+	 * issues.
+	 * @param hits the number of executions to add to {@link #counter}
+	 */
+	public synchronized void addToCounter(int hits) {
+		this.counter += hits;
+	}
+	
 	/** @return the group related to this keyword action */
 	public Group getGroup() {
 		assert(hasGroup()) : "Cannot get group from action of type: " + type;
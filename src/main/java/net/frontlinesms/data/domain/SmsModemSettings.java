@@ -12,6 +12,7 @@ import javax.persistence.*;
 public class SmsModemSettings {
 	/** Field names */
 	public static final String FIELD_SERIAL = "serial";
+	public static final String FIELD_PORT = "port";
 	
 //> INSTANCE PROPERTIES
 	/** Unique id for this entity.  This is for hibernate usage. */
@@ -26,6 +27,17 @@ public class SmsModemSettings {
 	private boolean useForReceiving;
 	private boolean deleteMessagesAfterReceiving;
 	private boolean useDeliveryReports;
+	/** The number of messages the device sends in each batch, as learned while it was last connected, or <code>null</code> if none has been learned */
+	private Integer sendBatchSize;
+	/** The port the device was last connected to, or <code>null</code> if it is not known */
+	@Column(name=FIELD_PORT)
+	private String port;
+	/** The baud rate the device was last connected at, or <code>null</code> if it is not known */
+	private Integer baudRate;
+	/** The name of the CAT handler last used with the device, or <code>null</code> if it is not known */
+	private String catHandler;
+	/** The IMSI of the SIM card which was last in the device, or <code>null</code> if it is not known */
+	private String imsi;
 	
 //> CONSTRUCTORS
 	/** Empty constructor for hibernate */
@@ -94,6 +106,48 @@ public class SmsModemSettings {
 	public void setUseDeliveryReports(boolean useDeliveryReports) {
 		this.useDeliveryReports = useDeliveryReports;
 	}
+	/** @return {@link #sendBatchSize}, or 0 if none has been learned */
+	public int getSendBatchSize() {
+		return sendBatchSize == null ? 0 : sendBatchSize;
+	}
+	/** @param sendBatchSize new value for {@link #sendBatchSize} */
+	public void setSendBatchSize(int sendBatchSize) {
+		this.sendBatchSize = sendBatchSize;
+	}
+	/** @return {@link #port} */
+	public String getPort() {
+		return port;
+	}
+	/** @return {@link #baudRate}, or 0 if it is not known */
+	public int getBaudRate() {
+		return baudRate == null ? 0 : baudRate;
+	}
+	/** @return {@link #catHandler} */
+	public String getCatHandler() {
+		return catHandler;
+	}
+	/** @return {@link #imsi} */
+	public String getImsi() {
+		return imsi;
+	}
+	/**
+	 * Sets the details of the device's last successful connection, so that it can be connected to again without
+	 * detecting its settings.
+	 * @param port new value for {@link #port}
+	 * @param baudRate new value for {@link #baudRate}
+	 * @param catHandler new value for {@link #catHandler}
+	 * @param imsi new value for {@link #imsi}
+	 */
+	public void setConnectionDetails(String port, int baudRate, String catHandler, String imsi) {
+		this.port = port;
+		this.baudRate = baudRate;
+		this.catHandler = catHandler;
+		this.imsi = imsi;
+	}
+	/** Clears {@link #port}, e.g. when another device has been connected to it. */
+	public void clearPort() {
+		this.port = null;
+	}
 
 //> GENERATED METHODS
 	/** @see java.lang.Object#hashCode() */
@@ -19,7 +19,9 @@
  */
 package net.frontlinesms.data.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.Order;
@@ -58,6 +60,13 @@ public interface ContactDao {
 	 */
 	public Contact getFromMsisdn(String phoneNumber);
 	
+	/**
+	 * Retrieves the contacts with any of the specified msisdns.
+	 * @param phoneNumbers phone numbers
+	 * @return map from phone number to contact, for each of the supplied phone numbers which a contact has
+	 */
+	public Map<String, Contact> getFromMsisdns(Collection<String> phoneNumbers);
+	
 	/**
 	 * Retrieves the contact with the specified name, or returns NULL if none exists.
 	 * @param name the name of a contact
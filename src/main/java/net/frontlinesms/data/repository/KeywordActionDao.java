@@ -61,6 +61,14 @@ public interface KeywordActionDao {
 	 */
 	public List<KeywordAction> getActions(Keyword keyword);
 	
+	/**
+	 * Gets the {@link KeywordAction}s for the supplied keyword which are alive at a particular time.
+	 * @param keyword
+	 * @param time the time that the actions were triggered
+	 * @return all {@link KeywordAction}s attached to the supplied {@link Keyword} for which {@link KeywordAction#isAlive(long)} is <code>true</code>
+	 */
+	public List<KeywordAction> getAliveActions(Keyword keyword, long time);
+	
 	/**
 	 * Gets a count of all {@link KeywordAction}s.
 	 * @return Total number of {@link KeywordAction}s.
@@ -64,7 +64,8 @@ public interface KeywordDao {
 	public int getTotalKeywordCount();
 
 	/**
-	 * Deletes a keyword from the system.
+	 * Deletes a keyword from the system.  Messages tagged with the keyword are re-tagged with the longest keyword
+	 * that it extends, or left untagged if there is none.
 	 * @param keyword The keyword to be deleted
 	 */
 	public void deleteKeyword(Keyword keyword);
@@ -227,9 +227,37 @@ public interface MessageDao {
 	 */
 	public void saveMessage(FrontlineMessage message);
 
+	/**
+	 * Save several messages to the data source in a single transaction.  Either all of the messages
+	 * will be saved, or none of them will.
+	 * @param messages the messages to be saved
+	 */
+	public void saveMessages(Collection<FrontlineMessage> messages);
+
 	/**
 	 * Update the supplied message in the data source.
 	 * @param message the message to be updated
 	 */
 	public void updateMessage(FrontlineMessage message);
+
+	/**
+	 * Tags a batch of messages which have not yet been tagged with the {@link Keyword} that their text matches.
+	 * Messages which do not match any keyword are left untagged.  Call this repeatedly, passing in the
+	 * value returned from the previous call, until it returns <code>-1</code>.
+	 * @param afterId only messages with an ID greater than this will be tagged
+	 * @param batchSize the maximum number of messages to examine
+	 * @return the ID of the last message examined, or <code>-1</code> if there were no messages left to examine
+	 */
+	public long tagUntaggedMessages(long afterId, int batchSize);
+
+	/**
+	 * Re-tags a batch of messages with a newly-created {@link Keyword}.  Untagged messages, and messages tagged with
+	 * the blank keyword or with a shorter keyword that the new keyword starts with, may now match it.  Call
+	 * this repeatedly, passing in the value returned from the previous call, until it returns <code>-1</code>.
+	 * @param keyword the new keyword
+	 * @param afterId only messages with an ID greater than this will be re-tagged
+	 * @param batchSize the maximum number of messages to examine
+	 * @return the ID of the last message examined, or <code>-1</code> if there were no messages left to examine
+	 */
+	public long retagMessagesForKeyword(Keyword keyword, long afterId, int batchSize);
 }
@@ -41,6 +41,13 @@ public interface SmsModemSettingsDao {
 	 * @return settings for a particular device, or <code>null</code> if none are available
 	 */
 	public SmsModemSettings getSmsModemSettings(String serial);
+	
+	/**
+	 * Gets the {@link SmsModemSettings} for devices which were last connected to a particular port
+	 * @param port name of the port
+	 * @return settings for the devices last connected to the port
+	 */
+	public List<SmsModemSettings> getSmsModemSettingsForPort(String port);
 
 	/**
 	 * Updates changes to {@link SmsModemSettings}
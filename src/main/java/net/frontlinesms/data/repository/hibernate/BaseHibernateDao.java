@@ -3,6 +3,8 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import net.frontlinesms.data.DuplicateKeyException;
@@ -16,7 +18,10 @@ import net.frontlinesms.events.EventBus;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
 import org.hibernate.NonUniqueObjectException;
+import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
@@ -25,13 +30,20 @@ import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.transform.DistinctRootEntityResultTransformer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author Alex
  * @param <E> Entity that this dao is for
  */
 public abstract class BaseHibernateDao<E> extends HibernateDaoSupport {
+	/** Number of entities saved by {@link #saveAllWithoutDuplicateHandling(Collection)} between flushes of the session */
+	private static final int SAVE_FLUSH_INTERVAL = 50;
+	
 	/** Logging object */
 	final Log log = LogFactory.getLog(getClass());
 	
@@ -70,6 +82,34 @@ public abstract class BaseHibernateDao<E> extends HibernateDaoSupport {
 		eventBus.notifyObservers(new EntitySavedNotification<E>(entity));
 	}
 	
+	/**
+	 * Saves several entities in a single Hibernate session, without checking for exceptions thrown for
+	 * duplicate keys or unique columns.  The session is flushed after every {@link #SAVE_FLUSH_INTERVAL}
+	 * entities, so that the JDBC driver may batch the statements and the session does not grow too large.
+	 * If this is called within a transaction, all entities will be saved or none will.
+	 * @param entities entities to save
+	 */
+	protected void saveAllWithoutDuplicateHandling(final Collection<? extends E> entities) {
+		log.trace("Saving " + entities.size() + " entities.");
+		this.getHibernateTemplate().execute(new HibernateCallback() {
+			public Object doInHibernate(Session session) throws HibernateException {
+				int count = 0;
+				for(E entity : entities) {
+					session.save(entity);
+					if(++count % SAVE_FLUSH_INTERVAL == 0) {
+						session.flush();
+					}
+				}
+				session.flush();
+				return null;
+			}
+		});
+		log.trace("Entities saved.");
+		for(E entity : entities) {
+			eventBus.notifyObservers(new EntitySavedNotification<E>(entity));
+		}
+	}
+	
 	/**
 	 * Saves an entity .
 	 * @param entity entity to save 
@@ -169,16 +209,48 @@ public abstract class BaseHibernateDao<E> extends HibernateDaoSupport {
 	}
 	
 	/**
-	 * Gets a list of E matching the supplied HQL query.
+	 * Gets a paged list of E matching the supplied HQL query.  Paging is done by the database.
 	 * @param hqlQuery HQL query
-	 * @param startIndex
-	 * @param limit
+	 * @param startIndex index of the first result to fetch
+	 * @param limit maximum number of results to fetch
 	 * @param values values to insert into the HQL query
 	 * @return a list of Es matching the supplied query
 	 */
 	protected List<E> getList(String hqlQuery, int startIndex, int limit, Object... values) {
-		List<E> list = getList(hqlQuery, values);
-		return list.subList(startIndex, Math.min(list.size(), startIndex + limit));
+		return getPagedList(this.clazz, hqlQuery, startIndex, limit, values);
+	}
+	
+	/**
+	 * Gets a paged list of results of the supplied HQL query.  The query is run with its first result and
+	 * maximum result count set, so only the requested page is fetched from the database.
+	 * @param <T> the type of result returned by the query
+	 * @param resultClass the type of result returned by the query
+	 * @param hqlQuery HQL query
+	 * @param startIndex index of the first result to fetch
+	 * @param limit maximum number of results to fetch
+	 * @param values values to insert into the HQL query
+	 * @return a list of results of the query
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> List<T> getPagedList(Class<T> resultClass, final String hqlQuery, final int startIndex, final int limit, final Object... values) {
+		if(limit <= 0) {
+			// Hibernate would treat this as "no limit"
+			return new ArrayList<T>(0);
+		}
+		return this.getHibernateTemplate().executeFind(new HibernateCallback() {
+			public Object doInHibernate(Session session) throws HibernateException {
+				Query query = session.createQuery(hqlQuery);
+				getHibernateTemplate().prepareQuery(query);
+				if(values != null) {
+					for (int i = 0; i < values.length; i++) {
+						query.setParameter(i, values[i]);
+					}
+				}
+				query.setFirstResult(startIndex);
+				query.setMaxResults(limit);
+				return query.list();
+			}
+		});
 	}
 	
 	/**
@@ -270,6 +342,25 @@ public abstract class BaseHibernateDao<E> extends HibernateDaoSupport {
 		return DataAccessUtils.intResult(this.getHibernateTemplate().findByCriteria(criteria));
 	}
 
+	/**
+	 * Registers a callback to be run if the current transaction is rolled back.  This allows in-memory
+	 * state which has been updated along with the database to be discarded if the database changes are.
+	 * If there is no transaction in progress, the callback will never be run.
+	 * @param callback
+	 */
+	protected void runOnRollback(final Runnable callback) {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					if(status != TransactionSynchronization.STATUS_COMMITTED) {
+						callback.run();
+					}
+				}
+			});
+		}
+	}
+
 	/**
 	 * Gets a count of the results for the supplied HQL query string.  The HQL query should
 	 * be a COUNT statement.
@@ -1,12 +1,25 @@
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import net.frontlinesms.data.ContactCache;
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.Contact.Field;
+import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
+import net.frontlinesms.data.events.EntityDeletedNotification;
+import net.frontlinesms.data.events.EntitySavedNotification;
+import net.frontlinesms.data.events.EntityUpdatedNotification;
 import net.frontlinesms.data.repository.ContactDao;
+import net.frontlinesms.events.EventBus;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
 
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
@@ -14,24 +27,64 @@ import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Hibernate implementation of {@link ContactDao}.
+ * <p>Lookups by phone number are cached in a {@link ContactCache}, which is kept up to date from the entity
+ * notifications published on the {@link EventBus}.</p>
  * @author Alex Anderson <alex@frontlinesms.com>
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
-public class HibernateContactDao extends BaseHibernateDao<Contact> implements ContactDao {
+public class HibernateContactDao extends BaseHibernateDao<Contact> implements ContactDao, EventObserver {
+	/** Maximum number of phone numbers included in a single query by {@link #getFromMsisdns(Collection)} */
+	private static final int MSISDN_QUERY_LIMIT = 500;
+	
+	/** Cache of contacts by phone number */
+	private ContactCache contactCache = new ContactCache();
+	/** Set <code>true</code> once this has been registered with the {@link EventBus} to keep {@link #contactCache} up to date */
+	private boolean registeredForNotifications;
+	
 	/** Create a new instance of this DAO. */
 		
 	public HibernateContactDao() {
 		super(Contact.class);
 	}
+	
+	/**
+	 * Sets the maximum number of phone numbers held in {@link #contactCache}.
+	 * @param contactCacheSize
+	 */
+	public void setContactCacheSize(int contactCacheSize) {
+		this.contactCache = new ContactCache(contactCacheSize);
+	}
+	
+	/** @return the number of phone number lookups which have been answered from {@link #contactCache} */
+	public long getContactCacheHitCount() {
+		return this.contactCache.getHitCount();
+	}
+	
+	/** @return the number of phone number lookups which have not been answered from {@link #contactCache} */
+	public long getContactCacheMissCount() {
+		return this.contactCache.getMissCount();
+	}
 
 	/** @see ContactDao#saveContact(Contact) */
 	public void saveContact(Contact contact) throws DuplicateKeyException {
-		super.save(contact);
+		try {
+			super.save(contact);
+		} catch(DuplicateKeyException ex) {
+			// The contact may have been changed without being saved
+			this.contactCache.clear();
+			throw ex;
+		}
 	}
 	
 	/** @see ContactDao#updateContact(Contact) */
 	public void updateContact(Contact contact) throws DuplicateKeyException {
-		super.update(contact);
+		try {
+			super.update(contact);
+		} catch(DuplicateKeyException ex) {
+			// The contact may have been changed without being saved
+			this.contactCache.clear();
+			throw ex;
+		}
 	}
 
 	/** @see ContactDao#deleteContact(Contact) */
@@ -90,9 +143,97 @@ public class HibernateContactDao extends BaseHibernateDao<Contact> implements Co
 
 	/** @see ContactDao#getFromMsisdn(String) */
 	public Contact getFromMsisdn(String phoneNumber) {
+		ContactCache cache = getContactCache();
+		Map<String, Contact> cached = new HashMap<String, Contact>(2);
+		if(cache.get(phoneNumber, cached)) {
+			return cached.get(phoneNumber);
+		}
+		
+		long cacheVersion = cache.getVersion();
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(Field.PHONE_NUMBER.getFieldName(), phoneNumber));
-		return super.getUnique(criteria);
+		Contact contact = super.getUnique(criteria);
+		cache.put(phoneNumber, contact, cacheVersion);
+		return contact;
+	}
+
+	/** @see ContactDao#getFromMsisdns(Collection) */
+	public Map<String, Contact> getFromMsisdns(Collection<String> phoneNumbers) {
+		ContactCache cache = getContactCache();
+		Map<String, Contact> contacts = new HashMap<String, Contact>();
+		List<String> numbers = new ArrayList<String>();
+		for(String phoneNumber : phoneNumbers) {
+			if(!cache.get(phoneNumber, contacts)) {
+				numbers.add(phoneNumber);
+			}
+		}
+		
+		// Query in chunks to keep the IN clause to a size all databases will accept
+		for (int i = 0; i < numbers.size(); i += MSISDN_QUERY_LIMIT) {
+			long cacheVersion = cache.getVersion();
+			List<String> chunk = numbers.subList(i, Math.min(numbers.size(), i + MSISDN_QUERY_LIMIT));
+			DetachedCriteria criteria = super.getCriterion();
+			criteria.add(Restrictions.in(Field.PHONE_NUMBER.getFieldName(), chunk));
+			Map<String, Contact> found = new HashMap<String, Contact>();
+			for(Contact contact : super.getList(criteria)) {
+				found.put(contact.getPhoneNumber(), contact);
+			}
+			for(String phoneNumber : chunk) {
+				cache.put(phoneNumber, found.get(phoneNumber), cacheVersion);
+			}
+			contacts.putAll(found);
+		}
+		return contacts;
+	}
+	
+	/**
+	 * Gets {@link #contactCache}, making sure that this is registered to keep it up to date.
+	 * @return the cache of contacts by phone number
+	 */
+	private synchronized ContactCache getContactCache() {
+		if(!this.registeredForNotifications) {
+			EventBus eventBus = super.getEventBus();
+			if(eventBus != null) {
+				eventBus.registerObserver(this);
+				this.registeredForNotifications = true;
+			}
+		}
+		return this.contactCache;
+	}
+	
+	/**
+	 * Keeps {@link #contactCache} up to date with contacts saved, updated and deleted in the database.  The cache
+	 * is cleared when a group is deleted, as {@link HibernateGroupDao#deleteGroup(Group, boolean)} may delete its
+	 * contacts without notification.
+	 * @see EventObserver#notify(FrontlineEventNotification)
+	 */
+	public void notify(FrontlineEventNotification notification) {
+		if(!(notification instanceof DatabaseEntityNotification<?>)) return;
+		Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
+		if(entity instanceof Group && notification instanceof EntityDeletedNotification<?>) {
+			// Contacts are deleted in bulk with their group, so the deleted contacts are not known
+			this.contactCache.clear();
+			return;
+		}
+		if(!(entity instanceof Contact)) return;
+		
+		Contact contact = (Contact) entity;
+		if(notification instanceof EntitySavedNotification<?>
+				|| notification instanceof EntityUpdatedNotification<?>) {
+			this.contactCache.contactChanged(contact);
+		} else if(notification instanceof EntityDeletedNotification<?>) {
+			this.contactCache.contactDeleted(contact);
+		} else {
+			return;
+		}
+		
+		// If the change is rolled back, the cache will no longer match the database
+		final ContactCache cache = this.contactCache;
+		super.runOnRollback(new Runnable() {
+			public void run() {
+				cache.clear();
+			}
+		});
 	}
 
 	/** @see ContactDao#getPageNumber(Contact, int) */
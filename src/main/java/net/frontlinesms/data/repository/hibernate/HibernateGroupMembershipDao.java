@@ -3,6 +3,7 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.hibernate.criterion.DetachedCriteria;
@@ -84,39 +85,40 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 		}
 	}
 
-	/** @see GroupMembershipDao#getFilteredMembers(Group, String) */
+	/** @see GroupMembershipDao#getFilteredMembers(Group, String, int, int) */
 	public List<Contact> getFilteredMembers(final Group group, String contactFilterString, int startIndex, int limit) {
-		// TODO this is quite an ugly way of doing limits
-		List<Contact> filteredMembers = getFilteredMembers(group, contactFilterString);
-		int toIndex = Math.min(filteredMembers.size(), startIndex + limit);
-		return filteredMembers.subList(startIndex, toIndex);
+		PartialQuery<Contact> q = createFilteredMembersQuery(group, contactFilterString, null, null);
+		return super.getPagedList(Contact.class, q.getQueryString(), startIndex, limit, q.getInsertValues());
 	}
 	/** @see GroupMembershipDao#getFilteredMembers(Group, String) */
 	public List<Contact> getFilteredMembers(final Group group, String contactFilterString) {
-		contactFilterString = getMemberFilterLikeString(contactFilterString);
-		if(group.isRoot()) {
-			String queryString = "SELECT DISTINCT c FROM Contact AS c WHERE LOWER(c.name) LIKE LOWER(?) OR LOWER(c.phoneNumber) LIKE LOWER(?)";
-			return getList(Contact.class, queryString, contactFilterString, contactFilterString);
-		} else {
-			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE " +
-					"(mem.group=? OR mem.group.path LIKE ?)" +
-					" AND (LOWER(mem.contact.name) LIKE LOWER(?) OR LOWER(mem.contact.phoneNumber) LIKE LOWER(?))";
-			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
-			return getList(Contact.class, queryString, group, childPath, contactFilterString, contactFilterString);
-		}
+		PartialQuery<Contact> q = createFilteredMembersQuery(group, contactFilterString, null, null);
+		return getList(Contact.class, q.getQueryString(), q.getInsertValues());
 	}
 	
-	/** @see GroupMembershipDao#getFilteredMembersSorted(Group, String) */
+	/** @see GroupMembershipDao#getFilteredMembersSorted(Group, String, Field, Order, int, int) */
 	public List<Contact> getFilteredMembersSorted(final Group group, String contactFilterString, Field sortBy, Order order, int startIndex, int limit) {
-		// TODO this is quite an ugly way of doing limits
-		List<Contact> filteredMembers = getFilteredMembersSorted(group, contactFilterString, sortBy, order);
-		int toIndex = Math.min(filteredMembers.size(), startIndex + limit);
-		return filteredMembers.subList(startIndex, toIndex);
+		PartialQuery<Contact> q = createFilteredMembersQuery(group, contactFilterString, sortBy, order);
+		return super.getPagedList(Contact.class, q.getQueryString(), startIndex, limit, q.getInsertValues());
 	}
 	
-	/** @see GroupMembershipDao#getFilteredMembersSorted(Group, String) */
+	/** @see GroupMembershipDao#getFilteredMembersSorted(Group, String, Field, Order) */
 	public List<Contact> getFilteredMembersSorted(final Group group, String contactFilterString, Field sortBy, Order order) {
+		PartialQuery<Contact> q = createFilteredMembersQuery(group, contactFilterString, sortBy, order);
+		return getList(Contact.class, q.getQueryString(), q.getInsertValues());
+	}
+	
+	/**
+	 * Creates the query for fetching the members of a group which match a filter string.
+	 * @param group
+	 * @param contactFilterString
+	 * @param sortBy field to sort by, or <code>null</code> if the results should not be sorted
+	 * @param order
+	 * @return the query, with its insert values
+	 */
+	private PartialQuery<Contact> createFilteredMembersQuery(Group group, String contactFilterString, Field sortBy, Order order) {
 		contactFilterString = getMemberFilterLikeString(contactFilterString);
+		PartialQuery<Contact> q = new PartialQuery<Contact>();
 		if (group.isRoot()) {
 			String queryString = "SELECT DISTINCT c FROM Contact AS c WHERE LOWER(c.name) LIKE LOWER(?) OR LOWER(c.phoneNumber) LIKE LOWER(?)";
 			if (sortBy != null) {
@@ -125,7 +127,7 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 					strSortBy += ", " + Field.NAME.getFieldName();
 				queryString += " ORDER BY " + strSortBy + " " + order.toHqlString();
 			}
-			return getList(Contact.class, queryString, contactFilterString, contactFilterString);
+			q.append(queryString, contactFilterString, contactFilterString);
 		} else {
 			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE " +
 					"(mem.group=? OR mem.group.path LIKE ?)" +
@@ -137,8 +139,9 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 				queryString += " ORDER BY mem.contact." + strSortBy + " " + order.toHqlString();
 			}
 			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
-			return getList(Contact.class, queryString, group, childPath, contactFilterString, contactFilterString);
+			q.append(queryString, group, childPath, contactFilterString, contactFilterString);
 		}
+		return q;
 	}
 	
 	/** @see GroupMembershipDao#getFilteredMemberCount(Group, String) */
@@ -157,9 +160,18 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 	}
 
 	/** @see GroupMembershipDao#getMembers(Group, int, int) */
+	@SuppressWarnings("unchecked")
 	public List<Contact> getMembers(Group group, int startIndex, int limit) {
-		List<Contact> allMembers = getMembers(group);
-		return allMembers.subList(startIndex, Math.min(allMembers.size(), startIndex + limit));
+		if(limit <= 0) {
+			// HibernateTemplate would treat this as "no limit"
+			return new ArrayList<Contact>(0);
+		} else if(group.isRoot()) {
+			return this.getHibernateTemplate().findByCriteria(DetachedCriteria.forClass(Contact.class), startIndex, limit);
+		} else {
+			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
+			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE mem.group=? OR mem.group.path LIKE ?";
+			return super.getPagedList(Contact.class, queryString, startIndex, limit, group, childPath);
+		}
 	}
 
 	/** @see GroupMembershipDao#isMember(Group, Contact) */
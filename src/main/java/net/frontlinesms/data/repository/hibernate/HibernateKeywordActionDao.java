@@ -3,23 +3,68 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.orm.hibernate3.HibernateCallback;
 
+import net.frontlinesms.data.KeywordActionIndex;
+import net.frontlinesms.data.domain.Group;
 import net.frontlinesms.data.domain.Keyword;
 import net.frontlinesms.data.domain.KeywordAction;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
+import net.frontlinesms.data.events.EntityDeletedNotification;
+import net.frontlinesms.data.events.EntitySavedNotification;
+import net.frontlinesms.data.events.EntityUpdatedNotification;
 import net.frontlinesms.data.repository.KeywordActionDao;
+import net.frontlinesms.events.EventBus;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
 
 /**
  * Hibernate implementation of {@link KeywordActionDao}.
+ * <p>The actions alive for a keyword are found using an in-memory {@link KeywordActionIndex}.  Each keyword's
+ * actions are loaded into this on first use, and dropped from it when entity notifications published on the
+ * {@link EventBus} show that they have changed.</p>
+ * <p>Executions counted by {@link #incrementCounter(KeywordAction)} are held in memory, and written to the database
+ * every {@link #COUNTER_FLUSH_INTERVAL}ms, and when {@link #destroy()} is called, by {@link #flushCounters()}.
+ * Actions loaded from the database include any executions which have not yet been written.</p>
  * @author Alex Anderson <alex@frontlinesms.com>
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
-public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> implements KeywordActionDao {
+public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> implements KeywordActionDao, EventObserver {
+	/** Time, in milliseconds, between writes of pending action counters to the database */
+	private static final long COUNTER_FLUSH_INTERVAL = 5000;
+	/** HQL statement used to add pending executions to an action's counter */
+	private static final String COUNTER_UPDATE_HQL = "UPDATE KeywordAction" +
+			" SET " + KeywordAction.Field.COUNTER.getFieldName() + "=" + KeywordAction.Field.COUNTER.getFieldName() + "+?" +
+			" WHERE id=?";
+	
+	/** Index of the actions attached to each keyword, used by {@link #getAliveActions(Keyword, long)} */
+	private final KeywordActionIndex actionIndex = new KeywordActionIndex();
+	/** Set <code>true</code> once this has been registered with the {@link EventBus} to keep {@link #actionIndex} up to date */
+	private boolean registeredForNotifications;
+	/** Executions of each action which have not yet been written to the database, keyed by action id */
+	private final ConcurrentHashMap<Long, Integer> pendingCounters = new ConcurrentHashMap<Long, Integer>();
+	/** Lock held while pending counters are written to the database */
+	private final Object counterFlushLock = new Object();
+	/** Timer which periodically calls {@link #flushCounters()}.  <code>null</code> until a counter is first incremented. */
+	private Timer counterFlushTimer;
+	
 	/** Create instance of this class */
 	public HibernateKeywordActionDao() {
 		super(KeywordAction.class);
@@ -28,13 +73,14 @@ public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> i
 	/** @see KeywordActionDao#deleteKeywordAction(KeywordAction) */
 	public void deleteKeywordAction(KeywordAction action) {
 		super.delete(action);
+		this.pendingCounters.remove(action.getId());
 	}
 
 	/** @see KeywordActionDao#getReplyActions() */
 	public Collection<KeywordAction> getReplyActions() {
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(KeywordAction.Field.TYPE.getFieldName(), KeywordAction.Type.REPLY));
-		return super.getList(criteria);
+		return getListWithPendingCounters(criteria);
 	}
 
 	/** @see KeywordActionDao#saveKeywordAction(KeywordAction) */
@@ -52,14 +98,86 @@ public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> i
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(KeywordAction.Field.KEYWORD.getFieldName(), keyword));
 		criteria.add(Restrictions.eq(KeywordAction.Field.TYPE.getFieldName(), actionType));
-		return super.getUnique(criteria);
+		return (KeywordAction) DataAccessUtils.uniqueResult(getListWithPendingCounters(criteria));
 	}
 	
 	/** @see net.frontlinesms.data.repository.KeywordActionDao#getActions(net.frontlinesms.data.domain.Keyword)*/
 	public List<KeywordAction> getActions(Keyword keyword) {
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(KeywordAction.Field.KEYWORD.getFieldName(), keyword));
-		return super.getList(criteria);
+		return getListWithPendingCounters(criteria);
+	}
+	
+	/** @see KeywordActionDao#getAliveActions(Keyword, long) */
+	public List<KeywordAction> getAliveActions(Keyword keyword, long time) {
+		KeywordActionIndex index = getActionIndex();
+		List<KeywordAction> alive = index.getAliveActions(keyword, time);
+		if(alive == null) {
+			long indexVersion = index.getVersion();
+			List<KeywordAction> actions = getActions(keyword);
+			index.put(keyword, actions, indexVersion);
+			
+			alive = new ArrayList<KeywordAction>();
+			for(KeywordAction action : actions) {
+				if(action.isAlive(time)) {
+					alive.add(action);
+				}
+			}
+		}
+		return alive;
+	}
+	
+	/**
+	 * Gets {@link #actionIndex}, making sure that this is registered to keep it up to date.
+	 * @return the index of actions attached to each keyword
+	 */
+	private synchronized KeywordActionIndex getActionIndex() {
+		if(!this.registeredForNotifications) {
+			EventBus eventBus = super.getEventBus();
+			if(eventBus != null) {
+				eventBus.registerObserver(this);
+				this.registeredForNotifications = true;
+			}
+		}
+		return this.actionIndex;
+	}
+	
+	/**
+	 * Drops keywords from {@link #actionIndex} when they, or their actions, are saved, updated or deleted.  The
+	 * whole index is dropped when a group is deleted, as {@link HibernateGroupDao#deleteGroup(Group, boolean)}
+	 * deletes the group's actions without notification.
+	 * @see EventObserver#notify(FrontlineEventNotification)
+	 */
+	public void notify(FrontlineEventNotification notification) {
+		if(!(notification instanceof EntitySavedNotification<?>
+				|| notification instanceof EntityUpdatedNotification<?>
+				|| notification instanceof EntityDeletedNotification<?>)) return;
+		Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
+		
+		Keyword keyword;
+		if(entity instanceof KeywordAction) {
+			keyword = ((KeywordAction) entity).getKeyword();
+		} else if(entity instanceof Keyword) {
+			keyword = (Keyword) entity;
+		} else if(entity instanceof Group && notification instanceof EntityDeletedNotification<?>) {
+			// The keywords of the deleted actions are not known
+			keyword = null;
+		} else {
+			return;
+		}
+		
+		if(keyword == null) {
+			this.actionIndex.clear();
+		} else {
+			this.actionIndex.remove(keyword);
+		}
+		
+		// If the change is rolled back, actions loaded since may no longer match the database
+		super.runOnRollback(new Runnable() {
+			public void run() {
+				actionIndex.clear();
+			}
+		});
 	}
 	
 	/** @see net.frontlinesms.data.repository.KeywordActionDao#getCount()*/
@@ -69,11 +187,122 @@ public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> i
 	
 	/** @see net.frontlinesms.data.repository.KeywordActionDao#incrementCounter(KeywordAction)*/
 	public void incrementCounter(KeywordAction action) {
-		String incrementCounterQuery = "UPDATE " + KeywordAction.TABLE_NAME + " as action" +
-										" SET " + KeywordAction.Field.COUNTER + "=" + KeywordAction.Field.COUNTER + "+1" +
-										" WHERE action=?";
-		super.getHibernateTemplate().bulkUpdate(incrementCounterQuery, action);
+		addPendingCounter(action.getId(), 1);
 		action.incrementCounter();
+		startCounterFlushTimer();
+	}
+	
+	/**
+	 * Writes all pending action executions to the database in a single session.  If the write fails, the
+	 * executions which were not written remain pending and will be written on the next attempt.
+	 */
+	public void flushCounters() {
+		synchronized(counterFlushLock) {
+			// Take the pending executions of each action.  Executions counted after an action's entry is removed
+			// are added to a new entry, and written by the next flush.
+			final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+			for(Long actionId : this.pendingCounters.keySet()) {
+				Integer delta = this.pendingCounters.remove(actionId);
+				if(delta != null) {
+					deltas.put(actionId, delta);
+				}
+			}
+			if(deltas.isEmpty()) {
+				return;
+			}
+			
+			int deltaCount = deltas.size();
+			try {
+				super.getHibernateTemplate().execute(new HibernateCallback() {
+					public Object doInHibernate(Session session) throws HibernateException, SQLException {
+						Query query = session.createQuery(COUNTER_UPDATE_HQL);
+						// Each update is committed on its own, so forget each delta as soon as it is written
+						for(Iterator<Map.Entry<Long, Integer>> i = deltas.entrySet().iterator(); i.hasNext(); ) {
+							Map.Entry<Long, Integer> delta = i.next();
+							updateCounter(query, delta.getKey(), delta.getValue());
+							i.remove();
+						}
+						return null;
+					}
+				});
+				log.trace("Action counters flushed: " + deltaCount);
+			} catch(RuntimeException ex) {
+				log.warn("Failed to write " + deltas.size() + " of " + deltaCount + " action counters to the database.", ex);
+				for(Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+					addPendingCounter(delta.getKey(), delta.getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds executions of an action to its counter in the database.
+	 * @param query query created from {@link #COUNTER_UPDATE_HQL}
+	 * @param actionId
+	 * @param delta the number of executions to add
+	 */
+	/* not private to allow unit testing */
+	void updateCounter(Query query, Long actionId, int delta) {
+		query.setInteger(0, delta);
+		query.setLong(1, actionId);
+		query.executeUpdate();
+	}
+	
+	/** Stops the periodic writing of action counters, and writes any which are pending. */
+	public void destroy() {
+		synchronized(this) {
+			if(this.counterFlushTimer != null) {
+				this.counterFlushTimer.cancel();
+				this.counterFlushTimer = null;
+			}
+		}
+		flushCounters();
+	}
+	
+	/**
+	 * Adds executions of an action to {@link #pendingCounters}.
+	 * @param actionId
+	 * @param hits the number of executions to add
+	 */
+	private void addPendingCounter(Long actionId, int hits) {
+		while(true) {
+			Integer pending = this.pendingCounters.putIfAbsent(actionId, hits);
+			if(pending == null || this.pendingCounters.replace(actionId, pending, pending + hits)) {
+				return;
+			}
+		}
+	}
+	
+	/** Starts {@link #counterFlushTimer} if it is not already running. */
+	private synchronized void startCounterFlushTimer() {
+		if(this.counterFlushTimer == null) {
+			this.counterFlushTimer = new Timer("KeywordAction counter flush", true);
+			this.counterFlushTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					flushCounters();
+				}
+			}, COUNTER_FLUSH_INTERVAL, COUNTER_FLUSH_INTERVAL);
+		}
+	}
+	
+	/**
+	 * Gets a list of actions matching the supplied criteria, including executions of the actions which have not
+	 * yet been written to the database.
+	 * @param criteria
+	 * @return the actions matching the supplied criteria
+	 */
+	private List<KeywordAction> getListWithPendingCounters(DetachedCriteria criteria) {
+		// Prevent a flush between loading the actions and adding the pending executions
+		synchronized(counterFlushLock) {
+			List<KeywordAction> actions = super.getList(criteria);
+			for(KeywordAction action : actions) {
+				Integer pending = this.pendingCounters.get(action.getId());
+				if(pending != null) {
+					action.addToCounter(pending);
+				}
+			}
+			return actions;
+		}
 	}
-
 }
@@ -9,15 +9,30 @@ import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
 
 import net.frontlinesms.data.DuplicateKeyException;
+import net.frontlinesms.data.KeywordTrie;
 import net.frontlinesms.data.Order;
+import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.Keyword;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
+import net.frontlinesms.data.events.EntityDeletedNotification;
+import net.frontlinesms.data.events.EntitySavedNotification;
+import net.frontlinesms.data.events.EntityUpdatedNotification;
 import net.frontlinesms.data.repository.KeywordDao;
+import net.frontlinesms.events.EventBus;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
 
 /**
  * Hibernate implementation of {@link KeywordDao}.
+ * <p>Keyword matching for incoming messages is done against an in-memory {@link KeywordTrie}.  This is loaded
+ * from the database on first use, and then kept up to date from the entity notifications published on the
+ * {@link EventBus}.</p>
  * @author Alex
  */
-public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements KeywordDao {
+public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements KeywordDao, EventObserver {
+	/** Index of all keywords, used by {@link #getFromMessageText(String)}.  <code>null</code> until it is first needed. */
+	private KeywordTrie keywordIndex;
+	
 	/** Create instance of this class */
 	public HibernateKeywordDao() {
 		super(Keyword.class);
@@ -32,8 +47,35 @@ public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements Ke
 	
 	/** @see KeywordDao#deleteKeyword(Keyword) */
 	public void deleteKeyword(Keyword keyword) {
+		// Messages tagged with this keyword start with it, so they now match the longest keyword that it extends
+		Keyword replacement = getLongestShorterKeyword(keyword);
+		if(replacement == null) {
+			super.getHibernateTemplate().bulkUpdate("UPDATE " + FrontlineMessage.class.getName() +
+					" SET " + FrontlineMessage.Field.KEYWORD.getFieldName() + "=NULL" +
+					" WHERE " + FrontlineMessage.Field.KEYWORD.getFieldName() + "=?", keyword);
+		} else {
+			super.getHibernateTemplate().bulkUpdate("UPDATE " + FrontlineMessage.class.getName() +
+					" SET " + FrontlineMessage.Field.KEYWORD.getFieldName() + "=?" +
+					" WHERE " + FrontlineMessage.Field.KEYWORD.getFieldName() + "=?", new Object[] { replacement, keyword });
+		}
 		super.delete(keyword);
 	}
+	
+	/**
+	 * Gets the longest keyword which a keyword extends, e.g. "ONE TWO" or "ONE" for "ONE TWO THREE".
+	 * @param keyword
+	 * @return the longest existing keyword which the supplied keyword extends, which may be the blank keyword, or
+	 * <code>null</code> if there is none
+	 */
+	private Keyword getLongestShorterKeyword(Keyword keyword) {
+		if(keyword.getKeyword().length() == 0) return null;
+		List<String> shorterKeywords = HibernateMessageDao.getShorterKeywords(keyword.getKeyword());
+		for(int i=shorterKeywords.size()-1; i>=0; --i) {
+			Keyword shorter = getKeyword(shorterKeywords.get(i));
+			if(shorter != null) return shorter;
+		}
+		return null;
+	}
 
 	/** @see KeywordDao#getAllKeywords() */
 	public List<Keyword> getAllKeywords() {
@@ -53,24 +95,70 @@ public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements Ke
 
 	/** @see KeywordDao#getFromMessageText(String) */
 	public Keyword getFromMessageText(String messageText) {
-		List<Keyword> results = super.getAll();
-		if(results.size() == 0) return null;
-		Keyword longest = null;
-		for(Keyword k : results) {
-			if(k.matches(messageText)
-					&& (longest == null || longest.getKeyword().length() < k.getKeyword().length())) {
-				longest = k;
+		KeywordTrie index = getKeywordIndex();
+		Keyword longest = index.getFromMessageText(messageText);
+		if(longest == null) {
+			// If no keyword has been matched, return the blank keyword
+			longest = index.getBlankKeyword();
+		}
+		return longest;
+	}
+	
+	/**
+	 * Gets {@link #keywordIndex}, loading it from the database if it has not been loaded yet.
+	 * @return the index of all keywords
+	 */
+	private synchronized KeywordTrie getKeywordIndex() {
+		if(this.keywordIndex == null) {
+			EventBus eventBus = super.getEventBus();
+			if(eventBus != null) {
+				eventBus.registerObserver(this);
 			}
+			KeywordTrie index = new KeywordTrie();
+			for(Keyword k : super.getAll()) {
+				index.put(k);
+			}
+			this.keywordIndex = index;
 		}
+		return this.keywordIndex;
+	}
+	
+	/** Discards {@link #keywordIndex} so that it will be reloaded from the database when next needed. */
+	private synchronized void invalidateKeywordIndex() {
+		this.keywordIndex = null;
+	}
+	
+	/**
+	 * Keeps {@link #keywordIndex} up to date with keywords saved, updated and deleted in the database.
+	 * @see EventObserver#notify(FrontlineEventNotification)
+	 */
+	public void notify(FrontlineEventNotification notification) {
+		if(!(notification instanceof DatabaseEntityNotification<?>)) return;
+		Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
+		if(!(entity instanceof Keyword)) return;
 		
-		if(longest == null) {
-			// If no keyword has been fetched, return the blank keyword
-			DetachedCriteria crit = super.getCriterion();
-			crit.add(Restrictions.eq(Keyword.Field.KEYWORD.getFieldName(), ""));
-			longest = super.getUnique(crit);
+		Keyword keyword = (Keyword) entity;
+		synchronized(this) {
+			if(this.keywordIndex == null) {
+				// Nothing to update - the index will be loaded fresh when it is needed
+				return;
+			}
+			if(notification instanceof EntitySavedNotification<?>
+					|| notification instanceof EntityUpdatedNotification<?>) {
+				this.keywordIndex.put(keyword);
+			} else if(notification instanceof EntityDeletedNotification<?>) {
+				this.keywordIndex.remove(keyword);
+			} else {
+				return;
+			}
 		}
 		
-		return longest;
+		// If the change is rolled back, the index will no longer match the database
+		super.runOnRollback(new Runnable() {
+			public void run() {
+				invalidateKeywordIndex();
+			}
+		});
 	}
 
 	/** @see KeywordDao#getTotalKeywordCount() */
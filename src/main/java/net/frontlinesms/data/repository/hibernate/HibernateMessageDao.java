@@ -3,14 +3,20 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.criterion.SimpleExpression;
+import org.hibernate.criterion.Subqueries;
+import org.springframework.transaction.annotation.Transactional;
 
 import net.frontlinesms.data.EntityField;
 import net.frontlinesms.data.Order;
@@ -19,13 +25,26 @@ import net.frontlinesms.data.domain.Keyword;
 import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.FrontlineMessage.Field;
 import net.frontlinesms.data.domain.FrontlineMessage.Type;
+import net.frontlinesms.data.repository.KeywordDao;
 import net.frontlinesms.data.repository.MessageDao;
 
 /**
  * Hibernate implementation of {@link MessageDao}.
+ * <p>Text messages are tagged with the {@link Keyword} they match when they are saved, so queries for the
+ * messages of a keyword are equality lookups on the indexed {@link Field#KEYWORD} column rather than
+ * pattern matches against the message content.  When a keyword is created, messages which are untagged or
+ * tagged with a shorter keyword that it extends are re-tagged by {@link #retagMessagesForKeyword(Keyword, long, int)}.</p>
  * @author Alex
  */
 public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> implements MessageDao {
+	/** HQL fragment matching messages tagged with the keyword whose text is supplied as a parameter.
+	 * N.B. "where" is lower case as {@link PartialQuery} only allows a single "WHERE" in a query. */
+	private static final String HQL_MATCH_KEYWORD = "message." + Field.KEYWORD.getFieldName() + ".id IN " +
+			"(SELECT k.id FROM " + Keyword.class.getName() + " AS k where k." + Keyword.Field.KEYWORD.getFieldName() + "=?)";
+	
+	/** DAO used to find the keyword to tag messages with.  If this is not set, messages will not be tagged. */
+	private KeywordDao keywordDao;
+	
 	/** Create instance of this class */
 	public HibernateMessageDao() {
 		super(FrontlineMessage.class);
@@ -175,19 +194,6 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		return super.getList(q.getQueryString(), q.getInsertValues());
 	}
 	
-	@SuppressWarnings("unchecked")
-	List<String> getSimilarKeywords(Keyword keyword) {
-		if(keyword.getKeyword().length() == 0) {
-			// Get all keywords apart from the blank one
-			List<String> allKeywordsExceptBlank = this.getHibernateTemplate().find("SELECT k.keyword FROM Keyword AS k WHERE LENGTH(k.keyword) > 0");
-			return allKeywordsExceptBlank;
-		} else {
-			String likeKeyword = keyword.getKeyword() + " %";
-			List<String> similarKeywords = this.getHibernateTemplate().find("SELECT k.keyword FROM Keyword  AS k WHERE k.keyword LIKE ?", likeKeyword);
-			return similarKeywords;
-		}
-	}
-
 	/** @see MessageDao#getMessagesForMsisdn(int, String, Field, Order, Long, Long, int, int) */
 	public List<FrontlineMessage> getMessagesForMsisdn(FrontlineMessage.Type messageType, String phoneNumber, Field sortBy, Order order, Long start, Long end, int startIndex, int limit) {
 		DetachedCriteria criteria = super.getSortCriterion(sortBy, order);
@@ -239,8 +245,165 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 
 	/** @see MessageDao#saveMessage(FrontlineMessage) */
 	public void saveMessage(FrontlineMessage message) {
+		if(message.getKeyword() == null) {
+			message.setKeyword(getKeywordToTag(message.getTextContent()));
+		}
 		super.saveWithoutDuplicateHandling(message);
 	}
+	
+	/** @see MessageDao#saveMessages(Collection) */
+	@Transactional
+	public void saveMessages(Collection<FrontlineMessage> messages) {
+		for(FrontlineMessage message : messages) {
+			if(message.getKeyword() == null) {
+				message.setKeyword(getKeywordToTag(message.getTextContent()));
+			}
+		}
+		super.saveAllWithoutDuplicateHandling(messages);
+	}
+	
+	/** @see MessageDao#tagUntaggedMessages(long, int) */
+	public long tagUntaggedMessages(long afterId, int batchSize) {
+		if(this.keywordDao == null) {
+			return -1;
+		}
+		
+		List<Object[]> rows = super.getPagedList(Object[].class, "SELECT message.id, message." + Field.MESSAGE_CONTENT.getFieldName() +
+				" FROM " + FrontlineMessage.class.getName() + " AS message" +
+				" WHERE message." + Field.KEYWORD.getFieldName() + " IS NULL" +
+				" AND message.id>? ORDER BY message.id", 0, batchSize, afterId);
+		if(rows.isEmpty()) {
+			return -1;
+		}
+		
+		// Group the messages by keyword, so that each keyword's messages are tagged in a single update
+		long lastId = afterId;
+		Map<Keyword, List<Long>> idsByKeyword = new HashMap<Keyword, List<Long>>();
+		for(Object[] row : rows) {
+			lastId = (Long) row[0];
+			Keyword keyword = getKeywordToTag((String) row[1]);
+			if(keyword != null) {
+				List<Long> ids = idsByKeyword.get(keyword);
+				if(ids == null) {
+					ids = new ArrayList<Long>();
+					idsByKeyword.put(keyword, ids);
+				}
+				ids.add(lastId);
+			}
+		}
+		for(Map.Entry<Keyword, List<Long>> entry : idsByKeyword.entrySet()) {
+			// Messages tagged since they were read are left alone
+			tagMessages(entry.getKey(), entry.getValue(), Field.KEYWORD.getFieldName() + " IS NULL");
+		}
+		return lastId;
+	}
+	
+	/** @see MessageDao#retagMessagesForKeyword(Keyword, long, int) */
+	public long retagMessagesForKeyword(Keyword keyword, long afterId, int batchSize) {
+		if(keyword.getKeyword().length() == 0) {
+			// No message can match the blank keyword in preference to another
+			return -1;
+		}
+		
+		// Only untagged messages, and messages tagged with a keyword that the new keyword extends, can now match it
+		List<String> shorterKeywords = getShorterKeywords(keyword.getKeyword());
+		
+		List<Object> values = new ArrayList<Object>(shorterKeywords);
+		values.add("%" + keyword.getKeyword() + "%");
+		values.add(afterId);
+		List<Object[]> rows = super.getPagedList(Object[].class, "SELECT message.id, message." + Field.MESSAGE_CONTENT.getFieldName() +
+				" FROM " + FrontlineMessage.class.getName() + " AS message" +
+				" WHERE " + getRetagCondition("message.", shorterKeywords.size()) +
+				" AND UPPER(message." + Field.MESSAGE_CONTENT.getFieldName() + ") LIKE ?" +
+				" AND message.id>? ORDER BY message.id", 0, batchSize, values.toArray());
+		if(rows.isEmpty()) {
+			return -1;
+		}
+		
+		long lastId = afterId;
+		List<Long> ids = new ArrayList<Long>();
+		for(Object[] row : rows) {
+			lastId = (Long) row[0];
+			// The LIKE above finds the keyword anywhere in the text, so check the message really starts with it
+			if(keyword.matches((String) row[1])) {
+				ids.add(lastId);
+			}
+		}
+		if(!ids.isEmpty()) {
+			tagMessages(keyword, ids, getRetagCondition("", shorterKeywords.size()), shorterKeywords.toArray());
+		}
+		return lastId;
+	}
+	
+	/**
+	 * Gets the HQL condition matching messages which may be re-tagged with a new keyword: those which are untagged,
+	 * or tagged with one of the keywords it extends.  The text of each shorter keyword is a parameter of the condition.
+	 * @param prefix prefix of the message's fields, e.g. <code>"message."</code>
+	 * @param shorterKeywordCount the number of keywords the new keyword extends
+	 * @return the condition
+	 */
+	private static String getRetagCondition(String prefix, int shorterKeywordCount) {
+		StringBuilder condition = new StringBuilder("(" + prefix + Field.KEYWORD.getFieldName() + " IS NULL OR " +
+				prefix + Field.KEYWORD.getFieldName() + " IN (SELECT k FROM " + Keyword.class.getName() +
+				" AS k WHERE k." + Keyword.Field.KEYWORD.getFieldName() + " IN (");
+		for(int i=0; i<shorterKeywordCount; ++i) {
+			if(i > 0) condition.append(',');
+			condition.append('?');
+		}
+		return condition.append(")))").toString();
+	}
+	
+	/**
+	 * Gets the keywords which a keyword extends, i.e. the blank keyword and each of its leading words.
+	 * @param keyword text of a keyword, e.g. "ONE TWO THREE"
+	 * @return the shorter keywords, e.g. "", "ONE" and "ONE TWO"
+	 */
+	static List<String> getShorterKeywords(String keyword) {
+		List<String> shorterKeywords = new ArrayList<String>();
+		shorterKeywords.add("");
+		int separator = -1;
+		while((separator = keyword.indexOf(' ', separator + 1)) > 0) {
+			shorterKeywords.add(keyword.substring(0, separator));
+		}
+		return shorterKeywords;
+	}
+	
+	/**
+	 * Tags messages with a keyword in a single update.
+	 * @param keyword the keyword to tag the messages with
+	 * @param ids IDs of the messages to tag
+	 * @param condition HQL condition which each message must still meet to be tagged
+	 * @param conditionValues values for the parameters of the condition
+	 */
+	private void tagMessages(Keyword keyword, List<Long> ids, String condition, Object... conditionValues) {
+		StringBuilder hql = new StringBuilder("UPDATE " + FrontlineMessage.class.getName() +
+				" SET " + Field.KEYWORD.getFieldName() + "=? WHERE id IN (");
+		List<Object> values = new ArrayList<Object>(ids.size() + conditionValues.length + 1);
+		values.add(keyword);
+		for(int i=0; i<ids.size(); ++i) {
+			if(i > 0) hql.append(',');
+			hql.append('?');
+			values.add(ids.get(i));
+		}
+		hql.append(") AND ").append(condition);
+		for(Object value : conditionValues) {
+			values.add(value);
+		}
+		super.getHibernateTemplate().bulkUpdate(hql.toString(), values.toArray());
+	}
+	
+	/**
+	 * Gets the keyword that a message with the supplied text content should be tagged with.
+	 * @param textContent text content of the message
+	 * @return the keyword matched by the text, or <code>null</code> if there is no text or it matches no keyword
+	 */
+	private Keyword getKeywordToTag(String textContent) {
+		if(this.keywordDao == null || textContent == null) {
+			return null;
+		} else {
+			return this.keywordDao.getFromMessageText(textContent);
+		}
+	}
 
 	/** @see MessageDao#updateMessage(FrontlineMessage) */
 	public void updateMessage(FrontlineMessage message) {
@@ -248,17 +411,16 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 	}
 	
 	/**
-	 * Augments the supplied criteria with that required to match a keyword.
+	 * Augments the supplied criteria with that required to match messages tagged with a keyword.
+	 * The keyword is matched on its text, so it need not be the persisted instance.
 	 * @param criteria
 	 * @param keyword 
 	 */
 	private void addKeywordMatchCriteria(DetachedCriteria criteria, Keyword keyword) {
-		String keywordString = keyword.getKeyword();
-		// FIXME this should be case-insensitive
-		Criterion matchKeyword = Restrictions.or(
-				Restrictions.ilike(Field.MESSAGE_CONTENT.getFieldName(), keywordString), // This should match the keyword exactly, case insensitive
-				Restrictions.ilike(Field.MESSAGE_CONTENT.getFieldName(), keywordString + ' '));
-		criteria.add(matchKeyword);
+		DetachedCriteria keywordIds = DetachedCriteria.forClass(Keyword.class)
+				.add(Restrictions.eq(Keyword.Field.KEYWORD.getFieldName(), keyword.getKeyword()))
+				.setProjection(Projections.id());
+		criteria.add(Subqueries.propertyIn(Field.KEYWORD.getFieldName(), keywordIds));
 	}
 	
 	/**
@@ -369,34 +531,17 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 			q.append("message.type=?", messageType);
 		}
 		
-		if(keyword.getKeyword().length() > 0) {
-			q.appendWhereOrAnd();
-			String likeKeyword = keyword.getKeyword() + " %";
-			
-			q.append("(UPPER(message." + FrontlineMessage.Field.MESSAGE_CONTENT.getFieldName() + ") LIKE ?", keyword.getKeyword());
-			q.append("OR UPPER(message." + FrontlineMessage.Field.MESSAGE_CONTENT.getFieldName() + ") LIKE ?)", likeKeyword);
-		}
-		
-		List<String> similarKeywords = getSimilarKeywords(keyword);
-		if(similarKeywords.size() > 0) {
-			// Build the query to ignore messages that match similar keywords
-			q.appendWhereOrAnd();
-			for(int i=0; i<similarKeywords.size(); ++i) {
-				if(i > 0) {
-					q.append("AND");
-				}
-				
-				String similarKeyword = similarKeywords.get(i);
-				String likeSimilarKeyword = similarKeyword + " %";
-				
-				q.append("NOT (UPPER(message." + FrontlineMessage.Field.MESSAGE_CONTENT.getFieldName() + ") LIKE ?", similarKeyword);
-				q.append("OR UPPER(message." + FrontlineMessage.Field.MESSAGE_CONTENT.getFieldName() + ") LIKE ?)", likeSimilarKeyword);
-				
-			}
-		}
+		q.appendWhereOrAnd();
+		q.append(HQL_MATCH_KEYWORD, keyword.getKeyword());
 		
 		return q;
 	}
+
+//> ACCESSORS
+	/** @param keywordDao new value for {@link #keywordDao} */
+	public void setKeywordDao(KeywordDao keywordDao) {
+		this.keywordDao = keywordDao;
+	}
 }
 
 class PartialQuery<E> {
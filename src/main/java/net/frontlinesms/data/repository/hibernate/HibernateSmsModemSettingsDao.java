@@ -28,6 +28,13 @@ public class HibernateSmsModemSettingsDao extends BaseHibernateDao<SmsModemSetti
 		return super.getUnique(criteria);
 	}
 
+	/** @see SmsModemSettingsDao#getSmsModemSettingsForPort(String) */
+	public List<SmsModemSettings> getSmsModemSettingsForPort(String port) {
+		DetachedCriteria criteria = super.getCriterion();
+		criteria.add(Restrictions.eq(SmsModemSettings.FIELD_PORT, port));
+		return super.getList(criteria);
+	}
+
 	/** @see SmsModemSettingsDao#saveSmsModemSettings(SmsModemSettings) */
 	public void saveSmsModemSettings(SmsModemSettings settings) {
 		super.saveWithoutDuplicateHandling(settings);
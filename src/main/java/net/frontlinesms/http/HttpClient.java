@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package net.frontlinesms.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.AppProperties;
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * HTTP client shared by the internet SMS gateways and HTTP keyword actions.
+ * <p>Connections are kept alive and reused between requests to the same host, using the JVM's connection cache.
+ * For a connection to be reused, the {@link HttpResponse} must be {@link HttpResponse#close()}d, which drains
+ * any unread part of its body.  The number of requests in progress to a single host is limited to
+ * {@link #maxConnectionsPerHost}; further requests wait up to {@link #connectTimeout} for one to finish.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class HttpClient {
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(HttpClient.class);
+	/** System property giving the number of idle connections the JVM keeps alive for each host */
+	private static final String PROPERTY_MAX_CONNECTIONS = "http.maxConnections";
+
+	/** Shared instance, configured from {@link AppProperties} */
+	private static HttpClient shared;
+
+//> INSTANCE PROPERTIES
+	/** Maximum number of requests in progress to a single host at once */
+	private final int maxConnectionsPerHost;
+	/** Time, in milliseconds, to wait for a connection to be made */
+	private final int connectTimeout;
+	/** Time, in milliseconds, to wait for data to be received once connected */
+	private final int readTimeout;
+	/** Permits for requests in progress to each host, keyed by protocol, host and port */
+	private final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link HttpClient}.
+	 * @param maxConnectionsPerHost value for {@link #maxConnectionsPerHost}
+	 * @param connectTimeout value for {@link #connectTimeout}
+	 * @param readTimeout value for {@link #readTimeout}
+	 */
+	public HttpClient(int maxConnectionsPerHost, int connectTimeout, int readTimeout) {
+		if(maxConnectionsPerHost < 1) throw new IllegalArgumentException("Connections per host must be at least 1, but was " + maxConnectionsPerHost);
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+
+		// Make sure the JVM keeps enough idle connections alive to reuse one for each request in progress
+		if(System.getProperty(PROPERTY_MAX_CONNECTIONS) == null) {
+			System.setProperty(PROPERTY_MAX_CONNECTIONS, Integer.toString(maxConnectionsPerHost));
+		}
+	}
+
+//> REQUEST METHODS
+	/**
+	 * Makes an HTTP GET request.
+	 * @param url
+	 * @return the response, which must be closed when it is no longer needed
+	 * @throws IOException if there was a problem connecting, or the request timed out
+	 */
+	public HttpResponse get(String url) throws IOException {
+		return request("GET", url, null, null, readTimeout, null);
+	}
+
+	/**
+	 * Makes an HTTP GET request which may be aborted through a {@link HttpRequestHandle}.
+	 * @param url
+	 * @param readTimeout time, in milliseconds, to wait for data to be received once connected
+	 * @param handle handle through which the request may be aborted from another thread
+	 * @return the response, which must be closed when it is no longer needed
+	 * @throws IOException if there was a problem connecting, or the request timed out or was aborted
+	 */
+	public HttpResponse get(String url, int readTimeout, HttpRequestHandle handle) throws IOException {
+		return request("GET", url, null, null, readTimeout, handle);
+	}
+
+	/**
+	 * Makes an HTTP POST request.
+	 * @param url
+	 * @param contentType the MIME type of the request body
+	 * @param body the request body, which will be encoded as UTF-8
+	 * @return the response, which must be closed when it is no longer needed
+	 * @throws IOException if there was a problem connecting, or the request timed out
+	 */
+	public HttpResponse post(String url, String contentType, String body) throws IOException {
+		return request("POST", url, contentType, body.getBytes("UTF-8"), readTimeout, null);
+	}
+
+	/**
+	 * Makes an HTTP request.
+	 * @param method the HTTP method
+	 * @param url
+	 * @param contentType the MIME type of the request body, or <code>null</code> if there is no body
+	 * @param body the request body, or <code>null</code> if there is none
+	 * @param readTimeout time, in milliseconds, to wait for data to be received once connected
+	 * @param handle handle through which the request may be aborted, or <code>null</code> if there is none
+	 * @return the response, which must be closed when it is no longer needed
+	 * @throws IOException if there was a problem connecting, or the request timed out or was aborted
+	 */
+	private HttpResponse request(String method, String url, String contentType, byte[] body, int readTimeout, HttpRequestHandle handle) throws IOException {
+		URL target = new URL(url);
+		Semaphore permits = getPermits(target);
+		try {
+			if(!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out waiting for a connection to " + target.getHost());
+			}
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a connection to " + target.getHost());
+		}
+
+		HttpURLConnection connection = null;
+		try {
+			LOG.trace("HTTP " + method + ": " + url);
+			connection = (HttpURLConnection) target.openConnection();
+			if(handle != null) {
+				handle.setConnection(connection);
+			}
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			connection.setUseCaches(false);
+			connection.setAllowUserInteraction(false);
+			connection.setRequestMethod(method);
+			if(body != null) {
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode(body.length);
+				connection.setRequestProperty("Content-Type", contentType);
+				OutputStream out = connection.getOutputStream();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+			return new HttpResponse(connection, permits);
+		} catch(IOException ex) {
+			permits.release();
+			if(connection != null) {
+				HttpResponse.drainErrorStream(connection);
+			}
+			throw ex;
+		} catch(RuntimeException ex) {
+			permits.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return the permits for requests in progress to the host of the supplied URL
+	 */
+	private synchronized Semaphore getPermits(URL url) {
+		String key = url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+		Semaphore permits = hostPermits.get(key);
+		if(permits == null) {
+			permits = new Semaphore(maxConnectionsPerHost, true);
+			hostPermits.put(key, permits);
+		}
+		return permits;
+	}
+
+//> STATIC ACCESSORS
+	/** @return the shared {@link HttpClient}, configured from {@link AppProperties} */
+	public static synchronized HttpClient getShared() {
+		if(shared == null) {
+			AppProperties properties = AppProperties.getInstance();
+			shared = new HttpClient(properties.getHttpConnectionsPerHost(),
+					properties.getHttpConnectTimeout() * 1000,
+					properties.getHttpReadTimeout() * 1000);
+		}
+		return shared;
+	}
+}
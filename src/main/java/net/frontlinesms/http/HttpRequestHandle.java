@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package net.frontlinesms.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Handle on a request made by {@link HttpClient}, through which the request may be aborted from another thread,
+ * whether it is still waiting for its response headers or its body is being read.
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class HttpRequestHandle {
+//> INSTANCE PROPERTIES
+	/** The connection the request is made on, or <code>null</code> if it has not been opened yet */
+	private HttpURLConnection connection;
+	/** Set <code>true</code> once {@link #abort()} has been called */
+	private boolean aborted;
+
+//> ACCESSORS
+	/**
+	 * Sets the connection the request is made on.
+	 * @param connection value for {@link #connection}
+	 * @throws IOException if the request has already been aborted
+	 */
+	synchronized void setConnection(HttpURLConnection connection) throws IOException {
+		if(aborted) {
+			throw new IOException("Request aborted: " + connection.getURL());
+		}
+		this.connection = connection;
+	}
+
+	/** @return {@link #aborted} */
+	public synchronized boolean isAborted() {
+		return aborted;
+	}
+
+//> LIFECYCLE
+	/**
+	 * Aborts the request by closing its connection.  A thread making the request, or reading its response, will
+	 * get an {@link IOException}.  If the connection has not been opened yet, the request will fail when it is.
+	 */
+	public void abort() {
+		HttpURLConnection connection;
+		synchronized(this) {
+			aborted = true;
+			connection = this.connection;
+		}
+		if(connection != null) {
+			connection.disconnect();
+		}
+	}
+}
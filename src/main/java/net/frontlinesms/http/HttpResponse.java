@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package net.frontlinesms.http;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Response to a request made by {@link HttpClient}.  The body is streamed from the connection as it is read.
+ * <p>Responses must be {@link #close()}d once they are no longer needed.  Closing a response reads and discards
+ * any part of the body which has not been read, so that the connection can be reused for another request.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class HttpResponse {
+	/** Size of the buffer used to read response bodies */
+	private static final int BUFFER_SIZE = 8192;
+	/** Maximum number of unread bytes which will be drained from a body so that its connection may be reused */
+	private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+//> INSTANCE PROPERTIES
+	/** The connection the request was made on */
+	private final HttpURLConnection connection;
+	/** The permit for this request, released when this is closed */
+	private final Semaphore permits;
+	/** The HTTP status code of this response */
+	private final int statusCode;
+	/** The body of the response, or <code>null</code> if there is none */
+	private final InputStream body;
+	/** Set <code>true</code> once this has been closed */
+	private boolean closed;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link HttpResponse}, waiting for the response headers.
+	 * @param connection value for {@link #connection}
+	 * @param permits value for {@link #permits}
+	 * @throws IOException if there was a problem reading the response headers
+	 */
+	HttpResponse(HttpURLConnection connection, Semaphore permits) throws IOException {
+		this.connection = connection;
+		this.permits = permits;
+		this.statusCode = connection.getResponseCode();
+		InputStream stream = statusCode < HttpURLConnection.HTTP_BAD_REQUEST
+				? connection.getInputStream()
+				: connection.getErrorStream();
+		this.body = stream == null ? null : new BodyInputStream(stream);
+	}
+
+//> ACCESSORS
+	/** @return {@link #statusCode} */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/** @return <code>true</code> if the request was successful, i.e. the status code was 2xx */
+	public boolean isSuccess() {
+		return statusCode >= 200 && statusCode < 300;
+	}
+
+	/**
+	 * Checks that the server did not report an error, closing this response if it did.
+	 * @return this response
+	 * @throws IOException if the status code was 4xx or 5xx
+	 */
+	public HttpResponse throwIfError() throws IOException {
+		if(statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			close();
+			throw new IOException("Server returned HTTP response code: " + statusCode + " for URL: " + connection.getURL());
+		}
+		return this;
+	}
+
+	/**
+	 * @param name
+	 * @return the value of the named response header, or <code>null</code> if it was not set
+	 */
+	public String getHeader(String name) {
+		return connection.getHeaderField(name);
+	}
+
+	/**
+	 * Gets the body of the response as a stream.  Closing the stream closes this response.
+	 * @return the response body, or an empty stream if there is none
+	 */
+	public InputStream getBody() {
+		return body != null ? body : new BodyInputStream(null);
+	}
+
+	/**
+	 * Reads the whole body of the response, and closes this response.
+	 * @return the body of the response, decoded with the charset given in its Content-Type
+	 * @throws IOException
+	 */
+	public String getBodyAsString() throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			if(body != null) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while((read = body.read(buffer)) != -1) {
+					bytes.write(buffer, 0, read);
+				}
+			}
+			return new String(bytes.toByteArray(), getCharset().name());
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Reads the whole body of the response as lines of text, and closes this response.
+	 * @return the lines of the body, without line terminators
+	 * @throws IOException
+	 */
+	public List<String> getBodyLines() throws IOException {
+		try {
+			List<String> lines = new ArrayList<String>();
+			if(body != null) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(body, getCharset()), BUFFER_SIZE);
+				String line;
+				while((line = reader.readLine()) != null) {
+					lines.add(line);
+				}
+			}
+			return lines;
+		} finally {
+			close();
+		}
+	}
+
+	/** @return the charset given in the response's Content-Type, or the platform default if there is none */
+	Charset getCharset() {
+		String contentType = connection.getContentType();
+		if(contentType != null) {
+			for(String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if(parameter.toLowerCase().startsWith("charset=")) {
+					String charsetName = parameter.substring("charset=".length()).replace("\"", "").trim();
+					try {
+						return Charset.forName(charsetName);
+					} catch(IllegalArgumentException ex) {
+						// Unknown charset - fall back to the default
+					}
+				}
+			}
+		}
+		return Charset.defaultCharset();
+	}
+
+//> LIFECYCLE
+	/**
+	 * Closes this response, draining any unread part of the body so that the connection may be reused.
+	 * Calling this more than once has no effect.
+	 */
+	public void close() {
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+		}
+		try {
+			if(body != null) {
+				((BodyInputStream) body).drainAndClose();
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * Reads and discards the error stream of a failed connection, so that the connection may be reused.
+	 * @param connection
+	 */
+	static void drainErrorStream(HttpURLConnection connection) {
+		InputStream error = connection.getErrorStream();
+		if(error != null) {
+			try {
+				drain(error);
+			} catch(IOException ex) {
+				// The connection will not be reused
+			}
+		}
+	}
+
+	/**
+	 * Reads and discards up to {@link #MAX_DRAIN_BYTES} from a stream, and then closes it.
+	 * @param in
+	 * @throws IOException
+	 */
+	private static void drain(InputStream in) throws IOException {
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int total = 0;
+			int read;
+			while(total < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+				total += read;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+//> INNER CLASSES
+	/** Stream of a response body.  Closing it closes the {@link HttpResponse}. */
+	private class BodyInputStream extends FilterInputStream {
+		/**
+		 * @param in the body stream from the connection, or <code>null</code> if there is no body
+		 */
+		BodyInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in == null ? -1 : super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in == null ? -1 : super.read(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			HttpResponse.this.close();
+		}
+
+		/** Drains the rest of the body and closes the underlying stream. */
+		void drainAndClose() {
+			if(in != null) {
+				try {
+					drain(in);
+				} catch(IOException ex) {
+					// The connection will not be reused
+				}
+			}
+		}
+	}
+}
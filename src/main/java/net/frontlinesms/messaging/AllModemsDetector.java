@@ -6,6 +6,7 @@ package net.frontlinesms.messaging;
 import java.io.*;
 import java.util.*;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.CommUtils;
 
 import serial.*;
@@ -33,15 +34,24 @@ public class AllModemsDetector {
 		return getDetectors();
 	}
 	
-	/** Trigger detection. */
+	/** Trigger detection, allowing {@link AppProperties#getModemDetectionBudget()} for it. */
 	public void detect() {
+		detect(AppProperties.getInstance().getModemDetectionBudget() * 1000L);
+	}
+	
+	/**
+	 * Trigger detection.  Ports are probed concurrently, and share a single time budget.
+	 * @param budgetMillis time, in millis, after which detectors stop trying new baud rates
+	 */
+	public void detect(long budgetMillis) {
 		log.trace("Starting device detection...");
+		long deadline = System.currentTimeMillis() + budgetMillis;
 		Set<ATDeviceDetector> detectors = new HashSet<ATDeviceDetector>();
 		Enumeration<CommPortIdentifier> ports = CommUtils.getPortIdentifiers();
 		while(ports.hasMoreElements()) {
 			CommPortIdentifier port = ports.nextElement();
 			if(port.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-				ATDeviceDetector d = new ATDeviceDetector(port);
+				ATDeviceDetector d = new ATDeviceDetector(port, deadline);
 				detectors.add(d);
 				d.start();
 			} else {
@@ -96,6 +106,8 @@ class ATDeviceDetector extends Thread {
 	private final Logger log = new Logger(this.getClass());
 	/** Port this is detecting on */
 	private final CommPortIdentifier portIdentifier;
+	/** Time, in millis, after which no more baud rates should be tried */
+	private final long deadline;
 	/** The top speed the device was detected at. */
 	private int maxBaudRate;
 	/** The serial number of the detected device. */
@@ -105,13 +117,20 @@ class ATDeviceDetector extends Thread {
 	
 	private String exceptionMessage;
 	
-	public ATDeviceDetector(CommPortIdentifier port) {
+	public ATDeviceDetector(CommPortIdentifier port, long deadline) {
 		super("ATDeviceDetector: " + port.getName());
 		this.portIdentifier = port;
+		this.deadline = deadline;
 	}
 	
 	public void run() {
-		for(int baud : BAUD_RATES) {
+		// Try the fastest baud rate first, and stop as soon as the device responds
+		for(int i=BAUD_RATES.length-1; i>=0 && !isDetected(); --i) {
+			int baud = BAUD_RATES[i];
+			if(System.currentTimeMillis() > deadline) {
+				this.exceptionMessage = "Time allowed for detection ran out.";
+				break;
+			}
 			SerialPort serialPort = null;
 			InputStream in = null;
 			OutputStream out = null;
@@ -0,0 +1,444 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Runs external commands, e.g. HTTP requests and external programs triggered by keyword actions, on a bounded
+ * pool of threads so that a slow or hung command cannot hold up the processing of incoming messages.
+ * <p>Each command is submitted with a key, e.g. the action which triggered it.  No more than {@link #keyConcurrencyLimit}
+ * commands with the same key are run at once; further commands with that key wait, in order, until one finishes.
+ * A command which runs for longer than {@link #timeoutMillis} is {@link Command#abort()}ed and its thread interrupted.
+ * If too many commands are waiting, new commands are rejected and counted.</p>
+ * <p>Processes started by commands which do not wait for them are {@link #reap(Process, String)}ed on a single
+ * shared thread, which discards their output and destroys any which run for longer than {@link #timeoutMillis}.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ExternalCommandExecutor {
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(ExternalCommandExecutor.class);
+	/** Time, in milliseconds, between checks of background processes being reaped */
+	private static final long REAPER_INTERVAL = 100;
+
+//> INSTANCE PROPERTIES
+	/** Pool of threads which run commands */
+	private final ThreadPoolExecutor executor;
+	/** Thread which aborts commands which have timed out */
+	private final ScheduledExecutorService watchdog;
+	/** Maximum time, in milliseconds, a command may run for before it is aborted */
+	private final long timeoutMillis;
+	/** Maximum number of commands with the same key which may run at once */
+	private final int keyConcurrencyLimit;
+	/** Maximum number of commands which may be waiting to run */
+	private final int queueCapacity;
+	/** Background processes being reaped by {@link #reaper}.  Guarded by <code>this</code>. */
+	private final LinkedList<BackgroundProcess> backgroundProcesses = new LinkedList<BackgroundProcess>();
+	/** Task run periodically on {@link #watchdog} to reap {@link #backgroundProcesses}, or <code>null</code> if there are none.  Guarded by <code>this</code>. */
+	private ScheduledFuture<?> reaper;
+
+	/** Number of commands currently submitted to {@link #executor} for each key.  Guarded by <code>this</code>. */
+	private final Map<Object, Integer> activeCounts = new HashMap<Object, Integer>();
+	/** Commands waiting for another command with the same key to finish.  Guarded by <code>this</code>. */
+	private final Map<Object, LinkedList<Execution>> backlogs = new HashMap<Object, LinkedList<Execution>>();
+	/** Number of commands in {@link #backlogs}.  Guarded by <code>this</code>. */
+	private int backlogSize;
+
+	/** Number of commands currently running */
+	private final AtomicInteger runningCount = new AtomicInteger();
+	/** Number of commands which have finished without error */
+	private final AtomicLong completedCount = new AtomicLong();
+	/** Number of commands which have thrown an exception */
+	private final AtomicLong failedCount = new AtomicLong();
+	/** Number of commands and background processes which were aborted because they ran for longer than {@link #timeoutMillis} */
+	private final AtomicLong timedOutCount = new AtomicLong();
+	/** Number of commands which were not run because too many commands were waiting */
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link ExternalCommandExecutor}.
+	 * @param threadCount maximum number of commands run at once
+	 * @param queueCapacity value for {@link #queueCapacity}
+	 * @param keyConcurrencyLimit value for {@link #keyConcurrencyLimit}
+	 * @param timeoutMillis value for {@link #timeoutMillis}
+	 */
+	public ExternalCommandExecutor(int threadCount, int queueCapacity, int keyConcurrencyLimit, long timeoutMillis) {
+		if(threadCount < 1) throw new IllegalArgumentException("Thread count must be at least 1, but was " + threadCount);
+		if(queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be at least 1, but was " + queueCapacity);
+		if(keyConcurrencyLimit < 1) throw new IllegalArgumentException("Concurrency limit must be at least 1, but was " + keyConcurrencyLimit);
+		if(timeoutMillis < 1) throw new IllegalArgumentException("Timeout must be at least 1ms, but was " + timeoutMillis);
+		this.timeoutMillis = timeoutMillis;
+		this.keyConcurrencyLimit = keyConcurrencyLimit;
+		this.queueCapacity = queueCapacity;
+		this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory("External command executor"));
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("External command watchdog"));
+	}
+
+//> COMMAND EXECUTION
+	/**
+	 * Submits a command to be run.  This method does not block.
+	 * @param key commands with equal keys are limited to {@link #keyConcurrencyLimit} running at once
+	 * @param command the command to run
+	 * @return <code>true</code> if the command will be run; <code>false</code> if it was rejected because too many commands are waiting
+	 */
+	public boolean execute(Object key, Command command) {
+		Execution execution = new Execution(key, command);
+		synchronized(this) {
+			if(executor.isShutdown() || getQueuedCount() >= queueCapacity) {
+				reject(command);
+				return false;
+			}
+			Integer active = activeCounts.get(key);
+			if(active != null && active >= keyConcurrencyLimit) {
+				LinkedList<Execution> backlog = backlogs.get(key);
+				if(backlog == null) {
+					backlog = new LinkedList<Execution>();
+					backlogs.put(key, backlog);
+				}
+				backlog.add(execution);
+				++backlogSize;
+				return true;
+			}
+			activeCounts.put(key, active == null ? 1 : active + 1);
+		}
+		return submit(execution);
+	}
+
+	/**
+	 * Reaps a process which was started without waiting for it to finish.  The process's output is read and
+	 * discarded, so that it cannot block on a full output buffer, and its resources are released once it exits.
+	 * The process is destroyed if it runs for longer than {@link #timeoutMillis}.  This method does not block.
+	 * @param process the started process, whose error stream should be redirected to its output
+	 * @param description description of the process, used in logging
+	 */
+	public synchronized void reap(Process process, String description) {
+		if(watchdog.isShutdown()) {
+			LOG.warn("External program will not be reaped, as the executor has been shut down: " + description);
+			return;
+		}
+		backgroundProcesses.add(new BackgroundProcess(process, description));
+		if(reaper == null) {
+			reaper = watchdog.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					reapBackgroundProcesses();
+				}
+			}, REAPER_INTERVAL, REAPER_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Polls each of {@link #backgroundProcesses}, and stops {@link #reaper} once there are none left. */
+	private synchronized void reapBackgroundProcesses() {
+		for(Iterator<BackgroundProcess> i = backgroundProcesses.iterator(); i.hasNext(); ) {
+			BackgroundProcess process = i.next();
+			try {
+				if(process.poll()) {
+					i.remove();
+				}
+			} catch(RuntimeException ex) {
+				// An exception would stop the reaper being run again, so give up on this process instead
+				LOG.warn("Problem reaping external program [" + process.description + "]", ex);
+				i.remove();
+			}
+		}
+		if(backgroundProcesses.isEmpty() && reaper != null) {
+			reaper.cancel(false);
+			reaper = null;
+		}
+	}
+
+	/** @return the number of background processes which have not yet exited */
+	public synchronized int getBackgroundProcessCount() {
+		return backgroundProcesses.size();
+	}
+
+	/**
+	 * Stops running commands.  Commands which have not started will not be run, and running commands are interrupted.
+	 * Background processes which have not yet exited are left running, but are no longer reaped.
+	 */
+	public void shutdown() {
+		synchronized(this) {
+			backlogs.clear();
+			backlogSize = 0;
+			backgroundProcesses.clear();
+			reaper = null;
+		}
+		executor.shutdownNow();
+		watchdog.shutdownNow();
+	}
+
+	/**
+	 * Submits an execution to {@link #executor}.  The execution's key must already have been counted in {@link #activeCounts}.
+	 * @param execution
+	 * @return <code>true</code> if the execution was submitted
+	 */
+	private boolean submit(Execution execution) {
+		try {
+			executor.execute(execution);
+			return true;
+		} catch(RejectedExecutionException ex) {
+			reject(execution.command);
+			finished(execution.key);
+			return false;
+		}
+	}
+
+	/**
+	 * Records that a command was rejected.
+	 * @param command
+	 */
+	private void reject(Command command) {
+		rejectedCount.incrementAndGet();
+		LOG.warn("External command rejected, as too many commands are waiting: " + command);
+	}
+
+	/**
+	 * Called when an execution with the supplied key has finished, to start the next waiting execution with the same key.
+	 * @param key
+	 */
+	private void finished(Object key) {
+		Execution next = null;
+		synchronized(this) {
+			LinkedList<Execution> backlog = backlogs.get(key);
+			if(backlog != null) {
+				next = backlog.removeFirst();
+				--backlogSize;
+				if(backlog.isEmpty()) {
+					backlogs.remove(key);
+				}
+			} else {
+				int active = activeCounts.get(key) - 1;
+				if(active == 0) {
+					activeCounts.remove(key);
+				} else {
+					activeCounts.put(key, active);
+				}
+			}
+		}
+		if(next != null) {
+			submit(next);
+		}
+	}
+
+//> METRICS
+	/** @return the number of commands waiting to run */
+	public synchronized int getQueuedCount() {
+		return executor.getQueue().size() + backlogSize;
+	}
+
+	/** @return the number of commands currently running */
+	public int getRunningCount() {
+		return runningCount.get();
+	}
+
+	/** @return the number of commands which have finished without error */
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/** @return the number of commands which have thrown an exception, not including those which timed out */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/** @return the number of commands which were aborted because they took too long */
+	public long getTimedOutCount() {
+		return timedOutCount.get();
+	}
+
+	/** @return the number of commands which were not run because too many commands were waiting */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+//> INNER CLASSES
+	/**
+	 * A command which can be run by an {@link ExternalCommandExecutor}.
+	 * @author Alex Anderson <alex@frontlinesms.com>
+	 */
+	public interface Command {
+		/**
+		 * Runs the command, including handling of any response.
+		 * @throws Exception if there was a problem running the command
+		 */
+		void execute() throws Exception;
+
+		/**
+		 * Called from another thread if this command has been running for too long.  Implementations should release
+		 * any connection or process the command is blocked on, so that {@link #execute()} returns promptly.
+		 */
+		void abort();
+	}
+
+	/** A single run of a {@link Command}, which enforces the timeout and records metrics. */
+	private class Execution implements Runnable {
+		/** The key the command was submitted with */
+		private final Object key;
+		/** The command to run */
+		private final Command command;
+		/** The thread running the command, or <code>null</code> if it is not running.  Guarded by <code>this</code>. */
+		private Thread thread;
+		/** Set <code>true</code> if the command was aborted for taking too long.  Guarded by <code>this</code>. */
+		private boolean timedOut;
+
+		/**
+		 * @param key value for {@link #key}
+		 * @param command value for {@link #command}
+		 */
+		Execution(Object key, Command command) {
+			this.key = key;
+			this.command = command;
+		}
+
+		public void run() {
+			synchronized(this) {
+				this.thread = Thread.currentThread();
+			}
+			runningCount.incrementAndGet();
+			ScheduledFuture<?> timeout = null;
+			try {
+				timeout = watchdog.schedule(new Runnable() {
+					public void run() {
+						timeout();
+					}
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+				command.execute();
+				if(!hasTimedOut()) {
+					completedCount.incrementAndGet();
+				}
+			} catch(Throwable t) {
+				if(!hasTimedOut()) {
+					failedCount.incrementAndGet();
+					LOG.warn("Problem executing external command: " + command, t);
+				}
+			} finally {
+				if(timeout != null) timeout.cancel(false);
+				synchronized(this) {
+					this.thread = null;
+					// Clear any interrupt from the watchdog, so that it does not affect the next command run on this thread
+					Thread.interrupted();
+				}
+				runningCount.decrementAndGet();
+				finished(key);
+			}
+		}
+
+		/** Aborts the command if it is still running. */
+		private void timeout() {
+			synchronized(this) {
+				if(this.thread == null) return;
+				this.timedOut = true;
+				timedOutCount.incrementAndGet();
+				LOG.warn("External command timed out after " + timeoutMillis + "ms: " + command);
+				try {
+					command.abort();
+				} catch(Throwable t) {
+					LOG.warn("Problem aborting external command: " + command, t);
+				}
+				this.thread.interrupt();
+			}
+		}
+
+		/** @return {@link #timedOut} */
+		private synchronized boolean hasTimedOut() {
+			return this.timedOut;
+		}
+	}
+
+	/** A process being reaped by {@link ExternalCommandExecutor#reaper}. */
+	private class BackgroundProcess {
+		/** The process */
+		private final Process process;
+		/** Description of the process, used in logging */
+		private final String description;
+		/** Time, in milliseconds, after which the process is destroyed */
+		private final long deadline;
+		/** Buffer into which the process's output is read and discarded */
+		private final byte[] buffer = new byte[1024];
+
+		/**
+		 * @param process value for {@link #process}
+		 * @param description value for {@link #description}
+		 */
+		BackgroundProcess(Process process, String description) {
+			this.process = process;
+			this.description = description;
+			this.deadline = System.currentTimeMillis() + timeoutMillis;
+		}
+
+		/**
+		 * Discards any output of the process which is available without blocking, and checks whether it has exited.
+		 * @return <code>true</code> if the process has exited or been destroyed, and need not be polled again
+		 */
+		boolean poll() {
+			InputStream output = process.getInputStream();
+			try {
+				int available;
+				while((available = output.available()) > 0) {
+					if(output.read(buffer, 0, Math.min(buffer.length, available)) < 0) break;
+				}
+			} catch(IOException ex) {
+				LOG.warn("Error reading output of external program [" + description + "]", ex);
+			}
+			try {
+				int exit = process.exitValue();
+				LOG.debug("Process exit value [" + exit + "] for [" + description + "]");
+			} catch(IllegalThreadStateException ex) {
+				// The process has not exited
+				if(System.currentTimeMillis() < deadline) {
+					return false;
+				}
+				timedOutCount.incrementAndGet();
+				LOG.warn("External program timed out after " + timeoutMillis + "ms: " + description);
+				process.destroy();
+			}
+			try {
+				output.close();
+			} catch(IOException ex) {
+				LOG.debug("Error closing output of external program [" + description + "]", ex);
+			}
+			return true;
+		}
+	}
+
+	/** Creates named daemon threads, so that hung commands do not prevent the application from exiting. */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		/** Prefix for the names of created threads */
+		private final String namePrefix;
+		/** Number of threads created so far */
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		/** @param namePrefix value for {@link #namePrefix} */
+		DaemonThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, namePrefix + " " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -19,14 +19,21 @@
  */
 package net.frontlinesms.messaging;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.StringTokenizer;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.EmailServerHandler;
 import net.frontlinesms.FrontlineSMS;
 import net.frontlinesms.FrontlineSMSConstants;
@@ -35,9 +42,13 @@ import net.frontlinesms.XMLReader;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.KeywordAction.ExternalCommandResponseActionType;
 import net.frontlinesms.data.domain.KeywordAction.ExternalCommandResponseType;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.data.repository.*;
 import net.frontlinesms.data.*;
+import net.frontlinesms.http.HttpClient;
+import net.frontlinesms.http.HttpRequestHandle;
+import net.frontlinesms.http.HttpResponse;
 import net.frontlinesms.listener.IncomingMessageListener;
 import net.frontlinesms.listener.UIListener;
 import net.frontlinesms.messaging.mms.MmsUtils;
@@ -53,6 +64,10 @@ import org.smslib.sms.SmsMessageEncoding;
 
 /**
  * Processor of incoming messages for {@link FrontlineSMS}.
+ * <p>Queued items are partitioned by sender MSISDN across a number of worker queues.  Messages
+ * from a single sender are always processed in the order they were queued, while messages from
+ * different senders may be processed in parallel.  The queue for the first partition is drained
+ * by this thread; the remaining partitions each have their own {@link Worker} thread.</p>
  * @author Alex
  */
 public class IncomingMessageProcessor extends Thread {
@@ -61,10 +76,12 @@ public class IncomingMessageProcessor extends Thread {
 
 	private static final Logger LOG = FrontlineUtils.getLogger(IncomingMessageProcessor.class);
 	
-	/** Set hi when the thread should terminate. */
-	private boolean keepAlive;
-	/** Queue of messages to process. */
-	private final BlockingQueue<IncomingMessageProcessorQueueItem> incomingMessageQueue = new LinkedBlockingQueue<IncomingMessageProcessorQueueItem>();
+	/** Set hi when the threads should terminate. */
+	private volatile boolean keepAlive;
+	/** Queues of messages to process, one per partition.  Partition <code>0</code> is drained by this thread. */
+	private final List<BlockingQueue<IncomingMessageProcessorQueueItem>> incomingMessageQueues;
+	/** Worker threads draining partitions <code>1</code> to <code>n-1</code> of {@link #incomingMessageQueues}. */
+	private final List<Worker> workers;
 	
 //> DATA ACCESS OBJECTS
 	private final FrontlineSMS frontline;
@@ -78,13 +95,45 @@ public class IncomingMessageProcessor extends Thread {
 
 	private UIListener uiListener;
 	/** Set of listeners for incoming message events. */
-	private Set<IncomingMessageListener> incomingMessageListeners = new HashSet<IncomingMessageListener>();
+	private final Set<IncomingMessageListener> incomingMessageListeners = new CopyOnWriteArraySet<IncomingMessageListener>();
 	
 	private final EmailServerHandler emailServerHandler;
+	/** Runs the external commands of {@link KeywordAction.Type#EXTERNAL_CMD} actions, so that they do not hold up message processing */
+	private final ExternalCommandExecutor externalCommandExecutor;
+	/** Maximum time, in milliseconds, an external command may run for, also used as the read timeout of HTTP commands */
+	private final int externalCommandTimeout;
 
-	/** Create a new {@link IncomingMessageProcessor}, and initialise properties. */
+	/**
+	 * Create a new {@link IncomingMessageProcessor}, and initialise properties.  The number of workers
+	 * and the depth of their queues are read from {@link AppProperties}.
+	 */
 	public IncomingMessageProcessor(FrontlineSMS frontline) {
+		this(frontline,
+				AppProperties.getInstance().getIncomingMessageProcessorWorkerCount(),
+				AppProperties.getInstance().getIncomingMessageProcessorQueueDepth());
+	}
+	
+	/**
+	 * Create a new {@link IncomingMessageProcessor}, and initialise properties.
+	 * @param frontline
+	 * @param workerCount the number of partitions incoming messages are spread across
+	 * @param queueDepth the maximum number of items queued in each partition before {@link #queue(SmsService, CIncomingMessage)} blocks
+	 */
+	public IncomingMessageProcessor(FrontlineSMS frontline, int workerCount, int queueDepth) {
 		super("Incoming message processor");
+		if(workerCount < 1) throw new IllegalArgumentException("Worker count must be at least 1, but was " + workerCount);
+		if(queueDepth < 1) throw new IllegalArgumentException("Queue depth must be at least 1, but was " + queueDepth);
+		
+		this.incomingMessageQueues = new ArrayList<BlockingQueue<IncomingMessageProcessorQueueItem>>(workerCount);
+		this.workers = new ArrayList<Worker>(workerCount - 1);
+		for (int i = 0; i < workerCount; i++) {
+			BlockingQueue<IncomingMessageProcessorQueueItem> queue = new LinkedBlockingQueue<IncomingMessageProcessorQueueItem>(queueDepth);
+			this.incomingMessageQueues.add(queue);
+			if(i > 0) {
+				this.workers.add(new Worker(i, queue));
+			}
+		}
+		
 		this.frontline = frontline;
 		this.contactDao = frontline.getContactDao();
 		this.keywordDao = frontline.getKeywordDao();
@@ -94,6 +143,14 @@ public class IncomingMessageProcessor extends Thread {
 		this.messageDao = frontline.getMessageDao();
 		this.emailDao = frontline.getEmailDao();
 		this.emailServerHandler = frontline.getEmailServerHandler();
+		
+		AppProperties appProperties = AppProperties.getInstance();
+		this.externalCommandTimeout = appProperties.getExternalCommandTimeout() * 1000;
+		this.externalCommandExecutor = new ExternalCommandExecutor(
+				appProperties.getExternalCommandThreadCount(),
+				appProperties.getExternalCommandQueueDepth(),
+				appProperties.getExternalCommandActionLimit(),
+				this.externalCommandTimeout);
 	}
 	
 	public void setUiListener(UIListener uiListener) {
@@ -101,23 +158,99 @@ public class IncomingMessageProcessor extends Thread {
 	}
 
 	
+	/**
+	 * Queue an incoming SMS for processing.  If the partition for this message's sender is full,
+	 * this method will block until there is space available.
+	 */
 	public void queue(SmsService receiver, CIncomingMessage incomingMessage) {
 		LOG.trace("Adding message to queue: " + receiver.hashCode() + ":" + incomingMessage.hashCode());
-		incomingMessageQueue.add(new IncomingMessageDetails(receiver, incomingMessage));
+		queue(new IncomingMessageDetails(receiver, incomingMessage));
 	}
 	
+	/**
+	 * Queue an incoming MMS for processing.  If the partition for this message's sender is full,
+	 * this method will block until there is space available.
+	 */
 	public void queue(MmsMessage mms) {
 		LOG.trace("Adding MMS to queue:" + mms.hashCode());
-		incomingMessageQueue.add(new IncomingMms(mms));
+		queue(new IncomingMms(mms));
+	}
+	
+	/**
+	 * Add an item to the queue of the partition its sender is assigned to, blocking until space is available.
+	 * @param queueItem
+	 */
+	private void queue(IncomingMessageProcessorQueueItem queueItem) {
+		BlockingQueue<IncomingMessageProcessorQueueItem> queue = this.incomingMessageQueues.get(getPartition(queueItem.getSenderMsisdn()));
+		boolean interrupted = false;
+		while(true) {
+			try {
+				queue.put(queueItem);
+				break;
+			} catch(InterruptedException ex) {
+				// Don't drop the message - keep trying, and restore the interrupt once it has been queued
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @param senderMsisdn
+	 * @return the index of the partition in {@link #incomingMessageQueues} that messages from the supplied sender should be queued in
+	 */
+	int getPartition(String senderMsisdn) {
+		if(senderMsisdn == null) {
+			return 0;
+		} else {
+			return (senderMsisdn.hashCode() & Integer.MAX_VALUE) % this.incomingMessageQueues.size();
+		}
+	}
+	
+	/** @return the number of worker partitions incoming messages are spread across */
+	public int getWorkerCount() {
+		return this.incomingMessageQueues.size();
+	}
+	
+	/** @return the executor which runs external commands, from which metrics for queued, running and timed out commands are available */
+	public ExternalCommandExecutor getExternalCommandExecutor() {
+		return this.externalCommandExecutor;
+	}
+	
+	/** @return the total number of items currently waiting to be processed, across all partitions */
+	public int getQueuedItemCount() {
+		int count = 0;
+		for(BlockingQueue<IncomingMessageProcessorQueueItem> queue : this.incomingMessageQueues) {
+			count += queue.size();
+		}
+		return count;
 	}
 	
 	public void die() {
 		keepAlive = false;
-		incomingMessageQueue.add(new IncomingMessageProcessorQueueKiller());
+		this.externalCommandExecutor.shutdown();
+		for(BlockingQueue<IncomingMessageProcessorQueueItem> queue : this.incomingMessageQueues) {
+			// If the queue is full, the worker will still notice keepAlive has been cleared after its next item
+			queue.offer(new IncomingMessageProcessorQueueKiller());
+		}
 	}
 	
 	public void run() {
 		this.keepAlive = true;
+		for(Worker worker : this.workers) {
+			worker.start();
+		}
+		processQueue(this.incomingMessageQueues.get(0));
+	}
+	
+	/**
+	 * Process items from the supplied queue until {@link #keepAlive} is cleared or a
+	 * {@link IncomingMessageProcessorQueueKiller} is taken from it.
+	 * @param incomingMessageQueue
+	 */
+	private void processQueue(BlockingQueue<IncomingMessageProcessorQueueItem> incomingMessageQueue) {
 		while(keepAlive) {
 			IncomingMessageProcessorQueueItem queueItem = null;
 			LOG.trace("Getting incoming message from queue.");
@@ -134,17 +267,22 @@ public class IncomingMessageProcessor extends Thread {
 			} else {
 				if(queueItem instanceof IncomingMessageProcessorQueueKiller) {
 					// We have been given a "poisoned" item so must terminate this thread
-					keepAlive = false;
+					break;
 				} else {
-					try {
-						// We've got a new message, so process it.
-						processIncomingMessageDetails(queueItem);
-					} catch(Throwable t) {
-						// There was a problem processing the message.  At this stage, any issue should be a database
-						// connectivity issue.  Stop processing messages for a while, and re-queue this one.
-						LOG.warn("Error processing message.  It will be queued for re-processing.", t);
-						incomingMessageQueue.add(queueItem);
-						FrontlineUtils.sleep_ignoreInterrupts(THREAD_SLEEP_AFTER_PROCESSING_FAILED);
+					// We've got a new message, so process it.  If processing fails, retry the
+					// same item rather than re-queuing it, so that later messages from the same
+					// sender cannot overtake it.
+					boolean processed = false;
+					while(!processed && keepAlive) {
+						try {
+							processIncomingMessageDetails(queueItem);
+							processed = true;
+						} catch(Throwable t) {
+							// There was a problem processing the message.  At this stage, any issue should be a database
+							// connectivity issue.  Stop processing messages for a while, and then try again.
+							LOG.warn("Error processing message.  It will be re-processed.", t);
+							FrontlineUtils.sleep_ignoreInterrupts(THREAD_SLEEP_AFTER_PROCESSING_FAILED);
+						}
 					}
 				} 
 			}
@@ -156,6 +294,7 @@ public class IncomingMessageProcessor extends Thread {
 		if (queueItem instanceof IncomingMms) {
 			// Creates the FrontlineMultimediaMessage
 			FrontlineMultimediaMessage mms = MmsUtils.create(((IncomingMms) queueItem).getMessage());
+			mms.setKeyword(keywordDao.getKeyword(FrontlineSMSConstants.MMS_KEYWORD));
 			this.messageDao.saveMessage(mms);
 			handleMessage(mms);
 		} else if (queueItem instanceof IncomingMessageDetails) {
@@ -176,6 +315,7 @@ public class IncomingMessageProcessor extends Thread {
 				if (incomingMessage.getMessageEncoding() == SmsMessageEncoding.GSM_7BIT || incomingMessage.getMessageEncoding() == SmsMessageEncoding.UCS2) {
 					if(LOG.isDebugEnabled()) LOG.debug("Incoming text message [" + incomingMessage.getText() + "]");
 					incoming = FrontlineMessage.createIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, receiver.getMsisdn(), incomingMessage.getText());
+					incoming.setKeyword(keywordDao.getFromMessageText(incoming.getTextContent()));
 					messageDao.saveMessage(incoming);
 					handleMessage(incoming);
 				} else {
@@ -230,21 +370,16 @@ public class IncomingMessageProcessor extends Thread {
 
 	/**
 	 * Processes keyword actions for a text message.
-	 * @param message
+	 * @param message the message, already tagged with the {@link Keyword} it matched
 	 */
 	/* not private to allow unit testing */
 	void handleMessage(final FrontlineMessage message) {
-		Keyword keyword;
-		
-		if (message instanceof FrontlineMultimediaMessage) {
-			keyword = keywordDao.getKeyword(FrontlineSMSConstants.MMS_KEYWORD);
-		} else {
-			keyword = keywordDao.getFromMessageText(message.getTextContent());
-		}
+		// The message was tagged with its keyword before it was saved
+		Keyword keyword = message.getKeyword();
 		
 		if (keyword != null) {
 			LOG.debug("The message contains keyword [" + keyword.getKeyword() + "]");
-			final Collection<KeywordAction> actions = this.keywordActionDao.getActions(keyword);
+			final Collection<KeywordAction> actions = this.keywordActionDao.getAliveActions(keyword, message.getDate());
 			// TODO process pre-message actions (e.g. "shred") TODO this should actually be done BEFORE the message object is persisted
 
 			if(actions.size() > 0) {
@@ -253,14 +388,11 @@ public class IncomingMessageProcessor extends Thread {
 				//If we could not find this contact, we execute the action.
 				//If we found a contact, he/she needs to be allowed to execute the action.
 				if (contact == null || contact.isActive()) {
-					final long triggerTime = message.getDate();
 					for (KeywordAction action : actions) {
-						if (action.isAlive(triggerTime)) {
-							try {
-								handleIncomingMessageAction_post(action, message);
-							} catch(Exception ex) {
-								LOG.warn("Exception thrown while executing action.", ex);
-							}
+						try {
+							handleIncomingMessageAction_post(action, message);
+						} catch(Exception ex) {
+							LOG.warn("Exception thrown while executing action.", ex);
 						}
 					}
 				}
@@ -286,10 +418,13 @@ public class IncomingMessageProcessor extends Thread {
 				LOG.debug("It is a forward action!");
 				String forwardedMessageText = KeywordAction.KeywordUtils.getForwardText(action, contactDao.getFromMsisdn(incomingSenderMsisdn), incomingSenderMsisdn, incomingMessageText);
 				LOG.debug("Message to forward [" + forwardedMessageText + "]");
+				List<String> forwardRecipients = new ArrayList<String>();
 				for (Contact contact : this.groupMembershipDao.getActiveMembers(action.getGroup())) {
 					LOG.debug("Sending to [" + contact.getName() + "]");
-					frontline.sendTextMessage(contact.getPhoneNumber(), KeywordAction.KeywordUtils.personaliseMessage(contact, forwardedMessageText));
+					forwardRecipients.add(contact.getPhoneNumber());
 				}
+				// The message is personalised for each contact by sendTextMessages()
+				frontline.sendTextMessages(forwardRecipients, forwardedMessageText, Priority.BULK, true);
 				break;
 			case JOIN: {
 				LOG.debug("It is a group join action!");
@@ -344,15 +479,7 @@ public class IncomingMessageProcessor extends Thread {
 			case EXTERNAL_CMD:
 				// Executes a external command
 				LOG.debug("It is an external command action!");
-				try {
-					executeExternalCommand(action, incomingSenderMsisdn, incomingMessageText);
-				} catch (IOException e) {
-					LOG.debug("Problem executing external command.", e);
-				} catch (InterruptedException e) {
-					LOG.debug("Problem executing external command.", e);
-				} catch (JDOMException e) {
-					LOG.debug("Problem executing external command.", e);
-				}
+				executeExternalCommand(action, incomingSenderMsisdn, incomingMessageText);
 				break;
 			case EMAIL:
 				LOG.debug("It is an e-mail action!");
@@ -379,16 +506,14 @@ public class IncomingMessageProcessor extends Thread {
 	
 
 	/**
-	 * Executes a external command (HTTP or Command Line) and treats its response according to what is defined in the action.
+	 * Queues an external command (HTTP or Command Line) to be executed by {@link #externalCommandExecutor}.  Its
+	 * response will be treated according to what is defined in the action once the command has completed.
 	 * @param action
 	 * @param incomingSenderMsisdn 
 	 * @param incomingMessageText 
-	 * @throws IOException 
-	 * @throws InterruptedException 
-	 * @throws JDOMException 
 	 */
 	/* not private to allow unit testing */
-	void executeExternalCommand(KeywordAction action, String incomingSenderMsisdn, String incomingMessageText) throws IOException, InterruptedException, JDOMException {
+	void executeExternalCommand(KeywordAction action, String incomingSenderMsisdn, String incomingMessageText) {
 		LOG.trace("ENTER");
 		String cmd = KeywordAction.KeywordUtils.getExternalCommand(
 				action,
@@ -397,70 +522,50 @@ public class IncomingMessageProcessor extends Thread {
 				incomingMessageText
 		);
 		LOG.debug("Command to be executed [" + cmd + "]");
+		this.externalCommandExecutor.execute(action.getId(), new ExternalCommand(action, incomingSenderMsisdn, cmd));
+		LOG.trace("EXIT");
+	}
 
-		if (action.getExternalCommandResponseType() != ExternalCommandResponseType.LIST_COMMANDS) {
-			//Executes the command and handle the response as plain text, or no response at all.
-			String response;
-			LOG.debug("Response will be plain text or nothing at all.");
-			boolean waitForResponse = action.getExternalCommandResponseType() == ExternalCommandResponseType.PLAIN_TEXT;
-			if (action.getExternalCommandType() == KeywordAction.ExternalCommandType.HTTP_REQUEST) {
-				LOG.debug("Executing HTTP request...");
-				response = FrontlineUtils.makeHttpRequest(cmd, waitForResponse);
-			} else {
-				LOG.debug("Executing external program...");
-				response = FrontlineUtils.executeExternalProgram(cmd, waitForResponse);
-			}
-			if (waitForResponse) {
-				LOG.debug("Response [" + response + "]");
-				handleExternalCommandResponse(action, incomingSenderMsisdn, response);
-			}
-		} else {
-			//LIST OF COMMANDS TO EXECUTE
-			LOG.debug("Response will be an XML with Frontline Commands.");
-			InputStream toRead = null;
-			if (action.getExternalCommandType() == KeywordAction.ExternalCommandType.HTTP_REQUEST) {
-				LOG.debug("Executing HTTP request...");
-				toRead = FrontlineUtils.makeHttpRequest(cmd);
-			} else {
-				LOG.debug("Executing external program...");
-				toRead = FrontlineUtils.executeExternalProgram(cmd);
-			}
-			LOG.debug("Reading XML from response...");
-			XMLReader reader = new XMLReader(toRead);
-			for (XMLMessage msg : reader.readMessages()) {
-				LOG.debug("Message found!");
-				LOG.debug("Data [" + msg.getData() + "]");
-				if (msg.getType() == XMLMessage.TYPE_TEXT) {
-					//We add everything to the numbers list, to send in the end.
-					//Contacts
-					for (String contact : msg.getToContacts()) {
-						Contact c = contactDao.getContactByName(contact);
-						if (c!= null && c.isActive()) {
-							msg.addNumber(c.getPhoneNumber());
-						}
+	/**
+	 * Sends the messages listed in the XML response to an external command.
+	 * @param toRead the XML response of the command
+	 * @throws IOException 
+	 * @throws JDOMException 
+	 */
+	private void handleExternalCommandXmlResponse(InputStream toRead) throws JDOMException, IOException {
+		LOG.debug("Reading XML from response...");
+		XMLReader reader = new XMLReader(toRead);
+		for (XMLMessage msg : reader.readMessages()) {
+			LOG.debug("Message found!");
+			LOG.debug("Data [" + msg.getData() + "]");
+			if (msg.getType() == XMLMessage.TYPE_TEXT) {
+				//We add everything to the numbers list, to send in the end.
+				//Contacts
+				for (String contact : msg.getToContacts()) {
+					Contact c = contactDao.getContactByName(contact);
+					if (c!= null && c.isActive()) {
+						msg.addNumber(c.getPhoneNumber());
 					}
-					//Groups
-					for (String group : msg.getToGroups()) {
-						Group g = groupDao.getGroupByPath(group);
-						if (g != null) {
-							for(Contact c : this.groupMembershipDao.getActiveMembers(g)) {
-								if (c.isActive()) {
-									msg.addNumber(c.getPhoneNumber());
-								}
+				}
+				//Groups
+				for (String group : msg.getToGroups()) {
+					Group g = groupDao.getGroupByPath(group);
+					if (g != null) {
+						for(Contact c : this.groupMembershipDao.getActiveMembers(g)) {
+							if (c.isActive()) {
+								msg.addNumber(c.getPhoneNumber());
 							}
 						}
 					}
-					//All recipients are in the numbers list now.
-					for (String number : msg.getToNumbers()) {
-						LOG.debug("Sending to [" + number + "]");
-						frontline.sendTextMessage(number, msg.getData());
-					}
-				} else {
-					//TODO BINARY MESSAGE
 				}
+				//All recipients are in the numbers list now.
+				Priority priority = msg.getToNumbers().size() > 1 ? Priority.BULK : Priority.HIGH;
+				LOG.debug("Sending to " + msg.getToNumbers());
+				frontline.sendTextMessages(msg.getToNumbers(), msg.getData(), priority);
+			} else {
+				//TODO BINARY MESSAGE
 			}
 		}
-		LOG.trace("EXIT");
 	}
 
 	/**
@@ -494,6 +599,7 @@ public class IncomingMessageProcessor extends Thread {
 			//Forwarding to a group
 			Group fwd = action.getGroup();
 			LOG.debug("Forwarding to group [" + fwd.getName() + "]");
+			List<String> forwardRecipients = new ArrayList<String>();
 			for(Contact contact : this.groupMembershipDao.getActiveMembers(fwd)) {
 				if (contact.isActive()) {
 					if (responseActionType != KeywordAction.ExternalCommandResponseActionType.REPLY_AND_FORWARD 
@@ -502,9 +608,10 @@ public class IncomingMessageProcessor extends Thread {
 						//so we don't send the message again.
 						LOG.debug("Sending to contact [" + contact.getName() + "]");
 					}
-					frontline.sendTextMessage(contact.getPhoneNumber(), message);
+					forwardRecipients.add(contact.getPhoneNumber());
 				}
 			}
+			frontline.sendTextMessages(forwardRecipients, message, Priority.BULK);
 		}
 		LOG.trace("EXIT");
 	}
@@ -524,10 +631,225 @@ public class IncomingMessageProcessor extends Thread {
 	public void removeIncomingMessageListener(IncomingMessageListener incomingMessageListener) {
 		this.incomingMessageListeners.remove(incomingMessageListener);
 	}
+	
+//> INNER CLASSES
+	/**
+	 * The external command of a {@link KeywordAction.Type#EXTERNAL_CMD} action, run by {@link IncomingMessageProcessor#externalCommandExecutor}.
+	 * The command's response is handled on the executor's thread once the command has completed.
+	 * @author Alex
+	 */
+	private class ExternalCommand implements ExternalCommandExecutor.Command {
+		/** The action which triggered this command */
+		private final KeywordAction action;
+		/** The sender of the message which triggered this command */
+		private final String incomingSenderMsisdn;
+		/** The HTTP URL or command line to execute */
+		private final String cmd;
+		/** Handle through which the HTTP request made by this command, if any, is aborted */
+		private final HttpRequestHandle httpRequest = new HttpRequestHandle();
+		/** The process started by this command, if any */
+		private volatile Process process;
+		
+		/**
+		 * @param action value for {@link #action}
+		 * @param incomingSenderMsisdn value for {@link #incomingSenderMsisdn}
+		 * @param cmd value for {@link #cmd}
+		 */
+		ExternalCommand(KeywordAction action, String incomingSenderMsisdn, String cmd) {
+			this.action = action;
+			this.incomingSenderMsisdn = incomingSenderMsisdn;
+			this.cmd = cmd;
+		}
+		
+		/** @see ExternalCommandExecutor.Command#execute() */
+		public void execute() throws IOException, InterruptedException, JDOMException {
+			boolean httpRequest = action.getExternalCommandType() == KeywordAction.ExternalCommandType.HTTP_REQUEST;
+			if (action.getExternalCommandResponseType() != ExternalCommandResponseType.LIST_COMMANDS) {
+				//Executes the command and handle the response as plain text, or no response at all.
+				LOG.debug("Response will be plain text or nothing at all.");
+				boolean waitForResponse = action.getExternalCommandResponseType() == ExternalCommandResponseType.PLAIN_TEXT;
+				String response;
+				if (httpRequest) {
+					LOG.debug("Executing HTTP request...");
+					response = makeHttpRequest(waitForResponse);
+				} else {
+					LOG.debug("Executing external program...");
+					response = executeExternalProgram(waitForResponse);
+				}
+				if (waitForResponse) {
+					LOG.debug("Response [" + response + "]");
+					handleExternalCommandResponse(action, incomingSenderMsisdn, response);
+				}
+			} else {
+				//LIST OF COMMANDS TO EXECUTE
+				LOG.debug("Response will be an XML with Frontline Commands.");
+				if (httpRequest) {
+					LOG.debug("Executing HTTP request...");
+					InputStream toRead = makeHttpRequest().throwIfError().getBody();
+					try {
+						handleExternalCommandXmlResponse(toRead);
+					} finally {
+						toRead.close();
+					}
+				} else {
+					LOG.debug("Executing external program...");
+					Process p = startProcess();
+					try {
+						// Read the output before waiting for the process, so it cannot block on a full output buffer
+						handleExternalCommandXmlResponse(p.getInputStream());
+						p.waitFor();
+					} finally {
+						p.getInputStream().close();
+					}
+				}
+			}
+		}
+		
+		/** @see ExternalCommandExecutor.Command#abort() */
+		public void abort() {
+			httpRequest.abort();
+			Process process = this.process;
+			if(process != null) {
+				process.destroy();
+			}
+		}
+		
+		/**
+		 * Makes the HTTP request for this command.
+		 * @param waitForResponse <code>true</code> if the body of the response should be read
+		 * @return the body of the response, or an empty string if it was not read or the request failed
+		 * @throws IOException
+		 */
+		private String makeHttpRequest(boolean waitForResponse) throws IOException {
+			HttpResponse response = makeHttpRequest();
+			try {
+				int rc = response.getStatusCode();
+				LOG.debug("RC = " + rc);
+				if (rc != HttpURLConnection.HTTP_OK || !waitForResponse) {
+					return "";
+				}
+				return readFully(response.getBody());
+			} finally {
+				response.close();
+			}
+		}
+		
+		/**
+		 * Runs the external program for this command.
+		 * @param waitForResponse <code>true</code> if this should wait for the program to finish, and read its output
+		 * @return the standard output of the program, or an empty string if it was not read or the program failed
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		private String executeExternalProgram(boolean waitForResponse) throws IOException, InterruptedException {
+			if (!waitForResponse) {
+				startBackgroundProcess();
+				return "";
+			}
+			Process p = startProcess();
+			String output;
+			try {
+				// Read the output before waiting for the process, so it cannot block on a full output buffer
+				output = readFully(p.getInputStream());
+			} finally {
+				p.getInputStream().close();
+			}
+			int exit = p.waitFor();
+			LOG.debug("Process exit value [" + exit + "]");
+			return exit == 0 ? output : "";
+		}
+		
+		/**
+		 * Makes the HTTP request for this command using the shared {@link HttpClient}, so that connections to the same
+		 * server are kept alive and reused.  The request may be aborted through {@link #httpRequest} before its
+		 * response is received, and waits no longer than {@link IncomingMessageProcessor#externalCommandTimeout}
+		 * for data.
+		 * @return the response, which must be closed once it has been read
+		 * @throws IOException
+		 */
+		private HttpResponse makeHttpRequest() throws IOException {
+			return HttpClient.getShared().get(cmd, externalCommandTimeout, httpRequest);
+		}
+		
+		/**
+		 * Starts the external program for this command.
+		 * @return the started process
+		 * @throws IOException
+		 */
+		private Process startProcess() throws IOException {
+			Process p = Runtime.getRuntime().exec(cmd);
+			this.process = p;
+			return p;
+		}
+		
+		/**
+		 * Starts the external program for this command without waiting for it to finish.  The process is reaped by
+		 * {@link IncomingMessageProcessor#externalCommandExecutor}, which releases its resources once it exits, and
+		 * destroys it if it runs for longer than {@link IncomingMessageProcessor#externalCommandTimeout}.
+		 * @throws IOException
+		 */
+		private void startBackgroundProcess() throws IOException {
+			// Split the command line in the same way as Runtime.exec(String)
+			List<String> command = new ArrayList<String>();
+			StringTokenizer tokens = new StringTokenizer(cmd);
+			while (tokens.hasMoreTokens()) {
+				command.add(tokens.nextToken());
+			}
+			Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+			p.getOutputStream().close();
+			externalCommandExecutor.reap(p, cmd);
+		}
+		
+		/**
+		 * @param input
+		 * @return the lines of text read from the stream, each followed by a newline
+		 * @throws IOException
+		 */
+		private String readFully(InputStream input) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+			StringBuilder sb = new StringBuilder();
+			String line;
+			while (null != (line = reader.readLine())) {
+				sb.append(line + "\n");
+			}
+			return sb.toString();
+		}
+		
+		@Override
+		public String toString() {
+			return "ExternalCommand[" + cmd + "]";
+		}
+	}
+	
+	/**
+	 * Thread which processes the items queued in a single partition of the {@link IncomingMessageProcessor}.
+	 * @author Alex
+	 */
+	private class Worker extends Thread {
+		/** Queue of messages for this worker's partition. */
+		private final BlockingQueue<IncomingMessageProcessorQueueItem> queue;
+		
+		/**
+		 * @param partition the index of the partition this worker processes
+		 * @param queue the queue of messages for the partition
+		 */
+		Worker(int partition, BlockingQueue<IncomingMessageProcessorQueueItem> queue) {
+			super("Incoming message processor worker " + partition);
+			this.queue = queue;
+		}
+		
+		@Override
+		public void run() {
+			processQueue(this.queue);
+		}
+	}
 }
 
-/** Empty interface implemented by items which are put in the {@link IncomingMessageProcessor}'s queue. */
-interface IncomingMessageProcessorQueueItem {}
+/** Interface implemented by items which are put in the {@link IncomingMessageProcessor}'s queue. */
+interface IncomingMessageProcessorQueueItem {
+	/** @return the MSISDN of the sender of this item, used to choose its partition, or <code>null</code> if it has none */
+	String getSenderMsisdn();
+}
 
 /**
  * Queue item which contains details of an incoming message.
@@ -556,6 +878,10 @@ class IncomingMessageDetails implements IncomingMessageProcessorQueueItem {
 	public SmsService getReceiver() {
 		return receiver;
 	}
+	/** @see IncomingMessageProcessorQueueItem#getSenderMsisdn() */
+	public String getSenderMsisdn() {
+		return message.getOriginator();
+	}
 }
 
 /**
@@ -578,10 +904,19 @@ class IncomingMms implements IncomingMessageProcessorQueueItem {
 	public MmsMessage getMessage() {
 		return message;
 	}
+	/** @see IncomingMessageProcessorQueueItem#getSenderMsisdn() */
+	public String getSenderMsisdn() {
+		return message.getSender();
+	}
 }
 
 /**
  * Queuing an instance of this class will kill the {@link IncomingMessageProcessor}.
  * @author Alex
  */
-class IncomingMessageProcessorQueueKiller implements IncomingMessageProcessorQueueItem {}
+class IncomingMessageProcessorQueueKiller implements IncomingMessageProcessorQueueItem {
+	/** @see IncomingMessageProcessorQueueItem#getSenderMsisdn() */
+	public String getSenderMsisdn() {
+		return null;
+	}
+}
@@ -0,0 +1,315 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.frontlinesms.FrontlineUtils;
+
+import org.apache.log4j.Logger;
+import org.smslib.CIncomingMessage;
+
+/**
+ * Joins the parts of concatenated messages received by devices, so that each message is processed once with its
+ * full text.  Parts are held until every part of their message has been received, whichever device received them
+ * and however long apart they were read.
+ * <p>Parts are grouped by originator, reference number and part count.  The memory used is bounded: if no part of
+ * a message is received for {@link #timeout}, or holding another part would exceed {@link #maxParts}, the parts
+ * received so far are passed on separately and counted as orphaned.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ConcatenatedSmsBuffer {
+//> INSTANCE PROPERTIES
+	/** Logging object */
+	private final Logger log = FrontlineUtils.getLogger(this.getClass());
+	/** Time, in millis, to wait for the next part of a message before passing on the parts received */
+	private final long timeout;
+	/** Maximum number of parts held at any time */
+	private final int maxParts;
+	/** Parts held for each message, with the message least recently received or looked up first */
+	private final LinkedHashMap<Key, PartSet> partSets = new LinkedHashMap<Key, PartSet>(16, 0.75f, true);
+	/** The number of parts currently held */
+	private int heldPartCount;
+	/** The number of messages joined from all of their parts */
+	private long reassembledCount;
+	/** The number of parts passed on separately because the rest of their message was not received */
+	private long orphanedPartCount;
+	/** The number of messages whose parts were passed on separately because no part was received for {@link #timeout} */
+	private long expiredCount;
+	/** The number of messages whose parts were passed on separately to keep within {@link #maxParts} */
+	private long evictedCount;
+	/** The number of parts dropped because they had already been received */
+	private long duplicatePartCount;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link ConcatenatedSmsBuffer}.
+	 * @param timeout value for {@link #timeout}
+	 * @param maxParts value for {@link #maxParts}
+	 */
+	public ConcatenatedSmsBuffer(long timeout, int maxParts) {
+		this.timeout = timeout;
+		this.maxParts = Math.max(1, maxParts);
+	}
+
+//> BUFFERING METHODS
+	/**
+	 * Adds a received part to this buffer.
+	 * @param receiver the device which received the part
+	 * @param part
+	 * @param now the current time, in millis
+	 * @return the messages which should now be passed on for processing; either the message this part completed,
+	 * or the parts of messages passed on separately to make room for this part
+	 */
+	public synchronized List<ReleasedMessage> add(SmsService receiver, IncomingMessagePart part, long now) {
+		List<ReleasedMessage> released = new ArrayList<ReleasedMessage>();
+		if(part.getPartCount() <= 1) {
+			// A single part is already a whole message
+			released.add(new ReleasedMessage(receiver, part));
+			return released;
+		}
+
+		Key key = new Key(part);
+		PartSet partSet = partSets.get(key);
+		if(partSet != null && partSet.parts.containsKey(part.getPartNumber())) {
+			++duplicatePartCount;
+			log.debug("Dropping duplicate part [" + part.getPartNumber() + "] of [" + key + "]");
+			return released;
+		}
+
+		// Make room for the part, passing on the parts of the messages which have waited longest
+		while(heldPartCount >= maxParts && !partSets.isEmpty()) {
+			Iterator<Map.Entry<Key, PartSet>> eldest = partSets.entrySet().iterator();
+			Map.Entry<Key, PartSet> entry = eldest.next();
+			eldest.remove();
+			++evictedCount;
+			log.info("Buffer is full; passing on [" + entry.getValue().parts.size() + "] part(s) of [" + entry.getKey() + "] without the rest of the message.");
+			orphan(entry.getValue(), released);
+			if(entry.getValue() == partSet) partSet = null;
+		}
+
+		if(partSet == null) {
+			partSet = new PartSet(receiver);
+			partSets.put(key, partSet);
+		}
+		partSet.parts.put(part.getPartNumber(), part);
+		partSet.lastReceived = now;
+		++heldPartCount;
+
+		if(partSet.parts.size() == part.getPartCount()) {
+			partSets.remove(key);
+			heldPartCount -= partSet.parts.size();
+			++reassembledCount;
+			released.add(new ReleasedMessage(partSet.receiver, join(partSet)));
+		}
+		return released;
+	}
+
+	/**
+	 * Passes on the parts of messages for which no part has been received for {@link #timeout}.
+	 * @param now the current time, in millis
+	 * @return the parts which should now be passed on for processing
+	 */
+	public synchronized List<ReleasedMessage> flushExpired(long now) {
+		if(partSets.isEmpty()) return Collections.emptyList();
+		List<ReleasedMessage> released = new ArrayList<ReleasedMessage>();
+		Iterator<Map.Entry<Key, PartSet>> iterator = partSets.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Key, PartSet> entry = iterator.next();
+			if(now - entry.getValue().lastReceived < timeout) continue;
+			iterator.remove();
+			++expiredCount;
+			log.info("Timed out waiting for the rest of [" + entry.getKey() + "]; passing on [" + entry.getValue().parts.size() + "] part(s).");
+			orphan(entry.getValue(), released);
+		}
+		return released;
+	}
+
+	/**
+	 * Passes on the parts of all incomplete messages, e.g. when receiving is stopped.
+	 * @return the parts which should now be passed on for processing
+	 */
+	public synchronized List<ReleasedMessage> flushAll() {
+		List<ReleasedMessage> released = new ArrayList<ReleasedMessage>();
+		for(PartSet partSet : partSets.values()) {
+			orphan(partSet, released);
+		}
+		partSets.clear();
+		return released;
+	}
+
+//> ACCESSORS
+	/** @return {@link #heldPartCount} */
+	public synchronized int getHeldPartCount() {
+		return heldPartCount;
+	}
+
+	/** @return {@link #reassembledCount} */
+	public synchronized long getReassembledCount() {
+		return reassembledCount;
+	}
+
+	/** @return {@link #orphanedPartCount} */
+	public synchronized long getOrphanedPartCount() {
+		return orphanedPartCount;
+	}
+
+	/** @return {@link #expiredCount} */
+	public synchronized long getExpiredCount() {
+		return expiredCount;
+	}
+
+	/** @return {@link #evictedCount} */
+	public synchronized long getEvictedCount() {
+		return evictedCount;
+	}
+
+	/** @return {@link #duplicatePartCount} */
+	public synchronized long getDuplicatePartCount() {
+		return duplicatePartCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "held=" + heldPartCount + " in " + partSets.size()
+				+ ", reassembled=" + reassembledCount
+				+ ", orphaned=" + orphanedPartCount + " (expired=" + expiredCount + ", evicted=" + evictedCount + ")"
+				+ ", duplicates=" + duplicatePartCount;
+	}
+
+//> PRIVATE HELPER METHODS
+	/**
+	 * Releases the parts of an incomplete message separately, in order.  The set must already have been removed
+	 * from {@link #partSets}.
+	 * @param partSet
+	 * @param released list to add the parts to
+	 */
+	private void orphan(PartSet partSet, List<ReleasedMessage> released) {
+		for(IncomingMessagePart part : partSet.parts.values()) {
+			released.add(new ReleasedMessage(partSet.receiver, part));
+		}
+		heldPartCount -= partSet.parts.size();
+		orphanedPartCount += partSet.parts.size();
+	}
+
+	/**
+	 * Joins all parts of a message.
+	 * @param partSet the complete set of parts
+	 * @return the whole message
+	 */
+	private static CIncomingMessage join(PartSet partSet) {
+		IncomingMessagePart first = partSet.parts.values().iterator().next();
+		CIncomingMessage message;
+		if(first.isBinaryPart()) {
+			ByteArrayOutputStream binary = new ByteArrayOutputStream();
+			for(IncomingMessagePart part : partSet.parts.values()) {
+				byte[] content = part.getBinary();
+				binary.write(content, 0, content.length);
+			}
+			message = new CIncomingMessage(first.getOriginator(), binary.toByteArray());
+		} else {
+			StringBuilder text = new StringBuilder();
+			for(IncomingMessagePart part : partSet.parts.values()) {
+				text.append(part.getText());
+			}
+			message = new CIncomingMessage(first.getDate(), first.getOriginator(), text.toString(), first.getMemIndex(), first.getMemLocation());
+		}
+		message.setId(first.getId());
+		return message;
+	}
+
+//> INNER CLASSES
+	/** A message, or a part of one, released from the buffer to be passed on for processing. */
+	public static class ReleasedMessage {
+		/** The device which received the message */
+		private final SmsService receiver;
+		/** The message */
+		private final CIncomingMessage message;
+
+		/**
+		 * Create a new {@link ReleasedMessage}.
+		 * @param receiver value for {@link #receiver}
+		 * @param message value for {@link #message}
+		 */
+		ReleasedMessage(SmsService receiver, CIncomingMessage message) {
+			this.receiver = receiver;
+			this.message = message;
+		}
+
+		/** @return {@link #receiver} */
+		public SmsService getReceiver() {
+			return receiver;
+		}
+
+		/** @return {@link #message} */
+		public CIncomingMessage getMessage() {
+			return message;
+		}
+	}
+
+	/** The parts received of one message. */
+	private static class PartSet {
+		/** The device which received the first part */
+		private final SmsService receiver;
+		/** The parts received, by part number */
+		private final TreeMap<Integer, IncomingMessagePart> parts = new TreeMap<Integer, IncomingMessagePart>();
+		/** The time, in millis, that the last part was received */
+		private long lastReceived;
+
+		/** @param receiver value for {@link #receiver} */
+		PartSet(SmsService receiver) {
+			this.receiver = receiver;
+		}
+	}
+
+	/** Identifies the parts of one message. */
+	private static class Key {
+		/** The address the message was sent from */
+		private final String originator;
+		/** The reference number shared by all parts of the message */
+		private final int reference;
+		/** The number of parts in the message */
+		private final int partCount;
+		/** <code>true</code> if the message is binary */
+		private final boolean binary;
+
+		/** @param part a part of the message */
+		Key(IncomingMessagePart part) {
+			this.originator = part.getOriginator();
+			this.reference = part.getReference();
+			this.partCount = part.getPartCount();
+			this.binary = part.isBinaryPart();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) return false;
+			Key that = (Key) obj;
+			return this.reference == that.reference
+					&& this.partCount == that.partCount
+					&& this.binary == that.binary
+					&& (this.originator == null ? that.originator == null : this.originator.equals(that.originator));
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = originator == null ? 0 : originator.hashCode();
+			hash = 31 * hash + reference;
+			hash = 31 * hash + partCount;
+			return binary ? hash + 1 : hash;
+		}
+
+		@Override
+		public String toString() {
+			return (binary ? "binary" : "text") + " message " + reference + " of " + partCount + " part(s) from " + originator;
+		}
+	}
+}
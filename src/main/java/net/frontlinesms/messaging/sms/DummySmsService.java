@@ -121,6 +121,22 @@ public class DummySmsService implements SmsService {
 		return false;
 	}
 
+	/** 
+	 * @see net.frontlinesms.messaging.sms.SmsService#getOutboxSize()
+	 */
+	public int getOutboxSize() {
+		/* do nothing */
+		return 0;
+	}
+
+	/** 
+	 * @see net.frontlinesms.messaging.sms.SmsService#getSendStatistics()
+	 */
+	public SmsSendStatistics getSendStatistics() {
+		/* do nothing */
+		return null;
+	}
+
 	public String getServiceIdentification() {
 		// TODO Auto-generated method stub
 		return null;
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.frontlinesms.resources.UserHomeFilePropertySet;
+
+/**
+ * User-configurable additions to the table used by {@link GsmTransliterator}.
+ * <p>Each property maps a single character to the text it should be replaced with, e.g. <code>á=a</code>.
+ * Keys and values may contain <code>&#92;uXXXX</code> escapes, which allow characters such as spaces or
+ * <code>=</code> to be used.  An empty value removes the character.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GsmTransliterationProperties extends UserHomeFilePropertySet {
+
+//> STATIC CONSTANTS
+	/** Singleton instance of this class. */
+	private static GsmTransliterationProperties instance;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new GSM transliteration properties file.
+	 */
+	private GsmTransliterationProperties() {
+		super("gsm.transliteration");
+	}
+
+//> ACCESSORS
+	/** @return the replacement text for each character configured in this file */
+	public Map<Character, String> getMappings() {
+		Map<Character, String> mappings = new HashMap<Character, String>();
+		for(Entry<String, String> property : super.getProperties().entrySet()) {
+			String key = unescape(property.getKey());
+			if(key.length() != 1) {
+				LOG.warn("Ignoring GSM transliteration for more than one character: '" + property.getKey() + "'");
+			} else {
+				mappings.put(key.charAt(0), unescape(property.getValue()));
+			}
+		}
+		return mappings;
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Lazy getter for {@link #instance}
+	 * @return The singleton instance of this class
+	 */
+	public static synchronized GsmTransliterationProperties getInstance() {
+		if(instance == null) {
+			instance = new GsmTransliterationProperties();
+		}
+		return instance;
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * Replaces <code>&#92;uXXXX</code> escapes with the characters they represent.
+	 * @param text
+	 * @return the text with escapes replaced
+	 */
+	static String unescape(String text) {
+		StringBuilder unescaped = new StringBuilder(text.length());
+		for(int i=0; i<text.length(); ++i) {
+			char c = text.charAt(i);
+			if(c == '\\' && i + 5 < text.length() && text.charAt(i + 1) == 'u') {
+				try {
+					unescaped.append((char) Integer.parseInt(text.substring(i + 2, i + 6), 16));
+					i += 5;
+					continue;
+				} catch(NumberFormatException ex) {
+					// Not a valid escape, so treat it as ordinary text
+				}
+			}
+			unescaped.append(c);
+		}
+		return unescaped.toString();
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.FrontlineMessage;
+
+import org.apache.log4j.Logger;
+import org.smslib.util.GsmAlphabet;
+import org.smslib.v3.helper.GSMAlphabet;
+
+/**
+ * Replaces characters which are not in the GSM 7-bit alphabet with similar characters which are, so that
+ * text messages containing e.g. curly quotes or accented letters need not be sent as UCS-2.  A UCS-2 message
+ * part holds fewer than half as many characters as a GSM 7-bit part, so this can greatly reduce the number
+ * of parts a message is sent as.
+ * <p>A message is only changed if every character in it can be transliterated, and if doing so reduces the
+ * number of parts it will be sent as.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GsmTransliterator {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(GsmTransliterator.class);
+
+	/** Default replacements for characters which are not in the GSM 7-bit alphabet.  Greek letters are added from {@link GSMAlphabet#getGreekRemapping()}. */
+	private static final String[][] DEFAULT_MAPPINGS = {
+		// Quotation marks
+		{ "‘", "'" }, // LEFT SINGLE QUOTATION MARK
+		{ "’", "'" }, // RIGHT SINGLE QUOTATION MARK
+		{ "‚", "'" }, // SINGLE LOW-9 QUOTATION MARK
+		{ "‛", "'" }, // SINGLE HIGH-REVERSED-9 QUOTATION MARK
+		{ "′", "'" }, // PRIME
+		{ "‹", "'" }, // SINGLE LEFT-POINTING ANGLE QUOTATION MARK
+		{ "›", "'" }, // SINGLE RIGHT-POINTING ANGLE QUOTATION MARK
+		{ "´", "'" }, // ACUTE ACCENT
+		{ "`", "'" }, // GRAVE ACCENT
+		{ "“", "\"" }, // LEFT DOUBLE QUOTATION MARK
+		{ "”", "\"" }, // RIGHT DOUBLE QUOTATION MARK
+		{ "„", "\"" }, // DOUBLE LOW-9 QUOTATION MARK
+		{ "‟", "\"" }, // DOUBLE HIGH-REVERSED-9 QUOTATION MARK
+		{ "″", "\"" }, // DOUBLE PRIME
+		{ "«", "\"" }, // LEFT-POINTING DOUBLE ANGLE QUOTATION MARK
+		{ "»", "\"" }, // RIGHT-POINTING DOUBLE ANGLE QUOTATION MARK
+		// Dashes and other punctuation
+		{ "‐", "-" }, // HYPHEN
+		{ "‑", "-" }, // NON-BREAKING HYPHEN
+		{ "‒", "-" }, // FIGURE DASH
+		{ "–", "-" }, // EN DASH
+		{ "—", "-" }, // EM DASH
+		{ "―", "-" }, // HORIZONTAL BAR
+		{ "−", "-" }, // MINUS SIGN
+		{ "…", "..." }, // HORIZONTAL ELLIPSIS
+		{ "•", "*" }, // BULLET
+		{ "·", "." }, // MIDDLE DOT
+		{ "⁄", "/" }, // FRACTION SLASH
+		{ "½", "1/2" }, // VULGAR FRACTION ONE HALF
+		{ "¼", "1/4" }, // VULGAR FRACTION ONE QUARTER
+		{ "¾", "3/4" }, // VULGAR FRACTION THREE QUARTERS
+		{ "©", "(c)" }, // COPYRIGHT SIGN
+		{ "®", "(R)" }, // REGISTERED SIGN
+		{ "™", "TM" }, // TRADE MARK SIGN
+		// Spaces
+		{ "\t", " " }, // CHARACTER TABULATION
+		{ "\u00A0", " " }, // NO-BREAK SPACE
+		{ "\u2002", " " }, // EN SPACE
+		{ "\u2003", " " }, // EM SPACE
+		{ "\u2009", " " }, // THIN SPACE
+		{ "\u202F", " " }, // NARROW NO-BREAK SPACE
+		{ "\u200B", "" }, // ZERO WIDTH SPACE
+		{ "\uFEFF", "" }, // ZERO WIDTH NO-BREAK SPACE
+		// Latin letters
+		{ "À", "A" }, { "Á", "A" }, { "Â", "A" }, { "Ã", "A" }, { "Ā", "A" }, { "Ą", "A" },
+		{ "á", "a" }, { "â", "a" }, { "ã", "a" }, { "ā", "a" }, { "ą", "a" }, { "ă", "a" },
+		{ "ç", "c" }, { "ć", "c" }, { "č", "c" }, { "Ć", "C" }, { "Č", "C" },
+		{ "ď", "d" }, { "Ď", "D" },
+		{ "È", "E" }, { "Ê", "E" }, { "Ë", "E" }, { "Ē", "E" }, { "Ę", "E" }, { "Ě", "E" },
+		{ "ê", "e" }, { "ë", "e" }, { "ē", "e" }, { "ę", "e" }, { "ě", "e" },
+		{ "ğ", "g" }, { "Ğ", "G" },
+		{ "Ì", "I" }, { "Í", "I" }, { "Î", "I" }, { "Ï", "I" }, { "İ", "I" }, { "Ī", "I" },
+		{ "í", "i" }, { "î", "i" }, { "ï", "i" }, { "ı", "i" }, { "ī", "i" },
+		{ "ł", "l" }, { "Ł", "L" },
+		{ "ń", "n" }, { "ň", "n" }, { "Ń", "N" }, { "Ň", "N" },
+		{ "Ò", "O" }, { "Ó", "O" }, { "Ô", "O" }, { "Õ", "O" }, { "Ő", "O" }, { "Ō", "O" },
+		{ "ó", "o" }, { "ô", "o" }, { "õ", "o" }, { "ő", "o" }, { "ō", "o" },
+		{ "Œ", "OE" }, { "œ", "oe" },
+		{ "ř", "r" }, { "Ř", "R" },
+		{ "ś", "s" }, { "ş", "s" }, { "š", "s" }, { "Ś", "S" }, { "Ş", "S" }, { "Š", "S" },
+		{ "ţ", "t" }, { "ť", "t" }, { "Ţ", "T" }, { "Ť", "T" },
+		{ "Ù", "U" }, { "Ú", "U" }, { "Û", "U" }, { "Ű", "U" }, { "Ū", "U" }, { "Ů", "U" },
+		{ "ú", "u" }, { "û", "u" }, { "ű", "u" }, { "ū", "u" }, { "ů", "u" },
+		{ "Ý", "Y" }, { "Ÿ", "Y" }, { "ý", "y" }, { "ÿ", "y" },
+		{ "ź", "z" }, { "ż", "z" }, { "ž", "z" }, { "Ź", "Z" }, { "Ż", "Z" }, { "Ž", "Z" },
+	};
+
+//> INSTANCE PROPERTIES
+	/** Replacement text for each character which should be transliterated */
+	private final Map<Character, String> mappings;
+	/** Number of messages which have been transliterated */
+	private final AtomicInteger transliteratedCount = new AtomicInteger();
+	/** Total number of message parts saved by transliterating messages */
+	private final AtomicInteger partsSaved = new AtomicInteger();
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link GsmTransliterator}.
+	 * @param mappings value for {@link #mappings}
+	 */
+	public GsmTransliterator(Map<Character, String> mappings) {
+		this.mappings = new HashMap<Character, String>(mappings);
+	}
+
+//> ACCESSORS
+	/** @return the number of messages which have been transliterated */
+	public int getTransliteratedCount() {
+		return transliteratedCount.get();
+	}
+
+	/** @return the total number of message parts saved by transliterating messages */
+	public int getPartsSaved() {
+		return partsSaved.get();
+	}
+
+//> TRANSLITERATION METHODS
+	/**
+	 * Transliterates the text of a message to the GSM 7-bit alphabet, if it is a text message which would
+	 * otherwise be sent as UCS-2 and transliterating it reduces the number of parts it will be sent as.
+	 * @param message the message to transliterate
+	 * @return the number of parts saved by transliterating the message, or 0 if it was not changed
+	 */
+	public int transliterate(FrontlineMessage message) {
+		if(message.isBinaryMessage()) return 0;
+		String text = message.getTextContent();
+		if(GsmAlphabet.areAllCharactersValidGSM(text)) return 0;
+
+		String transliterated = transliterate(text);
+		if(transliterated == null) return 0;
+
+		int saved = SmsSegmenter.DEFAULT.segmentUcs2(text).getPartCount() - SmsSegmenter.DEFAULT.segmentGsm7(transliterated).getPartCount();
+		if(saved <= 0) return 0;
+
+		message.setTextContent(transliterated);
+		transliteratedCount.incrementAndGet();
+		partsSaved.addAndGet(saved);
+		if(LOG.isDebugEnabled()) LOG.debug("Transliterated message to [" + message.getRecipientMsisdn() + "] to GSM 7-bit, saving " + saved + " part(s).");
+		return saved;
+	}
+
+	/**
+	 * Transliterates text to the GSM 7-bit alphabet.
+	 * @param text
+	 * @return the transliterated text, or <code>null</code> if some of its characters could not be transliterated
+	 */
+	public String transliterate(String text) {
+		StringBuilder transliterated = new StringBuilder(text.length());
+		for(int i=0; i<text.length(); ++i) {
+			char c = text.charAt(i);
+			String replacement = mappings.get(c);
+			if(replacement == null) {
+				transliterated.append(c);
+			} else {
+				transliterated.append(replacement);
+			}
+		}
+		String result = transliterated.toString();
+		return GsmAlphabet.areAllCharactersValidGSM(result) ? result : null;
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Creates a {@link GsmTransliterator} using the default mappings, with any additions or changes made in
+	 * {@link GsmTransliterationProperties}.
+	 * @return a new {@link GsmTransliterator}
+	 */
+	public static GsmTransliterator create() {
+		Map<Character, String> mappings = getDefaultMappings();
+		mappings.putAll(GsmTransliterationProperties.getInstance().getMappings());
+		return new GsmTransliterator(mappings);
+	}
+
+//> STATIC HELPER METHODS
+	/** @return a new map containing the default mappings */
+	public static Map<Character, String> getDefaultMappings() {
+		Map<Character, String> mappings = new HashMap<Character, String>();
+		for(char[] greek : GSMAlphabet.getGreekRemapping()) {
+			if(greek[0] != greek[1]) {
+				mappings.put(greek[0], Character.toString(greek[1]));
+			}
+		}
+		for(String[] mapping : DEFAULT_MAPPINGS) {
+			mappings.put(mapping[0].charAt(0), mapping[1]);
+		}
+		return mappings;
+	}
+}
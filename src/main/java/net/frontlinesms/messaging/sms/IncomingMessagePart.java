@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import org.smslib.CIncomingMessage;
+
+/**
+ * One part of a concatenated message, as received by a device.  Parts are joined by
+ * {@link ConcatenatedSmsBuffer} before being passed on for processing.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class IncomingMessagePart extends CIncomingMessage {
+//> INSTANCE PROPERTIES
+	/** The reference number shared by all parts of the message */
+	private final int reference;
+	/** The number of parts in the message */
+	private final int partCount;
+	/** The number, starting at 1, of this part */
+	private final int partNumber;
+	/** <code>true</code> if this is a binary part, <code>false</code> if it is a text part */
+	private final boolean binary;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new text {@link IncomingMessagePart}.
+	 * @param date the time the part was sent, in millis
+	 * @param originator the address the part was sent from
+	 * @param text the text of this part
+	 * @param memIndex the index of this part in the device's memory
+	 * @param memLocation the device memory this part was stored in
+	 * @param reference value for {@link #reference}
+	 * @param partCount value for {@link #partCount}
+	 * @param partNumber value for {@link #partNumber}
+	 */
+	public IncomingMessagePart(long date, String originator, String text, int memIndex, String memLocation, int reference, int partCount, int partNumber) {
+		super(date, originator, text, memIndex, memLocation);
+		this.reference = reference;
+		this.partCount = partCount;
+		this.partNumber = partNumber;
+		this.binary = false;
+	}
+
+	/**
+	 * Create a new binary {@link IncomingMessagePart}.
+	 * @param originator the address the part was sent from
+	 * @param binary the content of this part
+	 * @param reference value for {@link #reference}
+	 * @param partCount value for {@link #partCount}
+	 * @param partNumber value for {@link #partNumber}
+	 */
+	public IncomingMessagePart(String originator, byte[] binary, int reference, int partCount, int partNumber) {
+		super(originator, binary);
+		this.reference = reference;
+		this.partCount = partCount;
+		this.partNumber = partNumber;
+		this.binary = true;
+	}
+
+//> ACCESSORS
+	/** @return {@link #reference} */
+	public int getReference() {
+		return reference;
+	}
+
+	/** @return {@link #partCount} */
+	public int getPartCount() {
+		return partCount;
+	}
+
+	/** @return {@link #partNumber} */
+	public int getPartNumber() {
+		return partNumber;
+	}
+
+	/** @return {@link #binary} */
+	public boolean isBinaryPart() {
+		return binary;
+	}
+}
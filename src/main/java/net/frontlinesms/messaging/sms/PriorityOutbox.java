@@ -0,0 +1,330 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
+
+/**
+ * Unbounded queue of outgoing messages with a separate lane for each {@link Priority}.
+ * <p>{@link Priority#HIGH} messages are taken before {@link Priority#BULK} messages.  To prevent a steady stream
+ * of {@link Priority#HIGH} messages from holding up bulk messages indefinitely, a waiting {@link Priority#BULK}
+ * message is taken after every {@link #bulkInterval} consecutive {@link Priority#HIGH} messages.  Messages with
+ * the same priority are taken in the order they were added.</p>
+ * <p>This class is thread-safe.  Its iterator returns a snapshot of the queue's contents.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class PriorityOutbox extends AbstractQueue<FrontlineMessage> implements BlockingQueue<FrontlineMessage> {
+	/** Default value for {@link #bulkInterval} */
+	private static final int DEFAULT_BULK_INTERVAL = 10;
+	/** Maximum number of messages in each lane checked by {@link #drainSameContent(FrontlineMessage, Collection, int)} */
+	private static final int COALESCE_SCAN_LIMIT = 1000;
+
+//> INSTANCE PROPERTIES
+	/** Lock protecting all access to the lanes */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Condition signalled when a message is added */
+	private final Condition notEmpty = lock.newCondition();
+	/** Messages with {@link Priority#HIGH} */
+	private final LinkedList<FrontlineMessage> highLane = new LinkedList<FrontlineMessage>();
+	/** Messages with {@link Priority#BULK} */
+	private final LinkedList<FrontlineMessage> bulkLane = new LinkedList<FrontlineMessage>();
+	/** Maximum number of {@link Priority#HIGH} messages taken in a row while {@link Priority#BULK} messages are waiting */
+	private final int bulkInterval;
+	/** Number of {@link Priority#HIGH} messages taken in a row while {@link Priority#BULK} messages have been waiting */
+	private int highTakenInRow;
+
+//> CONSTRUCTORS
+	/** Create a new {@link PriorityOutbox} with the default {@link #bulkInterval}. */
+	public PriorityOutbox() {
+		this(DEFAULT_BULK_INTERVAL);
+	}
+
+	/**
+	 * Create a new {@link PriorityOutbox}.
+	 * @param bulkInterval value for {@link #bulkInterval}
+	 */
+	public PriorityOutbox(int bulkInterval) {
+		if(bulkInterval < 1) throw new IllegalArgumentException("Bulk interval must be at least 1: " + bulkInterval);
+		this.bulkInterval = bulkInterval;
+	}
+
+//> QUEUE METHODS
+	/** @see java.util.Queue#offer(Object) */
+	public boolean offer(FrontlineMessage message) {
+		if(message == null) throw new NullPointerException();
+		lock.lock();
+		try {
+			getLane(message).add(message);
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @see java.util.Queue#poll() */
+	public FrontlineMessage poll() {
+		lock.lock();
+		try {
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @see java.util.Queue#peek() */
+	public FrontlineMessage peek() {
+		lock.lock();
+		try {
+			LinkedList<FrontlineMessage> lane = getNextLane();
+			return lane == null ? null : lane.getFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @see java.util.Collection#size() */
+	public int size() {
+		lock.lock();
+		try {
+			return highLane.size() + bulkLane.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		lock.lock();
+		try {
+			return highLane.remove(o) || bulkLane.remove(o);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		lock.lock();
+		try {
+			return highLane.contains(o) || bulkLane.contains(o);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			highLane.clear();
+			bulkLane.clear();
+			highTakenInRow = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @see java.util.Collection#iterator() */
+	public Iterator<FrontlineMessage> iterator() {
+		final Iterator<FrontlineMessage> snapshot = snapshot().iterator();
+		return new Iterator<FrontlineMessage>() {
+			/** The last message returned by {@link #next()} */
+			private FrontlineMessage last;
+			public boolean hasNext() {
+				return snapshot.hasNext();
+			}
+			public FrontlineMessage next() {
+				return last = snapshot.next();
+			}
+			public void remove() {
+				if(last == null) throw new IllegalStateException();
+				PriorityOutbox.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+//> BLOCKINGQUEUE METHODS
+	/** @see BlockingQueue#put(Object) */
+	public void put(FrontlineMessage message) {
+		offer(message);
+	}
+
+	/** @see BlockingQueue#offer(Object, long, TimeUnit) */
+	public boolean offer(FrontlineMessage message, long timeout, TimeUnit unit) {
+		return offer(message);
+	}
+
+	/** @see BlockingQueue#take() */
+	public FrontlineMessage take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			FrontlineMessage message;
+			while((message = dequeue()) == null) {
+				notEmpty.await();
+			}
+			return message;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @see BlockingQueue#poll(long, TimeUnit) */
+	public FrontlineMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			FrontlineMessage message;
+			while((message = dequeue()) == null) {
+				if(nanos <= 0) return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return message;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @see BlockingQueue#remainingCapacity() */
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	/** @see BlockingQueue#drainTo(Collection) */
+	public int drainTo(Collection<? super FrontlineMessage> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/** @see BlockingQueue#drainTo(Collection, int) */
+	public int drainTo(Collection<? super FrontlineMessage> c, int maxElements) {
+		if(c == this) throw new IllegalArgumentException();
+		lock.lock();
+		try {
+			int count = 0;
+			FrontlineMessage message;
+			while(count < maxElements && (message = dequeue()) != null) {
+				c.add(message);
+				++count;
+			}
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+//> COALESCING METHODS
+	/**
+	 * Removes waiting text messages with the same content as the supplied message, but different recipients, so
+	 * that they can be sent together in a single request.  {@link Priority#HIGH} messages are taken first, and only
+	 * the first {@link #COALESCE_SCAN_LIMIT} messages in each lane are checked.
+	 * @param message the message which other messages must match
+	 * @param c collection to add the matching messages to
+	 * @param maxElements the maximum number of messages to remove
+	 * @return the number of messages removed
+	 */
+	public int drainSameContent(FrontlineMessage message, Collection<? super FrontlineMessage> c, int maxElements) {
+		if(message.isBinaryMessage()) return 0;
+		lock.lock();
+		try {
+			Set<String> recipients = new HashSet<String>();
+			recipients.add(message.getRecipientMsisdn());
+			int count = drainSameContent(highLane, message, recipients, c, maxElements);
+			return count + drainSameContent(bulkLane, message, recipients, c, maxElements - count);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes waiting text messages with the same content as the supplied message from a lane.  The caller must hold {@link #lock}.
+	 * @param lane the lane to remove messages from
+	 * @param message the message which other messages must match
+	 * @param recipients recipients of messages which have already been taken; messages to these recipients are not taken
+	 * @param c collection to add the matching messages to
+	 * @param maxElements the maximum number of messages to remove
+	 * @return the number of messages removed
+	 */
+	private int drainSameContent(LinkedList<FrontlineMessage> lane, FrontlineMessage message, Set<String> recipients,
+			Collection<? super FrontlineMessage> c, int maxElements) {
+		int count = 0;
+		int scanned = 0;
+		for(Iterator<FrontlineMessage> i = lane.iterator(); count < maxElements && scanned < COALESCE_SCAN_LIMIT && i.hasNext(); ++scanned) {
+			FrontlineMessage candidate = i.next();
+			if(!candidate.isBinaryMessage()
+					&& candidate.getRecipientSmsPort() == message.getRecipientSmsPort()
+					&& candidate.getTextContent().equals(message.getTextContent())
+					&& recipients.add(candidate.getRecipientMsisdn())) {
+				i.remove();
+				c.add(candidate);
+				++count;
+			}
+		}
+		return count;
+	}
+
+//> INSTANCE HELPER METHODS
+	/**
+	 * Removes the next message from the lanes.  The caller must hold {@link #lock}.
+	 * @return the next message, or <code>null</code> if there are no messages
+	 */
+	private FrontlineMessage dequeue() {
+		LinkedList<FrontlineMessage> lane = getNextLane();
+		if(lane == null) {
+			return null;
+		}
+		if(lane == highLane && !bulkLane.isEmpty()) {
+			++highTakenInRow;
+		} else {
+			highTakenInRow = 0;
+		}
+		return lane.removeFirst();
+	}
+
+	/**
+	 * Gets the lane which the next message should be taken from.  The caller must hold {@link #lock}.
+	 * @return the lane to take the next message from, or <code>null</code> if there are no messages
+	 */
+	private LinkedList<FrontlineMessage> getNextLane() {
+		if(bulkLane.isEmpty()) {
+			return highLane.isEmpty() ? null : highLane;
+		} else if(highLane.isEmpty() || highTakenInRow >= bulkInterval) {
+			return bulkLane;
+		} else {
+			return highLane;
+		}
+	}
+
+	/** @return the lane that a message should be added to */
+	private LinkedList<FrontlineMessage> getLane(FrontlineMessage message) {
+		return message.getPriority() == Priority.BULK ? bulkLane : highLane;
+	}
+
+	/** @return a copy of the contents of this queue, with higher priority messages first */
+	private List<FrontlineMessage> snapshot() {
+		lock.lock();
+		try {
+			List<FrontlineMessage> contents = new ArrayList<FrontlineMessage>(highLane.size() + bulkLane.size());
+			contents.addAll(highLane);
+			contents.addAll(bulkLane);
+			return contents;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+
+/**
+ * {@link SmsDispatchStrategy} which shares messages equally between the devices in turn, regardless of
+ * how quickly each device is sending.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class RoundRobinDispatchStrategy implements SmsDispatchStrategy {
+	/** @see SmsDispatchStrategy#assign(List, List) */
+	public Map<SmsService, List<FrontlineMessage>> assign(List<? extends SmsService> devices, List<FrontlineMessage> messages) {
+		Map<SmsService, List<FrontlineMessage>> assigned = new LinkedHashMap<SmsService, List<FrontlineMessage>>();
+		int deviceCount = devices.size();
+		int messageIndex = -1;
+		for(FrontlineMessage m : messages) {
+			SmsService device = devices.get(++messageIndex % deviceCount);
+			List<FrontlineMessage> deviceMessages = assigned.get(device);
+			if(deviceMessages == null) {
+				deviceMessages = new ArrayList<FrontlineMessage>();
+				assigned.put(device, deviceMessages);
+			}
+			deviceMessages.add(m);
+		}
+		return assigned;
+	}
+}
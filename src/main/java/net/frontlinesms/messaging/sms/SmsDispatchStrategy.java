@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+
+/**
+ * Strategy used by {@link SmsServiceManager} to decide which {@link SmsService} each outgoing message
+ * should be sent with.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public interface SmsDispatchStrategy {
+	/**
+	 * Assigns messages to devices.  Every message must be assigned to exactly one of the devices, and the
+	 * messages assigned to each device should be kept in the order they were supplied.
+	 * @param devices the devices available to send the messages; this will not be empty
+	 * @param messages the messages to send
+	 * @return a map from each device to the messages it should send
+	 */
+	public Map<SmsService, List<FrontlineMessage>> assign(List<? extends SmsService> devices, List<FrontlineMessage> messages);
+}
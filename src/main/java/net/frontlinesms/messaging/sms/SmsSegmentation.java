@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+/**
+ * The parts an SMS message will be sent as, as calculated by {@link SmsSegmenter}.
+ * <p>Lengths are measured in the units of the message's {@link Encoding}: septets for GSM 7-bit text,
+ * UTF-16 characters for UCS-2 text and octets for binary messages.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsSegmentation {
+//> INNER CLASSES
+	/** The encodings an SMS message can be sent with. */
+	public enum Encoding {
+		/** GSM 7-bit default alphabet, measured in septets */
+		GSM7BIT,
+		/** UCS-2, measured in UTF-16 characters */
+		UCS2,
+		/** 8-bit binary data, measured in octets */
+		BINARY;
+	}
+
+//> INSTANCE PROPERTIES
+	/** The encoding the message will be sent with */
+	private final Encoding encoding;
+	/** The length of the message content */
+	private final int length;
+	/** The number of parts the message will be sent as */
+	private final int partCount;
+	/** The maximum length of content which fits in each part of the message */
+	private final int partCapacity;
+	/** The length of content which could be added to the last part of the message without needing another part */
+	private final int remaining;
+	/** The length, in octets, of the user data header in each part of the message */
+	private final int udhOctets;
+	/** The total length, in octets, of the user data of all parts of the message, including user data headers */
+	private final int userDataOctets;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link SmsSegmentation}.
+	 * @param encoding value for {@link #encoding}
+	 * @param length value for {@link #length}
+	 * @param partCount value for {@link #partCount}
+	 * @param partCapacity value for {@link #partCapacity}
+	 * @param remaining value for {@link #remaining}
+	 * @param udhOctets value for {@link #udhOctets}
+	 * @param userDataOctets value for {@link #userDataOctets}
+	 */
+	SmsSegmentation(Encoding encoding, int length, int partCount, int partCapacity, int remaining, int udhOctets, int userDataOctets) {
+		this.encoding = encoding;
+		this.length = length;
+		this.partCount = partCount;
+		this.partCapacity = partCapacity;
+		this.remaining = remaining;
+		this.udhOctets = udhOctets;
+		this.userDataOctets = userDataOctets;
+	}
+
+//> ACCESSORS
+	/** @return {@link #encoding} */
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	/** @return the length of the message content, in septets, UTF-16 characters or octets depending on {@link #encoding} */
+	public int getLength() {
+		return length;
+	}
+
+	/** @return the number of parts the message will be sent as, or 0 if it is empty */
+	public int getPartCount() {
+		return partCount;
+	}
+
+	/** @return the maximum length of content which fits in each part of the message */
+	public int getPartCapacity() {
+		return partCapacity;
+	}
+
+	/** @return the length of content which could be added to the last part of the message without needing another part */
+	public int getRemaining() {
+		return remaining;
+	}
+
+	/** @return the length, in octets, of the user data header in each part of the message */
+	public int getUdhOctets() {
+		return udhOctets;
+	}
+
+	/** @return the total length, in octets, of the user data of all parts of the message, including user data headers */
+	public int getUserDataOctets() {
+		return userDataOctets;
+	}
+
+	/** @return <code>true</code> if the message has more parts than can be sent as a single concatenated message */
+	public boolean isTooLong() {
+		return partCount > SmsSegmenter.MAX_PARTS;
+	}
+
+	@Override
+	public String toString() {
+		return encoding + ": length=" + length + ", parts=" + partCount + ", partCapacity=" + partCapacity
+				+ ", remaining=" + remaining + ", udhOctets=" + udhOctets + ", userDataOctets=" + userDataOctets;
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsSegmentation.Encoding;
+
+import org.smslib.util.GsmAlphabet;
+import org.smslib.v3.helper.GSMAlphabet;
+
+/**
+ * Calculates exactly how many parts an SMS message will be sent as, from the size of the user data in an SMS
+ * TPDU and the user data headers needed for concatenated messages and port addressing.
+ * <p>A single-part text message has no user data header, so holds 160 septets or 70 UCS-2 characters.  Each
+ * part of a concatenated message carries a user data header, which for GSM 7-bit text is padded to a whole
+ * number of septets.  Characters from the GSM extension table take two septets and, like UTF-16 surrogate
+ * pairs, are never split between parts.</p>
+ * <p>This class is immutable, so may be used at compose time and by the dispatcher at once.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsSegmenter {
+//> STATIC CONSTANTS
+	/** Maximum length, in octets, of the user data of a single SMS TPDU */
+	public static final int MAX_USER_DATA_OCTETS = 140;
+	/** Maximum number of parts in a concatenated message */
+	public static final int MAX_PARTS = 255;
+	/** Maximum number of septets in the user data of a single SMS TPDU */
+	private static final int MAX_USER_DATA_SEPTETS = MAX_USER_DATA_OCTETS * 8 / 7;
+	/** Length, in octets, of the user data header length field */
+	private static final int UDHL_OCTETS = 1;
+	/** Length, in octets, of a concatenated message information element with an 8-bit reference number */
+	private static final int CONCAT_IE_OCTETS_8BIT_REFERENCE = 5;
+	/** Length, in octets, of a concatenated message information element with a 16-bit reference number */
+	private static final int CONCAT_IE_OCTETS_16BIT_REFERENCE = 6;
+	/** Length, in octets, of an application port addressing information element with 16-bit ports */
+	private static final int PORT_IE_OCTETS = 6;
+
+	/** Segmenter for messages concatenated with 8-bit reference numbers, as they are sent by most devices */
+	public static final SmsSegmenter DEFAULT = new SmsSegmenter(false);
+
+//> INSTANCE PROPERTIES
+	/** Length, in octets, of the concatenated message information element in each part of a multipart message */
+	private final int concatIeOctets;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link SmsSegmenter}.
+	 * @param sixteenBitReference <code>true</code> if multipart messages are concatenated with 16-bit reference numbers, <code>false</code> if they use 8-bit reference numbers
+	 */
+	public SmsSegmenter(boolean sixteenBitReference) {
+		this.concatIeOctets = sixteenBitReference ? CONCAT_IE_OCTETS_16BIT_REFERENCE : CONCAT_IE_OCTETS_8BIT_REFERENCE;
+	}
+
+//> SEGMENTATION METHODS
+	/**
+	 * Calculates the parts a message will be sent as.  Binary messages are assumed to be port addressed.
+	 * @param message
+	 * @return the parts the message will be sent as
+	 */
+	public SmsSegmentation segment(FrontlineMessage message) {
+		if(message.isBinaryMessage()) {
+			return segmentBinary(message.getBinaryContent().length, true);
+		} else {
+			return segmentText(message.getTextContent());
+		}
+	}
+
+	/**
+	 * Calculates the parts text will be sent as, in the GSM 7-bit alphabet if all of its characters are in it,
+	 * or as UCS-2 otherwise.
+	 * @param text
+	 * @return the parts the text will be sent as
+	 */
+	public SmsSegmentation segmentText(String text) {
+		if(text == null) text = "";
+		if(GsmAlphabet.areAllCharactersValidGSM(text)) {
+			return segmentGsm7(text);
+		} else {
+			return segmentUcs2(text);
+		}
+	}
+
+	/**
+	 * Calculates the parts text will be sent as in the GSM 7-bit alphabet.
+	 * @param text
+	 * @return the parts the text will be sent as
+	 */
+	public SmsSegmentation segmentGsm7(String text) {
+		return segmentText(text, Encoding.GSM7BIT);
+	}
+
+	/**
+	 * Calculates the parts text will be sent as in UCS-2.
+	 * @param text
+	 * @return the parts the text will be sent as
+	 */
+	public SmsSegmentation segmentUcs2(String text) {
+		return segmentText(text, Encoding.UCS2);
+	}
+
+	/**
+	 * Calculates the parts binary data will be sent as.
+	 * @param octetCount the length of the data
+	 * @param portAddressed <code>true</code> if each part carries source and destination ports
+	 * @return the parts the data will be sent as
+	 */
+	public SmsSegmentation segmentBinary(int octetCount, boolean portAddressed) {
+		int singlePartUdh = portAddressed ? UDHL_OCTETS + PORT_IE_OCTETS : 0;
+		int singlePartCapacity = getCapacity(Encoding.BINARY, singlePartUdh);
+		if(octetCount <= singlePartCapacity) {
+			int partCount = octetCount == 0 ? 0 : 1;
+			return new SmsSegmentation(Encoding.BINARY, octetCount, partCount, singlePartCapacity,
+					singlePartCapacity - octetCount, singlePartUdh, partCount * singlePartUdh + octetCount);
+		}
+
+		int udh = getMultipartUdhOctets(portAddressed);
+		int capacity = getCapacity(Encoding.BINARY, udh);
+		int partCount = (octetCount + capacity - 1) / capacity;
+		return new SmsSegmentation(Encoding.BINARY, octetCount, partCount, capacity,
+				partCount * capacity - octetCount, udh, partCount * udh + octetCount);
+	}
+
+//> INSTANCE HELPER METHODS
+	/**
+	 * Calculates the parts text will be sent as in a particular encoding.
+	 * @param text
+	 * @param encoding {@link Encoding#GSM7BIT} or {@link Encoding#UCS2}
+	 * @return the parts the text will be sent as
+	 */
+	private SmsSegmentation segmentText(String text, Encoding encoding) {
+		int length = encoding == Encoding.GSM7BIT ? GSMAlphabet.noOfChars(text) : text.length();
+		int singlePartCapacity = getCapacity(encoding, 0);
+		if(length <= singlePartCapacity) {
+			int partCount = length == 0 ? 0 : 1;
+			return new SmsSegmentation(encoding, length, partCount, singlePartCapacity,
+					singlePartCapacity - length, 0, partCount == 0 ? 0 : getUserDataOctets(encoding, 0, length));
+		}
+
+		int udh = getMultipartUdhOctets(false);
+		int capacity = getCapacity(encoding, udh);
+		int partCount = 1;
+		int partLength = 0;
+		int userDataOctets = 0;
+		for(int i=0; i<text.length(); ) {
+			char c = text.charAt(i);
+			int charCount;
+			int charLength;
+			if(encoding == Encoding.GSM7BIT) {
+				charCount = 1;
+				charLength = GSMAlphabet.noOfChars(c);
+			} else {
+				// Keep surrogate pairs together
+				charCount = Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+				charLength = charCount;
+			}
+			if(partLength + charLength > capacity) {
+				userDataOctets += getUserDataOctets(encoding, udh, partLength);
+				++partCount;
+				partLength = 0;
+			}
+			partLength += charLength;
+			i += charCount;
+		}
+		userDataOctets += getUserDataOctets(encoding, udh, partLength);
+		return new SmsSegmentation(encoding, length, partCount, capacity, capacity - partLength, udh, userDataOctets);
+	}
+
+	/**
+	 * @param portAddressed <code>true</code> if each part carries source and destination ports
+	 * @return the length, in octets, of the user data header in each part of a multipart message
+	 */
+	private int getMultipartUdhOctets(boolean portAddressed) {
+		return UDHL_OCTETS + concatIeOctets + (portAddressed ? PORT_IE_OCTETS : 0);
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * @param encoding
+	 * @param udhOctets the length, in octets, of the user data header in each part
+	 * @return the maximum length of content, in the units of the encoding, which fits in a part
+	 */
+	private static int getCapacity(Encoding encoding, int udhOctets) {
+		switch(encoding) {
+		case GSM7BIT: return MAX_USER_DATA_SEPTETS - getUdhSeptets(udhOctets);
+		case UCS2: return (MAX_USER_DATA_OCTETS - udhOctets) / 2;
+		case BINARY: return MAX_USER_DATA_OCTETS - udhOctets;
+		default: throw new IllegalStateException("Unknown encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * @param encoding
+	 * @param udhOctets the length, in octets, of the user data header in the part
+	 * @param length the length of the content of the part, in the units of the encoding
+	 * @return the length, in octets, of the user data of the part, including its user data header
+	 */
+	private static int getUserDataOctets(Encoding encoding, int udhOctets, int length) {
+		switch(encoding) {
+		case GSM7BIT: return GSMAlphabet.packedLength(getUdhSeptets(udhOctets) + length);
+		case UCS2: return udhOctets + length * 2;
+		case BINARY: return udhOctets + length;
+		default: throw new IllegalStateException("Unknown encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * In GSM 7-bit messages, the user data header is padded so that the text starts on a septet boundary.
+	 * @param udhOctets the length, in octets, of a user data header
+	 * @return the number of septets taken by the user data header, including padding
+	 */
+	private static int getUdhSeptets(int udhOctets) {
+		return (udhOctets * 8 + 6) / 7;
+	}
+}
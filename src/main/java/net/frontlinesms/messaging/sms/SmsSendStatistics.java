@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+/**
+ * Recent sending performance of an {@link SmsService}.  The send rate and failure rate are exponentially
+ * weighted moving averages, so that they follow changes in a device's behaviour without being thrown
+ * by a single slow or failed send.
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsSendStatistics {
+	/** Weight given to the latest sample when updating the moving averages */
+	private static final double SMOOTHING_FACTOR = 0.3;
+
+//> INSTANCE PROPERTIES
+	/** Number of send samples that have been recorded */
+	private int sampleCount;
+	/** Moving average of the send rate, in messages per second */
+	private double sendRate;
+	/** Moving average of the proportion of messages which failed to send, between 0 and 1 */
+	private double failureRate;
+	/** Total number of messages that have been attempted */
+	private long totalMessages;
+	/** Total number of messages that have failed */
+	private long totalFailures;
+
+//> ACCESSORS
+	/**
+	 * Records an attempt to send one or more messages.
+	 * @param messageCount the number of messages that were attempted
+	 * @param failureCount the number of messages that failed
+	 * @param durationMillis the time taken to attempt all of the messages
+	 */
+	public synchronized void recordSend(int messageCount, int failureCount, long durationMillis) {
+		if(messageCount <= 0) {
+			return;
+		}
+		double rate = messageCount * 1000.0 / Math.max(1, durationMillis);
+		double failures = failureCount / (double) messageCount;
+		if(sampleCount == 0) {
+			sendRate = rate;
+			failureRate = failures;
+		} else {
+			sendRate = SMOOTHING_FACTOR * rate + (1 - SMOOTHING_FACTOR) * sendRate;
+			failureRate = SMOOTHING_FACTOR * failures + (1 - SMOOTHING_FACTOR) * failureRate;
+		}
+		++sampleCount;
+		totalMessages += messageCount;
+		totalFailures += failureCount;
+	}
+
+	/** @return <code>true</code> if any sends have been recorded */
+	public synchronized boolean hasSamples() {
+		return sampleCount > 0;
+	}
+
+	/** @return the recent send rate, in messages per second, or 0 if no sends have been recorded */
+	public synchronized double getSendRate() {
+		return sendRate;
+	}
+
+	/** @return the recent proportion of messages which failed to send, between 0 and 1 */
+	public synchronized double getFailureRate() {
+		return failureRate;
+	}
+
+	/** @return the total number of messages that have been attempted */
+	public synchronized long getTotalMessages() {
+		return totalMessages;
+	}
+
+	/** @return the total number of messages that have failed */
+	public synchronized long getTotalFailures() {
+		return totalFailures;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "rate=" + sendRate + "msg/s, failures=" + failureRate + ", total=" + totalMessages + ", totalFailures=" + totalFailures;
+	}
+}
@@ -50,4 +50,10 @@ public interface SmsService extends FrontlineMessagingService {
 	 * FIXME this method is unnecessary as all handsets support UCS-2 so far!
 	 */
 	public boolean isUcs2SendingSupported();
+
+	/** @return the number of messages waiting to be sent by this device */
+	public int getOutboxSize();
+
+	/** @return statistics about messages recently sent by this device, or <code>null</code> if none are available */
+	public SmsSendStatistics getSendStatistics();
 }
@@ -24,10 +24,13 @@ import java.util.concurrent.*;
 
 import serial.*;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.CommUtils;
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.data.domain.SmsModemSettings;
+import net.frontlinesms.data.repository.SmsModemSettingsDao;
 import net.frontlinesms.events.EventBus;
 import net.frontlinesms.listener.SmsListener;
 import net.frontlinesms.messaging.CommProperties;
@@ -59,6 +62,8 @@ import org.smslib.util.GsmAlphabet;
  * If you create SmsHandler and pass it an SmsListener, incoming messages will be reported as events 
  * to that listener. If you create the SmsHandler without the listener, the messages will just appear 
  * on the linked list of IncomingMessages, and the calling program must poll it for new messages.
+ * Parts of concatenated messages are held in a {@link ConcatenatedSmsBuffer} until the whole message 
+ * has been received, whichever devices received them.
  * 
  * Incoming messages are immediately removed from active phones, so if you close the program without 
  * storing the message, then you will have lost the message.
@@ -77,23 +82,39 @@ import org.smslib.util.GsmAlphabet;
  * @author Alex Anderson alex(at)masabi(dot)com
  */
 public class SmsServiceManager extends Thread implements SmsListener  {
+	/** Maximum time, in millis, that the dispatch thread waits for a signal before checking for received messages. */
+	private static final long MAX_DISPATCH_WAIT = 1000;
+
 	/** List of GSM 7bit text messages queued to be sent. */
-	private final ConcurrentLinkedQueue<FrontlineMessage> gsm7bitOutbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private final PriorityOutbox gsm7bitOutbox = new PriorityOutbox();
 	/** List of UCS2 text messages queued to be sent. */
-	private final ConcurrentLinkedQueue<FrontlineMessage> ucs2Outbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private final PriorityOutbox ucs2Outbox = new PriorityOutbox();
 	/** List of binary messages queued to be sent. */
-	private final ConcurrentLinkedQueue<FrontlineMessage> binOutbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private final PriorityOutbox binOutbox = new PriorityOutbox();
 	/** List of phone handlers that this manager is currently looking after. */
 	private final ConcurrentMap<String, SmsModem> phoneHandlers = new ConcurrentHashMap<String, SmsModem>();
 	/** Set of SMS internet services */
 	private Set<SmsInternetService> smsInternetServices = new  CopyOnWriteArraySet<SmsInternetService>();
 
+	/** Strategy used to choose which device each outgoing message is sent with */
+	private SmsDispatchStrategy dispatchStrategy = new ThroughputWeightedDispatchStrategy();
 	/** Listener to be passed SMS Listener events from this */
 	private SmsListener smsListener;
 	/** Listener for application events */
 	private EventBus eventBus;
+	/** Settings of known modems, used to reconnect to them without detecting their settings, or <code>null</code> if they are not available */
+	private SmsModemSettingsDao smsModemSettingsDao;
+	/** Transliterates outgoing text messages to the GSM 7-bit alphabet, or <code>null</code> if messages should be sent as they are */
+	private GsmTransliterator transliterator;
+	/** Joins the parts of concatenated messages received by all devices before they are passed to {@link #smsListener} */
+	private final ConcatenatedSmsBuffer concatenatedSmsBuffer;
+	/**
+	 * Signal used to wake the dispatch thread when there may be work for it to do, e.g. a message has been
+	 * queued or a device has connected.  Multiple signals received while the thread is busy are combined.
+	 */
+	private final Semaphore dispatchSignal = new Semaphore(0);
 	/** Flag indicating that the thread should continue running. */
-	private boolean running;	
+	private volatile boolean running;	
 	/** If set TRUE, then thread will automatically try to connect to newly-detected devices. */ 
 	private boolean autoConnectToNewPhones;
 	private boolean refreshPhoneList;
@@ -118,6 +139,12 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 		// Load the COMM properties file, and extract the IGNORE list from
 		// it - this is a list of COM ports that should be ignored.		
 		this.portIgnoreList = CommProperties.getInstance().getIgnoreList();
+
+		AppProperties appProperties = AppProperties.getInstance();
+		if(appProperties.isSmsTransliterationEnabled()) {
+			this.transliterator = GsmTransliterator.create();
+		}
+		this.concatenatedSmsBuffer = new ConcatenatedSmsBuffer(appProperties.getSmsReassemblyTimeout() * 1000L, appProperties.getSmsReassemblyMaxParts());
 	}
 
 	public void setSmsListener(SmsListener smsListener) {
@@ -128,20 +155,62 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 		this.eventBus = eventBus;
 	}
 
+	/** @param smsModemSettingsDao new value for {@link #smsModemSettingsDao} */
+	public void setSmsModemSettingsDao(SmsModemSettingsDao smsModemSettingsDao) {
+		this.smsModemSettingsDao = smsModemSettingsDao;
+	}
+
+	/** @return {@link #transliterator} */
+	public GsmTransliterator getTransliterator() {
+		return transliterator;
+	}
+
+	/** @param transliterator new value for {@link #transliterator} */
+	public void setTransliterator(GsmTransliterator transliterator) {
+		this.transliterator = transliterator;
+	}
+
+	/** @return {@link #concatenatedSmsBuffer} */
+	public ConcatenatedSmsBuffer getConcatenatedSmsBuffer() {
+		return concatenatedSmsBuffer;
+	}
+
+	/** @param dispatchStrategy new value for {@link #dispatchStrategy} */
+	public void setDispatchStrategy(SmsDispatchStrategy dispatchStrategy) {
+		this.dispatchStrategy = dispatchStrategy;
+	}
+
 	public void run() {
 		LOG.trace("ENTER");
 		running = true;
 		while (running) {
-			// Sleep for a second to ensure lists are not constantly being reshuffled.  Processing dispatch
-			// and received messages is not really time-critical, otherwise it might be worth sleeping for
-			// less time.
-			FrontlineUtils.sleep_ignoreInterrupts(1000);
-			
-			doRun();
+			// Wait until there is something to dispatch.  We wake up at least once a second anyway to
+			// process messages received by modems and to retry messages which could not be dispatched.
+			awaitDispatchSignal();
+			if(running) doRun();
 		}
 		LOG.trace("EXIT");
 	}
 
+	/**
+	 * Waits for {@link #dispatchSignal}, or for {@link #MAX_DISPATCH_WAIT} if no signal is received.
+	 * Any further signals which have already been received are cleared, as the next call to
+	 * {@link #doRun()} will handle them all together.
+	 */
+	private void awaitDispatchSignal() {
+		try {
+			dispatchSignal.tryAcquire(MAX_DISPATCH_WAIT, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException ex) {
+			LOG.debug("", ex);
+		}
+		dispatchSignal.drainPermits();
+	}
+
+	/** Wakes the dispatch thread so that it processes queued messages and requests immediately. */
+	private void signalDispatch() {
+		dispatchSignal.release();
+	}
+
 	/**
 	 * Run the looped behaviour from {@link #run()} once.
 	 * This method is separated for simple, unthreaded unit testing.
@@ -157,6 +226,7 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 			dispatchUcs2TextSms();
 			dispatchBinarySms();
 			processModemReceiving();
+			passOnIncomingMessages(concatenatedSmsBuffer.flushExpired(System.currentTimeMillis()));
 		}
 	}
 
@@ -173,6 +243,7 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	public void refreshPhoneList(boolean autoConnectToNewPhones) {
 		this.autoConnectToNewPhones = autoConnectToNewPhones;
 		refreshPhoneList = true;
+		signalDispatch();
 	}
 
 	/**
@@ -194,8 +265,10 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 			}
 		} else {
 			LOG.debug("Getting ports...");
+			// Devices are detected concurrently, and share the time allowed for detection
+			long detectionDeadline = System.currentTimeMillis() + AppProperties.getInstance().getModemDetectionBudget() * 1000L;
 			while (portIdentifiers.hasMoreElements()) {
-				requestConnect(portIdentifiers.nextElement(), connectToAllDiscoveredPhones);
+				requestConnect(portIdentifiers.nextElement(), connectToAllDiscoveredPhones, detectionDeadline);
 			}
 		}
 		LOG.trace("EXIT");
@@ -223,7 +296,47 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	 */
 	public void sendSMS(FrontlineMessage outgoingMessage) {
 		LOG.trace("ENTER");
+		addToOutbox(outgoingMessage);
+		signalDispatch();
+		
+		if (smsListener != null) smsListener.outgoingMessageEvent(null, outgoingMessage);
+		LOG.trace("EXIT");
+	}
+
+	/**
+	 * Request that several SMS messages be sent.  The dispatch thread is only woken once all of the
+	 * messages have been queued, so that they are shared between the available devices together.
+	 * Messages which already have status {@link Status#OUTBOX} are not reported to {@link #smsListener},
+	 * as their status has not changed.
+	 * @param outgoingMessages
+	 */
+	public void sendSMS(Collection<FrontlineMessage> outgoingMessages) {
+		LOG.trace("ENTER");
+		List<FrontlineMessage> changed = new ArrayList<FrontlineMessage>();
+		for(FrontlineMessage outgoingMessage : outgoingMessages) {
+			if(outgoingMessage.getStatus() != Status.OUTBOX) changed.add(outgoingMessage);
+			addToOutbox(outgoingMessage);
+		}
+		signalDispatch();
+		
+		if (smsListener != null) {
+			for(FrontlineMessage outgoingMessage : changed) {
+				smsListener.outgoingMessageEvent(null, outgoingMessage);
+			}
+		}
+		LOG.trace("EXIT");
+	}
+
+	/**
+	 * Adds a message to the outbox for its {@link MessageType}.  If {@link #transliterator} is set, the message
+	 * is first transliterated to the GSM 7-bit alphabet if that will reduce the number of parts it is sent as.
+	 * @param outgoingMessage
+	 */
+	private void addToOutbox(FrontlineMessage outgoingMessage) {
 		outgoingMessage.setStatus(Status.OUTBOX);
+		if(transliterator != null) {
+			transliterator.transliterate(outgoingMessage);
+		}
 		switch(MessageType.get(outgoingMessage)) {
 		case BINARY:
 			binOutbox.add(outgoingMessage);
@@ -239,9 +352,6 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 			break;
 		default: throw new IllegalStateException();
 		}
-		
-		if (smsListener != null) smsListener.outgoingMessageEvent(null, outgoingMessage);
-		LOG.trace("EXIT");
 	}
 
 	/**
@@ -265,6 +375,7 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	 */
 	public void stopRunning() {
 		this.running = false;
+		signalDispatch();
 
 		// Disconnect all phones.
 		for(SmsModem p : phoneHandlers.values()) {
@@ -277,9 +388,35 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 		for(SmsInternetService service : this.smsInternetServices) {
 			service.stopThisThing();
 		}
+
+		// Pass on any parts still waiting for the rest of their message, rather than losing them
+		passOnIncomingMessages(concatenatedSmsBuffer.flushAll());
 	}
 
 	public void incomingMessageEvent(SmsService receiver, CIncomingMessage msg) {
+		if(msg instanceof IncomingMessagePart) {
+			passOnIncomingMessages(concatenatedSmsBuffer.add(receiver, (IncomingMessagePart) msg, System.currentTimeMillis()));
+		} else {
+			passOnIncomingMessage(receiver, msg);
+		}
+	}
+
+	/**
+	 * Passes messages released from {@link #concatenatedSmsBuffer} on to {@link #smsListener}.
+	 * @param released
+	 */
+	private void passOnIncomingMessages(List<ConcatenatedSmsBuffer.ReleasedMessage> released) {
+		for(ConcatenatedSmsBuffer.ReleasedMessage m : released) {
+			passOnIncomingMessage(m.getReceiver(), m.getMessage());
+		}
+	}
+
+	/**
+	 * Passes a received message on to {@link #smsListener}.
+	 * @param receiver
+	 * @param msg
+	 */
+	private void passOnIncomingMessage(SmsService receiver, CIncomingMessage msg) {
 		// If we've got a higher-level listener attached to this, pass the message 
 		// up to there.  Otherwise, add it to our internal list
 		if (smsListener != null) smsListener.incomingMessageEvent(receiver, msg);
@@ -332,6 +469,9 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 					activeDevice.setDuplicate(isDuplicate);
 					if(!isDuplicate) activeDevice.connect();
 				}
+			} else if(deviceStatus.equals(SmsModemStatus.CONNECTED)) {
+				// Messages may have been waiting for a device to send them with
+				signalDispatch();
 			}
 			
 			if (isFailedStatus(deviceStatus)) {
@@ -451,7 +591,7 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	 * @param port
 	 */
 	public void requestConnect(String port) throws NoSuchPortException {
-		requestConnect(CommPortIdentifier.getPortIdentifier(port), true);
+		requestConnect(CommPortIdentifier.getPortIdentifier(port), true, 0);
 	}
 
 	/**
@@ -492,6 +632,7 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 			smsInternetServices.add(smsInternetService);
 			smsInternetService.startThisThing();
 		}
+		signalDispatch();
 	}
 
 	/**
@@ -526,12 +667,13 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	}
 
 	/**
-	 * Attempts to connect to the supplied comm port
+	 * Attempts to connect to the supplied comm port.  If a device was previously connected to the port, its last
+	 * known settings are tried before detecting the settings to use.
 	 * @param portIdentifier
 	 * @param connectToDiscoveredPhone
-	 * @param findPhoneName
+	 * @param detectionDeadline time, in millis, after which detection should give up, or 0 if it should not be limited
 	 */
-	private void requestConnect(CommPortIdentifier portIdentifier, boolean connectToDiscoveredPhones) {
+	private void requestConnect(CommPortIdentifier portIdentifier, boolean connectToDiscoveredPhones, long detectionDeadline) {
 		String portName = portIdentifier.getName();
 		LOG.debug("Port Name [" + portName + "]");
 		if(!shouldIgnore(portName) && portIdentifier.getPortType() == CommPortIdentifier.PORT_SERIAL) {
@@ -542,7 +684,15 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 					LOG.debug("Connecting to port...");
 					SmsModem phoneHandler = modem;
 					phoneHandlers.put(portName, phoneHandler);
-					if(connectToDiscoveredPhones) phoneHandler.start();
+					if(connectToDiscoveredPhones) {
+						phoneHandler.setDetectionDeadline(detectionDeadline);
+						SmsModemSettings knownSettings = getLastConnectedSettings(portName);
+						if(knownSettings != null) {
+							phoneHandler.start(knownSettings.getBaudRate(), knownSettings.getCatHandler(), knownSettings.getSerial());
+						} else {
+							phoneHandler.start();
+						}
+					}
 				} else {
 					// If we don't have a handle on this port, but it's owned by someone else,
 					// then we add it to the phoneHandlers list anyway so that we can see its
@@ -556,6 +706,20 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 		}
 	}
 
+	/**
+	 * Gets the settings of the device which was last connected to a port, if they are known.
+	 * @param portName
+	 * @return the settings of the device last connected to the port, or <code>null</code> if there is no single such device whose connection details are known
+	 */
+	private SmsModemSettings getLastConnectedSettings(String portName) {
+		if(smsModemSettingsDao == null) return null;
+		List<SmsModemSettings> settings = smsModemSettingsDao.getSmsModemSettingsForPort(portName);
+		if(settings.size() != 1) return null;
+		SmsModemSettings known = settings.get(0);
+		if(known.getBaudRate() <= 0 || known.getSerial() == null || known.getSerial().length() == 0) return null;
+		return known;
+	}
+
 	public Collection<SmsInternetService> getSmsInternetServices() {
 		return this.smsInternetServices;
 	}
@@ -618,24 +782,18 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	 */
 	private void dispatchSms(List<FrontlineMessage> messages, MessageType messageType) {
 		if(messages.size() > 0) {
-			// Try dispatching to SmsInternetServices
-			List<SmsInternetService> internetServices = getSmsInternetServicesForSending(messageType);
-			int serviceCount = internetServices.size();
-			if(serviceCount > 0) {
-				// We have some SMS Internet services to send with.  These are assumed to be higher priority
-				// than Sms Modems, so send all messages with the internet services.
-				dispatchSms(internetServices, messages);
+			// SmsInternetServices are listed first so that they are preferred by the dispatch strategy
+			// when all else is equal.
+			List<SmsService> devices = new ArrayList<SmsService>();
+			devices.addAll(getSmsInternetServicesForSending(messageType));
+			devices.addAll(getSmsModemsForSending(messageType));
+			if(devices.size() > 0) {
+				dispatchSms(devices, messages);
 			} else {
-				// There are no available SMS Internet Services, so dispatch to SmsModems
-				List<SmsModem> sendingModems = getSmsModemsForSending(messageType);
-				if(sendingModems.size() > 0) {
-					dispatchSms(sendingModems, messages);
-				} else {
-					// The messages cannot be sent
-					// We put them back in their outbox 
-					getOutboxFromType(messageType).addAll(messages);
-				}
-			}		
+				// The messages cannot be sent
+				// We put them back in their outbox 
+				getOutboxFromType(messageType).addAll(messages);
+			}
 		}
 	}
 	
@@ -644,7 +802,7 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	 * @param messageType The {@link MessageType}
 	 * @return The outbox corresponding to the {@link MessageType}
 	 */
-	private ConcurrentLinkedQueue<FrontlineMessage> getOutboxFromType(MessageType messageType) {
+	private PriorityOutbox getOutboxFromType(MessageType messageType) {
 		switch (messageType) {
 		case BINARY:
 			return binOutbox;
@@ -662,19 +820,21 @@ public class SmsServiceManager extends Thread implements SmsListener  {
 	 * @param messages
 	 */
 	private void dispatchSms(List<? extends SmsService> devices, List<FrontlineMessage> messages) {
-		int deviceCount = devices.size();
-		int messageIndex = -1;
-		for(FrontlineMessage m : messages) {
-			SmsService device = devices.get(++messageIndex % deviceCount);
-			// Presumably the device will complain somehow if it is no longer connected
-			// etc.  TODO we should actually check what happens!
-			device.sendSMS(m);
-			outgoingMessageEvent(device, m);
+		Map<SmsService, List<FrontlineMessage>> assigned = dispatchStrategy.assign(devices, messages);
+		for(Map.Entry<SmsService, List<FrontlineMessage>> entry : assigned.entrySet()) {
+			SmsService device = entry.getKey();
+			if(LOG.isDebugEnabled()) LOG.debug("Dispatching [" + entry.getValue().size() + "] message(s) to [" + device.getServiceName() + "]: " + device.getSendStatistics());
+			for(FrontlineMessage m : entry.getValue()) {
+				// Presumably the device will complain somehow if it is no longer connected
+				// etc.  TODO we should actually check what happens!
+				device.sendSMS(m);
+				outgoingMessageEvent(device, m);
+			}
 		}
 	}
 
 	/** Removes and returns all messages currently available in a list. */
-	private List<FrontlineMessage> removeAll(ConcurrentLinkedQueue<FrontlineMessage> outbox) {
+	private List<FrontlineMessage> removeAll(PriorityOutbox outbox) {
 		LinkedList<FrontlineMessage> retrieved = new LinkedList<FrontlineMessage>();
 		FrontlineMessage m;
 		while((m=outbox.poll())!=null) retrieved.add(m);
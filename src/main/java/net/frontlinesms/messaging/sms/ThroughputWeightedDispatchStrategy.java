@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.internet.SmsInternetService;
+
+/**
+ * {@link SmsDispatchStrategy} which weights devices by how quickly they are sending messages.
+ * <p>Each message is given to the device which is expected to finish sending it soonest, based on the
+ * number of messages already waiting in the device's outbox and the device's recent send rate from
+ * {@link SmsService#getSendStatistics()}.  Multipart messages are weighted by their number of parts.  Devices with recent send failures have their rate reduced
+ * accordingly, so a slow or unreliable device receives fewer messages and does not hold back the rest.</p>
+ * <p>Devices which have not yet sent anything are assumed to send at a typical rate for their type, so
+ * small batches are still sent with {@link SmsInternetService}s in preference to modems.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ThroughputWeightedDispatchStrategy implements SmsDispatchStrategy {
+	/** Send rate, in messages per second, assumed for an {@link SmsInternetService} which has not sent anything yet */
+	private static final double DEFAULT_INTERNET_SERVICE_SEND_RATE = 5;
+	/** Send rate, in messages per second, assumed for any other device which has not sent anything yet */
+	private static final double DEFAULT_SEND_RATE = 0.2;
+	/** Minimum send rate, in messages per second, used for any device.  This prevents a device being starved completely. */
+	private static final double MIN_SEND_RATE = 0.001;
+
+	/** @see SmsDispatchStrategy#assign(List, List) */
+	public Map<SmsService, List<FrontlineMessage>> assign(List<? extends SmsService> devices, List<FrontlineMessage> messages) {
+		int deviceCount = devices.size();
+		double[] rates = new double[deviceCount];
+		int[] queued = new int[deviceCount];
+		for (int i = 0; i < deviceCount; i++) {
+			SmsService device = devices.get(i);
+			rates[i] = getEffectiveSendRate(device);
+			queued[i] = Math.max(0, device.getOutboxSize());
+		}
+
+		Map<SmsService, List<FrontlineMessage>> assigned = new LinkedHashMap<SmsService, List<FrontlineMessage>>();
+		for(FrontlineMessage m : messages) {
+			// Find the device which would finish sending this message first.  Each part of a multipart
+			// message takes about as long to send as a whole single-part message.
+			int parts = Math.max(1, m.getNumberOfSMS());
+			int best = 0;
+			double bestTime = Double.MAX_VALUE;
+			for (int i = 0; i < deviceCount; i++) {
+				double completionTime = (queued[i] + parts) / rates[i];
+				if(completionTime < bestTime) {
+					best = i;
+					bestTime = completionTime;
+				}
+			}
+			queued[best] += parts;
+
+			SmsService device = devices.get(best);
+			List<FrontlineMessage> deviceMessages = assigned.get(device);
+			if(deviceMessages == null) {
+				deviceMessages = new ArrayList<FrontlineMessage>();
+				assigned.put(device, deviceMessages);
+			}
+			deviceMessages.add(m);
+		}
+		return assigned;
+	}
+
+	/**
+	 * Gets the rate at which a device is expected to successfully send messages.
+	 * @param device
+	 * @return the expected rate, in messages per second
+	 */
+	double getEffectiveSendRate(SmsService device) {
+		SmsSendStatistics statistics = device.getSendStatistics();
+		double rate;
+		if(statistics != null && statistics.hasSamples()) {
+			rate = statistics.getSendRate() * (1 - statistics.getFailureRate());
+		} else if(device instanceof SmsInternetService) {
+			rate = DEFAULT_INTERNET_SERVICE_SEND_RATE;
+		} else {
+			rate = DEFAULT_SEND_RATE;
+		}
+		return Math.max(MIN_SEND_RATE, rate);
+	}
+}
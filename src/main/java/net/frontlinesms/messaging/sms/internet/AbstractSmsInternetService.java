@@ -19,15 +19,20 @@
  */
 package net.frontlinesms.messaging.sms.internet;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.listener.SmsListener;
+import net.frontlinesms.messaging.sms.PriorityOutbox;
+import net.frontlinesms.messaging.sms.SmsSendStatistics;
 import net.frontlinesms.messaging.sms.properties.OptionalRadioSection;
 import net.frontlinesms.messaging.sms.properties.OptionalSection;
 
@@ -49,14 +54,27 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 	protected static final String PROPERTY_USE_FOR_SENDING = "common.use.for.sending";
 	/** Property name: use this service for receiving SMS */
 	protected static final String PROPERTY_USE_FOR_RECEIVING = "common.use.for.receiving";
+	/** Property name: maximum number of messages this service sends at once */
+	protected static final String PROPERTY_MAX_CONCURRENT_SENDS = "common.max.concurrent.sends";
+	/** Default value for {@link #PROPERTY_MAX_CONCURRENT_SENDS}.  This is below the default number of HTTP connections
+	 * allowed to each host, so that a connection is left for receiving. */
+	protected static final int DEFAULT_MAX_CONCURRENT_SENDS = 4;
+	/** Property name: maximum number of recipients of the same message text included in a single request */
+	protected static final String PROPERTY_MAX_RECIPIENTS_PER_REQUEST = "common.max.recipients.per.request";
+	/** Default value for {@link #PROPERTY_MAX_RECIPIENTS_PER_REQUEST} */
+	protected static final int DEFAULT_MAX_RECIPIENTS_PER_REQUEST = 50;
 	/** Separator used while displaying the name in the UI */
 	protected static final String UI_NAME_SEPARATOR = "@";
+	/** Time, in millis, between checks for received messages */
+	private static final long RECEIVE_POLL_INTERVAL = 5000;
 	
 //> INSTANCE PROPERTIES
 	/** The active thread running this service */
 	private SmsInternetServiceThread thread;
-	/** Queue of SMS messages waiting to be sent with this service */
-	protected ConcurrentLinkedQueue<FrontlineMessage> outbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	/** Queue of SMS messages waiting to be sent with this service.  {@link FrontlineMessage.Priority#HIGH} messages are sent first. */
+	protected final PriorityOutbox outbox = new PriorityOutbox();
+	/** Statistics about messages sent with this service */
+	private final SmsSendStatistics sendStatistics = new SmsSendStatistics();
 	/** The SmsListener to which this phone handler should report SMS Message events. */
 	protected SmsListener smsListener;
 	/** Settings for this service */
@@ -69,10 +87,20 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 //> ACCESSOR METHODS
 	
 	/** @return This internet service outbox. */
-	public ConcurrentLinkedQueue<FrontlineMessage> getOutbox() {
+	public PriorityOutbox getOutbox() {
 		return outbox;
 	}
 	
+	/** @see net.frontlinesms.messaging.sms.SmsService#getOutboxSize() */
+	public int getOutboxSize() {
+		return outbox.size();
+	}
+	
+	/** @see net.frontlinesms.messaging.sms.SmsService#getSendStatistics() */
+	public SmsSendStatistics getSendStatistics() {
+		return sendStatistics;
+	}
+	
 	/** @return the settings attached to this {@link SmsInternetService} instance. */
 	public SmsInternetServiceSettings getSettings() {
 		return settings;
@@ -96,6 +124,34 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 	public String getServiceIdentification() {
 		return this.getMsisdn();
 	}
+	
+	/**
+	 * Gets the maximum number of messages this service sends at once.  Services which do not include
+	 * {@link #PROPERTY_MAX_CONCURRENT_SENDS} in their {@link #getPropertiesStructure()} send one message at a time.
+	 * <p>Sends beyond the number of HTTP connections allowed to each host would only wait for a connection, and fail
+	 * if none became free within the connect timeout, so this is limited to {@link AppProperties#getHttpConnectionsPerHost()}.</p>
+	 * @return the value of {@value #PROPERTY_MAX_CONCURRENT_SENDS}, or 1 if this service does not support concurrent sends
+	 */
+	public int getMaxConcurrentSends() {
+		if(getValue(PROPERTY_MAX_CONCURRENT_SENDS, getPropertiesStructure()) == null) {
+			return 1;
+		}
+		int maxConcurrentSends = getPropertyValue(PROPERTY_MAX_CONCURRENT_SENDS, Integer.class);
+		return Math.max(1, Math.min(maxConcurrentSends, AppProperties.getInstance().getHttpConnectionsPerHost()));
+	}
+	
+	/**
+	 * Gets the maximum number of messages with the same content which this service sends in a single request.
+	 * Services which do not include {@link #PROPERTY_MAX_RECIPIENTS_PER_REQUEST} in their {@link #getPropertiesStructure()}
+	 * send each message in its own request.
+	 * @return the value of {@value #PROPERTY_MAX_RECIPIENTS_PER_REQUEST}, or 1 if this service does not support multi-recipient requests
+	 */
+	public int getMaxRecipientsPerRequest() {
+		if(getValue(PROPERTY_MAX_RECIPIENTS_PER_REQUEST, getPropertiesStructure()) == null) {
+			return 1;
+		}
+		return Math.max(1, getPropertyValue(PROPERTY_MAX_RECIPIENTS_PER_REQUEST, Integer.class));
+	}
 
 	/**
 	 * Set the status of this {@link SmsInternetService}, and fires an event to {@link #smsListener}
@@ -206,12 +262,15 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 		if(this.thread != null) this.thread.running = false;
 	}
 	
-	private class SmsInternetServiceThread extends Thread {
+	private class SmsInternetServiceThread extends Thread implements SendWindow.Sender {
 		/** Indicates whether this {@link SmsInternetServiceThread} is running. */ 
-		protected boolean running;
+		protected volatile boolean running;
+		/** Messages being sent by this thread */
+		private final SendWindow sendWindow;
 		
 		SmsInternetServiceThread(AbstractSmsInternetService owner) {
 			super(owner.getClass().getSimpleName() + " :: " + owner.getIdentifier());
+			this.sendWindow = new SendWindow(getName(), owner.getMaxConcurrentSends());
 		}
 		
 		/**
@@ -220,19 +279,9 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 		public void run() {
 			LOG.trace("ENTER");
 			running = true;
+			long nextReceiveTime = 0;
 			while (running) {
-				boolean sleep = true;
-				if (isConnected() && isUseForSending()) {
-					FrontlineMessage m = outbox.poll();
-					if (m != null) {
-						LOG.debug("Sending message [" + m.toString() + "]");
-						long startTime = System.currentTimeMillis();
-						sendSmsDirect(m);
-						LOG.debug("Send messages took [" + (System.currentTimeMillis() - startTime) + "]");
-						sleep = false;
-					}
-				}
-				if (running && isConnected() && isUseForReceiving()) {
+				if (isConnected() && isUseForReceiving() && System.currentTimeMillis() >= nextReceiveTime) {
 					LOG.debug("Receiving messages...");
 					try {
 						long startTime = System.currentTimeMillis();
@@ -243,16 +292,77 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 						// Should this really be a status?
 						setStatus(SmsInternetServiceStatus.RECEIVING_FAILED, null);
 					}
+					nextReceiveTime = System.currentTimeMillis() + RECEIVE_POLL_INTERVAL;
 				}
 				// TODO verify delivery reports?
-				// If this thread is still running, we should have a little snooze
-				if (running) {
-					if (sleep) FrontlineUtils.sleep_ignoreInterrupts(5000); /* 5 seconds */
-					else FrontlineUtils.sleep_ignoreInterrupts(100); /* 0.1 seconds */
+				
+				// Wait for a message to send until it is time to check for received messages again
+				long wait = RECEIVE_POLL_INTERVAL;
+				if (isUseForReceiving()) {
+					wait = Math.max(0, Math.min(RECEIVE_POLL_INTERVAL, nextReceiveTime - System.currentTimeMillis()));
+				}
+				if (!running) {
+					break;
+				} else if (isConnected() && isUseForSending()) {
+					FrontlineMessage m = null;
+					try {
+						// Wait for space in the send window, and then for a message to fill it
+						long waitEnd = System.currentTimeMillis() + wait;
+						if (sendWindow.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+							m = outbox.poll(Math.max(0, waitEnd - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+							if (m == null) sendWindow.release();
+						}
+					} catch(InterruptedException ex) {
+						LOG.debug("", ex);
+					}
+					if (m != null) {
+						// Take any other waiting messages with the same content, so they can be sent in the same request
+						List<FrontlineMessage> batch = new ArrayList<FrontlineMessage>();
+						batch.add(m);
+						int maxRecipients = getMaxRecipientsPerRequest();
+						if (maxRecipients > 1) {
+							outbox.drainSameContent(m, batch, maxRecipients - 1);
+						}
+						LOG.debug("Sending message [" + m.toString() + "]" + (batch.size() > 1 ? " to " + batch.size() + " recipients" : ""));
+						sendWindow.send(batch, this);
+					}
+				} else {
+					FrontlineUtils.sleep_ignoreInterrupts(wait == 0 ? RECEIVE_POLL_INTERVAL : wait);
 				}
 			}
+			sendWindow.shutdown();
 			LOG.trace("EXIT");
 		}
+		
+		/** @see SendWindow.Sender#send(List) */
+		public void send(List<FrontlineMessage> messages) {
+			if (messages.size() == 1) {
+				sendSmsDirect(messages.get(0));
+			} else {
+				sendSmsBatch(messages);
+			}
+		}
+		
+		/** @see SendWindow.Sender#sendComplete(List, long) */
+		public void sendComplete(List<FrontlineMessage> messages, long durationMillis) {
+			int failures = 0;
+			for (FrontlineMessage message : messages) {
+				if (message.getStatus() == Status.PENDING) {
+					// The service failed without reporting a status
+					message.setStatus(Status.FAILED);
+				}
+				if (message.getStatus() == Status.FAILED) {
+					++failures;
+				}
+			}
+			sendStatistics.recordSend(messages.size(), failures, durationMillis);
+			LOG.debug("Send messages took [" + durationMillis + "]");
+			if (smsListener != null) {
+				for (FrontlineMessage message : messages) {
+					smsListener.outgoingMessageEvent(AbstractSmsInternetService.this, message);
+				}
+			}
+		}
 	}
 
 //> ABSTRACT METHODS
@@ -266,11 +376,27 @@ abstract class AbstractSmsInternetService implements SmsInternetService {
 	protected abstract void deinit();
 	
 	/**
-	 * Send an SMS message using this phone handler.
+	 * Send an SMS message using this phone handler, and set its status to {@link Status#SENT} or {@link Status#FAILED}.
+	 * This may be called for up to {@link #getMaxConcurrentSends()} messages at once, on different threads.
+	 * {@link #smsListener} is notified of the message's new status once this returns, in the order the
+	 * messages were taken from the {@link #outbox}.
 	 * @param message The message to be sent.
 	 */
 	protected abstract void sendSmsDirect(FrontlineMessage message);
 	
+	/**
+	 * Send several messages with the same content to different recipients, and set the status of each to
+	 * {@link Status#SENT} or {@link Status#FAILED}.  This is only called if {@link #getMaxRecipientsPerRequest()}
+	 * is greater than 1.  The default implementation sends each message with {@link #sendSmsDirect(FrontlineMessage)};
+	 * services which support multi-recipient requests should override it to send them all at once.
+	 * @param messages The messages to be sent.  These all have the same text and recipient port.
+	 */
+	protected void sendSmsBatch(List<FrontlineMessage> messages) {
+		for (FrontlineMessage message : messages) {
+			sendSmsDirect(message);
+		}
+	}
+	
 	/**
 	 * Attempt to receive SMS messages from this service.
 	 * @throws SmsInternetServiceReceiveException If there was a problem receiving SMS
@@ -19,7 +19,10 @@
  */
 package net.frontlinesms.messaging.sms.internet;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import net.frontlinesms.*;
 import net.frontlinesms.data.domain.FrontlineMessage;
@@ -84,6 +87,71 @@ public class ClickatellInternetService extends AbstractSmsInternetService {
 		LOG.debug("Version: " + Library.getLibraryVersion());
 
 		LOG.debug("Sending [" + message.getTextContent() + "] to [" + message.getRecipientMsisdn() + "]");
+		OutboundMessage oMessage = createOutboundMessage(message);
+		try {
+			service.sendMessage(oMessage);
+		} catch(Exception ex) {
+			message.setStatus(Status.FAILED);
+			LOG.debug("Failed to send message [" + message + "]", ex);
+			LOG.info("Failed to send message");
+			return;
+		}
+		if (applyResult(message, oMessage)) {
+			reportLowCredit();
+		}
+	}
+	
+	/**
+	 * Send several messages with the same content in a single multi-destination request, and set the status
+	 * and SMSC reference of each from the result reported for its recipient.
+	 * @see AbstractSmsInternetService#sendSmsBatch(List)
+	 */
+	@Override
+	protected void sendSmsBatch(List<FrontlineMessage> messages) {
+		LOG.trace("ENTER");
+		LOG.debug("Sending [" + messages.get(0).getTextContent() + "] to [" + messages.size() + "] recipients");
+		List<OutboundMessage> oMessages = new ArrayList<OutboundMessage>(messages.size());
+		for (FrontlineMessage message : messages) {
+			oMessages.add(createOutboundMessage(message));
+		}
+		try {
+			try {
+				gateway.sendMultiDestinationMessage(oMessages);
+			} catch(IOException ex) {
+				// As with sending through the smslib Service, mark the gateway for restart
+				gateway.setGatewayStatus(GatewayStatuses.RESTART);
+				throw ex;
+			} catch(TimeoutException ex) {
+				gateway.setGatewayStatus(GatewayStatuses.RESTART);
+				throw ex;
+			}
+		} catch(Exception ex) {
+			for (FrontlineMessage message : messages) {
+				message.setStatus(Status.FAILED);
+			}
+			LOG.debug("Failed to send [" + messages.size() + "] messages", ex);
+			LOG.info("Failed to send messages");
+			LOG.trace("EXIT");
+			return;
+		}
+		
+		// The request was accepted, so the status of each message is known even if the balance cannot be checked
+		boolean creditLow = false;
+		for (int i = 0; i < messages.size(); i++) {
+			creditLow |= applyResult(messages.get(i), oMessages.get(i));
+		}
+		if (creditLow) {
+			reportLowCredit();
+		}
+		LOG.trace("EXIT");
+	}
+	
+	/**
+	 * Creates the smslib message used to send a {@link FrontlineMessage}.
+	 * @param message
+	 * @return a new {@link OutboundMessage} with the content and recipient of the supplied message
+	 */
+	private OutboundMessage createOutboundMessage(FrontlineMessage message) {
 		OutboundMessage oMessage;
 
 		// FIXME if we are sending a binary message, we should create one of those here instead
@@ -100,30 +168,47 @@ public class ClickatellInternetService extends AbstractSmsInternetService {
 		if (fromMsisdn != null && !fromMsisdn.equals("")) {
 			oMessage.setFrom(fromMsisdn);
 		}
-		try {
-			service.sendMessage(oMessage);
-			if (oMessage.getMessageStatus() == MessageStatuses.SENT) {
-				message.setStatus(Status.SENT);
-				LOG.debug("Message [" + message + "] was sent!");
-			} else {
-				//message not sent
-				//failed to send
-				if (oMessage.getFailureCause() == FailureCauses.NO_CREDIT) {
-					setStatus(SmsInternetServiceStatus.LOW_CREDIT, Float.toString(gateway.queryBalance()));
-					creditLow();
-				}
-				message.setStatus(Status.FAILED);
-				LOG.debug("Message [" + message + "] was not sent.  Cause: [" + oMessage.getFailureCause() + "]");
+		return oMessage;
+	}
+	
+	/**
+	 * Sets the status of a {@link FrontlineMessage} from the result of sending its {@link OutboundMessage}.
+	 * @param message
+	 * @param oMessage
+	 * @return <code>true</code> if the message failed because there is no credit left, in which case {@link #reportLowCredit()} should be called
+	 */
+	private boolean applyResult(FrontlineMessage message, OutboundMessage oMessage) {
+		if (oMessage.getMessageStatus() == MessageStatuses.SENT) {
+			message.setStatus(Status.SENT);
+			try {
+				message.setSmscReference(Integer.parseInt(oMessage.getRefNo()));
+			} catch(NumberFormatException ex) {
+				// Clickatell message IDs are usually hexadecimal, and cannot be stored in this case
 			}
-		} catch(Exception ex) {
+			LOG.debug("Message [" + message + "] was sent!");
+			return false;
+		} else {
+			//message not sent
+			//failed to send
 			message.setStatus(Status.FAILED);
-			LOG.debug("Failed to send message [" + message + "]", ex);
-			LOG.info("Failed to send message");
-		} finally {
-			if (smsListener != null) {
-				smsListener.outgoingMessageEvent(this, message);
-			}
+			LOG.debug("Message [" + message + "] was not sent.  Cause: [" + oMessage.getFailureCause() + "]");
+			return oMessage.getFailureCause() == FailureCauses.NO_CREDIT;
+		}
+	}
+	
+	/**
+	 * Sets the status of this service to {@link SmsInternetServiceStatus#LOW_CREDIT}, with the remaining balance if
+	 * it can be checked, and stops the service.
+	 */
+	private void reportLowCredit() {
+		String balance = null;
+		try {
+			balance = Float.toString(gateway.queryBalance());
+		} catch(Exception ex) {
+			LOG.debug("Failed to check balance", ex);
 		}
+		setStatus(SmsInternetServiceStatus.LOW_CREDIT, balance);
+		creditLow();
 	}
 
 	/**
@@ -196,6 +281,8 @@ public class ClickatellInternetService extends AbstractSmsInternetService {
 		defaultSettings.put(PROPERTY_FROM_MSISDN, new PhoneSection(""));
 		defaultSettings.put(PROPERTY_SSL, Boolean.FALSE);
 		defaultSettings.put(PROPERTY_USE_FOR_SENDING, Boolean.TRUE);
+		defaultSettings.put(PROPERTY_MAX_CONCURRENT_SENDS, new Integer(DEFAULT_MAX_CONCURRENT_SENDS));
+		defaultSettings.put(PROPERTY_MAX_RECIPIENTS_PER_REQUEST, new Integer(DEFAULT_MAX_RECIPIENTS_PER_REQUEST));
 		return defaultSettings;
 	}
 	
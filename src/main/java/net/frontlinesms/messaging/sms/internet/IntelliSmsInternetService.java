@@ -163,7 +163,7 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 	 * Send an SMS message using this phone handler.
 	 * @param message The message to be sent.
 	 */
-	protected synchronized void sendSmsDirect(FrontlineMessage message) {
+	protected void sendSmsDirect(FrontlineMessage message) {
 		LOG.trace("ENTER");
 		LOG.debug("Sending [" + message.getTextContent() + "] to [" + message.getRecipientMsisdn() + "]");
 		try {
@@ -184,38 +184,123 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 				message.setStatus(Status.SENT);
 				LOG.debug("Message [" + message + "] was sent!");
 			} else {
+				message.setStatus(Status.FAILED);
 				if (code == ResultCodes.InsufficientCredit) {
-					setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(getRemainingCredit()));
+					setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(getRemainingCreditIfAvailable()));
 				}
-				message.setStatus(Status.FAILED);
 				LOG.debug("Message [" + message + "] was not sent.  Cause: [" + code + "]");
 			}
 		} catch (IntelliSMSException e) {
 			message.setStatus(Status.FAILED);
 			LOG.debug("Failed to send message [" + message + "]: " + e.getResultCode(), e);
-			LOG.info("Failed to send message: " + e.getResultCode());
-			
-			if(ResultCodes.InsufficientCredit.equals(e.getResultCode())) {
-				int remainingCredit;
-				try {
-					remainingCredit = getRemainingCredit();
-				} catch (IntelliSMSException e1) {
-					remainingCredit = -1;
-				}
-				
-				this.stopThisThing();
-				setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(remainingCredit));
+			handleSendFailure(e);
+		}
+		LOG.trace("EXIT");
+	}
+	
+	/**
+	 * Send several text messages with the same content in a single request, and set the status and SMSC
+	 * reference of each from the result reported for its recipient.
+	 * @see AbstractSmsInternetService#sendSmsBatch(List)
+	 */
+	@Override
+	protected void sendSmsBatch(List<FrontlineMessage> messages) {
+		LOG.trace("ENTER");
+		FrontlineMessage first = messages.get(0);
+		if (first.isBinaryMessage()) {
+			// Binary messages are sent part by part, so cannot be sent to several recipients at once
+			super.sendSmsBatch(messages);
+			return;
+		}
+		String[] recipients = new String[messages.size()];
+		for (int i = 0; i < recipients.length; i++) {
+			recipients[i] = messages.get(i).getRecipientMsisdn();
+		}
+		LOG.debug("Sending [" + first.getTextContent() + "] to [" + recipients.length + "] recipients");
+		try {
+			SendStatusCollection results;
+			if (!GsmAlphabet.areAllCharactersValidGSM(first.getTextContent())) {
+				results = intelliSMS.SendUnicodeMessage(recipients, first.getTextContent(), getMsisdn());
 			} else {
-				this.stopThisThing();
-				this.setStatus(SmsInternetServiceStatus.DISCONNECTED, e.getResultCode() + ": " + e.getMessage());
+				results = intelliSMS.SendMessage(recipients, first.getTextContent(), getMsisdn());
+			}
+			boolean insufficientCredit = applyResults(messages, results);
+			if (insufficientCredit) {
+				// The statuses of the messages are already set, so a failure checking the credit must not change them
+				setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(getRemainingCreditIfAvailable()));
 			}
-		} finally {
-			if (smsListener != null) {
-				smsListener.outgoingMessageEvent(this, message);
+		} catch (IntelliSMSException e) {
+			for (FrontlineMessage message : messages) {
+				message.setStatus(Status.FAILED);
 			}
+			LOG.debug("Failed to send [" + messages.size() + "] messages: " + e.getResultCode(), e);
+			handleSendFailure(e);
 		}
 		LOG.trace("EXIT");
 	}
+	
+	/**
+	 * Sets the status and SMSC reference of each message sent in a single request from the result reported for its
+	 * recipient.  A message with no result reported for its recipient is marked as failed.
+	 * @param messages the messages sent in the request
+	 * @param results the results of the request
+	 * @return <code>true</code> if any of the messages failed for lack of credit
+	 */
+	/* not private to allow unit testing */
+	static boolean applyResults(List<FrontlineMessage> messages, SendStatusCollection results) {
+		// Map each recipient's result back to its message
+		Map<String, SendStatus> resultsByRecipient = new HashMap<String, SendStatus>();
+		for (SendStatus result : results) {
+			if (result.To != null) {
+				resultsByRecipient.put(getDigits(result.To), result);
+			}
+		}
+		boolean insufficientCredit = false;
+		for (FrontlineMessage message : messages) {
+			SendStatus result = resultsByRecipient.get(getDigits(message.getRecipientMsisdn()));
+			if (result != null && result.ResultCode == ResultCodes.OK) {
+				message.setStatus(Status.SENT);
+				try {
+					message.setSmscReference(Integer.parseInt(result.MessageId));
+				} catch (NumberFormatException ex) {
+					// IntelliSMS message IDs are not always numeric, and cannot be stored in that case
+				}
+			} else {
+				message.setStatus(Status.FAILED);
+				LOG.debug("Message [" + message + "] was not sent.  Cause: [" + (result == null ? null : result.ResultCode) + "]");
+				insufficientCredit |= result != null && result.ResultCode == ResultCodes.InsufficientCredit;
+			}
+		}
+		return insufficientCredit;
+	}
+	
+	/**
+	 * Stops this service after a request to send messages was rejected.
+	 * @param e the reason the request was rejected
+	 */
+	private void handleSendFailure(IntelliSMSException e) {
+		LOG.info("Failed to send message: " + e.getResultCode());
+		
+		if(ResultCodes.InsufficientCredit.equals(e.getResultCode())) {
+			int remainingCredit = getRemainingCreditIfAvailable();
+			
+			this.stopThisThing();
+			setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(remainingCredit));
+		} else {
+			this.stopThisThing();
+			this.setStatus(SmsInternetServiceStatus.DISCONNECTED, e.getResultCode() + ": " + e.getMessage());
+		}
+	}
+
+	/** @return the credit remaining on the account, or <code>-1</code> if it could not be checked */
+	private int getRemainingCreditIfAvailable() {
+		try {
+			return getRemainingCredit();
+		} catch (IntelliSMSException ex) {
+			LOG.debug("Failed to check remaining credit: " + ex.getResultCode(), ex);
+			return -1;
+		}
+	}
 
 	private ResultCodes sendBinarySms(FrontlineMessage message) throws IntelliSMSException {
 		LOG.trace("ENTER");
@@ -275,6 +360,8 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 		defaultSettings.put(PROPERTY_FROM_MSISDN, new PhoneSection(""));
 		defaultSettings.put(PROPERTY_SSL, Boolean.FALSE);
 		defaultSettings.put(PROPERTY_USE_FOR_SENDING, Boolean.TRUE);
+		defaultSettings.put(PROPERTY_MAX_CONCURRENT_SENDS, new Integer(DEFAULT_MAX_CONCURRENT_SENDS));
+		defaultSettings.put(PROPERTY_MAX_RECIPIENTS_PER_REQUEST, new Integer(DEFAULT_MAX_RECIPIENTS_PER_REQUEST));
 		// Proxy properties
 		if(PROXIES_SUPPORTED) {
 			OptionalSection section = new OptionalSection();
@@ -457,4 +544,16 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 	}
 
 //> STATIC HELPER METHODS
+	/**
+	 * @param msisdn a phone number
+	 * @return the digits of the phone number, without any leading "+" or formatting
+	 */
+	private static String getDigits(String msisdn) {
+		StringBuilder digits = new StringBuilder(msisdn.length());
+		for (int i = 0; i < msisdn.length(); i++) {
+			char c = msisdn.charAt(i);
+			if (Character.isDigit(c)) digits.append(c);
+		}
+		return digits.toString();
+	}
 }
@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.FrontlineMessage;
+
+/**
+ * Window of messages being sent concurrently by an {@link AbstractSmsInternetService}.
+ * <p>Messages are sent in batches, each of which may contain several messages sent in a single request.  Up to
+ * {@link #size} batches may be in the window at once.  A slot in the window must be reserved with
+ * {@link #tryAcquire(long, TimeUnit)} before a batch is sent with {@link #send(List, Sender)}.  Batches are sent
+ * on a pool of threads, but {@link Sender#sendComplete(List, long)} is called for each batch in the order the
+ * batches were sent, and never for more than one batch at a time.  A batch's slot is only released once it has
+ * been completed, so a slow batch holds up completion of the batches sent after it, but cannot let the window grow.</p>
+ * <p>If the window's size is 1, batches are sent and completed on the thread which sends them.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class SendWindow {
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(SendWindow.class);
+
+//> INSTANCE PROPERTIES
+	/** The maximum number of batches in this window at once */
+	private final int size;
+	/** Slots in the window */
+	private final Semaphore slots;
+	/** Threads which send batches, or <code>null</code> if batches are sent on the calling thread */
+	private final ExecutorService executor;
+	/** Batches which have been sent but not completed, in the order they were sent.  Guarded by <code>this</code>. */
+	private final LinkedList<Send> pending = new LinkedList<Send>();
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link SendWindow}.
+	 * @param name name used for the window's threads
+	 * @param size value for {@link #size}
+	 */
+	SendWindow(final String name, int size) {
+		if(size < 1) throw new IllegalArgumentException("Window size must be at least 1, but was " + size);
+		this.size = size;
+		this.slots = new Semaphore(size);
+		if(size == 1) {
+			this.executor = null;
+		} else {
+			this.executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name + " :: sender " + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+//> ACCESSORS
+	/** @return {@link #size} */
+	int getSize() {
+		return size;
+	}
+
+	/** @return the number of batches in this window which have not yet been completed */
+	int getInFlightCount() {
+		return size - slots.availablePermits();
+	}
+
+//> SENDING METHODS
+	/**
+	 * Reserves a slot in this window for a batch of messages.
+	 * @param timeout the maximum time to wait for a slot
+	 * @param unit the unit of the timeout
+	 * @return <code>true</code> if a slot was reserved
+	 * @throws InterruptedException
+	 */
+	boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		return slots.tryAcquire(timeout, unit);
+	}
+
+	/** Releases a slot reserved with {@link #tryAcquire(long, TimeUnit)} which will not be used. */
+	void release() {
+		slots.release();
+	}
+
+	/**
+	 * Sends a batch of messages in a slot which has already been reserved with {@link #tryAcquire(long, TimeUnit)}.
+	 * @param messages the messages to send
+	 * @param sender the object which sends and completes the messages
+	 */
+	void send(List<FrontlineMessage> messages, Sender sender) {
+		Send send = new Send(messages, sender);
+		synchronized(this) {
+			pending.add(send);
+		}
+		if(executor == null) {
+			send.run();
+		} else {
+			try {
+				executor.execute(send);
+			} catch(RejectedExecutionException ex) {
+				// The window has been shut down, so send the batch on this thread instead
+				send.run();
+			}
+		}
+	}
+
+	/** Stops the threads of this window once the batches in it have been sent. */
+	void shutdown() {
+		if(executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Completes, in order, the batches at the front of {@link #pending} which have been sent, and releases their slots.
+	 */
+	private synchronized void completeSent() {
+		while(!pending.isEmpty() && pending.getFirst().sent) {
+			Send send = pending.removeFirst();
+			try {
+				send.sender.sendComplete(send.messages, send.duration);
+			} catch(Throwable t) {
+				LOG.warn("Problem completing send of messages: " + send.messages, t);
+			} finally {
+				slots.release();
+			}
+		}
+	}
+
+//> INNER CLASSES
+	/**
+	 * Sends and completes messages in a {@link SendWindow}.
+	 * @author Alex Anderson <alex@frontlinesms.com>
+	 */
+	interface Sender {
+		/**
+		 * Sends a batch of messages.  This may be called for several batches at once, on different threads.
+		 * @param messages
+		 */
+		void send(List<FrontlineMessage> messages);
+
+		/**
+		 * Called once a batch has been sent, in the order the batches were passed to {@link SendWindow#send(List, Sender)}.
+		 * @param messages
+		 * @param durationMillis the time, in milliseconds, taken to send the batch
+		 */
+		void sendComplete(List<FrontlineMessage> messages, long durationMillis);
+	}
+
+	/** A single batch being sent. */
+	private class Send implements Runnable {
+		/** The messages being sent */
+		private final List<FrontlineMessage> messages;
+		/** The object sending the messages */
+		private final Sender sender;
+		/** Set <code>true</code> once the batch has been sent.  Guarded by {@link SendWindow}<code>.this</code>. */
+		private boolean sent;
+		/** The time, in milliseconds, taken to send the batch.  Guarded by {@link SendWindow}<code>.this</code>. */
+		private long duration;
+
+		/**
+		 * @param messages value for {@link #messages}
+		 * @param sender value for {@link #sender}
+		 */
+		Send(List<FrontlineMessage> messages, Sender sender) {
+			this.messages = messages;
+			this.sender = sender;
+		}
+
+		public void run() {
+			long startTime = System.currentTimeMillis();
+			try {
+				sender.send(messages);
+			} catch(Throwable t) {
+				LOG.error("Problem sending messages: " + messages, t);
+			} finally {
+				synchronized(SendWindow.this) {
+					this.duration = System.currentTimeMillis() - startTime;
+					this.sent = true;
+				}
+				completeSent();
+			}
+		}
+	}
+}
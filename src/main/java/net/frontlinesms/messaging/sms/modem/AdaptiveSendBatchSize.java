@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+/**
+ * The number of messages an {@link SmsModem} sends in each batch, learned from how the device copes with sending.
+ * <p>The batch size grows by one after each full batch whose messages took about as long to send (with AT+CMGS)
+ * as usual, and shrinks by one if sending slows down noticeably.  If a batch has errors, or a message takes so
+ * long to send that it may have timed out, the batch size is halved and the usual send time is learned again.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class AdaptiveSendBatchSize {
+//> STATIC CONSTANTS
+	/** The smallest batch size */
+	static final int MIN_BATCH_SIZE = 1;
+	/** The largest batch size */
+	static final int MAX_BATCH_SIZE = 50;
+	/** The batch size used until a better one has been learned */
+	static final int DEFAULT_BATCH_SIZE = 10;
+	/** Time, in millis, after which sending a single message is treated as having timed out */
+	static final long SEND_TIMEOUT = 30 * 1000;
+	/** Weight given to the latest batch when updating the average send time */
+	private static final double SMOOTHING_FACTOR = 0.3;
+	/** Proportion by which the send time may exceed the average and still be considered stable */
+	private static final double STABLE_LATENCY_TOLERANCE = 0.25;
+	/** Proportion by which the send time must exceed the average for the batch size to be reduced */
+	private static final double SLOW_LATENCY_TOLERANCE = 1.0;
+
+//> INSTANCE PROPERTIES
+	/** The current batch size */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	/** Moving average of the time, in millis, taken to send each message, or 0 if it has not been measured */
+	private double averageLatency;
+
+//> ACCESSORS
+	/** @return the number of messages which should be sent in the next batch */
+	public synchronized int get() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the batch size, e.g. to a value learned while previously connected to the device.
+	 * @param batchSize the new batch size, which is limited to between {@link #MIN_BATCH_SIZE} and {@link #MAX_BATCH_SIZE}
+	 */
+	public synchronized void set(int batchSize) {
+		this.batchSize = Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, batchSize));
+		this.averageLatency = 0;
+	}
+
+	/**
+	 * Records the result of sending a batch of messages, and adjusts the batch size.
+	 * @param messageCount the number of messages which were attempted
+	 * @param failureCount the number of messages which failed, or errors which stopped the batch
+	 * @param totalLatency the total time, in millis, spent sending the messages
+	 * @param maxLatency the longest time, in millis, spent sending a single message
+	 */
+	public synchronized void recordBatch(int messageCount, int failureCount, long totalLatency, long maxLatency) {
+		if(failureCount > 0 || maxLatency >= SEND_TIMEOUT) {
+			batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+			averageLatency = 0;
+			return;
+		}
+		if(messageCount <= 0) return;
+
+		double latency = totalLatency / (double) messageCount;
+		if(averageLatency == 0) {
+			averageLatency = latency;
+		} else {
+			if(latency > averageLatency * (1 + SLOW_LATENCY_TOLERANCE)) {
+				batchSize = Math.max(MIN_BATCH_SIZE, batchSize - 1);
+			} else if(latency <= averageLatency * (1 + STABLE_LATENCY_TOLERANCE) && messageCount >= batchSize) {
+				// Only a full batch shows that the device copes with batches of this size
+				batchSize = Math.min(MAX_BATCH_SIZE, batchSize + 1);
+			}
+			averageLatency = SMOOTHING_FACTOR * latency + (1 - SMOOTHING_FACTOR) * averageLatency;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "batchSize=" + batchSize + ", averageLatency=" + Math.round(averageLatency) + "ms";
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks the new message indications sent by a device after AT+CNMI, so that {@link SmsModem} need only read the
+ * storage slots which received messages were saved to, rather than scanning the device's whole memory.
+ * <p>As indications can be missed, e.g. if they arrive while the serial port is being reopened, a full scan is
+ * requested if the number of messages stored on the device grows without a matching indication, and is also due
+ * at a regular interval.  Status reports are always read with a full scan.</p>
+ * <p>This class is not thread-safe; it should only be used by the {@link SmsModem}'s own thread.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class NewMessageIndications {
+//> STATIC CONSTANTS
+	/** Unsolicited result code indicating that a received message was saved: <code>+CMTI: &lt;mem&gt;,&lt;index&gt;</code> */
+	private static final Pattern CMTI = Pattern.compile("\\+CMTI:\\s*\"([^\"]*)\"\\s*,\\s*(\\d+)");
+	/** Unsolicited result codes indicating that a status report was received, whether or not it was saved */
+	private static final Pattern CDS = Pattern.compile("\\+CDSI?:");
+	/** Response to AT+CPMS?, starting with the storage messages are read from and the number of messages in it */
+	private static final Pattern CPMS = Pattern.compile("\\+CPMS:\\s*\"([^\"]*)\"\\s*,\\s*(\\d+)");
+
+//> INSTANCE PROPERTIES
+	/** Time, in millis, between full scans of the device's memory */
+	private final long fullScanInterval;
+	/** Storage slots which have been indicated, but not yet read */
+	private final List<Slot> pending = new ArrayList<Slot>();
+	/** <code>true</code> if a full scan should be made at the next check, whether or not it is due */
+	private boolean fullScanRequested;
+	/** Time, in millis, of the last full scan */
+	private long lastFullScan;
+	/** The storage which the device reads messages from, or <code>null</code> if it is not known */
+	private String readStorage;
+	/** The number of messages in {@link #readStorage} when last checked, or -1 if it is not known */
+	private int lastUsedCount = -1;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link NewMessageIndications}.  The first check will be a full scan, to read any messages which
+	 * were received before indications were enabled.
+	 * @param fullScanInterval value for {@link #fullScanInterval}
+	 */
+	NewMessageIndications(long fullScanInterval) {
+		this.fullScanInterval = fullScanInterval;
+		this.fullScanRequested = true;
+	}
+
+//> ACCESSORS
+	/** @return {@link #readStorage} */
+	public String getReadStorage() {
+		return readStorage;
+	}
+
+//> INDICATION METHODS
+	/**
+	 * Parses a response from the device, noting any indications and storage usage it contains.
+	 * @param response
+	 */
+	public void parse(String response) {
+		if(response == null) return;
+		boolean indicated = false;
+		Matcher cmti = CMTI.matcher(response);
+		while(cmti.find()) {
+			Slot slot = new Slot(cmti.group(1), Integer.parseInt(cmti.group(2)));
+			if(!pending.contains(slot)) pending.add(slot);
+			indicated = true;
+		}
+		if(CDS.matcher(response).find()) {
+			fullScanRequested = true;
+		}
+		Matcher cpms = CPMS.matcher(response);
+		if(cpms.find()) {
+			readStorage = cpms.group(1);
+			int usedCount = Integer.parseInt(cpms.group(2));
+			if(lastUsedCount >= 0 && usedCount > lastUsedCount && !indicated && pending.isEmpty()) {
+				// More messages are stored than before, but we have not been told about them
+				fullScanRequested = true;
+			}
+			lastUsedCount = usedCount;
+		}
+	}
+
+	/**
+	 * Gets the slots which have been indicated since this was last called.
+	 * @return the indicated slots, in the order they were indicated
+	 */
+	public List<Slot> poll() {
+		List<Slot> slots = new ArrayList<Slot>(pending);
+		pending.clear();
+		return slots;
+	}
+
+	/** Requests a full scan at the next check. */
+	public void requestFullScan() {
+		fullScanRequested = true;
+	}
+
+	/**
+	 * @param now the current time, in millis
+	 * @return <code>true</code> if a full scan has been requested, or it is {@link #fullScanInterval} since the last one
+	 */
+	public boolean isFullScanDue(long now) {
+		return fullScanRequested || now - lastFullScan >= fullScanInterval;
+	}
+
+	/**
+	 * Notes that a full scan has been made.  Any pending slots will have been read by the scan.
+	 * @param now the time the scan started, in millis
+	 */
+	public void fullScanComplete(long now) {
+		fullScanRequested = false;
+		lastFullScan = now;
+		pending.clear();
+	}
+
+//> INNER CLASSES
+	/** A storage slot which a received message was saved to. */
+	static class Slot {
+		/** The storage, e.g. <code>"SM"</code> */
+		private final String storage;
+		/** The index of the slot in {@link #storage} */
+		private final int index;
+
+		/**
+		 * Create a new {@link Slot}.
+		 * @param storage value for {@link #storage}
+		 * @param index value for {@link #index}
+		 */
+		Slot(String storage, int index) {
+			this.storage = storage;
+			this.index = index;
+		}
+
+		/** @return {@link #storage} */
+		public String getStorage() {
+			return storage;
+		}
+
+		/** @return {@link #index} */
+		public int getIndex() {
+			return index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Slot)) return false;
+			Slot that = (Slot) obj;
+			return this.index == that.index && this.storage.equals(that.storage);
+		}
+
+		@Override
+		public int hashCode() {
+			return storage.hashCode() * 31 + index;
+		}
+
+		@Override
+		public String toString() {
+			return storage + ":" + index;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import net.frontlinesms.messaging.sms.IncomingMessagePart;
+
+import org.smslib.CIncomingMessage;
+import org.smslib.v3.helper.GSMAlphabet;
+
+/**
+ * An SMS-DELIVER TPDU, as read from a device in PDU mode with AT+CMGR.
+ * <p>Only the fields needed to hand a received message on to FrontlineSMS are decoded.  Of the user data header,
+ * only the concatenation information element is read, so each part of a concatenated message is decoded
+ * separately and must be joined to the other parts later.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class SmsDeliverPdu {
+//> STATIC CONSTANTS
+	/** Message type indicator of an SMS-DELIVER TPDU */
+	private static final int MTI_SMS_DELIVER = 0x00;
+	/** Mask for the message type indicator in the first octet of a TPDU */
+	private static final int MASK_MTI = 0x03;
+	/** Mask for the user data header indicator in the first octet of a TPDU */
+	private static final int MASK_UDHI = 0x40;
+	/** Mask for the type of number in an address's type-of-address octet */
+	private static final int MASK_TYPE_OF_NUMBER = 0x70;
+	/** Type of number for international numbers */
+	private static final int TYPE_OF_NUMBER_INTERNATIONAL = 0x10;
+	/** Type of number for alphanumeric addresses, which are encoded in the GSM 7-bit alphabet */
+	private static final int TYPE_OF_NUMBER_ALPHANUMERIC = 0x50;
+	/** Length, in octets, of the service centre timestamp */
+	private static final int SCTS_OCTETS = 7;
+	/** Information element identifier for concatenated messages with an 8-bit reference number */
+	private static final int IEI_CONCATENATED_8BIT = 0x00;
+	/** Information element identifier for concatenated messages with a 16-bit reference number */
+	private static final int IEI_CONCATENATED_16BIT = 0x08;
+	/** Prefix of the information line of the response to AT+CMGR */
+	private static final String CMGR_PREFIX = "+CMGR:";
+
+//> INSTANCE PROPERTIES
+	/** The address the message was sent from */
+	private final String originator;
+	/** The time the message was received by the service centre, in millis */
+	private final long timestamp;
+	/** The text of the message, or <code>null</code> if it is a binary message */
+	private final String text;
+	/** The content of the message, or <code>null</code> if it is a text message */
+	private final byte[] binary;
+	/** <code>true</code> if the message's user data started with a user data header */
+	private final boolean userDataHeader;
+	/** The concatenated message reference number, total part count and part number, or <code>null</code> if this is not part of a concatenated message */
+	private final int[] concatenation;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link SmsDeliverPdu}.
+	 * @param originator value for {@link #originator}
+	 * @param timestamp value for {@link #timestamp}
+	 * @param text value for {@link #text}
+	 * @param binary value for {@link #binary}
+	 * @param userDataHeader value for {@link #userDataHeader}
+	 * @param concatenation value for {@link #concatenation}
+	 */
+	private SmsDeliverPdu(String originator, long timestamp, String text, byte[] binary, boolean userDataHeader, int[] concatenation) {
+		this.originator = originator;
+		this.timestamp = timestamp;
+		this.text = text;
+		this.binary = binary;
+		this.userDataHeader = userDataHeader;
+		this.concatenation = concatenation;
+	}
+
+//> ACCESSORS
+	/** @return {@link #originator} */
+	public String getOriginator() {
+		return originator;
+	}
+
+	/** @return {@link #timestamp} */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/** @return {@link #text} */
+	public String getText() {
+		return text;
+	}
+
+	/** @return {@link #binary} */
+	public byte[] getBinary() {
+		return binary;
+	}
+
+	/** @return <code>true</code> if this is a binary message */
+	public boolean isBinary() {
+		return binary != null;
+	}
+
+	/** @return {@link #userDataHeader} */
+	public boolean hasUserDataHeader() {
+		return userDataHeader;
+	}
+
+	/** @return <code>true</code> if this is one part of a concatenated message */
+	public boolean isConcatenated() {
+		return concatenation != null;
+	}
+
+	/** @return the reference number shared by all parts of the concatenated message, or -1 if this is not part of one */
+	public int getConcatenatedReference() {
+		return concatenation == null ? -1 : concatenation[0];
+	}
+
+	/** @return the number of parts in the concatenated message, or 1 if this is not part of one */
+	public int getConcatenatedPartCount() {
+		return concatenation == null ? 1 : concatenation[1];
+	}
+
+	/** @return the number, starting at 1, of this part of the concatenated message, or 1 if this is not part of one */
+	public int getConcatenatedPartNumber() {
+		return concatenation == null ? 1 : concatenation[2];
+	}
+
+//> CONVERSION METHODS
+	/**
+	 * Creates the message to pass on to FrontlineSMS.  Parts of concatenated messages are created as
+	 * {@link IncomingMessagePart}s, so that they can be joined with the other parts of their message.
+	 * @param index the index the message was read from in the device's memory
+	 * @param storage the device memory the message was read from
+	 * @return the received message
+	 */
+	public CIncomingMessage toIncomingMessage(int index, String storage) {
+		if(isConcatenated()) {
+			if(isBinary()) {
+				return new IncomingMessagePart(originator, binary, getConcatenatedReference(), getConcatenatedPartCount(), getConcatenatedPartNumber());
+			} else {
+				return new IncomingMessagePart(timestamp, originator, text, index, storage, getConcatenatedReference(), getConcatenatedPartCount(), getConcatenatedPartNumber());
+			}
+		} else if(isBinary()) {
+			return new CIncomingMessage(originator, binary);
+		} else {
+			return new CIncomingMessage(timestamp, originator, text, index, storage);
+		}
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Extracts the PDU from a device's response to AT+CMGR in PDU mode.
+	 * @param response
+	 * @return the hex-encoded PDU, or <code>null</code> if none was found in the response
+	 */
+	static String extractPdu(String response) {
+		if(response == null) return null;
+		String[] lines = response.split("[\r\n]+");
+		for(int i=0; i<lines.length-1; ++i) {
+			if(lines[i].trim().startsWith(CMGR_PREFIX)) {
+				return lines[i+1].trim();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes an SMS-DELIVER TPDU, preceded by the service centre address as returned by AT+CMGR.
+	 * @param pdu the hex-encoded PDU
+	 * @return the decoded PDU, or <code>null</code> if it was not an SMS-DELIVER TPDU, or could not be decoded
+	 */
+	static SmsDeliverPdu decode(String pdu) {
+		if(pdu == null) return null;
+		byte[] octets = fromHex(pdu);
+		if(octets == null) return null;
+		try {
+			int i = 1 + (octets[0] & 0xff);
+			int firstOctet = octets[i++] & 0xff;
+			if((firstOctet & MASK_MTI) != MTI_SMS_DELIVER) return null;
+			boolean userDataHeader = (firstOctet & MASK_UDHI) != 0;
+
+			int originatorLength = octets[i++] & 0xff;
+			int typeOfAddress = octets[i++] & 0xff;
+			String originator = decodeAddress(octets, i, originatorLength, typeOfAddress);
+			i += (originatorLength + 1) / 2;
+
+			++i; // protocol identifier
+			int dataCodingScheme = octets[i++] & 0xff;
+			long timestamp = decodeTimestamp(octets, i);
+			i += SCTS_OCTETS;
+
+			Alphabet alphabet = getAlphabet(dataCodingScheme);
+			if(alphabet == null) return null;
+			int userDataLength = octets[i++] & 0xff;
+			int[] concatenation = userDataHeader ? decodeConcatenation(octets, i) : null;
+			switch(alphabet) {
+			case GSM7BIT: {
+				if(GSMAlphabet.packedLength(userDataLength) > octets.length - i) return null;
+				byte[] septets = GSMAlphabet.unpackSeptets(octets, i, userDataLength);
+				int headerSeptets = userDataHeader ? ((octets[i] & 0xff) * 8 + 8 + 6) / 7 : 0;
+				if(headerSeptets > userDataLength) return null;
+				byte[] textSeptets = new byte[userDataLength - headerSeptets];
+				System.arraycopy(septets, headerSeptets, textSeptets, 0, textSeptets.length);
+				return new SmsDeliverPdu(originator, timestamp, GSMAlphabet.bytesToString(textSeptets), null, userDataHeader, concatenation);
+			}
+			case UCS2: {
+				byte[] content = getUserDataContent(octets, i, userDataLength, userDataHeader);
+				if(content == null) return null;
+				return new SmsDeliverPdu(originator, timestamp, new String(content, "UTF-16BE"), null, userDataHeader, concatenation);
+			}
+			case BINARY: {
+				byte[] content = getUserDataContent(octets, i, userDataLength, userDataHeader);
+				if(content == null) return null;
+				return new SmsDeliverPdu(originator, timestamp, null, content, userDataHeader, concatenation);
+			}
+			default: return null;
+			}
+		} catch(ArrayIndexOutOfBoundsException ex) {
+			// The PDU was truncated
+			return null;
+		} catch(UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * Reads the concatenation information element from a user data header.
+	 * @param octets
+	 * @param offset index of the user data header length octet
+	 * @return the reference number, total part count and part number, or <code>null</code> if the header has no valid concatenation information element
+	 */
+	private static int[] decodeConcatenation(byte[] octets, int offset) {
+		int end = offset + 1 + (octets[offset] & 0xff);
+		int i = offset + 1;
+		while(i + 1 < end && end <= octets.length) {
+			int identifier = octets[i] & 0xff;
+			int length = octets[i + 1] & 0xff;
+			int data = i + 2;
+			if(data + length > end) return null;
+			int[] concatenation = null;
+			if(identifier == IEI_CONCATENATED_8BIT && length == 3) {
+				concatenation = new int[]{octets[data] & 0xff, octets[data + 1] & 0xff, octets[data + 2] & 0xff};
+			} else if(identifier == IEI_CONCATENATED_16BIT && length == 4) {
+				concatenation = new int[]{((octets[data] & 0xff) << 8) | (octets[data + 1] & 0xff), octets[data + 2] & 0xff, octets[data + 3] & 0xff};
+			}
+			if(concatenation != null) {
+				// Parts numbered outside the message are ignored, as the recipient would ignore them
+				return concatenation[2] > 0 && concatenation[2] <= concatenation[1] ? concatenation : null;
+			}
+			i = data + length;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the alphabet of a data coding scheme.  Compressed messages are not supported.
+	 * @param dataCodingScheme
+	 * @return the alphabet used by the data coding scheme, or <code>null</code> if it is not supported
+	 */
+	private static Alphabet getAlphabet(int dataCodingScheme) {
+		switch(dataCodingScheme & 0xf0) {
+		case 0x00: case 0x10: case 0x40: case 0x50:
+			// General data coding, with the message class in the lowest bits
+			switch((dataCodingScheme >> 2) & 0x03) {
+			case 0: return Alphabet.GSM7BIT;
+			case 1: return Alphabet.BINARY;
+			case 2: return Alphabet.UCS2;
+			default: return null;
+			}
+		case 0xc0: case 0xd0:
+			// Message waiting indication
+			return Alphabet.GSM7BIT;
+		case 0xe0:
+			return Alphabet.UCS2;
+		case 0xf0:
+			return (dataCodingScheme & 0x04) == 0 ? Alphabet.GSM7BIT : Alphabet.BINARY;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the octets of user data following any user data header.
+	 * @param octets
+	 * @param offset index of the first octet of the user data
+	 * @param userDataLength length of the user data, in octets
+	 * @param userDataHeader <code>true</code> if the user data starts with a user data header
+	 * @return the content of the user data, or <code>null</code> if the PDU was truncated
+	 */
+	private static byte[] getUserDataContent(byte[] octets, int offset, int userDataLength, boolean userDataHeader) {
+		if(userDataLength > octets.length - offset) return null;
+		int headerOctets = userDataHeader ? 1 + (octets[offset] & 0xff) : 0;
+		if(headerOctets > userDataLength) return null;
+		byte[] content = new byte[userDataLength - headerOctets];
+		System.arraycopy(octets, offset + headerOctets, content, 0, content.length);
+		return content;
+	}
+
+	/**
+	 * Decodes an address.
+	 * @param octets
+	 * @param offset index of the first octet of the address value
+	 * @param length length of the address value, in semi-octets
+	 * @param typeOfAddress
+	 * @return the address
+	 */
+	private static String decodeAddress(byte[] octets, int offset, int length, int typeOfAddress) {
+		if((typeOfAddress & MASK_TYPE_OF_NUMBER) == TYPE_OF_NUMBER_ALPHANUMERIC) {
+			return GSMAlphabet.bytesToString(GSMAlphabet.unpackSeptets(octets, offset, length * 4 / 7));
+		}
+		StringBuilder address = new StringBuilder(length + 1);
+		if((typeOfAddress & MASK_TYPE_OF_NUMBER) == TYPE_OF_NUMBER_INTERNATIONAL) address.append('+');
+		for(int i=0; i<length; ++i) {
+			int digit = getSemiOctet(octets, offset, i);
+			if(digit < 10) address.append((char) ('0' + digit));
+		}
+		return address.toString();
+	}
+
+	/**
+	 * Decodes a service centre timestamp.
+	 * @param octets
+	 * @param offset index of the first octet of the timestamp
+	 * @return the time, in millis
+	 */
+	private static long decodeTimestamp(byte[] octets, int offset) {
+		int year = getSwappedDecimal(octets[offset]);
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year < 70 ? 2000 + year : 1900 + year,
+				getSwappedDecimal(octets[offset + 1]) - 1,
+				getSwappedDecimal(octets[offset + 2]),
+				getSwappedDecimal(octets[offset + 3]),
+				getSwappedDecimal(octets[offset + 4]),
+				getSwappedDecimal(octets[offset + 5]));
+		// The time zone is in quarters of an hour, with its sign in bit 3
+		int timeZone = octets[offset + 6] & 0xff;
+		int quarterHours = (timeZone & 0x07) * 10 + (timeZone >> 4);
+		if((timeZone & 0x08) != 0) quarterHours = -quarterHours;
+		return calendar.getTimeInMillis() - quarterHours * 15L * 60 * 1000;
+	}
+
+	/** @return the decimal value of an octet containing two swapped semi-octets */
+	private static int getSwappedDecimal(byte octet) {
+		return (octet & 0x0f) * 10 + ((octet >> 4) & 0x0f);
+	}
+
+	/** @return the semi-octet at an index, counting from the low semi-octet of the octet at offset */
+	private static int getSemiOctet(byte[] octets, int offset, int index) {
+		int octet = octets[offset + index / 2];
+		return (index & 1) == 0 ? octet & 0x0f : (octet >> 4) & 0x0f;
+	}
+
+	/** @return the octets encoded in a hex string, or <code>null</code> if it is not valid hex */
+	private static byte[] fromHex(String hex) {
+		if(hex.length() == 0 || hex.length() % 2 != 0) return null;
+		byte[] octets = new byte[hex.length() / 2];
+		for(int i=0; i<octets.length; ++i) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if(high < 0 || low < 0) return null;
+			octets[i] = (byte) ((high << 4) | low);
+		}
+		return octets;
+	}
+
+//> INNER CLASSES
+	/** The alphabets which the user data of a message may be encoded in. */
+	private enum Alphabet {
+		GSM7BIT,
+		UCS2,
+		BINARY;
+	}
+}
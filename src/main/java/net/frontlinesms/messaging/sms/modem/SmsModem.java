@@ -21,15 +21,18 @@ package net.frontlinesms.messaging.sms.modem;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import serial.*;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.listener.SmsListener;
 import net.frontlinesms.messaging.CatHandlerAliasMatcher;
+import net.frontlinesms.messaging.sms.PriorityOutbox;
+import net.frontlinesms.messaging.sms.SmsSendStatistics;
 import net.frontlinesms.messaging.sms.SmsService;
 
 import org.apache.log4j.Logger;
@@ -47,7 +50,10 @@ public class SmsModem extends Thread implements SmsService {
 	
 //> CONSTANTS
 	private static final boolean SEND_BULK = true;
-	private static final int SMS_BULK_LIMIT = 10;
+	/** Time, in millis, that the modem thread waits for messages to send before checking the phone for received messages again */
+	private static final long IDLE_WAIT = 5000;
+	/** Commands to enable new message indications, in order of preference.  The first also indicates status reports. */
+	private static final String[] CNMI_COMMANDS = { "AT+CNMI=2,1,0,2,0", "AT+CNMI=2,1,0,0,0" };
 
 	/** The time, in millis, that this phone handler must have been unresponsive for before it is deemed TIMED OUT
 	 * As far as I know there is no basis for the time chosen for this timeout. */
@@ -77,7 +83,18 @@ public class SmsModem extends Thread implements SmsService {
 	private long timeOfLastResponseFromPhone;
 
 	private final LinkedList<CIncomingMessage> inbox = new LinkedList<CIncomingMessage>();
-	private final ConcurrentLinkedQueue<FrontlineMessage> outbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	/** Messages waiting to be sent with this modem.  {@link FrontlineMessage.Priority#HIGH} messages are sent first. */
+	private final PriorityOutbox outbox = new PriorityOutbox();
+	/** Message taken from {@link #outbox} while the thread was idle.  This should be sent before any others in {@link #outbox}. */
+	private FrontlineMessage waitingMessage;
+	/** Statistics about messages sent with this modem */
+	private final SmsSendStatistics sendStatistics = new SmsSendStatistics();
+	/** The number of messages sent in each bulk send, adapted to how well this device copes with sending */
+	private final AdaptiveSendBatchSize sendBatchSize = new AdaptiveSendBatchSize();
+	/** Tracks new message indications from the device, or <code>null</code> if received messages are found by scanning the device's memory */
+	private NewMessageIndications newMessageIndications;
+	/** <code>true</code> if the device is in PDU mode, so that messages read from it can be decoded with {@link SmsDeliverPdu} */
+	private boolean pduMode;
 	/** The SmsListener to which this phone handler should report SMS Message events. */
 	private SmsListener smsListener;
 
@@ -120,6 +137,12 @@ public class SmsModem extends Thread implements SmsService {
 	private String preferredCATHandler = "";
 	private String serialNumber = "";
 	private String imsiNumber;
+	/** The name of the CAT handler used for the last connection to the device */
+	private String catHandlerName;
+	/** Serial number of the device which is expected on this port when connecting with its last known settings, or <code>null</code> */
+	private String expectedSerial;
+	/** Time, in millis, after which detection should stop trying new speeds, or 0 if detection is not limited */
+	private long detectionDeadline;
 	private int batteryPercent;
 	private int signalPercent;
 	private String msisdn;
@@ -234,6 +257,21 @@ public class SmsModem extends Thread implements SmsService {
 		return baudRate;
 	}
 
+	/** @return {@link #catHandlerName} */
+	public String getCatHandlerName() {
+		return catHandlerName;
+	}
+
+	/** @return {@link #imsiNumber} */
+	public String getImsi() {
+		return imsiNumber;
+	}
+
+	/** @param detectionDeadline new value for {@link #detectionDeadline} */
+	public void setDetectionDeadline(long detectionDeadline) {
+		this.detectionDeadline = detectionDeadline;
+	}
+
 	public int getBatteryPercent() {
 		if (smsLibConnected) return cService.getDeviceInfo().getBatteryLevel();
 		else return batteryPercent;
@@ -390,6 +428,8 @@ public class SmsModem extends Thread implements SmsService {
 			this.imsiNumber = cService.getImsi();
 			LOG.debug("Imsi Number [" + this.imsiNumber + "]");
 
+			this.catHandlerName = cService.getAtHandlerName();
+
 			LOG.debug("Mobile Device Information: "
 					+ "\n - Manufacturer [" + manufacturerName + "]"
 					+ "\n - Model [" + modelName + "]"
@@ -402,6 +442,13 @@ public class SmsModem extends Thread implements SmsService {
 					+ "\n - Signal Level [" + cService.getDeviceInfo().getSignalLevel() + "%]"
 					+ "\n - Baud Rate [" + baudRate + "]");
 
+			if (expectedSerial != null && !expectedSerial.equals(this.serialNumber)) {
+				// A different device is attached to the port now, so its settings should be detected
+				LOG.info("Expected device [" + expectedSerial + "] on [" + portName + "], but found [" + this.serialNumber + "]");
+				disconnect(false);
+				return false;
+			}
+
 			this.setStatus(SmsModemStatus.CONNECTING, null);
 			
 			if (isDuplicate()) {
@@ -411,6 +458,8 @@ public class SmsModem extends Thread implements SmsService {
 			phonePresent = true;
 			autoReconnect = true;
 			smsLibConnected = true;
+			checkPduMode();
+			enableNewMessageIndications();
 			
 			this.setStatus(SmsModemStatus.CONNECTED, Integer.toString(maxSpeedRequested));
 			
@@ -445,6 +494,22 @@ public class SmsModem extends Thread implements SmsService {
 		super.start();
 	}
 
+	/**
+	 * Start the modem handler listening to the serial port, first trying the settings which worked when a device
+	 * was last connected to the port.  If they no longer work, or a different device is now attached, the settings
+	 * to use are detected as usual.
+	 * @param baudRate the baud rate last used with the port
+	 * @param catHandler the name of the CAT handler last used with the port
+	 * @param serial the serial number of the device last connected to the port
+	 */
+	public void start(int baudRate, String catHandler, String serial) {
+		this.autoDetect = true;
+		this.baudRate = baudRate;
+		this.preferredCATHandler = catHandler;
+		this.expectedSerial = serial;
+		super.start();
+	}
+
 	/**
 	 * Start the sms modem listening to the serial port, and autodetect the settings to use.
 	 */
@@ -458,7 +523,8 @@ public class SmsModem extends Thread implements SmsService {
 	public void run() {
 		LOG.trace("ENTER");
 		
-		if(autoDetect) running = _doDetection();
+		if(expectedSerial != null) running = connectWithKnownSettings() || (!duplicate && _doDetection());
+		else if(autoDetect) running = _doDetection();
 		else running = true;
 		while (running) {
 			boolean noActivity = true;
@@ -476,7 +542,7 @@ public class SmsModem extends Thread implements SmsService {
 					if (useForReceiving) {
 						long startTime = System.currentTimeMillis();
 						LOG.debug("Checking for received messages...");
-						int newMessages = checkForMessages();
+						int newMessages = newMessageIndications == null ? checkForMessages() : checkForIndicatedMessages();
 						if(newMessages > 0) noActivity = false;
 						LOG.debug("Check for messages took [" + (System.currentTimeMillis() - startTime) + "]");
 					}
@@ -489,13 +555,15 @@ public class SmsModem extends Thread implements SmsService {
 							//create SMS list
 							LinkedList<FrontlineMessage> messageList = new LinkedList<FrontlineMessage>();
 							FrontlineMessage m;
-							while(messageList.size() < SMS_BULK_LIMIT && (m = outbox.poll()) != null) messageList.add(m);
+							int batchSize = sendBatchSize.get();
+							while(messageList.size() < batchSize && (m = pollOutbox()) != null) messageList.add(m);
 							if(messageList.size() > 0) {
 								LOG.debug("Sending bulk of [" + messageList.size() + "] message(s)");
 								sendSmsListDirect(messageList);
+								noActivity = false;
 							}
 						} else {
-							FrontlineMessage m = outbox.poll();
+							FrontlineMessage m = pollOutbox();
 							if(m != null) {
 								LOG.debug("Sending message [" + m.toString() + "]");
 								sendSmsDirect(m);
@@ -538,7 +606,7 @@ public class SmsModem extends Thread implements SmsService {
 				if (noActivity) {
 					try {
 						if(smsLibConnected) cService.keepGsmLinkOpen();
-						FrontlineUtils.sleep_ignoreInterrupts(5000); /* 5 seconds */
+						waitForOutgoingMessage();
 					} catch (Throwable t) {
 						LOG.debug("", t);
 						tryToConnect = false;
@@ -552,6 +620,39 @@ public class SmsModem extends Thread implements SmsService {
 		LOG.trace("EXIT");
 	}
 
+	/**
+	 * Waits for up to {@link #IDLE_WAIT} for a message to be added to {@link #outbox}.  If a message
+	 * arrives, it is held in {@link #waitingMessage} so that it is the next message sent.
+	 */
+	private void waitForOutgoingMessage() {
+		if(smsLibConnected && useForSending) {
+			try {
+				FrontlineMessage m = outbox.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+				if(m != null) {
+					synchronized(outbox) {
+						waitingMessage = m;
+					}
+				}
+			} catch(InterruptedException ex) {
+				LOG.debug("", ex);
+			}
+		} else {
+			FrontlineUtils.sleep_ignoreInterrupts(IDLE_WAIT);
+		}
+	}
+
+	/** @return the next message to send, or <code>null</code> if there are no messages waiting */
+	private FrontlineMessage pollOutbox() {
+		synchronized(outbox) {
+			if(waitingMessage != null) {
+				FrontlineMessage m = waitingMessage;
+				waitingMessage = null;
+				return m;
+			}
+		}
+		return outbox.poll();
+	}
+
 	private final void setManufacturer(String manufacturer) {
 		LOG.debug("Manufacturer before translation [" + manufacturer + "]");
 		this.manufacturer = CatHandlerAliasMatcher.getInstance().translateManufacturer(manufacturer);
@@ -587,11 +688,17 @@ public class SmsModem extends Thread implements SmsService {
 		
 		this.setStatus(SmsModemStatus.SEARCHING, null);
 		
-		for (int currentBaudRate : COMM_SPEEDS) {
+		// Try the fastest speed first, as most devices will respond at any speed
+		for (int i = COMM_SPEEDS.length - 1; i >= 0 && !phoneFound; --i) {
+			int currentBaudRate = COMM_SPEEDS[i];
 			if (!isDetecting()) {
 				disconnect(true);
 				return false;
 			}
+			if (detectionDeadline > 0 && System.currentTimeMillis() > detectionDeadline) {
+				LOG.info("Time allowed for detecting devices has run out; giving up on [" + portName + "]");
+				break;
+			}
 			LOG.debug("Testing baud rate [" + currentBaudRate + "]");
 			if (maxBaudRate == 0) {
 				this.setStatus(SmsModemStatus.SEARCHING, Integer.toString(currentBaudRate));
@@ -687,6 +794,47 @@ public class SmsModem extends Thread implements SmsService {
 		return phoneFound;
 	}
 
+	/**
+	 * Connects using the settings which worked when {@link #expectedSerial} was last connected to this port.  The
+	 * device is checked with a single AT command before connecting, so that a device which is no longer there is
+	 * quickly passed over for detection.
+	 * @return <code>true</code> if the connection was successful, <code>false</code> otherwise
+	 */
+	private boolean connectWithKnownSettings() {
+		LOG.trace("ENTER");
+		LOG.debug("Trying last known settings for [" + expectedSerial + "] on [" + portName + "]: speed [" + baudRate + "], CAT handler [" + preferredCATHandler + "]");
+		this.setStatus(SmsModemStatus.SEARCHING, Integer.toString(baudRate));
+
+		boolean responding = false;
+		resetWatchdog();
+		cService = new CService(portName, baudRate, "", "", "");
+		try {
+			cService.serialDriver.open();
+			// wait for port to open and AT handler to awake
+			FrontlineUtils.sleep_ignoreInterrupts(500);
+			cService.serialDriver.send("AT\r");
+			FrontlineUtils.sleep_ignoreInterrupts(500);
+			responding = cService.serialDriver.getResponse().contains("OK");
+		} catch(Exception ex) {
+			LOG.debug("Device did not respond at last known speed", ex);
+		} finally {
+			disconnect(false);
+		}
+
+		boolean connected = responding && connect(baudRate, manufacturer, model, preferredCATHandler);
+		// The device's serial number only needs checking on the first connection
+		expectedSerial = null;
+		tryToConnect = false;
+		smsLibConnected = connected;
+		if(!connected) {
+			LOG.info("Last known settings did not work on [" + portName + "]; detecting device settings.");
+			baudRate = 0;
+			preferredCATHandler = "";
+		}
+		LOG.trace("EXIT");
+		return connected;
+	}
+
 	/** NB. Currently resets LAST ACTIVE time rather than the time left, or time to die */
 	/** Resets the watchdog timer - used for calculating timeouts. */
 	private final void resetWatchdog() {
@@ -711,6 +859,8 @@ public class SmsModem extends Thread implements SmsService {
 		int messagesRead = messageList.size();
 
 		LOG.debug("[" + messagesRead + "] message(s) received.");
+		// The storage selected for reading by this method, or null if it is not known
+		String selectedStorage = null;
 		while (messageList.size() > 0) {
 			resetWatchdog();
 			CIncomingMessage msg = (CIncomingMessage) messageList.removeFirst();
@@ -726,20 +876,27 @@ public class SmsModem extends Thread implements SmsService {
 					+ "\n -Type [" + msg.getType() + "]"
 					+ "\n -Date [" + msg.getDate() + "]");
 
-			if (msisdn != null && msisdn.length() != 0) {
-				msg.setId(msisdn);
-			} else if (serialNumber != null && serialNumber.length() != 0) {
-				msg.setId(serialNumber);
-			} else if (imsiNumber != null) {
-				msg.setId(imsiNumber);
-			}
-			LOG.debug("Changed ID [" + msg.getId() + "]");
-
-			if (smsListener != null) {
-				if (useDeliveryReports || msg.getType() != CIncomingMessage.MessageType.StatusReport) {
-					smsListener.incomingMessageEvent(this, msg);
+			if (pduMode && msg.getType() != CIncomingMessage.MessageType.StatusReport) {
+				// CService does not expose the user data header, so read the PDU again to find if this is part of a concatenated message
+				CIncomingMessage concatenation;
+				try {
+					String storage = msg.getMemLocation();
+					if (storage != null && !storage.equals(selectedStorage)) {
+						// Forget the selection until it succeeds, so that it is retried for the next message
+						selectedStorage = null;
+						sendAtCommand("AT+CPMS=\"" + storage + "\"");
+						selectedStorage = storage;
+					}
+					concatenation = readConcatenation(msg, sendAtCommand("AT+CMGR=" + msg.getMemIndex()));
+				} catch (IOException ex) {
+					// The message has already been read by CService, so it is processed as it was read rather than lost
+					LOG.warn("Could not re-read message at index [" + msg.getMemIndex() + "] in PDU mode.", ex);
+					concatenation = msg;
 				}
-			} else inbox.add(msg);
+				processIncomingMessage(concatenation);
+			} else {
+				processIncomingMessage(msg);
+			}
 
 			if (isDeleteMessagesAfterReceiving() || msg.getType() == CIncomingMessage.MessageType.StatusReport) {
 				//delete msg if is supposed to do it, or if it is a delivery report.
@@ -754,6 +911,194 @@ public class SmsModem extends Thread implements SmsService {
 		return messagesRead;
 	}
 
+	/**
+	 * Reads the messages in the storage slots indicated by the device since the last check, and scans the
+	 * device's memory with {@link #checkForMessages()} if that is due or some indications could not be handled.
+	 * @return The number of new messages retrieved
+	 * @throws IOException
+	 * @throws SMSLibDeviceException
+	 */
+	private int checkForIndicatedMessages() throws IOException, SMSLibDeviceException {
+		LOG.trace("ENTER");
+		// Indications are buffered by the device while it is busy, and returned along with the response to the next command
+		newMessageIndications.parse(sendAtCommand("AT+CPMS?"));
+		long now = System.currentTimeMillis();
+
+		int messagesRead = 0;
+		for(NewMessageIndications.Slot slot : newMessageIndications.poll()) {
+			if(!slot.getStorage().equals(newMessageIndications.getReadStorage())) {
+				// AT+CMGR can only read from the current storage, so leave this to the full scan
+				newMessageIndications.requestFullScan();
+				continue;
+			}
+			String response = sendAtCommand("AT+CMGR=" + slot.getIndex());
+			newMessageIndications.parse(response);
+			SmsDeliverPdu pdu = SmsDeliverPdu.decode(SmsDeliverPdu.extractPdu(response));
+			if(pdu == null) {
+				// Reading the message has marked it as read, so the full scan of unread messages would miss it
+				LOG.warn("Could not decode message in slot [" + slot + "]: " + response);
+				messagesRead += readMessageWithCService(slot);
+				// CService may have selected a different storage for reading
+				newMessageIndications.parse(sendAtCommand("AT+CPMS?"));
+				continue;
+			}
+
+			CIncomingMessage msg = pdu.toIncomingMessage(slot.getIndex(), slot.getStorage());
+			LOG.debug("- From [" + msg.getOriginator() + "]"
+					+ "\n -Message [" + msg.getText() + "]"
+					+ "\n -Slot [" + slot + "]");
+			processIncomingMessage(msg);
+			++messagesRead;
+
+			if (isDeleteMessagesAfterReceiving()) {
+				LOG.debug("Removing message [" + slot + "] from phone.");
+				sendAtCommand("AT+CMGD=" + slot.getIndex());
+			}
+		}
+
+		if(newMessageIndications.isFullScanDue(now)) {
+			LOG.debug("Scanning device memory for missed messages.");
+			messagesRead += checkForMessages();
+			newMessageIndications.fullScanComplete(now);
+		}
+
+		LOG.trace("EXIT");
+		return messagesRead;
+	}
+
+	/**
+	 * Reads the message in a storage slot with {@link #cService}.  This is used when the message's PDU could not be
+	 * decoded, after AT+CMGR has already marked it as read.
+	 * @param slot the storage slot the message was indicated in
+	 * @return 1 if the message was found and processed, or 0 if it was not
+	 * @throws IOException
+	 * @throws SMSLibDeviceException
+	 */
+	@SuppressWarnings("unchecked")
+	private int readMessageWithCService(NewMessageIndications.Slot slot) throws IOException, SMSLibDeviceException {
+		LinkedList messageList = new LinkedList();
+		resetWatchdog();
+		cService.readMessages(messageList, MessageClass.READ);
+		resetWatchdog();
+		
+		for(Object o : messageList) {
+			CIncomingMessage msg = (CIncomingMessage) o;
+			if(msg.getMemIndex() == slot.getIndex() && slot.getStorage().equals(msg.getMemLocation())) {
+				LOG.debug("- From [" + msg.getOriginator() + "]"
+						+ "\n -Message [" + msg.getText() + "]"
+						+ "\n -Slot [" + slot + "]");
+				processIncomingMessage(msg);
+				if (isDeleteMessagesAfterReceiving()) {
+					LOG.debug("Removing message [" + slot + "] from phone.");
+					cService.deleteMessage(msg);
+				}
+				return 1;
+			}
+		}
+		LOG.warn("Message in slot [" + slot + "] could not be read.");
+		return 0;
+	}
+
+	/**
+	 * Finds whether a message read by CService is part of a concatenated message, from the device's response to
+	 * re-reading the message with AT+CMGR in PDU mode.
+	 * @param msg the message as read by CService
+	 * @param response the device's response to AT+CMGR for the message's index
+	 * @return the message as an {@link net.frontlinesms.messaging.sms.IncomingMessagePart} if it is part of a concatenated message, or the supplied
+	 * message if it is not, or the response cannot be decoded or is for a different message
+	 */
+	/* not private to allow unit testing */
+	static CIncomingMessage readConcatenation(CIncomingMessage msg, String response) {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode(SmsDeliverPdu.extractPdu(response));
+		if(pdu == null || !pdu.isConcatenated()) return msg;
+		if(!stripPlus(pdu.getOriginator()).equals(stripPlus(msg.getOriginator()))) {
+			LOG.warn("Message at index [" + msg.getMemIndex() + "] was from [" + msg.getOriginator() + "], but is now from [" + pdu.getOriginator() + "]");
+			return msg;
+		}
+		return pdu.toIncomingMessage(msg.getMemIndex(), msg.getMemLocation());
+	}
+	
+	/**
+	 * @param address
+	 * @return the address without any leading '+'
+	 */
+	private static String stripPlus(String address) {
+		if(address == null) return "";
+		return address.startsWith("+") ? address.substring(1) : address;
+	}
+
+	/**
+	 * Passes a message received by this device to {@link #smsListener}, or adds it to {@link #inbox} if there is no listener.
+	 * @param msg
+	 */
+	private void processIncomingMessage(CIncomingMessage msg) {
+		if (msisdn != null && msisdn.length() != 0) {
+			msg.setId(msisdn);
+		} else if (serialNumber != null && serialNumber.length() != 0) {
+			msg.setId(serialNumber);
+		} else if (imsiNumber != null) {
+			msg.setId(imsiNumber);
+		}
+		LOG.debug("Changed ID [" + msg.getId() + "]");
+
+		if (smsListener != null) {
+			if (useDeliveryReports || msg.getType() != CIncomingMessage.MessageType.StatusReport) {
+				smsListener.incomingMessageEvent(this, msg);
+			}
+		} else inbox.add(msg);
+	}
+
+	/** Sets {@link #pduMode} from the message format the device is using. */
+	private void checkPduMode() {
+		try {
+			pduMode = sendAtCommand("AT+CMGF?").matches("(?s).*\\+CMGF:\\s*0.*");
+		} catch(IOException ex) {
+			LOG.info("Failed to check message format of device on [" + portName + "].", ex);
+			pduMode = false;
+		}
+	}
+	
+	/**
+	 * Enables new message indications on the device, if this is configured in {@link AppProperties}.  If the
+	 * device does not support them, received messages continue to be found by scanning its memory.
+	 */
+	private void enableNewMessageIndications() {
+		newMessageIndications = null;
+		AppProperties properties = AppProperties.getInstance();
+		if(!properties.isModemReceiveNotificationsEnabled()) return;
+		try {
+			// Indicated messages are read in PDU mode
+			if(!pduMode) {
+				LOG.info("Device on [" + portName + "] is not in PDU mode; polling for received messages.");
+				return;
+			}
+			for(String command : CNMI_COMMANDS) {
+				if(sendAtCommand(command).contains("OK")) {
+					LOG.debug("Enabled new message indications with [" + command + "]");
+					newMessageIndications = new NewMessageIndications(properties.getModemReceiveScanInterval() * 1000L);
+					return;
+				}
+			}
+			LOG.info("Device on [" + portName + "] does not support new message indications; polling for received messages.");
+		} catch(IOException ex) {
+			LOG.info("Failed to enable new message indications on [" + portName + "]; polling for received messages.", ex);
+		}
+	}
+
+	/**
+	 * Sends an AT command to the device and waits for its response.
+	 * @param command the command, without a trailing carriage return
+	 * @return the device's response
+	 * @throws IOException
+	 */
+	private String sendAtCommand(String command) throws IOException {
+		resetWatchdog();
+		cService.serialDriver.send(command + "\r");
+		String response = cService.serialDriver.getResponse();
+		resetWatchdog();
+		return response;
+	}
+
 
 	/** @see SmsService#sendSMS(net.frontlinesms.data.FrontlineMessage) */
 	public void sendSMS(FrontlineMessage outgoingMessage) {
@@ -788,6 +1133,7 @@ public class SmsModem extends Thread implements SmsService {
 		cMessage.setStatusReport(this.useDeliveryReports);
 
 		// Ok, finished with the message parameters, now send it!
+		long startTime = System.currentTimeMillis();
 		try {
 			cService.sendMessage(cMessage);
 			if (cMessage.getRefNo() != -1) {
@@ -805,6 +1151,7 @@ public class SmsModem extends Thread implements SmsService {
 			if(LOG.isInfoEnabled()) LOG.info("Message [" + message + "] failed to send to [" + message.getRecipientMsisdn() + "]", ex);
 			throw new IOException();
 		} finally {
+			sendStatistics.recordSend(1, message.getStatus() == Status.FAILED ? 1 : 0, System.currentTimeMillis() - startTime);
 			if (smsListener != null) {
 				smsListener.outgoingMessageEvent(this, message);
 			}
@@ -932,6 +1279,12 @@ public class SmsModem extends Thread implements SmsService {
 			this.setStatus(SmsModemStatus.DISCONNECTED, null);
 		}
 		
+		synchronized(outbox) {
+			if(waitingMessage != null) {
+				outbox.add(waitingMessage);
+				waitingMessage = null;
+			}
+		}
 		for (FrontlineMessage m : outbox) {
 			m.setStatus(Status.FAILED);
 			if (smsListener != null) smsListener.outgoingMessageEvent(this, m);
@@ -949,6 +1302,10 @@ public class SmsModem extends Thread implements SmsService {
 	private void sendSmsListDirect(List<FrontlineMessage> smsMessages) throws IOException {
 		LOG.trace("ENTER");
 
+		long startTime = System.currentTimeMillis();
+		long totalSendTime = 0;
+		long maxSendTime = 0;
+		boolean completed = false;
 		try {
 			cService.keepGsmLinkOpen();
 			for (FrontlineMessage message : smsMessages) {
@@ -967,6 +1324,7 @@ public class SmsModem extends Thread implements SmsService {
 				cMessage.setStatusReport(this.useDeliveryReports);
 
 				// Ok, finished with the message parameters, now send it!
+				long sendStartTime = System.currentTimeMillis();
 				try {
 					cService.sendMessage(cMessage);
 					if (cMessage.getRefNo() != -1) {
@@ -983,17 +1341,30 @@ public class SmsModem extends Thread implements SmsService {
 					message.setStatus(Status.FAILED);
 					if(LOG.isInfoEnabled()) LOG.info("Message [" + message + "] failed to send to [" + message.getRecipientMsisdn() + "]", ex);
 				} finally {
+					long sendTime = System.currentTimeMillis() - sendStartTime;
+					totalSendTime += sendTime;
+					maxSendTime = Math.max(maxSendTime, sendTime);
 					if (smsListener != null) {
 						smsListener.outgoingMessageEvent(this, message);
 					}
 				}
 			}
+			completed = true;
 		} finally {
+			int attemptedCount = 0;
+			int failedCount = 0;
 			for (FrontlineMessage m : smsMessages) {
 				if (m.getStatus() == Status.PENDING) {
 					outbox.add(m);
+				} else {
+					++attemptedCount;
+					if (m.getStatus() == Status.FAILED) ++failedCount;
 				}
 			}
+			sendStatistics.recordSend(attemptedCount, failedCount, System.currentTimeMillis() - startTime);
+			// If the batch was interrupted, the device is struggling and the batch size should shrink
+			sendBatchSize.recordBatch(attemptedCount, completed ? failedCount : failedCount + 1, totalSendTime, maxSendTime);
+			if(LOG.isDebugEnabled()) LOG.debug("Send batch size: " + sendBatchSize);
 		}
 		LOG.trace("EXIT");
 	}
@@ -1002,6 +1373,28 @@ public class SmsModem extends Thread implements SmsService {
 		return getMsisdn();
 	}
 
+	/** @see SmsService#getOutboxSize() */
+	public int getOutboxSize() {
+		synchronized(outbox) {
+			return outbox.size() + (waitingMessage == null ? 0 : 1);
+		}
+	}
+
+	/** @see SmsService#getSendStatistics() */
+	public SmsSendStatistics getSendStatistics() {
+		return sendStatistics;
+	}
+
+	/** @return the number of messages which this modem currently sends in each batch */
+	public int getSendBatchSize() {
+		return sendBatchSize.get();
+	}
+
+	/** @param batchSize the number of messages this modem should send in each batch, e.g. as learned while previously connected */
+	public void setSendBatchSize(int batchSize) {
+		sendBatchSize.set(batchSize);
+	}
+
 	public String getDisplayPort() {
 		return this.getPort();
 	}
@@ -25,6 +25,7 @@ import java.awt.Frame;
 import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +35,7 @@ import java.util.Set;
 import net.frontlinesms.*;
 import net.frontlinesms.data.*;
 import net.frontlinesms.data.domain.*;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.data.domain.FrontlineMessage.Type;
 import net.frontlinesms.data.events.EntitySavedNotification;
@@ -734,6 +736,7 @@ public class UiGeneratorController extends FrontlineUI implements EmailListener,
 	 */
 	public void sendMessage(Object composeMessageDialog, Object recipientList, Object messageContent) {
 		String messageText = getText(messageContent);
+		List<String> recipientNumbers = new ArrayList<String>();
 		for (Object o : getItems(recipientList)) {
 			Object attachedObject = getAttachedObject(o);
 			if(attachedObject == null) {
@@ -741,12 +744,18 @@ public class UiGeneratorController extends FrontlineUI implements EmailListener,
 				// TODO check this is necessary
 			} else if(attachedObject instanceof Contact) {
 				Contact c = (Contact)attachedObject;
-				frontlineController.sendTextMessage(c.getPhoneNumber(), messageText);
+				recipientNumbers.add(c.getPhoneNumber());
 			} else if(attachedObject instanceof String) {
 				// Attached object is a phone number
-				frontlineController.sendTextMessage((String)attachedObject, messageText);
+				recipientNumbers.add((String)attachedObject);
 			}
 		}
+		if(recipientNumbers.size() == 1) {
+			frontlineController.sendTextMessage(recipientNumbers.get(0), messageText);
+		} else if(recipientNumbers.size() > 1) {
+			// Messages to many recipients should not hold up interactive messages
+			frontlineController.sendTextMessages(recipientNumbers, messageText, Priority.BULK);
+		}
 		remove(composeMessageDialog);
 	}
 
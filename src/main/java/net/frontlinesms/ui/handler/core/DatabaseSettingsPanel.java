@@ -7,8 +7,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.frontlinesms.AppProperties;
+import net.frontlinesms.FrontlineSMS;
+import net.frontlinesms.data.ConnectionPoolUtils;
 import net.frontlinesms.ui.DatabaseSettings;
 import net.frontlinesms.ui.FrontlineUI;
+import net.frontlinesms.ui.UiGeneratorController;
 import net.frontlinesms.ui.handler.BasePanelHandler;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
 import net.frontlinesms.ui.i18n.TextResourceKeyOwner;
@@ -34,6 +37,8 @@ public class DatabaseSettingsPanel extends BasePanelHandler implements DatabaseS
 	private static final String COMPONENT_CANCEL_BUTTON = "btCancel";
 	/** The constant property key for database passwords */
 	private static final String PASSWORD_PROPERTY_KEY = "password";
+	/** UI Component: read-only display of the connection pool statistics for the database currently in use */
+	private static final String COMPONENT_POOL_STATISTICS = "pool.statistics";
 
 //> INSTANCE PROPERTIES
 	/** The settings currently selected in the combobox */
@@ -118,6 +123,28 @@ public class DatabaseSettingsPanel extends BasePanelHandler implements DatabaseS
 			else
 				ui.add(settingsPanel, ui.createTextfield(key, this.selectedSettings.getPropertyValue(key)));
 		}
+		
+		// If these are the settings currently in use, show how the connection pool is being used
+		ConnectionPoolUtils.PoolStatistics poolStatistics = getCurrentPoolStatistics();
+		if(poolStatistics != null) {
+			ui.add(settingsPanel, ui.createLabel(COMPONENT_POOL_STATISTICS));
+			Object statisticsLabel = ui.createLabel(poolStatistics.toString());
+			ui.setName(statisticsLabel, COMPONENT_POOL_STATISTICS);
+			ui.add(settingsPanel, statisticsLabel);
+		}
+	}
+	
+	/**
+	 * @return the connection pool statistics for the running application, or <code>null</code> if they are not available or
+	 * the selected settings are not the ones currently in use
+	 */
+	private ConnectionPoolUtils.PoolStatistics getCurrentPoolStatistics() {
+		if(!(ui instanceof UiGeneratorController)
+				|| !this.selectedSettings.getFilePath().equals(AppProperties.getInstance().getDatabaseConfigPath())) {
+			return null;
+		}
+		FrontlineSMS frontline = ((UiGeneratorController) ui).getFrontlineController();
+		return frontline == null ? null : frontline.getConnectionPoolStatistics();
 	}
 
 	private Object getConfigFileSelecter() {
@@ -140,6 +167,10 @@ public class DatabaseSettingsPanel extends BasePanelHandler implements DatabaseS
 			// This code assumes that all settings are in TEXTFIELDS; this may change in the future.
 			Object tf = settingsComponents[settingIndex];
 			String key = ui.getName(tf);
+			if(COMPONENT_POOL_STATISTICS.equals(key)) {
+				// This is a read-only display, not a setting
+				continue;
+			}
 			String value = ui.getText(tf);
 			settings.add(new Setting(key, value));
 		}
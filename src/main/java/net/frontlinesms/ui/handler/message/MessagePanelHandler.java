@@ -23,6 +23,8 @@ import net.frontlinesms.FrontlineSMSConstants;
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsSegmentation;
+import net.frontlinesms.messaging.sms.SmsSegmenter;
 import net.frontlinesms.ui.Icon;
 import net.frontlinesms.ui.ThinletUiEventHandler;
 import net.frontlinesms.ui.UiGeneratorController;
@@ -33,7 +35,6 @@ import net.frontlinesms.ui.handler.keyword.BaseActionDialog;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
 
 import org.apache.log4j.Logger;
-import org.smslib.util.GsmAlphabet;
 
 /**
  * Controller for a panel which allows sending of text SMS messages
@@ -163,11 +164,7 @@ public class MessagePanelHandler implements ThinletUiEventHandler {
 		
 		Object sendButton = find(COMPONENT_BT_SEND);
 		
-		int totalLengthAllowed;
-		if(GsmAlphabet.areAllCharactersValidGSM(message))totalLengthAllowed = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT * FrontlineMessage.SMS_LIMIT;
-		else totalLengthAllowed = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2 * FrontlineMessage.SMS_LIMIT;
-		
-		boolean shouldEnableSendButton = ((!shouldCheckMaxMessageLength || messageLength <= totalLengthAllowed)
+		boolean shouldEnableSendButton = ((!shouldCheckMaxMessageLength || !SmsSegmenter.DEFAULT.segmentText(message).isTooLong())
 											&& recipientLength > 0
 											&& messageLength > 0);
 		if (sendButton != null)
@@ -217,42 +214,24 @@ public class MessagePanelHandler implements ThinletUiEventHandler {
 		int messageLength = message.length();
 		
 		Object sendButton = find(COMPONENT_BT_SEND);
-		boolean areAllCharactersValidGSM = GsmAlphabet.areAllCharactersValidGSM(message);
-		int totalLengthAllowed;
-		if(areAllCharactersValidGSM) {
-			totalLengthAllowed = FrontlineMessage.SMS_LENGTH_LIMIT + FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT * (FrontlineMessage.SMS_LIMIT - 1);
-		} else {
-			totalLengthAllowed = FrontlineMessage.SMS_LENGTH_LIMIT_UCS2 + FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2 * (FrontlineMessage.SMS_LIMIT - 1);
-		}
+		SmsSegmentation segmentation = SmsSegmenter.DEFAULT.segmentText(message);
 		
-		boolean shouldEnableSendButton = (messageLength > 0 && (!shouldCheckMaxMessageLength || messageLength <= totalLengthAllowed)
+		boolean shouldEnableSendButton = (messageLength > 0 && (!shouldCheckMaxMessageLength || !segmentation.isTooLong())
 											&& (!shouldDisplayRecipientField || recipientLength > 0));
 		
 		if (sendButton != null)
 			uiController.setEnabled(sendButton, shouldEnableSendButton);
 		
-		int singleMessageCharacterLimit;
-		int multipartMessageCharacterLimit;
-		if(areAllCharactersValidGSM) {
-			singleMessageCharacterLimit = FrontlineMessage.SMS_LENGTH_LIMIT;
-			multipartMessageCharacterLimit = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT;
-		} else {
-			// It appears there are some unicode-only characters here.  We should therefore
-			// treat this message as if it will be sent as unicode.
-			singleMessageCharacterLimit = FrontlineMessage.SMS_LENGTH_LIMIT_UCS2;
-			multipartMessageCharacterLimit = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2;
-		}
-		
 		Object 	tfMessage = find(COMPONENT_TF_MESSAGE),
 				lbTooManyMessages = find(COMPONENT_LB_TOO_MANY_MESSAGES);
 
-		int numberOfMsgs, remaining;
+		int numberOfMsgs = segmentation.getPartCount();
+		int remaining;
 		double costEstimate;
 		
-		if (shouldCheckMaxMessageLength && messageLength > totalLengthAllowed) {
+		if (shouldCheckMaxMessageLength && segmentation.isTooLong()) {
 			remaining = 0;
 			costEstimate = 0;
-			numberOfMsgs = (int)Math.ceil((double)messageLength / (double)multipartMessageCharacterLimit);
 			
 			uiController.setVisible(lbTooManyMessages, true);
 			uiController.setColor(tfMessage, "foreground", Color.RED);
@@ -262,17 +241,7 @@ public class MessagePanelHandler implements ThinletUiEventHandler {
 				uiController.setColor(tfMessage, "foreground", Color.BLACK);
 			}
 			
-			if (messageLength <= singleMessageCharacterLimit) {
-				numberOfMsgs = messageLength == 0 ? 0 : 1;
-				remaining = (messageLength % singleMessageCharacterLimit) == 0 ? 0
-						: singleMessageCharacterLimit - (messageLength % singleMessageCharacterLimit);	
-			} else {
-				int charCount = messageLength - singleMessageCharacterLimit;
-				numberOfMsgs = (int)Math.ceil((double)charCount / (double)multipartMessageCharacterLimit) + 1;
-				remaining = (charCount % multipartMessageCharacterLimit) == 0 ? 0
-						: multipartMessageCharacterLimit - ((charCount % multipartMessageCharacterLimit));
-			}
-			
+			remaining = messageLength == 0 ? 0 : segmentation.getRemaining();
 			costEstimate = numberOfMsgs * this.getCostPerSms() * this.numberToSend;
 		}
 		
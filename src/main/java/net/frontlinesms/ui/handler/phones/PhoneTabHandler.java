@@ -373,8 +373,12 @@ public class PhoneTabHandler extends BaseTabHandler implements FrontlineMessagin
 						
 						smsModelSettingsDao.updateSmsModemSettings(settings);
 					}
+					saveConnectionDetails(activeService, settings);
 					activeService.setUseForSending(settings.useForSending());
 					activeService.setUseDeliveryReports(settings.useDeliveryReports());
+					if(settings.getSendBatchSize() > 0) {
+						activeService.setSendBatchSize(settings.getSendBatchSize());
+					}
 
 					if(activeService.supportsReceive()) {
 						activeService.setUseForReceiving(settings.useForReceiving());
@@ -383,6 +387,9 @@ public class PhoneTabHandler extends BaseTabHandler implements FrontlineMessagin
 				}
 
 				ui.newEvent(new Event(Event.TYPE_PHONE_CONNECTED, InternationalisationUtils.getI18NString(COMMON_PHONE_CONNECTED) + ": " + activeService.getModel()));
+			} else if (serviceStatus.equals(SmsModemStatus.DISCONNECTED) || serviceStatus.equals(SmsModemStatus.DISCONNECT_FORCED)) {
+				// Remember the batch size learned while connected, so that it can be used next time
+				saveSendBatchSize(activeService);
 			}
 		} else {
 			SmsInternetService service = (SmsInternetService) messagingService;
@@ -463,16 +470,62 @@ public class PhoneTabHandler extends BaseTabHandler implements FrontlineMessagin
 			settings.setUseDeliveryReports(useDeliveryReports);
 			settings.setUseForReceiving(useForReceiving);
 			settings.setUseForSending(useForSending);
+			settings.setSendBatchSize(phone.getSendBatchSize());
 			this.smsModelSettingsDao.updateSmsModemSettings(settings);
 		} else {
 			settings = new SmsModemSettings(serial, manufacturer, model, useForSending, useForReceiving, deleteMessagesAfterReceiving, useDeliveryReports);
+			settings.setSendBatchSize(phone.getSendBatchSize());
 			this.smsModelSettingsDao.saveSmsModemSettings(settings);
+			saveConnectionDetails(phone, settings);
 		}
 		
 		removeDialog(dialog);
 	}
 
 //> INSTANCE HELPER METHODS
+	/**
+	 * Saves the details of a modem's connection to its {@link SmsModemSettings}, so that next time it can be
+	 * connected to without detecting its settings.  Any other device previously connected to the same port is
+	 * forgotten, so that only one device's settings are tried on each port.
+	 * @param modem a connected modem
+	 * @param settings the modem's settings
+	 */
+	private void saveConnectionDetails(SmsModem modem, SmsModemSettings settings) {
+		if(settings.getSerial() == null) return;
+		String port = modem.getPort();
+		String imsi = modem.getImsi();
+		if(settings.getImsi() != null && !settings.getImsi().equals(imsi)) {
+			log.info("SIM card in device [" + settings.getSerial() + "] has changed.");
+		}
+		for(SmsModemSettings other : smsModelSettingsDao.getSmsModemSettingsForPort(port)) {
+			if(!settings.getSerial().equals(other.getSerial())) {
+				other.clearPort();
+				smsModelSettingsDao.updateSmsModemSettings(other);
+			}
+		}
+		if(!port.equals(settings.getPort())
+				|| modem.getBaudRate() != settings.getBaudRate()
+				|| !equal(modem.getCatHandlerName(), settings.getCatHandler())
+				|| !equal(imsi, settings.getImsi())) {
+			settings.setConnectionDetails(port, modem.getBaudRate(), modem.getCatHandlerName(), imsi);
+			smsModelSettingsDao.updateSmsModemSettings(settings);
+		}
+	}
+
+	/**
+	 * Saves the send batch size learned by a modem to its {@link SmsModemSettings}, if it has any.
+	 * @param modem
+	 */
+	private void saveSendBatchSize(SmsModem modem) {
+		String serial = modem.getSerial();
+		if(serial == null || serial.length() == 0) return;
+		SmsModemSettings settings = smsModelSettingsDao.getSmsModemSettings(serial);
+		if(settings != null && settings.getSendBatchSize() != modem.getSendBatchSize()) {
+			settings.setSendBatchSize(modem.getSendBatchSize());
+			smsModelSettingsDao.updateSmsModemSettings(settings);
+		}
+	}
+
 	/** 
 	 * Refreshes the list of PhoneHandlers displayed on the PhoneManager tab.
 	 */
@@ -557,6 +610,10 @@ public class PhoneTabHandler extends BaseTabHandler implements FrontlineMessagin
 			if (service.isUseForReceiving()) ui.setIcon(useForReceiveCell, Icon.TICK);
 			ui.add(row, useForSendingCell);
 			ui.add(row, useForReceiveCell);
+
+			/** SEND BATCH SIZE CELL */
+			String batchSize = service instanceof SmsModem ? Integer.toString(((SmsModem) service).getSendBatchSize()) : "";
+			ui.add(row, ui.createTableCell(batchSize));
 		}
 		
 		
@@ -585,6 +642,11 @@ public class PhoneTabHandler extends BaseTabHandler implements FrontlineMessagin
 //> STATIC FACTORIES
 
 //> STATIC HELPER METHODS
+	/** @return <code>true</code> if both values are <code>null</code>, or they are equal */
+	private static boolean equal(String one, String two) {
+		return one == null ? two == null : one.equals(two);
+	}
+
 	/**
 	 * Gets the status of an {@link FrontlineMessagingService} as an internationalised {@link String}.
 	 * @param service
@@ -405,34 +405,32 @@ public class Service
 	 */
 	public boolean sendMessage(OutboundMessage msg) throws TimeoutException, GatewayException, IOException, InterruptedException
 	{
-		synchronized (gtwList)
+		// Only the routing is synchronized, so that messages may be sent concurrently through gateways which support it
+		AGateway gtw = routeMessage(msg);
+		if (gtw != null)
 		{
-			AGateway gtw = routeMessage(msg);
-			if (gtw != null)
+			try
 			{
-				try
-				{
-					return gtw.sendMessage(msg);
-				}
-				catch (TimeoutException e)
-				{
-					logWarn("sendMessage(): Gateway " + gtw.getGatewayId() + " does not respond, marking for restart.");
-					gtw.setGatewayStatus(GatewayStatuses.RESTART);
-					msg.setMessageStatus(MessageStatuses.FAILED);
-					msg.setFailureCause(FailureCauses.GATEWAY_FAILURE);
-					return false;
-				}
-				catch (IOException e)
-				{
-					logWarn("sendMessage(): Gateway " + gtw.getGatewayId() + " throws IO errors, marking for restart.");
-					gtw.setGatewayStatus(GatewayStatuses.RESTART);
-					msg.setMessageStatus(MessageStatuses.FAILED);
-					msg.setFailureCause(FailureCauses.GATEWAY_FAILURE);
-					return false;
-				}
+				return gtw.sendMessage(msg);
+			}
+			catch (TimeoutException e)
+			{
+				logWarn("sendMessage(): Gateway " + gtw.getGatewayId() + " does not respond, marking for restart.");
+				gtw.setGatewayStatus(GatewayStatuses.RESTART);
+				msg.setMessageStatus(MessageStatuses.FAILED);
+				msg.setFailureCause(FailureCauses.GATEWAY_FAILURE);
+				return false;
+			}
+			catch (IOException e)
+			{
+				logWarn("sendMessage(): Gateway " + gtw.getGatewayId() + " throws IO errors, marking for restart.");
+				gtw.setGatewayStatus(GatewayStatuses.RESTART);
+				msg.setMessageStatus(MessageStatuses.FAILED);
+				msg.setFailureCause(FailureCauses.GATEWAY_FAILURE);
+				return false;
 			}
-			else return false;
 		}
+		else return false;
 	}
 
 	/**
@@ -20,7 +20,7 @@
 
 package org.smslib.v3.helper;
 
-import java.util.BitSet;
+import java.util.Arrays;
 
 /**
  * Default  7-bit GSM alphabet related methods.
@@ -111,17 +111,17 @@ public class GSMAlphabet
 			'\u20ac', // EURO SIGN
 	};
 
-	private static final String[] extBytes = {
-			"1b0a", // FORM FEED
-			"1b14", // CIRCUMFLEX ACCENT
-			"1b28", // LEFT CURLY BRACKET
-			"1b29", // RIGHT CURLY BRACKET
-			"1b2f", // REVERSE SOLIDUS
-			"1b3c", // LEFT SQUARE BRACKET
-			"1b3d", // TILDE
-			"1b3e", // RIGHT SQUARE BRACKET
-			"1b40", // VERTICAL LINES
-			"1b65", // EURO SIGN
+	private static final byte[] extSeptets = {
+			0x0a, // FORM FEED
+			0x14, // CIRCUMFLEX ACCENT
+			0x28, // LEFT CURLY BRACKET
+			0x29, // RIGHT CURLY BRACKET
+			0x2f, // REVERSE SOLIDUS
+			0x3c, // LEFT SQUARE BRACKET
+			0x3d, // TILDE
+			0x3e, // RIGHT SQUARE BRACKET
+			0x40, // VERTICAL LINES
+			0x65, // EURO SIGN
 	};
 	
 	private static final char[] stdAlphabet = {
@@ -256,130 +256,221 @@ public class GSMAlphabet
 			'\u00E0', // LATIN SMALL LETTER A WITH GRAVE
 	};
 
-	public static String bytesToString(byte[] bytes)
+	/** Septet which escapes to the extension table */
+	private static final byte ESCAPE = 0x1b;
+
+	/** Septet used in place of characters which are not in the alphabet */
+	private static final byte UNKNOWN_SEPTET = 0x20;
+
+	/** Flag set in {@link #charToSeptet} for characters in the extension table */
+	private static final short EXTENDED = 0x100;
+
+	/** Lower case hex digits, used for building PDUs */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Septet for each character, indexed by character. Characters in the
+	 * extension table have {@link #EXTENDED} set. Characters beyond the end of
+	 * the table are encoded as {@link #UNKNOWN_SEPTET}.
+	 */
+	private static final short[] charToSeptet;
+
+	/** Character for each septet in the extension table, or 0 if the septet is not used. */
+	private static final char[] extSeptetToChar = new char[128];
+
+	static
 	{
-		StringBuffer text;
-		String extChar;
-		int i, j;
+		int maxChar = 0;
+		for (int i = 0; i < stdAlphabet.length; i++)
+			maxChar = Math.max(maxChar, stdAlphabet[i]);
+		for (int i = 0; i < extAlphabet.length; i++)
+			maxChar = Math.max(maxChar, extAlphabet[i]);
+		for (int i = 0; i < grcAlphabetRemapping.length; i++)
+			maxChar = Math.max(maxChar, grcAlphabetRemapping[i][0]);
+		charToSeptet = new short[maxChar + 1];
+		Arrays.fill(charToSeptet, UNKNOWN_SEPTET);
 
-		text = new StringBuffer();
-		for (i = 0; i < bytes.length; i++)
+		// Fill the table in reverse order of precedence, so that extended
+		// characters win over standard ones, which win over Greek remappings
+		for (int i = grcAlphabetRemapping.length - 1; i >= 0; i--)
+			for (int j = stdAlphabet.length - 1; j >= 0; j--)
+				if (stdAlphabet[j] == grcAlphabetRemapping[i][1]) charToSeptet[grcAlphabetRemapping[i][0]] = (short) j;
+		for (int i = stdAlphabet.length - 1; i >= 0; i--)
+			charToSeptet[stdAlphabet[i]] = (short) i;
+		for (int i = extAlphabet.length - 1; i >= 0; i--)
 		{
-			if (bytes[i] == 0x1b)
+			charToSeptet[extAlphabet[i]] = (short) (EXTENDED | extSeptets[i]);
+			extSeptetToChar[extSeptets[i]] = extAlphabet[i];
+		}
+	}
+
+	public static String bytesToString(byte[] bytes)
+	{
+		StringBuilder text = new StringBuilder(bytes.length);
+		for (int i = 0; i < bytes.length; i++)
+		{
+			if (bytes[i] == ESCAPE)
 			{
-				extChar = "1b" + Integer.toHexString(bytes[++i]);
-				for (j = 0; j < extBytes.length; j++)
-					if (extBytes[j].equalsIgnoreCase(extChar)) text.append(extAlphabet[j]);
+				if (++i < bytes.length)
+				{
+					char extChar = extSeptetToChar[bytes[i] & 0x7f];
+					if (extChar != 0) text.append(extChar);
+				}
 			}
-			else text.append(stdAlphabet[bytes[i]]);
+			else text.append(stdAlphabet[bytes[i] & 0x7f]);
 		}
 		return text.toString();
 	}
 
+	/**
+	 * Converts text to unpacked septets. Characters in the extension table
+	 * are written as two septets, and characters which are not in the
+	 * alphabet are written as spaces.
+	 * 
+	 * @param text
+	 * @param bytes
+	 *            Buffer to write the septets to. This must be at least twice
+	 *            the length of the text.
+	 * @return The number of septets written.
+	 */
 	public static int stringToBytes(String text, byte[] bytes)
 	{
-		int i, j, k, index;
-		char ch;
-		k = 0;
-		for (i = 0; i < text.length(); i++)
+		int k = 0;
+		for (int i = 0; i < text.length(); i++)
 		{
-			ch = text.charAt(i);
-			index = -1;
-			for (j = 0; j < extAlphabet.length; j++)
-				if (extAlphabet[j] == ch)
-				{
-					index = j;
-					break;
-				}
-			if (index != -1) // An extended char...
+			int septet = septetFor(text.charAt(i));
+			if ((septet & EXTENDED) != 0)
 			{
-				bytes[k] = (byte) Integer.parseInt(extBytes[index].substring(0, 2), 16);
-				k++;
-				bytes[k] = (byte) Integer.parseInt(extBytes[index].substring(2, 4), 16);
-				k++;
+				bytes[k++] = ESCAPE;
+				bytes[k++] = (byte) (septet & 0x7f);
 			}
-			else
-			// Maybe a standard char...
+			else bytes[k++] = (byte) septet;
+		}
+		return k;
+	}
+
+	/**
+	 * Packs septets into octets, as they are sent in a PDU. The packed octets
+	 * may be written over the septets in the same buffer.
+	 * 
+	 * @param septets
+	 *            Unpacked septets, e.g. from {@link #stringToBytes(String, byte[])}.
+	 * @param septetCount
+	 *            The number of septets to pack.
+	 * @param packed
+	 *            Buffer to write the packed octets to. This must have space
+	 *            for at least {@link #packedLength(int)} octets.
+	 * @return The number of octets written.
+	 */
+	public static int packSeptets(byte[] septets, int septetCount, byte[] packed)
+	{
+		int bits = 0, bitCount = 0, k = 0;
+		for (int i = 0; i < septetCount; i++)
+		{
+			bits |= (septets[i] & 0x7f) << bitCount;
+			bitCount += 7;
+			if (bitCount >= 8)
 			{
-				index = -1;
-				for (j = 0; j < stdAlphabet.length; j++)
-					if (stdAlphabet[j] == ch)
-					{
-						index = j;
-						bytes[k] = (byte) j;
-						k++;
-						break;
-					}
-				if (index == -1) // Maybe a Greek Char...
-				{
-					for (j = 0; j < grcAlphabetRemapping.length; j++)
-						if (grcAlphabetRemapping[j][0] == ch)
-						{
-							index = j;
-							ch = grcAlphabetRemapping[j][1];
-							break;
-						}
-					if (index != -1)
-					{
-						for (j = 0; j < stdAlphabet.length; j++)
-							if (stdAlphabet[j] == ch)
-							{
-								index = j;
-								bytes[k] = (byte) j;
-								k++;
-								break;
-							}
-					}
-					else
-					// Unknown char replacement...
-					{
-						bytes[k] = (byte) ' ';
-						k++;
-					}
-				}
+				packed[k++] = (byte) bits;
+				bits >>>= 8;
+				bitCount -= 8;
 			}
 		}
+		if (bitCount > 0) packed[k++] = (byte) bits;
 		return k;
 	}
 
-	public static String textToPDU(String txt)
+	/**
+	 * Unpacks septets from octets, as they are received in a PDU.
+	 * 
+	 * @param packed
+	 *            Buffer containing the packed septets.
+	 * @param offset
+	 *            Index of the first packed octet in the buffer.
+	 * @param septetCount
+	 *            The number of septets to unpack.
+	 * @return The unpacked septets.
+	 */
+	public static byte[] unpackSeptets(byte[] packed, int offset, int septetCount)
 	{
-		byte[] txtBytes;
-		short[] txtSeptets;
-		int txtBytesLen;
-		int txtSeptetsLen;
-		BitSet bits;
-		String pdu, c;
-		int i, j;
-
-		pdu = "";
+		byte[] septets = new byte[septetCount];
+		int bits = 0, bitCount = 0, k = offset;
+		for (int i = 0; i < septetCount; i++)
+		{
+			if (bitCount < 7)
+			{
+				bits |= (packed[k++] & 0xff) << bitCount;
+				bitCount += 8;
+			}
+			septets[i] = (byte) (bits & 0x7f);
+			bits >>>= 7;
+			bitCount -= 7;
+		}
+		return septets;
+	}
 
-		txtBytes = new byte[txt.length() * 2];
-		txtBytesLen = stringToBytes(txt, txtBytes);
-		bits = new BitSet();
-		for (i = 0; i < txtBytesLen; i++)
-			for (j = 0; j < 7; j++)
-				if ((txtBytes[i] & (1 << j)) != 0) bits.set((i * 7) + j);
+	/**
+	 * @param septetCount
+	 * @return The number of octets needed to hold the supplied number of packed septets.
+	 */
+	public static int packedLength(int septetCount)
+	{
+		return (septetCount * 7 + 7) >> 3;
+	}
 
-		txtSeptetsLen = (int) Math.ceil(((double) (txtBytesLen * 7) / 8));
-		txtSeptets = new short[txtSeptetsLen];
-		for (i = 0; i < txtSeptetsLen; i++)
-			for (j = 0; j < 8; j++)
-				txtSeptets[i] |= (short) ((bits.get((i * 8) + j) ? 1 : 0) << j);
-		for (i = 0; i < txtSeptetsLen; i++)
+	public static String textToPDU(String txt)
+	{
+		byte[] septets = new byte[txt.length() * 2];
+		int septetCount = stringToBytes(txt, septets);
+		// Pack the septets into the start of the same buffer, which is always long enough
+		int packedLength = packSeptets(septets, septetCount, septets);
+		char[] pdu = new char[packedLength * 2];
+		for (int i = 0; i < packedLength; i++)
 		{
-			c = Integer.toHexString(txtSeptets[i]);
-			if (c.length() < 2) c = "0" + c;
-			pdu += c;
+			pdu[i * 2] = HEX_DIGITS[(septets[i] >> 4) & 0xf];
+			pdu[i * 2 + 1] = HEX_DIGITS[septets[i] & 0xf];
 		}
-		return pdu;
+		return new String(pdu);
+	}
+
+	/**
+	 * @return A copy of the mappings used to encode Greek characters which are
+	 *         not in the alphabet, as pairs of { character, replacement }.
+	 */
+	public static char[][] getGreekRemapping()
+	{
+		char[][] remapping = new char[grcAlphabetRemapping.length][];
+		for (int i = 0; i < remapping.length; i++)
+			remapping[i] = new char[] { grcAlphabetRemapping[i][0], grcAlphabetRemapping[i][1] };
+		return remapping;
 	}
 
 	public static int noOfChars(String txt)
 	{
-		byte[] txtBytes;
-		txtBytes = new byte[txt.length() * 2];
-		return stringToBytes(txt, txtBytes);
+		int count = 0;
+		for (int i = 0; i < txt.length(); i++)
+			count += noOfChars(txt.charAt(i));
+		return count;
+	}
+
+	/**
+	 * @param ch
+	 * @return The number of septets used to encode the character: 2 for
+	 *         characters in the extension table, otherwise 1.
+	 */
+	public static int noOfChars(char ch)
+	{
+		return (septetFor(ch) & EXTENDED) != 0 ? 2 : 1;
+	}
+
+	/**
+	 * @param ch
+	 * @return The septet for the character, with {@link #EXTENDED} set if it
+	 *         is in the extension table.
+	 */
+	private static int septetFor(char ch)
+	{
+		return ch < charToSeptet.length ? charToSeptet[ch] : UNKNOWN_SEPTET;
 	}
 
 	public static void main(String args[])
@@ -268,15 +268,35 @@ public class ClickatellHTTPGateway extends HTTPGateway
 
 	@SuppressWarnings("unchecked")
 	public boolean sendMessage(OutboundMessage msg) throws TimeoutException, GatewayException, IOException, InterruptedException
+	{
+		List msgs = new ArrayList(1);
+		msgs.add(msg);
+		return sendMultiDestinationMessage(msgs) == 1;
+	}
+
+	/**
+	 * Sends the same message to several recipients in a single request. The
+	 * content and options of the first message are used for all of them; only
+	 * the recipients of the others are used. The status, reference number and
+	 * failure cause of each message are set from the result reported for its
+	 * recipient.
+	 * 
+	 * @param msgs
+	 *            The {@link OutboundMessage}s to send.
+	 * @return The number of messages which were sent.
+	 */
+	@SuppressWarnings("unchecked")
+	public int sendMultiDestinationMessage(List msgs) throws TimeoutException, GatewayException, IOException, InterruptedException
 	{
 		URL url;
 		List request = new ArrayList();
-		boolean ok = false;
+		int sent = 0;
+		OutboundMessage msg = (OutboundMessage) msgs.get(0);
 		if (sessionId == null)
 		{
 			logError("No session defined.");
-			msg.setFailureCause(FailureCauses.GATEWAY_FAILURE);
-			return false;
+			setFailureCause(msgs, FailureCauses.GATEWAY_FAILURE);
+			return 0;
 		}
 		logDebug("sendMessage()");
 		try
@@ -285,12 +305,12 @@ public class ClickatellHTTPGateway extends HTTPGateway
 			else if (msg.getType() == MessageTypes.WAPSI) url = new URL((secure ? HTTPS : HTTP) + URL_SENDWAPSI);
 			else
 			{
-				msg.setFailureCause(FailureCauses.BAD_FORMAT);
+				setFailureCause(msgs, FailureCauses.BAD_FORMAT);
 				logError("Incorrect message format.");
-				return false;
+				return 0;
 			}
 			request.add(new HttpHeader("session_id", sessionId, false));
-			request.add(new HttpHeader("to", msg.getRecipient().substring(1), false));
+			request.add(new HttpHeader("to", formatRecipients(msgs), false));
 			request.add(new HttpHeader("concat", "3", false));
 			
 			String from = msg.getFrom();
@@ -335,7 +355,7 @@ public class ClickatellHTTPGateway extends HTTPGateway
 				if (msg.getStatusReport()) requestFeatures += 8192;
 				request.add(new HttpHeader("req_feat", "" + requestFeatures, false));
 			}
-			ok = sendRequest(msg, url, request, ok);
+			sent = sendRequest(msgs, url, request);
 		}
 		catch (MalformedURLException e)
 		{
@@ -345,37 +365,102 @@ public class ClickatellHTTPGateway extends HTTPGateway
 		{
 			logError("I/O error.", e);
 		}
-		return ok;
+		return sent;
 	}
 
 	/**
-	 * @param msg
+	 * Posts a send request, and applies the results to the messages it was
+	 * sent for. Results for a multi-destination request are reported one per
+	 * line, each followed by " To: " and the recipient's number; a result
+	 * without a recipient applies to all of the messages.
+	 * 
+	 * @param msgs
+	 *            The messages the request is sending.
 	 * @param url
 	 * @param request
-	 * @param ok
-	 * @return
+	 * @return The number of messages which were sent.
 	 * @throws IOException
 	 */
 	@SuppressWarnings("unchecked")
-	private boolean sendRequest(OutboundMessage msg, URL url, List request,
-			boolean ok) throws IOException {
-		List response;
-		synchronized (SYNC_Commander)
+	/* not private to allow unit testing */
+	int sendRequest(List msgs, URL url, List request) throws IOException {
+		// Messages are posted concurrently; the shared HTTP client limits the connections made to Clickatell
+		List response = HttpPost(url, request);
+		boolean[] applied = new boolean[msgs.size()];
+		for (Object line : response)
 		{
-			response = HttpPost(url, request);
+			String result = ((String) line).trim();
+			int toIndex = result.indexOf("To:");
+			if (toIndex == -1)
+			{
+				for (int i = 0; i < msgs.size(); i++)
+				{
+					applied[i] |= applyResult((OutboundMessage) msgs.get(i), result);
+				}
+			}
+			else
+			{
+				String to = result.substring(toIndex + 3).trim();
+				result = result.substring(0, toIndex).trim();
+				for (int i = 0; i < msgs.size(); i++)
+				{
+					if (formatRecipient((OutboundMessage) msgs.get(i)).equals(to))
+					{
+						applied[i] |= applyResult((OutboundMessage) msgs.get(i), result);
+					}
+				}
+			}
 		}
-		if (((String) response.get(0)).indexOf("ID:") == 0)
+		int sent = 0;
+		for (int i = 0; i < msgs.size(); i++)
 		{
-			msg.setRefNo(((String) response.get(0)).substring(4));
+			OutboundMessage msg = (OutboundMessage) msgs.get(i);
+			if (!applied[i])
+			{
+				// No result was reported for this recipient
+				msg.setRefNo(null);
+				msg.setDispatchDate(null);
+				msg.setFailureCause(FailureCauses.UNKNOWN);
+			}
+			else if (msg.getMessageStatus() == MessageStatuses.SENT) ++sent;
+		}
+		return sent;
+	}
+
+	/**
+	 * Applies a single result from a send request to a message.
+	 * 
+	 * @param msg
+	 * @param result
+	 *            The result, e.g. "ID: ..." or "ERR: ...", without any recipient.
+	 * @return True if the result was recognised and applied.
+	 */
+	private boolean applyResult(OutboundMessage msg, String result)
+	{
+		if (result.indexOf("ID:") == 0)
+		{
+			msg.setRefNo(result.substring(4));
 			msg.setDispatchDate(new Date());
 			msg.setGatewayId(gtwId);
 			msg.setMessageStatus(MessageStatuses.SENT);
-			incOutboundMessageCount();
-			ok = true;
+			synchronized (SYNC_Commander)
+			{
+				incOutboundMessageCount();
+			}
+			return true;
 		}
-		else if (((String) response.get(0)).indexOf("ERR:") == 0)
+		else if (result.indexOf("ERR:") == 0)
 		{
-			switch (Integer.parseInt(((String) response.get(0)).substring(5, 8)))
+			int errorCode;
+			try
+			{
+				errorCode = Integer.parseInt(result.substring(5, 8));
+			}
+			catch (RuntimeException e)
+			{
+				errorCode = -1;
+			}
+			switch (errorCode)
 			{
 				case 1:
 				case 2:
@@ -410,9 +495,47 @@ public class ClickatellHTTPGateway extends HTTPGateway
 			msg.setRefNo(null);
 			msg.setDispatchDate(null);
 			msg.setMessageStatus(MessageStatuses.FAILED);
-			ok = false;
+			return true;
+		}
+		else return false;
+	}
+
+	/**
+	 * @param msgs
+	 * @return The recipients of the messages, formatted for the "to" field of a send request.
+	 */
+	private String formatRecipients(List msgs)
+	{
+		StringBuilder to = new StringBuilder();
+		for (int i = 0; i < msgs.size(); i++)
+		{
+			if (i > 0) to.append(',');
+			to.append(formatRecipient((OutboundMessage) msgs.get(i)));
+		}
+		return to.toString();
+	}
+
+	/**
+	 * @param msg
+	 * @return The recipient of the message, without its leading "+".
+	 */
+	private String formatRecipient(OutboundMessage msg)
+	{
+		return msg.getRecipient().substring(1);
+	}
+
+	/**
+	 * Marks messages as having failed before they were sent.
+	 * 
+	 * @param msgs
+	 * @param failureCause
+	 */
+	private void setFailureCause(List msgs, FailureCauses failureCause)
+	{
+		for (int i = 0; i < msgs.size(); i++)
+		{
+			((OutboundMessage) msgs.get(i)).setFailureCause(failureCause);
 		}
-		return ok;
 	}
 
 	private String formatDateUTC(Date d)
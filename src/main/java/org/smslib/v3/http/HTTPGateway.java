@@ -20,18 +20,17 @@
 
 package org.smslib.v3.http;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.frontlinesms.http.HttpClient;
+import net.frontlinesms.http.HttpResponse;
+
 import org.smslib.v3.AGateway;
 
 class HTTPGateway extends AGateway
@@ -44,20 +43,9 @@ class HTTPGateway extends AGateway
 	@SuppressWarnings("unchecked")
 	List HttpPost(URL url, List requestList) throws IOException
 	{
-		List responseList = new ArrayList();
-		URLConnection con;
-		BufferedReader in;
-		OutputStreamWriter out;
 		StringBuffer req;
-		String line;
 
 		logInfo("HTTP POST: " + url);
-		con = url.openConnection();
-		con.setDoInput(true);
-		con.setDoOutput(true);
-		con.setUseCaches(false);
-		con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-		out = new OutputStreamWriter(con.getOutputStream());
 		req = new StringBuffer();
 		for (int i = 0, n = requestList.size(); i < n; i++)
 		{
@@ -74,30 +62,16 @@ class HTTPGateway extends AGateway
 			}
 			else req.append(((HttpHeader) requestList.get(i)).value);
 		}
-		out.write(req.toString());
-		out.flush();
-		out.close();
-		in = new BufferedReader(new InputStreamReader((con.getInputStream())));
-		while ((line = in.readLine()) != null)
-			responseList.add(line);
-		in.close();
-		return responseList;
+		HttpResponse response = HttpClient.getShared().post(url.toString(), "application/x-www-form-urlencoded", req.toString());
+		return new ArrayList(response.throwIfError().getBodyLines());
 	}
 
 	@SuppressWarnings("unchecked")
 	List HttpGet(URL url) throws IOException
 	{
-		List responseList = new ArrayList();
-
 		logInfo("HTTP GET: " + url);
-		URLConnection con = url.openConnection();
-		con.setAllowUserInteraction(false);
-		BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-		String inputLine;
-		while ((inputLine = in.readLine()) != null)
-			responseList.add(inputLine);
-		in.close();
-		return responseList;
+		HttpResponse response = HttpClient.getShared().get(url.toString());
+		return new ArrayList(response.throwIfError().getBodyLines());
 	}
 
 	class HttpHeader
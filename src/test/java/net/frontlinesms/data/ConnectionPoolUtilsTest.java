@@ -0,0 +1,172 @@
+/**
+ * 
+ */
+package net.frontlinesms.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Tests for {@link ConnectionPoolUtils}, including a comparison of throughput against an embedded H2
+ * database for different pool sizes.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ConnectionPoolUtilsTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Number of threads querying the database concurrently in {@link #testThroughputForPoolSizes()} */
+	private static final int THREAD_COUNT = 8;
+	/** Number of queries each thread makes in {@link #testThroughputForPoolSizes()} */
+	private static final int QUERIES_PER_THREAD = 200;
+	
+//> INSTANCE PROPERTIES
+	/** Logging object */
+	private final Log log = LogFactory.getLog(getClass());
+
+//> TEST METHODS
+	/** Test that a default is supplied for every pool property. */
+	public void testDefaultProperties() {
+		Properties defaults = ConnectionPoolUtils.getDefaultProperties();
+		for(String key : new String[] {
+				ConnectionPoolUtils.KEY_POOL_MAX_ACTIVE, ConnectionPoolUtils.KEY_POOL_MAX_IDLE,
+				ConnectionPoolUtils.KEY_POOL_MIN_IDLE, ConnectionPoolUtils.KEY_POOL_MAX_WAIT,
+				ConnectionPoolUtils.KEY_POOL_EVICTION_INTERVAL, ConnectionPoolUtils.KEY_POOL_IDLE_TIMEOUT }) {
+			assertNotNull("No default for " + key, defaults.getProperty(key));
+			Long.parseLong(defaults.getProperty(key));
+		}
+	}
+	
+	/** Test that statistics are only available for pooled data sources. */
+	public void testStatistics() throws Exception {
+		assertNull(ConnectionPoolUtils.getStatistics(new DriverManagerDataSource()));
+		
+		BasicDataSource pool = createPool("statistics", 2);
+		try {
+			Connection c = pool.getConnection();
+			ConnectionPoolUtils.PoolStatistics statistics = ConnectionPoolUtils.getStatistics(pool);
+			assertEquals(1, statistics.getActiveConnections());
+			assertEquals(2, statistics.getMaxActiveConnections());
+			c.close();
+			
+			statistics = ConnectionPoolUtils.getStatistics(pool);
+			assertEquals(0, statistics.getActiveConnections());
+			assertEquals(1, statistics.getIdleConnections());
+		} finally {
+			pool.close();
+		}
+	}
+	
+	/**
+	 * Measure the throughput of concurrent queries against an embedded H2 database through pools of
+	 * different sizes, and check that the pool never hands out more connections than it is allowed to.
+	 */
+	public void testThroughputForPoolSizes() throws Exception {
+		for(int poolSize : new int[] { 1, 2, 4, 8 }) {
+			BasicDataSource pool = createPool("throughput" + poolSize, poolSize);
+			try {
+				Statement createTable = pool.getConnection().createStatement();
+				createTable.execute("CREATE TABLE message (id INT AUTO_INCREMENT PRIMARY KEY, content VARCHAR(160))");
+				createTable.getConnection().close();
+				
+				long start = System.currentTimeMillis();
+				int peakActive = runQueries(pool);
+				long duration = Math.max(1, System.currentTimeMillis() - start);
+				
+				int totalQueries = THREAD_COUNT * QUERIES_PER_THREAD * 2;
+				log.info("Pool size " + poolSize + ": " + totalQueries + " queries in " + duration + "ms ("
+						+ (totalQueries * 1000L / duration) + " queries/s); peak active connections: " + peakActive);
+				assertTrue("Pool exceeded its maximum size.", peakActive <= poolSize);
+				
+				Statement count = pool.getConnection().createStatement();
+				ResultSet rs = count.executeQuery("SELECT COUNT(*) FROM message");
+				rs.next();
+				assertEquals(THREAD_COUNT * QUERIES_PER_THREAD, rs.getInt(1));
+				count.getConnection().close();
+			} finally {
+				pool.close();
+			}
+		}
+	}
+
+//> TEST HELPER METHODS
+	/**
+	 * Runs {@link #THREAD_COUNT} threads, each of which inserts and reads back {@link #QUERIES_PER_THREAD} rows.
+	 * @return the highest number of active connections observed while the queries were running
+	 */
+	private int runQueries(final BasicDataSource pool) throws InterruptedException {
+		final AtomicInteger peakActive = new AtomicInteger();
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<THREAD_COUNT; ++i) {
+			final int threadIndex = i;
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						for(int q=0; q<QUERIES_PER_THREAD; ++q) {
+							Connection c = pool.getConnection();
+							try {
+								recordPeak(peakActive, pool.getNumActive());
+								PreparedStatement insert = c.prepareStatement("INSERT INTO message (content) VALUES (?)");
+								insert.setString(1, "thread " + threadIndex + " message " + q);
+								insert.executeUpdate();
+								PreparedStatement select = c.prepareStatement("SELECT content FROM message WHERE id = IDENTITY()");
+								select.executeQuery().close();
+							} finally {
+								c.close();
+							}
+						}
+					} catch(Throwable t) {
+						synchronized(failures) {
+							failures.add(t);
+						}
+					}
+				}
+			});
+		}
+		for(Thread t : threads) t.start();
+		for(Thread t : threads) t.join();
+		if(!failures.isEmpty()) {
+			throw new RuntimeException("Query failed.", failures.get(0));
+		}
+		return peakActive.get();
+	}
+	
+	/** Updates a peak value if the current value is higher. */
+	private static void recordPeak(AtomicInteger peak, int current) {
+		int previous;
+		do {
+			previous = peak.get();
+		} while(current > previous && !peak.compareAndSet(previous, current));
+	}
+
+	/**
+	 * Creates a pool connected to an in-memory H2 database, configured as in h2.database.xml.
+	 * @param databaseName
+	 * @param maxActive
+	 * @return a new pooled data source
+	 * @throws SQLException
+	 */
+	private static BasicDataSource createPool(String databaseName, int maxActive) throws SQLException {
+		BasicDataSource pool = new BasicDataSource();
+		pool.setDriverClassName("org.h2.Driver");
+		pool.setUrl("jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1");
+		pool.setMaxActive(maxActive);
+		pool.setMaxIdle(maxActive);
+		pool.setValidationQuery("SELECT 1");
+		pool.setTestOnBorrow(true);
+		return pool;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.Contact;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link ContactCache}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ContactCacheTest extends BaseTestCase {
+//> TEST METHODS
+	/** Test that contacts and missing contacts are both cached, and that hits and misses are counted. */
+	public void testGetAndPut() {
+		ContactCache cache = new ContactCache();
+		Map<String, Contact> results = new HashMap<String, Contact>();
+		assertFalse(cache.get("+1", results));
+		assertEquals(1, cache.getMissCount());
+
+		Contact one = new Contact("One", "+1", null, null, null, true);
+		cache.put("+1", one, cache.getVersion());
+		cache.put("+2", null, cache.getVersion());
+
+		assertTrue(cache.get("+1", results));
+		assertTrue(cache.get("+2", results));
+		assertEquals(1, results.size());
+		assertSame(one, results.get("+1"));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	/** Test that the least recently used phone number is evicted when the cache is full. */
+	public void testEviction() {
+		ContactCache cache = new ContactCache(2);
+		cache.put("+1", null, cache.getVersion());
+		cache.put("+2", null, cache.getVersion());
+		// Use +1, so that +2 is the least recently used
+		assertTrue(cache.get("+1", new HashMap<String, Contact>()));
+		cache.put("+3", null, cache.getVersion());
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.get("+1", new HashMap<String, Contact>()));
+		assertFalse(cache.get("+2", new HashMap<String, Contact>()));
+		assertTrue(cache.get("+3", new HashMap<String, Contact>()));
+	}
+
+	/** Test that a lookup started before the cache changed is not cached. */
+	public void testStalePut() {
+		ContactCache cache = new ContactCache();
+		long version = cache.getVersion();
+		Contact contact = new Contact("One", "+1", null, null, null, true);
+		cache.contactChanged(contact);
+		cache.put("+1", null, version);
+
+		Map<String, Contact> results = new HashMap<String, Contact>();
+		assertTrue(cache.get("+1", results));
+		assertSame(contact, results.get("+1"));
+	}
+
+	/** Test that changing or deleting a contact removes its old phone number from the cache. */
+	public void testContactChangedAndDeleted() throws DuplicateKeyException {
+		ContactCache cache = new ContactCache();
+		Contact contact = new Contact("One", "+1", null, null, null, true);
+		cache.put("+1", contact, cache.getVersion());
+
+		contact.setPhoneNumber("+2");
+		cache.contactChanged(contact);
+		assertFalse(cache.get("+1", new HashMap<String, Contact>()));
+		Map<String, Contact> results = new HashMap<String, Contact>();
+		assertTrue(cache.get("+2", results));
+		assertSame(contact, results.get("+2"));
+
+		cache.contactDeleted(contact);
+		assertFalse(cache.get("+2", new HashMap<String, Contact>()));
+		assertEquals(0, cache.size());
+	}
+}
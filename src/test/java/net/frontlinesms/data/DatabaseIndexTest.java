@@ -0,0 +1,217 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Check that the indexes declared on the domain classes are created by hbm2ddl, and that the database
+ * uses them for the frequent message, contact and group membership queries.  This runs against H2; the
+ * same index definitions are applied to HSQL and MySQL.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class DatabaseIndexTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Number of synthetic messages to create */
+	private static final int MESSAGE_COUNT = 20000;
+	/** Number of synthetic contacts to create */
+	private static final int CONTACT_COUNT = 5000;
+	/** Number of synthetic groups to create.  Each contact is a member of two groups. */
+	private static final int GROUP_COUNT = 50;
+	/** Number of distinct sender and recipient numbers used in the synthetic messages */
+	private static final int MSISDN_COUNT = 500;
+
+//> INSTANCE PROPERTIES
+	/** Application context containing the database */
+	private ClassPathXmlApplicationContext applicationContext;
+	/** Connection to the database */
+	private Connection connection;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.applicationContext = new ClassPathXmlApplicationContext(getClass().getSimpleName() + ".xml", this.getClass());
+		this.connection = ((DataSource) applicationContext.getBean("dataSource")).getConnection();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Statement s = connection.createStatement();
+		s.execute("DROP ALL OBJECTS");
+		s.close();
+		this.connection.close();
+		this.applicationContext.close();
+		super.tearDown();
+	}
+
+//> TEST METHODS
+	/** Check that every declared index has been created by hbm2ddl. */
+	public void testIndexesCreated() throws SQLException {
+		Set<String> messageIndexes = getIndexNames("MESSAGE");
+		assertTrue(messageIndexes.toString(), messageIndexes.contains("MESSAGE_TYPE_DATE_INDEX"));
+		assertTrue(messageIndexes.toString(), messageIndexes.contains("MESSAGE_RECIPIENT_SMSCREFERENCE_INDEX"));
+		assertTrue(messageIndexes.toString(), messageIndexes.contains("MESSAGE_SENDER_INDEX"));
+		assertTrue(messageIndexes.toString(), messageIndexes.contains("MESSAGE_KEYWORD_INDEX"));
+
+		Set<String> contactIndexes = getIndexNames("CONTACT");
+		assertTrue(contactIndexes.toString(), contactIndexes.contains("CONTACT_NAME_INDEX"));
+
+		Set<String> groupMembershipIndexes = getIndexNames("GROUPMEMBERSHIP");
+		assertTrue(groupMembershipIndexes.toString(), groupMembershipIndexes.contains("GROUPMEMBERSHIP_GROUP_INDEX"));
+	}
+
+	/** Check that the frequent queries use an index rather than scanning the whole table. */
+	public void testQueryPlans() throws SQLException {
+		createSyntheticData();
+
+		// Message history and statistics: by type and date
+		assertUsesIndex("MESSAGE_TYPE_DATE_INDEX", "SELECT * FROM message WHERE type=" + FrontlineMessage.Type.RECEIVED.ordinal() +
+				" AND date>=1000 AND date<=5000 ORDER BY date DESC");
+		assertUsesIndex("MESSAGE_TYPE_DATE_INDEX", "SELECT COUNT(*) FROM message WHERE type=" + FrontlineMessage.Type.OUTBOUND.ordinal());
+
+		// Messages for a phone number
+		assertUsesIndex("MESSAGE_SENDER_INDEX", "SELECT * FROM message WHERE senderMsisdn='" + getMsisdn(7) + "'");
+		assertUsesIndex("MESSAGE_RECIPIENT_SMSCREFERENCE_INDEX", "SELECT * FROM message WHERE recipientMsisdn='" + getMsisdn(7) + "'");
+
+		// Delivery report matching - MessageDao.getMessageForStatusUpdate()
+		assertUsesIndex("MESSAGE_RECIPIENT_SMSCREFERENCE_INDEX", "SELECT * FROM message WHERE recipientMsisdn='" + getMsisdn(7) + "' AND smscReference=7");
+
+		// Messages for a keyword.  The database may choose its own foreign key index for this.
+		assertUsesIndex(null, "SELECT * FROM message WHERE keyword_id=1");
+
+		// Contacts by name
+		assertUsesIndex("CONTACT_NAME_INDEX", "SELECT * FROM contact WHERE name='Contact 42'");
+		assertUsesIndex("CONTACT_NAME_INDEX", "SELECT * FROM contact WHERE name LIKE 'Contact 42%'");
+
+		// Members of a group.  The database may choose its own foreign key index for this.
+		assertUsesIndex(null, "SELECT * FROM groupmembership WHERE group_path='/group3'");
+	}
+
+//> INSTANCE HELPER METHODS
+	/**
+	 * Asserts that the database plan for a query uses an index.
+	 * @param expectedIndexName the name of the index which should be used, or <code>null</code> if any index is acceptable
+	 * @param query the SQL query
+	 */
+	private void assertUsesIndex(String expectedIndexName, String query) throws SQLException {
+		Statement s = connection.createStatement();
+		ResultSet results = s.executeQuery("EXPLAIN " + query);
+		StringBuilder plan = new StringBuilder();
+		while(results.next()) {
+			plan.append(results.getString(1));
+		}
+		results.close();
+		s.close();
+
+		String planString = plan.toString();
+		assertFalse("Table scan for query: " + query + "\n" + planString,
+				planString.contains("TABLE_SCAN") || planString.contains("tableScan"));
+		if(expectedIndexName != null) {
+			assertTrue("Expected index " + expectedIndexName + " for query: " + query + "\n" + planString,
+					planString.contains(expectedIndexName));
+		}
+	}
+
+	/**
+	 * @param tableName
+	 * @return the names of all indexes on the table
+	 */
+	private Set<String> getIndexNames(String tableName) throws SQLException {
+		Set<String> indexNames = new HashSet<String>();
+		ResultSet indexes = connection.getMetaData().getIndexInfo(null, null, tableName, false, false);
+		while(indexes.next()) {
+			indexNames.add(indexes.getString("INDEX_NAME"));
+		}
+		indexes.close();
+		return indexNames;
+	}
+
+	/** Populates the database with messages, contacts, groups and group memberships. */
+	private void createSyntheticData() throws SQLException {
+		connection.setAutoCommit(false);
+
+		PreparedStatement keyword = connection.prepareStatement("INSERT INTO keyword (keyword, description) VALUES (?, '')");
+		keyword.setString(1, "KEYWORD");
+		keyword.executeUpdate();
+		keyword.close();
+
+		PreparedStatement message = connection.prepareStatement("INSERT INTO message " +
+				"(type, status, date, senderMsisdn, recipientMsisdn, smscReference, textContent, keyword_id, retriesRemaining, recipientSmsPort, smsPartsCount) " +
+				"VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0, 0, 1)");
+		for (int i = 0; i < MESSAGE_COUNT; i++) {
+			boolean received = i % 2 == 0;
+			message.setInt(1, (received ? FrontlineMessage.Type.RECEIVED : FrontlineMessage.Type.OUTBOUND).ordinal());
+			message.setInt(2, (received ? FrontlineMessage.Status.RECEIVED : FrontlineMessage.Status.SENT).ordinal());
+			message.setLong(3, i * 1000L);
+			message.setString(4, getMsisdn(i));
+			message.setString(5, getMsisdn(i + 1));
+			message.setInt(6, i);
+			message.setString(7, "Message " + i);
+			if(i % 100 == 0) {
+				message.setLong(8, 1);
+			} else {
+				message.setNull(8, Types.BIGINT);
+			}
+			message.addBatch();
+		}
+		message.executeBatch();
+		message.close();
+
+		PreparedStatement group = connection.prepareStatement("INSERT INTO frontline_group (path, parentPath) VALUES (?, '')");
+		for (int i = 0; i < GROUP_COUNT; i++) {
+			group.setString(1, "/group" + i);
+			group.addBatch();
+		}
+		group.executeBatch();
+		group.close();
+
+		PreparedStatement contact = connection.prepareStatement("INSERT INTO contact (contact_id, name, phoneNumber, active) VALUES (?, ?, ?, TRUE)");
+		PreparedStatement membership = connection.prepareStatement("INSERT INTO groupmembership (contact_contact_id, group_path) VALUES (?, ?)");
+		for (int i = 0; i < CONTACT_COUNT; i++) {
+			contact.setLong(1, i + 1);
+			contact.setString(2, "Contact " + i);
+			contact.setString(3, "+1" + i);
+			contact.addBatch();
+
+			for(int groupNumber : new int[]{i % GROUP_COUNT, (i + 1) % GROUP_COUNT}) {
+				membership.setLong(1, i + 1);
+				membership.setString(2, "/group" + groupNumber);
+				membership.addBatch();
+			}
+		}
+		contact.executeBatch();
+		contact.close();
+		membership.executeBatch();
+		membership.close();
+
+		connection.commit();
+		connection.setAutoCommit(true);
+
+		// Update the statistics used by the query planner
+		Statement analyze = connection.createStatement();
+		analyze.execute("ANALYZE");
+		analyze.close();
+	}
+
+//> STATIC HELPER METHODS
+	/** @return a synthetic phone number, of which there are {@link #MSISDN_COUNT} */
+	private static String getMsisdn(int i) {
+		return "+44" + (i % MSISDN_COUNT);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.frontlinesms.data.domain.Keyword;
+import net.frontlinesms.data.domain.KeywordAction;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link KeywordActionIndex}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class KeywordActionIndexTest extends BaseTestCase {
+//> INSTANCE PROPERTIES
+	/** The index under test */
+	private KeywordActionIndex index;
+	/** Keyword which actions are attached to */
+	private Keyword keyword;
+
+//> TEST SETUP/TEARDOWN
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.index = new KeywordActionIndex();
+		this.keyword = new Keyword("test", "");
+	}
+
+//> TEST METHODS
+	/** Test that keywords which have not been put are distinguished from keywords with no actions. */
+	public void testNotIndexed() {
+		assertNull(index.getAliveActions(keyword, 0));
+		index.put(keyword, new ArrayList<KeywordAction>(), index.getVersion());
+		assertEquals(0, index.getAliveActions(keyword, 0).size());
+		assertEquals(1, index.size());
+
+		index.remove(keyword);
+		assertNull(index.getAliveActions(keyword, 0));
+	}
+
+	/** Test that only actions alive at the requested time are returned, including at the boundaries of their lifetimes. */
+	public void testAliveActions() {
+		KeywordAction always = createAction(0, Long.MAX_VALUE);
+		KeywordAction early = createAction(100, 200);
+		KeywordAction late = createAction(300, 400);
+		KeywordAction overlapping = createAction(150, 350);
+		index.put(keyword, Arrays.asList(late, overlapping, always, early), index.getVersion());
+
+		assertAlive(50, always);
+		assertAlive(100, always, early);
+		assertAlive(175, always, early, overlapping);
+		assertAlive(200, always, early, overlapping);
+		assertAlive(250, always, overlapping);
+		assertAlive(350, always, overlapping, late);
+		assertAlive(400, always, late);
+		assertAlive(401, always);
+	}
+
+	/** Test that the results of a lookup started before the index changed are not indexed. */
+	public void testStalePut() {
+		long version = index.getVersion();
+		index.remove(keyword);
+		index.put(keyword, Arrays.asList(createAction(0, 100)), version);
+		assertNull(index.getAliveActions(keyword, 50));
+	}
+
+//> PRIVATE HELPER METHODS
+	/** Checks that the actions alive at a time are exactly those expected, in order of start date. */
+	private void assertAlive(long time, KeywordAction... expected) {
+		List<KeywordAction> actual = index.getAliveActions(keyword, time);
+		assertEquals("Alive at " + time, Arrays.asList(expected), actual);
+		for(KeywordAction action : actual) {
+			assertTrue(action.isAlive(time));
+		}
+	}
+
+	/** @return a new reply action with the supplied lifetime */
+	private KeywordAction createAction(long start, long end) {
+		return KeywordAction.createReplyAction(keyword, "Reply " + start + "-" + end, start, end);
+	}
+}
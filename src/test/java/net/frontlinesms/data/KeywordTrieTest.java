@@ -0,0 +1,118 @@
+/**
+ * 
+ */
+package net.frontlinesms.data;
+
+import net.frontlinesms.data.domain.Keyword;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link KeywordTrie}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class KeywordTrieTest extends BaseTestCase {
+//> INSTANCE PROPERTIES
+	/** The index under test */
+	private KeywordTrie trie;
+	
+//> TEST SETUP/TEARDOWN
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.trie = new KeywordTrie();
+	}
+	
+//> TEST METHODS
+	/** Test that an empty index matches nothing. */
+	public void testEmpty() {
+		assertEquals(0, trie.size());
+		assertNull(trie.getBlankKeyword());
+		assertNull(trie.getFromMessageText(""));
+		assertNull(trie.getFromMessageText("hello"));
+		assertNull(trie.getFromMessageText(null));
+	}
+	
+	/** Test that the blank keyword is held separately, and never returned as a match. */
+	public void testBlankKeyword() {
+		Keyword blank = new Keyword("", "");
+		trie.put(blank);
+		assertEquals(1, trie.size());
+		assertEquals(blank, trie.getBlankKeyword());
+		assertNull(trie.getFromMessageText(""));
+		assertNull(trie.getFromMessageText("anything"));
+	}
+	
+	/** Test that the longest matching keyword is found, and that matches must end on a word boundary. */
+	public void testLongestMatch() {
+		Keyword one = put("one");
+		Keyword oneA = put("one a");
+		Keyword oneAX = put("one a x");
+		put("one b y z");
+		
+		testMatch(one, "one");
+		testMatch(one, "  one  ");
+		testMatch(one, "one b y");
+		testMatch(oneA, "one a");
+		testMatch(oneA, "one a xis the keyword");
+		testMatch(oneAX, "one a x");
+		testMatch(oneAX, "ONE A X is the keyword");
+		testMatch(oneAX, "oNe a X\r\n");
+		
+		testMatch(null, "ones");
+		testMatch(null, "on");
+		testMatch(null, "one\nnot separated by a space");
+		testMatch(null, "my one two three");
+	}
+	
+	/** Test that the results of the index agree with {@link Keyword#matches(String)}. */
+	public void testAgreesWithKeywordMatches() {
+		Keyword[] keywords = { put("a"), put("ab"), put("a b"), put("a b c"), put("xyz"), put("x y z") };
+		String[] messages = { "a", "A", "ab", "a b", "a bc", "a b c", "a b c d", "abc", "x", "xyz", "x y", "x y z!", " a ", "b a" };
+		for(String message : messages) {
+			Keyword expected = null;
+			for(Keyword k : keywords) {
+				if(k.matches(message) && (expected == null || expected.getKeyword().length() < k.getKeyword().length())) {
+					expected = k;
+				}
+			}
+			testMatch(expected, message);
+		}
+	}
+	
+	/** Test that removed keywords stop matching, and that keywords sharing a prefix are unaffected. */
+	public void testRemove() {
+		Keyword one = put("one");
+		Keyword oneA = put("one a");
+		assertEquals(2, trie.size());
+		
+		assertTrue(trie.remove(oneA));
+		assertFalse(trie.remove(oneA));
+		assertEquals(1, trie.size());
+		testMatch(one, "one a");
+		
+		assertTrue(trie.remove(new Keyword("one", "a different instance")));
+		assertEquals(0, trie.size());
+		testMatch(null, "one");
+	}
+	
+	/** Test that putting a keyword with the same text replaces the indexed instance. */
+	public void testReplace() {
+		put("one");
+		Keyword replacement = new Keyword("one", "updated");
+		trie.put(replacement);
+		assertEquals(1, trie.size());
+		assertSame(replacement, trie.getFromMessageText("one"));
+	}
+
+//> TEST HELPER METHODS
+	/** Creates a keyword and adds it to {@link #trie}. */
+	private Keyword put(String keywordString) {
+		Keyword keyword = new Keyword(keywordString, "");
+		trie.put(keyword);
+		return keyword;
+	}
+	
+	private void testMatch(Keyword expected, String messageText) {
+		assertEquals("Incorrect keyword matched for message text: '" + messageText + "'", expected, trie.getFromMessageText(messageText));
+	}
+}
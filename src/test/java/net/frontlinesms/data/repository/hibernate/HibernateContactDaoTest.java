@@ -3,8 +3,11 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.domain.Contact;
@@ -41,6 +44,62 @@ public class HibernateContactDaoTest extends HibernateTestCase {
 		contactDao.deleteContact(c);
 	}
 	
+	/** Test fetching several contacts at once with {@link ContactDao#getFromMsisdns(java.util.Collection)} */
+	public void testGetFromMsisdns() throws DuplicateKeyException {
+		List<String> numbers = new ArrayList<String>();
+		for (int i = 0; i < 600; i++) {
+			String number = "+1" + i;
+			if(i % 3 == 0) {
+				contactDao.saveContact(new Contact("Contact " + i, number, null, null, null, true));
+			}
+			numbers.add(number);
+		}
+		
+		Map<String, Contact> contacts = contactDao.getFromMsisdns(numbers);
+		assertEquals(200, contacts.size());
+		assertEquals("Contact 3", contacts.get("+13").getName());
+		assertNull(contacts.get("+14"));
+		assertTrue(contactDao.getFromMsisdns(new ArrayList<String>()).isEmpty());
+	}
+	
+	/** Test that phone number lookups are cached, and that the cache is kept up to date as contacts change. */
+	public void testContactCache() throws DuplicateKeyException {
+		HibernateContactDao dao = (HibernateContactDao) this.contactDao;
+		Contact c = new Contact("Cached", "+4477", null, null, null, true);
+		dao.saveContact(c);
+		
+		long hits = dao.getContactCacheHitCount();
+		assertEquals("Cached", dao.getFromMsisdn("+4477").getName());
+		assertEquals("Cached", dao.getFromMsisdn("+4477").getName());
+		assertNull(dao.getFromMsisdn("+4488"));
+		assertNull(dao.getFromMsisdn("+4488"));
+		assertTrue(dao.getContactCacheHitCount() >= hits + 2);
+		
+		// Change the phone number
+		c.setPhoneNumber("+4488");
+		dao.updateContact(c);
+		assertNull(dao.getFromMsisdn("+4477"));
+		assertEquals("Cached", dao.getFromMsisdn("+4488").getName());
+		assertEquals(1, dao.getFromMsisdns(Arrays.asList("+4477", "+4488")).size());
+		
+		dao.deleteContact(c);
+		assertNull(dao.getFromMsisdn("+4488"));
+	}
+	
+	/** Test that contacts deleted with their group are removed from the cache. */
+	public void testContactCacheAfterGroupDeleted() throws DuplicateKeyException {
+		Contact c = new Contact("Grouped", "+4499", null, null, null, true);
+		contactDao.saveContact(c);
+		Group g = new Group(new Group(null, null), "cachegroup");
+		groupDao.saveGroup(g);
+		groupMembershipDao.addMember(g, c);
+		
+		assertEquals("Grouped", contactDao.getFromMsisdn("+4499").getName());
+		groupDao.deleteGroup(g, true);
+		assertNull(contactDao.getFromMsisdn("+4499"));
+		assertTrue(contactDao.getFromMsisdns(Arrays.asList("+4499")).isEmpty());
+	}
+	
 	/** Test saving of contacts with duplicate phone numbers. */
 	public void testDuplicates() throws DuplicateKeyException {
 		Contact one = new Contact("Jeremy 1", "+123456789", null, null, null, true);
@@ -272,6 +272,33 @@ public class HibernateGroupMembershipDaoTest extends HibernateTestCase {
 	
 	
 	
+	/** Test that paged fetches return the expected slice of the full results. */
+	public void testPaging() throws DuplicateKeyException {
+		Group parent = createGroup("parent");
+		Group child = createGroup(parent, "child");
+		
+		Contact alice = createContact("Alice", "+123456789", child);
+		Contact arnold = createContact("Arnold", "0123456789", child);
+		Contact brian = createContact("Brian", "0111555999", parent);
+		Contact brigitte = createContact("Brigitte", "+111555999", parent);
+		Contact caroline = createContact("Caroline", "+987654321", parent);
+		
+		assertEquals("first page", new Contact[]{ alice, arnold },
+				groupMembershipDao.getFilteredMembersSorted(parent, null, Field.NAME, Order.ASCENDING, 0, 2));
+		assertEquals("second page", new Contact[]{ brian, brigitte },
+				groupMembershipDao.getFilteredMembersSorted(parent, null, Field.NAME, Order.ASCENDING, 2, 2));
+		assertEquals("last page", new Contact[]{ caroline },
+				groupMembershipDao.getFilteredMembersSorted(parent, null, Field.NAME, Order.ASCENDING, 4, 2));
+		assertEquals("page after end", new Contact[0],
+				groupMembershipDao.getFilteredMembersSorted(parent, null, Field.NAME, Order.ASCENDING, 6, 2));
+		
+		assertEquals(2, groupMembershipDao.getFilteredMembers(parent, "b", 0, 10).size());
+		assertEquals(1, groupMembershipDao.getFilteredMembers(parent, "b", 1, 10).size());
+		assertEquals(3, groupMembershipDao.getMembers(parent, 2, 10).size());
+		assertEquals(0, groupMembershipDao.getMembers(parent, 0, 0).size());
+		assertEquals(0, groupMembershipDao.getMembers(parent, 5, 10).size());
+	}
+	
 	public void testSubgroups() throws DuplicateKeyException {
 		// Create the groups
 		Group parent = createGroup("parent");
@@ -7,11 +7,16 @@ import java.util.List;
 
 import net.frontlinesms.junit.HibernateTestCase;
 
+import net.frontlinesms.data.DuplicateKeyException;
+import net.frontlinesms.data.domain.Group;
 import net.frontlinesms.data.domain.Keyword;
 import net.frontlinesms.data.domain.KeywordAction;
+import net.frontlinesms.data.repository.GroupDao;
 import net.frontlinesms.data.repository.KeywordActionDao;
 import net.frontlinesms.data.repository.KeywordDao;
 
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
 import org.springframework.beans.factory.annotation.Required;
 
 /**
@@ -25,6 +30,8 @@ public class HibernateKeywordActionDaoTest extends HibernateTestCase {
 	private KeywordActionDao keywordActionDao; // TODO should this explicitly be a Hibernate*Dao?
 	/** {@link KeywordDao} instance to test against. */
 	private KeywordDao keywordDao;
+	/** {@link GroupDao} instance to test against. */
+	private GroupDao groupDao;
 	
 	private Keyword testKeyword;
 	private Keyword testKeyword2;
@@ -73,6 +80,57 @@ public class HibernateKeywordActionDaoTest extends HibernateTestCase {
 		assertEquals(1, this.keywordActionDao.getCount());
 	}
 	
+	/** Test that alive actions are found, and that changes to actions are seen by later lookups. */
+	public void testGetAliveActions() {
+		KeywordAction action = KeywordAction.createReplyAction(this.testKeyword, "some reply text", 1000L, 2000L);
+		this.keywordActionDao.saveKeywordAction(action);
+		
+		assertEquals(0, this.keywordActionDao.getAliveActions(this.testKeyword, 999L).size());
+		assertEquals(1, this.keywordActionDao.getAliveActions(this.testKeyword, 1000L).size());
+		assertEquals(0, this.keywordActionDao.getAliveActions(this.testKeyword2, 1000L).size());
+		
+		KeywordAction action2 = KeywordAction.createReplyAction(this.testKeyword, "another reply", 1500L, 3000L);
+		this.keywordActionDao.saveKeywordAction(action2);
+		assertEquals(2, this.keywordActionDao.getAliveActions(this.testKeyword, 1500L).size());
+		assertEquals(1, this.keywordActionDao.getAliveActions(this.testKeyword, 2500L).size());
+		
+		action2.setEndDate(2400L);
+		this.keywordActionDao.updateKeywordAction(action2);
+		assertEquals(0, this.keywordActionDao.getAliveActions(this.testKeyword, 2500L).size());
+		
+		this.keywordActionDao.deleteKeywordAction(action);
+		assertEquals(1, this.keywordActionDao.getAliveActions(this.testKeyword, 1500L).size());
+	}
+	
+	/** Test that only the actions alive at the given time are returned, both when loaded and when indexed. */
+	public void testGetAliveActionsExcludesDeadActions() {
+		KeywordAction expired = KeywordAction.createReplyAction(this.testKeyword, "expired", 1000L, 1999L);
+		KeywordAction alive = KeywordAction.createReplyAction(this.testKeyword, "alive", 1000L, 3000L);
+		KeywordAction notStarted = KeywordAction.createReplyAction(this.testKeyword, "not started", 2001L, 3000L);
+		this.keywordActionDao.saveKeywordAction(expired);
+		this.keywordActionDao.saveKeywordAction(alive);
+		this.keywordActionDao.saveKeywordAction(notStarted);
+		
+		// The first lookup loads the keyword's actions, and later lookups use the index
+		for (int i = 0; i < 2; i++) {
+			List<KeywordAction> aliveActions = this.keywordActionDao.getAliveActions(this.testKeyword, 2000L);
+			assertEquals(1, aliveActions.size());
+			assertEquals(alive, aliveActions.get(0));
+		}
+	}
+	
+	/** Test that actions deleted with their group are no longer found alive. */
+	public void testGetAliveActionsAfterGroupDeleted() throws DuplicateKeyException {
+		Group group = new Group(new Group(null, null), "forwardees");
+		this.groupDao.saveGroup(group);
+		KeywordAction action = KeywordAction.createForwardAction(this.testKeyword, group, "forwarded", 1000L, 2000L);
+		this.keywordActionDao.saveKeywordAction(action);
+		assertEquals(1, this.keywordActionDao.getAliveActions(this.testKeyword, 1500L).size());
+		
+		this.groupDao.deleteGroup(group, false);
+		assertEquals(0, this.keywordActionDao.getAliveActions(this.testKeyword, 1500L).size());
+	}
+	
 	public void testKeywordActionsIncrementCount() {
 		final long startDate = 14343274L;
 		final long endDate = 21340345L;
@@ -95,6 +153,96 @@ public class HibernateKeywordActionDaoTest extends HibernateTestCase {
 		assertEquals(randomIncrements + 1, this.keywordActionDao.getActions(this.testKeyword).get(0).getCounter());
 	}
 	
+	/** Test that counted executions are written to the database, and are not overwritten when an action is updated. */
+	public void testFlushCounters() {
+		HibernateKeywordActionDao dao = (HibernateKeywordActionDao) this.keywordActionDao;
+		KeywordAction action = KeywordAction.createReplyAction(this.testKeyword, "some reply text", 14343274L, 21340345L);
+		dao.saveKeywordAction(action);
+		KeywordAction staleCopy = dao.getActions(this.testKeyword).get(0);
+		
+		for (int i = 0; i < 3; i++) {
+			dao.incrementCounter(action);
+		}
+		dao.flushCounters();
+		assertEquals(3, dao.getActions(this.testKeyword).get(0).getCounter());
+		
+		// Flushing again should not add the same executions twice
+		dao.incrementCounter(action);
+		dao.flushCounters();
+		dao.flushCounters();
+		assertEquals(4, dao.getActions(this.testKeyword).get(0).getCounter());
+		
+		// Updating an action with an out-of-date counter should not change the counter in the database
+		staleCopy.setEndDate(21340346L);
+		dao.updateKeywordAction(staleCopy);
+		assertEquals(4, dao.getActions(this.testKeyword).get(0).getCounter());
+	}
+	
+	/** Test that when a flush fails part way through, only the executions which were not written remain pending. */
+	public void testFlushCountersFailure() {
+		HibernateKeywordActionDao dao = (HibernateKeywordActionDao) this.keywordActionDao;
+		KeywordAction action = KeywordAction.createReplyAction(this.testKeyword, "some reply text", 14343274L, 21340345L);
+		KeywordAction action2 = KeywordAction.createReplyAction(this.testKeyword2, "some reply text 2", 14343274L, 21340345L);
+		dao.saveKeywordAction(action);
+		dao.saveKeywordAction(action2);
+		
+		// DAO whose second counter update fails
+		HibernateKeywordActionDao failingDao = new HibernateKeywordActionDao() {
+			private int updateCount;
+			@Override
+			void updateCounter(Query query, Long actionId, int delta) {
+				if(++updateCount == 2) throw new HibernateException("Simulated failure");
+				super.updateCounter(query, actionId, delta);
+			}
+		};
+		failingDao.setSessionFactory(dao.getSessionFactory());
+		try {
+			failingDao.incrementCounter(action);
+			failingDao.incrementCounter(action);
+			failingDao.incrementCounter(action2);
+			
+			failingDao.flushCounters();
+			int counter = dao.getActions(this.testKeyword).get(0).getCounter();
+			int counter2 = dao.getActions(this.testKeyword2).get(0).getCounter();
+			assertTrue("Only one action's counter should have been written", (counter == 2 && counter2 == 0) || (counter == 0 && counter2 == 1));
+			
+			// The written executions should not be written again
+			failingDao.flushCounters();
+			assertEquals(2, dao.getActions(this.testKeyword).get(0).getCounter());
+			assertEquals(1, dao.getActions(this.testKeyword2).get(0).getCounter());
+		} finally {
+			failingDao.destroy();
+		}
+	}
+	
+	/** Test that executions counted on several threads at once are all written to the database. */
+	public void testConcurrentIncrementCounter() throws InterruptedException {
+		final HibernateKeywordActionDao dao = (HibernateKeywordActionDao) this.keywordActionDao;
+		final KeywordAction action = KeywordAction.createReplyAction(this.testKeyword, "some reply text", 14343274L, 21340345L);
+		dao.saveKeywordAction(action);
+		
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						dao.incrementCounter(action);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertEquals(4000, action.getCounter());
+		dao.flushCounters();
+		dao.flushCounters();
+		assertEquals(4000, dao.getActions(this.testKeyword).get(0).getCounter());
+	}
+	
 //> INIT METHODS
 	@Override
 	protected void onSetUp() throws Exception {
@@ -118,4 +266,9 @@ public class HibernateKeywordActionDaoTest extends HibernateTestCase {
 	public void setKeywordDao(KeywordDao d) {
 		this.keywordDao = d;
 	}
+	/** @param d The DAO to use for the test. */
+	@Required
+	public void setGroupDao(GroupDao d) {
+		this.groupDao = d;
+	}
 }
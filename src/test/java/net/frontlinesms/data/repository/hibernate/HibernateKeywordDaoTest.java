@@ -179,6 +179,28 @@ public class HibernateKeywordDaoTest extends HibernateTestCase {
 		testKeywordMatching(blankKeyword, "my one two three is a four five six");
 	}
 	
+	/**
+	 * Test that keywords added, deleted and re-added after the first match are reflected in matching.
+	 * @throws DuplicateKeyException if there was a problem creating a keyword required by this test
+	 */
+	public void testKeywordMatchingAfterChanges() throws DuplicateKeyException {
+		testKeywordMatching(blankKeyword, "later keyword");
+		
+		Keyword later = new Keyword("later", "");
+		dao.saveKeyword(later);
+		testKeywordMatching(later, "later keyword");
+		
+		Keyword laterKeyword = new Keyword("later keyword", "");
+		dao.saveKeyword(laterKeyword);
+		testKeywordMatching(laterKeyword, "later keyword");
+		
+		dao.deleteKeyword(laterKeyword);
+		testKeywordMatching(later, "later keyword");
+		
+		dao.deleteKeyword(later);
+		testKeywordMatching(blankKeyword, "later keyword");
+	}
+	
 	private void testKeywordMatching(Keyword expectedKeyword, String messageText) {
 		Keyword fetchedKeyword = dao.getFromMessageText(messageText);
 		assertEquals("Incorrect keyword retrieved for message text: '" + messageText + "'", expectedKeyword, fetchedKeyword);
@@ -74,32 +74,130 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		assertEquals(0, dao.getSMSCount(startTime, Long.MAX_VALUE));
 	}
 	
-	public void testGetSimilarKeywords() throws DuplicateKeyException {
-		// Create a number of keywords and messages, and perform queries over them
-		createKeywords("", "te", "test", "test complex", "test other complex", "test complex again", "distraction", "another distraction");
-		testGetSimilarKeywords("", "te", "test", "test complex", "test other complex", "test complex again", "distraction", "another distraction");
-		testGetSimilarKeywords("te");
-		testGetSimilarKeywords("test", "test complex", "test other complex", "test complex again");
-		testGetSimilarKeywords("test complex", "test complex again");
-		testGetSimilarKeywords("test other complex");
-		testGetSimilarKeywords("test complex again");
-		testGetSimilarKeywords("distraction");
-		testGetSimilarKeywords("another distraction");
+	/**
+	 * Test that messages are tagged with the keyword they match when they are saved.
+	 * @throws DuplicateKeyException
+	 */
+	public void testKeywordTaggedOnSave() throws DuplicateKeyException {
+		createKeywords("", "test", "test complex");
+		
+		FrontlineMessage m = FrontlineMessage.createIncomingMessage(0, ARTHUR, BERNADETTE, "Test complex message");
+		dao.saveMessage(m);
+		assertEquals(keywordDao.getKeyword("TEST COMPLEX"), m.getKeyword());
+		
+		m = FrontlineMessage.createIncomingMessage(0, ARTHUR, BERNADETTE, "no keyword here");
+		dao.saveMessage(m);
+		assertEquals(keywordDao.getKeyword(""), m.getKeyword());
+		
+		m = FrontlineMessage.createBinaryIncomingMessage(0, ARTHUR, BERNADETTE, -1, new byte[]{1, 2, 3});
+		dao.saveMessage(m);
+		assertNull("Binary messages should not be tagged.", m.getKeyword());
+	}
+	
+	/**
+	 * Test that {@link MessageDao#saveMessages(java.util.Collection)} saves and tags all of the messages.
+	 * @throws DuplicateKeyException
+	 */
+	public void testSaveMessages() throws DuplicateKeyException {
+		createKeywords("test");
+		
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		for (int i = 0; i < 120; i++) {
+			messages.add(FrontlineMessage.createOutgoingMessage(DATE_2000, ARTHUR, BERNADETTE + i, (i % 2 == 0 ? "test " : "other ") + i));
+		}
+		dao.saveMessages(messages);
+		
+		assertEquals(120, dao.getMessageCount(Type.OUTBOUND, 0l, Long.MAX_VALUE));
+		assertEquals(60, dao.getMessagesForKeyword(Type.OUTBOUND, new Keyword("test", "")).size());
+		assertEquals(keywordDao.getKeyword("TEST"), messages.get(0).getKeyword());
 	}
 	
-	private void testGetSimilarKeywords(String keyword, String... expectedMatches) {
-		HibernateMessageDao dao = (HibernateMessageDao) this.dao;
+	/**
+	 * Test {@link MessageDao#tagUntaggedMessages(long, int)} tags messages which were saved before their keyword existed.
+	 * @throws DuplicateKeyException
+	 */
+	public void testTagUntaggedMessages() throws DuplicateKeyException {
+		createMessages("first", "second", "first again", "third");
+		assertEquals(0, dao.getMessageCount(Type.ALL, new Keyword("first", ""), null, null));
+		
+		createKeywords("first", "second");
 		
-		// Convert expectedMathches to upper case
-		for (int i = 0; i < expectedMatches.length; i++) {
-			expectedMatches[i] = expectedMatches[i].toUpperCase();
+		// Tag in batches smaller than the number of messages
+		long lastId = 0;
+		int batchCount = 0;
+		while((lastId = dao.tagUntaggedMessages(lastId, 3)) >= 0) {
+			++batchCount;
 		}
+		assertEquals(3, batchCount);
+		
+		testGetMessagesForKeyword("first", 2);
+		testGetMessagesForKeyword("second", 1);
+	}
+	
+	/**
+	 * Test that deleting a keyword re-tags its messages with the longest keyword that it extends.
+	 * @throws DuplicateKeyException
+	 */
+	public void testKeywordDeletionRetagsMessages() throws DuplicateKeyException {
+		createKeywords("", "test", "test complex", "other");
+		createMessages("test complex message", "test message", "other message");
+		testGetMessagesForKeyword("test complex", 1);
+		testGetMessagesForKeyword("test", 1);
+		
+		keywordDao.deleteKeyword(keywordDao.getKeyword("TEST COMPLEX"));
+		testGetMessagesForKeyword("test", 2);
+		
+		keywordDao.deleteKeyword(keywordDao.getKeyword("OTHER"));
+		testGetMessagesForKeyword("", 1);
+		
+		// With no shorter keyword, messages are left untagged
+		assertEquals(-1, dao.tagUntaggedMessages(0, 10));
+		keywordDao.deleteKeyword(keywordDao.getKeyword(""));
+		assertTrue(dao.tagUntaggedMessages(0, 10) >= 0);
+	}
+	
+	/**
+	 * Test that messages tagged with the blank keyword or a shorter keyword are re-tagged when a new keyword is created.
+	 * @throws DuplicateKeyException
+	 */
+	public void testRetagMessagesForKeyword() throws DuplicateKeyException {
+		createKeywords("", "one");
+		createMessages("one", "one a", "One A thing", "one ab", "  two", "two three", "a one a");
+		testGetMessagesForKeyword("one", 4);
+		testGetMessagesForKeyword("", 3);
 		
-		List<String> actualMatches = dao.getSimilarKeywords(new Keyword(keyword, "test keyword: trying to get similar."));
-		assertEquals("Unexpected results for keyword '" + keyword + "'",
-				expectedMatches.length, actualMatches.size());
+		createKeywords("one a", "two");
+		retagMessagesForKeyword("one a");
+		retagMessagesForKeyword("two");
+		testGetMessagesForKeyword("one", 2);
+		testGetMessagesForKeyword("one a", 2);
+		testGetMessagesForKeyword("two", 2);
+		testGetMessagesForKeyword("", 1);
 		
-		assertEqualsIgnoreOrder(keyword, expectedMatches, actualMatches);
+		assertEquals(Arrays.asList("", "ONE", "ONE TWO"), HibernateMessageDao.getShorterKeywords("ONE TWO THREE"));
+	}
+	
+	/**
+	 * Test that untagged messages are tagged when a keyword they match is created.
+	 * @throws DuplicateKeyException
+	 */
+	public void testRetagUntaggedMessagesForKeyword() throws DuplicateKeyException {
+		// Without a blank keyword, messages which match no keyword are left untagged
+		createMessages("foo bar", "other");
+		testGetMessagesForKeyword("foo", 0);
+		
+		createKeywords("foo");
+		retagMessagesForKeyword("foo");
+		testGetMessagesForKeyword("foo", 1);
+	}
+	
+	private void retagMessagesForKeyword(String keyword) {
+		long lastId = 0;
+		int batchCount = 0;
+		while((lastId = dao.retagMessagesForKeyword(keywordDao.getKeyword(keyword.toUpperCase()), lastId, 1)) >= 0) {
+			++batchCount;
+		}
+		assertTrue(batchCount > 0);
 	}
 	
 	public void testGetMessagesForKeywordWithParameters() throws DuplicateKeyException {
@@ -380,12 +478,4 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		c.set(Calendar.YEAR, year);
 		return c.getTimeInMillis();
 	}
-	
-	static final <T> void assertEqualsIgnoreOrder(String keyword, T[] expected, List<T> actual) {
-		List<T> tempActual = new ArrayList<T>(actual);
-		assertEquals("Incorrect object count for " + keyword, expected.length, actual.size());
-		for (int i = 0; i < expected.length; i++) {
-			assertTrue("Unexpected keyword match for '" + keyword + "' at index: " + i, tempActual.remove(expected[i]));
-		}
-	}
 }
@@ -3,6 +3,8 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.List;
+
 import net.frontlinesms.junit.HibernateTestCase;
 
 import net.frontlinesms.data.domain.SmsModemSettings;
@@ -61,6 +63,36 @@ public class HibernateSmsModemSettingsDaoTest extends HibernateTestCase {
 		assertEquals(expectedSettingsCount, dao.getCount());
 	}
 	
+	/**
+	 * Test saving connection details, and fetching settings by the port they were last connected to.
+	 */
+	public void testConnectionDetails() {
+		SmsModemSettings settingsOne = new SmsModemSettings(SERIAL_ONE, "Manufacturer", "Model", true, false, true, false);
+		dao.saveSmsModemSettings(settingsOne);
+		SmsModemSettings settingsTwo = new SmsModemSettings(SERIAL_TWO, "Manufacturer", "Model", true, false, true, false);
+		dao.saveSmsModemSettings(settingsTwo);
+		
+		assertEquals(0, dao.getSmsModemSettingsForPort("COM1").size());
+		assertEquals(0, settingsOne.getBaudRate());
+		
+		settingsOne.setConnectionDetails("COM1", 115200, "Wavecom", "123456789012345");
+		dao.updateSmsModemSettings(settingsOne);
+		settingsTwo.setConnectionDetails("COM2", 9600, null, null);
+		dao.updateSmsModemSettings(settingsTwo);
+		
+		List<SmsModemSettings> fetched = dao.getSmsModemSettingsForPort("COM1");
+		assertEquals(1, fetched.size());
+		assertEquals(SERIAL_ONE, fetched.get(0).getSerial());
+		assertEquals(115200, fetched.get(0).getBaudRate());
+		assertEquals("Wavecom", fetched.get(0).getCatHandler());
+		assertEquals("123456789012345", fetched.get(0).getImsi());
+		
+		settingsOne.clearPort();
+		dao.updateSmsModemSettings(settingsOne);
+		assertEquals(0, dao.getSmsModemSettingsForPort("COM1").size());
+		assertEquals(1, dao.getSmsModemSettingsForPort("COM2").size());
+	}
+	
 //> ACCESSORS
 	/** @param d The DAO to use for the test. */
 	@Required
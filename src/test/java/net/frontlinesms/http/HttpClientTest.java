@@ -0,0 +1,361 @@
+/**
+ *
+ */
+package net.frontlinesms.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Tests for {@link HttpClient}, including a comparison of its throughput against a local stub HTTP server
+ * with that of opening a new connection for every request.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class HttpClientTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Number of threads making requests concurrently in {@link #testThroughput()} */
+	private static final int THREAD_COUNT = 4;
+	/** Number of requests each thread makes in {@link #testThroughput()} */
+	private static final int REQUESTS_PER_THREAD = 250;
+
+//> INSTANCE PROPERTIES
+	/** Logging object */
+	private final Log log = LogFactory.getLog(getClass());
+	/** Stub server requests are made to */
+	private StubHttpServer server;
+
+//> TEST SETUP/TEARDOWN
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.server = new StubHttpServer();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.close();
+		super.tearDown();
+	}
+
+//> TEST METHODS
+	/** Test that sequential requests to the same host reuse a single connection. */
+	public void testConnectionReuse() throws IOException {
+		HttpClient client = new HttpClient(2, 5000, 5000);
+		for(int i=0; i<20; ++i) {
+			assertEquals("OK /test" + i, client.get(server.getUrl("/test" + i)).getBodyAsString());
+		}
+		assertEquals(20, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	/** Test that request bodies are posted and that a response which is closed without being read does not prevent reuse. */
+	public void testPostAndUnreadBody() throws IOException {
+		HttpClient client = new HttpClient(2, 5000, 5000);
+		HttpResponse response = client.post(server.getUrl("/echo"), "text/plain", "hello");
+		assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+		assertEquals("hello", response.getBodyAsString());
+
+		client.get(server.getUrl("/unread")).close();
+		assertEquals("OK /after", client.get(server.getUrl("/after")).getBodyAsString());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	/** Test that error responses are reported, and that their connections are still reused. */
+	public void testErrorResponse() throws IOException {
+		HttpClient client = new HttpClient(2, 5000, 5000);
+		HttpResponse response = client.get(server.getUrl("/error"));
+		assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, response.getStatusCode());
+		assertFalse(response.isSuccess());
+		try {
+			response.throwIfError();
+			fail("Error response should have thrown an exception.");
+		} catch(IOException ex) { /* expected */ }
+
+		assertEquals("OK /after", client.get(server.getUrl("/after")).getBodyAsString());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	/** Test that a request can be aborted while it is waiting for the response headers. */
+	public void testAbortBeforeResponse() throws Exception {
+		HttpClient client = new HttpClient(2, 5000, 10000);
+		final HttpRequestHandle handle = new HttpRequestHandle();
+		Thread aborter = new Thread() {
+			public void run() {
+				try { Thread.sleep(200); } catch(InterruptedException ex) {}
+				handle.abort();
+			}
+		};
+		aborter.start();
+		long start = System.currentTimeMillis();
+		try {
+			client.get(server.getUrl("/slow?delay=5000"), 10000, handle).close();
+			fail("Aborted request should have thrown an exception.");
+		} catch(IOException ex) { /* expected */ }
+		assertTrue(System.currentTimeMillis() - start < 4000);
+		aborter.join();
+		assertTrue(handle.isAborted());
+
+		// A request aborted before it is made should not be made at all
+		try {
+			client.get(server.getUrl("/never"), 10000, handle);
+			fail("Aborted request should have thrown an exception.");
+		} catch(IOException ex) { /* expected */ }
+
+		// The permits of the aborted requests should have been released
+		assertEquals("OK /after", client.get(server.getUrl("/after")).getBodyAsString());
+		assertEquals("OK /after", client.get(server.getUrl("/after")).getBodyAsString());
+	}
+
+	/** Test that the read timeout can be set for a single request. */
+	public void testRequestReadTimeout() throws Exception {
+		HttpClient client = new HttpClient(2, 5000, 10000);
+		long start = System.currentTimeMillis();
+		try {
+			client.get(server.getUrl("/slow?delay=5000"), 200, new HttpRequestHandle()).close();
+			fail("Request should have timed out.");
+		} catch(IOException ex) { /* expected */ }
+		assertTrue(System.currentTimeMillis() - start < 4000);
+	}
+
+	/** Test that no more than the per-host limit of requests are in progress at once. */
+	public void testConcurrencyLimit() throws Exception {
+		final HttpClient client = new HttpClient(2, 5000, 5000);
+		runRequests(new RequestMaker() {
+			public void makeRequest(String url) throws IOException {
+				client.get(url + "?delay=20").close();
+			}
+		}, 6, 3);
+		assertEquals(18, server.getRequestCount());
+		assertTrue("Too many concurrent requests: " + server.getPeakConcurrentRequests(), server.getPeakConcurrentRequests() <= 2);
+	}
+
+	/**
+	 * Measure the throughput of concurrent requests to the stub server through the {@link HttpClient}, and
+	 * through a new connection for each request.
+	 */
+	public void testThroughput() throws Exception {
+		final HttpClient client = new HttpClient(THREAD_COUNT, 5000, 5000);
+		int totalRequests = THREAD_COUNT * REQUESTS_PER_THREAD;
+
+		long pooledDuration = runRequests(new RequestMaker() {
+			public void makeRequest(String url) throws IOException {
+				client.get(url).getBodyAsString();
+			}
+		}, THREAD_COUNT, REQUESTS_PER_THREAD);
+		int pooledConnections = server.getConnectionCount();
+
+		long unpooledDuration = runRequests(new RequestMaker() {
+			public void makeRequest(String url) throws IOException {
+				HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+				connection.setRequestProperty("Connection", "close");
+				InputStream in = connection.getInputStream();
+				while(in.read() != -1) {}
+				in.close();
+			}
+		}, THREAD_COUNT, REQUESTS_PER_THREAD);
+		int unpooledConnections = server.getConnectionCount() - pooledConnections;
+
+		log.info("Pooled: " + totalRequests + " requests in " + pooledDuration + "ms ("
+				+ (totalRequests * 1000L / pooledDuration) + " requests/s) over " + pooledConnections + " connections");
+		log.info("Unpooled: " + totalRequests + " requests in " + unpooledDuration + "ms ("
+				+ (totalRequests * 1000L / unpooledDuration) + " requests/s) over " + unpooledConnections + " connections");
+		assertEquals(2 * totalRequests, server.getRequestCount());
+		assertTrue("Pooled requests used " + pooledConnections + " connections.", pooledConnections < totalRequests / 10);
+		assertTrue("Unpooled requests used " + unpooledConnections + " connections.", unpooledConnections > totalRequests / 2);
+	}
+
+//> TEST HELPER METHODS
+	/**
+	 * Makes requests to the stub server from several threads at once.
+	 * @return the time taken, in milliseconds
+	 */
+	private long runRequests(final RequestMaker requestMaker, int threadCount, final int requestsPerThread) throws Exception {
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<threadCount; ++i) {
+			final int threadIndex = i;
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						for(int r=0; r<requestsPerThread; ++r) {
+							requestMaker.makeRequest(server.getUrl("/thread" + threadIndex + "/" + r));
+						}
+					} catch(Throwable t) {
+						synchronized(failures) { failures.add(t); }
+					}
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		for(Thread t : threads) t.start();
+		for(Thread t : threads) t.join();
+		long duration = Math.max(1, System.currentTimeMillis() - start);
+		if(!failures.isEmpty()) {
+			throw new Exception("Request failed.", failures.get(0));
+		}
+		return duration;
+	}
+
+//> INNER CLASSES
+	/** Makes a single request in {@link HttpClientTest#runRequests(RequestMaker, int, int)} */
+	private interface RequestMaker {
+		void makeRequest(String url) throws IOException;
+	}
+
+	/**
+	 * Minimal HTTP/1.1 server which supports keep-alive.  It responds to <code>/echo</code> with the request body,
+	 * to <code>/error</code> with a 500 error, and to anything else with "OK" and the request path.  A
+	 * <code>delay</code> query parameter makes it wait that many milliseconds before responding.
+	 */
+	private static class StubHttpServer extends Thread {
+		/** Socket the server listens on */
+		private final ServerSocket serverSocket;
+		/** Connections accepted so far */
+		private final List<Socket> connections = new ArrayList<Socket>();
+		/** Number of requests handled */
+		private final AtomicInteger requestCount = new AtomicInteger();
+		/** Number of requests being handled */
+		private final AtomicInteger concurrentRequests = new AtomicInteger();
+		/** Highest value seen of {@link #concurrentRequests} */
+		private final AtomicInteger peakConcurrentRequests = new AtomicInteger();
+
+		StubHttpServer() throws IOException {
+			super("Stub HTTP server");
+			this.serverSocket = new ServerSocket(0);
+			setDaemon(true);
+			start();
+		}
+
+		String getUrl(String path) {
+			return "http://localhost:" + serverSocket.getLocalPort() + path;
+		}
+
+		synchronized int getConnectionCount() {
+			return connections.size();
+		}
+
+		int getRequestCount() {
+			return requestCount.get();
+		}
+
+		int getPeakConcurrentRequests() {
+			return peakConcurrentRequests.get();
+		}
+
+		public void run() {
+			try {
+				while(true) {
+					final Socket socket = serverSocket.accept();
+					socket.setTcpNoDelay(true);
+					synchronized(this) { connections.add(socket); }
+					Thread handler = new Thread("Stub HTTP connection") {
+						public void run() {
+							try {
+								while(handleRequest(socket)) {}
+							} catch(IOException ex) {
+								// Connection closed
+							} finally {
+								try { socket.close(); } catch(IOException ex) {}
+							}
+						}
+					};
+					handler.setDaemon(true);
+					handler.start();
+				}
+			} catch(IOException ex) {
+				// Server closed
+			}
+		}
+
+		/** @return <code>true</code> if the connection should be kept alive for another request */
+		private boolean handleRequest(Socket socket) throws IOException {
+			InputStream in = socket.getInputStream();
+			String requestLine = readLine(in);
+			if(requestLine == null || requestLine.length() == 0) return false;
+			int contentLength = 0;
+			boolean keepAlive = true;
+			String header;
+			while((header = readLine(in)) != null && header.length() > 0) {
+				String lower = header.toLowerCase();
+				if(lower.startsWith("content-length:")) contentLength = Integer.parseInt(header.substring(15).trim());
+				else if(lower.equals("connection: close")) keepAlive = false;
+			}
+			byte[] requestBody = new byte[contentLength];
+			for(int read=0; read<contentLength; ) {
+				int r = in.read(requestBody, read, contentLength - read);
+				if(r == -1) return false;
+				read += r;
+			}
+
+			requestCount.incrementAndGet();
+			int concurrent = concurrentRequests.incrementAndGet();
+			while(true) {
+				int peak = peakConcurrentRequests.get();
+				if(concurrent <= peak || peakConcurrentRequests.compareAndSet(peak, concurrent)) break;
+			}
+			try {
+				String path = requestLine.split(" ")[1];
+				int query = path.indexOf("?delay=");
+				if(query != -1) {
+					try { Thread.sleep(Long.parseLong(path.substring(query + 7))); } catch(InterruptedException ex) {}
+					path = path.substring(0, query);
+				}
+				int status = 200;
+				byte[] body;
+				if(path.equals("/echo")) body = requestBody;
+				else if(path.equals("/error")) { status = 500; body = "Error".getBytes("UTF-8"); }
+				else if(path.equals("/unread")) body = new byte[4096];
+				else body = ("OK " + path).getBytes("UTF-8");
+
+				// Write the whole response at once, so that it is not delayed waiting for an ACK of the headers
+				ByteArrayOutputStream response = new ByteArrayOutputStream();
+				response.write(("HTTP/1.1 " + status + (status == 200 ? " OK" : " Error") + "\r\n"
+						+ "Content-Type: text/plain; charset=UTF-8\r\n"
+						+ "Content-Length: " + body.length + "\r\n"
+						+ (keepAlive ? "" : "Connection: close\r\n")
+						+ "\r\n").getBytes("UTF-8"));
+				response.write(body);
+				OutputStream out = socket.getOutputStream();
+				response.writeTo(out);
+				out.flush();
+			} finally {
+				concurrentRequests.decrementAndGet();
+			}
+			return keepAlive;
+		}
+
+		/** @return the next CRLF-terminated line, or <code>null</code> at the end of the stream */
+		private static String readLine(InputStream in) throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while((b = in.read()) != '\n') {
+				if(b == -1) return line.size() == 0 ? null : line.toString("UTF-8");
+				if(b != '\r') line.write(b);
+			}
+			return line.toString("UTF-8");
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+			synchronized(this) {
+				for(Socket socket : connections) {
+					socket.close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link ExternalCommandExecutor}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ExternalCommandExecutorTest extends BaseTestCase {
+	/** Instance of the class under test */
+	private ExternalCommandExecutor executor;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(executor != null) {
+			executor.shutdown();
+		}
+		super.tearDown();
+	}
+
+//> TEST METHODS
+	/** A command which does not finish in time should be aborted, without holding up other commands. */
+	public void testTimeout() throws InterruptedException {
+		executor = new ExternalCommandExecutor(2, 10, 1, 200);
+		BlockingCommand hung = new BlockingCommand();
+		BlockingCommand quick = new BlockingCommand();
+		quick.release.countDown();
+
+		assertTrue(executor.execute("hung", hung));
+		assertTrue(executor.execute("quick", quick));
+		assertTrue(quick.finished.await(1, TimeUnit.SECONDS));
+		assertTrue(hung.finished.await(5, TimeUnit.SECONDS));
+		assertTrue(hung.aborted);
+
+		waitForIdle();
+		assertEquals(1, executor.getTimedOutCount());
+		assertEquals(1, executor.getCompletedCount());
+		assertEquals(0, executor.getFailedCount());
+	}
+
+	/** No more than the per-key limit of commands with the same key should run at once, and waiting commands should be counted as queued. */
+	public void testKeyConcurrencyLimit() throws InterruptedException {
+		executor = new ExternalCommandExecutor(4, 10, 1, 10000);
+		BlockingCommand first = new BlockingCommand();
+		BlockingCommand second = new BlockingCommand();
+		second.release.countDown();
+		BlockingCommand other = new BlockingCommand();
+		other.release.countDown();
+
+		executor.execute("key", first);
+		executor.execute("key", second);
+		executor.execute("other", other);
+
+		assertTrue(first.started.await(1, TimeUnit.SECONDS));
+		assertTrue(other.finished.await(1, TimeUnit.SECONDS));
+		assertFalse(second.started.await(100, TimeUnit.MILLISECONDS));
+		waitForCounts(1, 1);
+
+		first.release.countDown();
+		assertTrue(second.finished.await(1, TimeUnit.SECONDS));
+		waitForIdle();
+		assertEquals(3, executor.getCompletedCount());
+		assertEquals(0, executor.getQueuedCount());
+	}
+
+	/** Commands should be rejected rather than blocking the caller when too many are waiting. */
+	public void testRejection() {
+		executor = new ExternalCommandExecutor(1, 2, 1, 10000);
+		BlockingCommand running = new BlockingCommand();
+		assertTrue(executor.execute("key", running));
+		assertTrue(executor.execute("key", new BlockingCommand()));
+		assertTrue(executor.execute("key", new BlockingCommand()));
+		assertFalse(executor.execute("key", new BlockingCommand()));
+		assertEquals(1, executor.getRejectedCount());
+		running.release.countDown();
+	}
+
+	/** A command which throws an exception should be counted as failed. */
+	public void testFailure() throws InterruptedException {
+		executor = new ExternalCommandExecutor(1, 10, 1, 10000);
+		final AtomicInteger attempts = new AtomicInteger();
+		final CountDownLatch failed = new CountDownLatch(1);
+		executor.execute("key", new ExternalCommandExecutor.Command() {
+			public void execute() throws Exception {
+				attempts.incrementAndGet();
+				failed.countDown();
+				throw new Exception("Expected failure");
+			}
+			public void abort() {}
+		});
+		assertTrue(failed.await(1, TimeUnit.SECONDS));
+		waitForIdle();
+		assertEquals(1, attempts.get());
+		assertEquals(1, executor.getFailedCount());
+	}
+
+	/** Background processes should be reaped once they exit, and destroyed if they run for too long. */
+	public void testReap() throws InterruptedException {
+		executor = new ExternalCommandExecutor(1, 10, 1, 500);
+		FakeProcess quick = new FakeProcess("some output");
+		FakeProcess hung = new FakeProcess("");
+		executor.reap(quick, "quick");
+		executor.reap(hung, "hung");
+		
+		quick.exit(0);
+		waitForBackgroundProcesses(1);
+		assertFalse(quick.destroyed);
+		assertEquals(0, executor.getTimedOutCount());
+		
+		waitForBackgroundProcesses(0);
+		assertTrue(hung.destroyed);
+		assertEquals(1, executor.getTimedOutCount());
+		
+		// The reaper should be restarted for processes started later
+		FakeProcess later = new FakeProcess("");
+		executor.reap(later, "later");
+		later.exit(0);
+		waitForBackgroundProcesses(0);
+		assertFalse(later.destroyed);
+	}
+
+//> PRIVATE HELPER METHODS
+	/** Waits until the executor is reaping the expected number of background processes. */
+	private void waitForBackgroundProcesses(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while(executor.getBackgroundProcessCount() != count) {
+			assertTrue("Expected " + count + " background processes, but was " + executor.getBackgroundProcessCount(),
+					System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+	
+	/** Waits until the executor has no running or queued commands. */
+	private void waitForIdle() throws InterruptedException {
+		waitForCounts(0, 0);
+	}
+
+	/** Waits until the executor has the expected numbers of running and queued commands. */
+	private void waitForCounts(int running, int queued) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while(executor.getRunningCount() != running || executor.getQueuedCount() != queued) {
+			assertTrue("Expected running=" + running + ", queued=" + queued +
+					", but was running=" + executor.getRunningCount() + ", queued=" + executor.getQueuedCount(),
+					System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+//> INNER CLASSES
+	/** Process which produces fixed output, and runs until it is told to exit or is destroyed. */
+	private static class FakeProcess extends Process {
+		/** The output of the process */
+		private final InputStream output;
+		/** The exit value of the process, or <code>null</code> if it is still running */
+		private volatile Integer exitValue;
+		/** Set <code>true</code> if {@link #destroy()} was called */
+		private volatile boolean destroyed;
+
+		/** @param output the output of the process */
+		FakeProcess(String output) {
+			this.output = new ByteArrayInputStream(output.getBytes());
+		}
+
+		/** Makes the process exit. */
+		void exit(int exitValue) {
+			this.exitValue = exitValue;
+		}
+
+		public OutputStream getOutputStream() {
+			return new ByteArrayOutputStream();
+		}
+
+		public InputStream getInputStream() {
+			return output;
+		}
+
+		public InputStream getErrorStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		public int waitFor() {
+			throw new UnsupportedOperationException();
+		}
+
+		public int exitValue() {
+			Integer exitValue = this.exitValue;
+			if(exitValue == null) throw new IllegalThreadStateException("Process has not exited");
+			return exitValue;
+		}
+
+		public void destroy() {
+			destroyed = true;
+			exitValue = 1;
+		}
+	}
+
+	/** Command which blocks until it is released or aborted. */
+	private static class BlockingCommand implements ExternalCommandExecutor.Command {
+		/** Counted down when the command starts */
+		private final CountDownLatch started = new CountDownLatch(1);
+		/** Counted down to let the command finish */
+		private final CountDownLatch release = new CountDownLatch(1);
+		/** Counted down when the command finishes */
+		private final CountDownLatch finished = new CountDownLatch(1);
+		/** Set <code>true</code> if {@link #abort()} was called */
+		private volatile boolean aborted;
+
+		public void execute() throws InterruptedException {
+			started.countDown();
+			try {
+				release.await();
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		public void abort() {
+			aborted = true;
+			release.countDown();
+		}
+	}
+}
@@ -6,6 +6,9 @@ package net.frontlinesms.messaging;
 import static org.mockito.Mockito.*;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -17,6 +20,8 @@ import net.frontlinesms.data.domain.Group;
 import net.frontlinesms.data.domain.Keyword;
 import net.frontlinesms.data.domain.KeywordAction;
 import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
+import net.frontlinesms.data.repository.GroupMembershipDao;
 import net.frontlinesms.data.repository.ContactDao;
 import net.frontlinesms.data.repository.KeywordActionDao;
 import net.frontlinesms.data.repository.KeywordDao;
@@ -38,6 +43,7 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 	private MessageDao messageDao;
 	private KeywordDao keywordDao;
 	private KeywordActionDao keywordActionDao;
+	private GroupMembershipDao groupMembershipDao;
 	
 	private IncomingMessageProcessor imp;
 	private BlockingIncomingMessageEventListener bimel;
@@ -58,6 +64,8 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 		when(frontline.getKeywordDao()).thenReturn(keywordDao);
 		keywordActionDao = mock(KeywordActionDao.class);
 		when(frontline.getKeywordActionDao()).thenReturn(keywordActionDao);
+		groupMembershipDao = mock(GroupMembershipDao.class);
+		when(frontline.getGroupMembershipDao()).thenReturn(groupMembershipDao);
 		
 		imp = new IncomingMessageProcessor(frontline);
 		bimel = new BlockingIncomingMessageEventListener();
@@ -79,19 +87,19 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 		FrontlineMessage mockMessage = mock(FrontlineMessage.class);
 		Keyword mockKeyword = mock(Keyword.class);
 		
-		when(keywordDao.getFromMessageText(anyString())).thenReturn(mockKeyword);
+		when(mockMessage.getKeyword()).thenReturn(mockKeyword);
 
 		UIListener uiListener = mock(UIListener.class);
 		imp.setUiListener(uiListener);
 
 		KeywordAction goodAction1 = mockKeywordAction(true);
 		KeywordAction goodAction2 = mockKeywordAction(true);
-		KeywordAction deadAction = mockKeywordAction(false);
 		
 		KeywordAction badAction = mockKeywordAction(true);
 		when(badAction.getType()).thenReturn(KeywordAction.Type.REPLY);
 		
-		when(keywordActionDao.getActions(mockKeyword)).thenReturn(Arrays.asList(goodAction1, deadAction, badAction, goodAction2));
+		// Actions which are not alive are filtered out by the DAO
+		when(keywordActionDao.getAliveActions(eq(mockKeyword), anyLong())).thenReturn(Arrays.asList(goodAction1, badAction, goodAction2));
 		
 		imp.handleMessage(mockMessage);
 		verify(keywordActionDao).incrementCounter(goodAction1);
@@ -100,13 +108,39 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 		verify(keywordActionDao).incrementCounter(goodAction2);
 		verify(uiListener).keywordActionExecuted(goodAction2);
 		
-		verify(keywordActionDao, never()).incrementCounter(deadAction);
-		verify(uiListener, never()).keywordActionExecuted(deadAction);
-		
 		verify(keywordActionDao, never()).incrementCounter(badAction);
 		verify(uiListener, never()).keywordActionExecuted(badAction);
 	}
 	
+	/** Messages forwarded by a keyword action should be personalised for each recipient. */
+	public void testForwardActionIsPersonalised() {
+		Keyword mockKeyword = mock(Keyword.class);
+		when(mockKeyword.getKeyword()).thenReturn("FWD");
+		FrontlineMessage mockMessage = mock(FrontlineMessage.class);
+		when(mockMessage.getKeyword()).thenReturn(mockKeyword);
+		when(mockMessage.getSenderMsisdn()).thenReturn(TEST_ORIGINATOR);
+		when(mockMessage.getTextContent()).thenReturn("FWD hello");
+		
+		Group group = mock(Group.class);
+		KeywordAction forwardAction = mockKeywordAction(true);
+		when(forwardAction.getType()).thenReturn(KeywordAction.Type.FORWARD);
+		when(forwardAction.getKeyword()).thenReturn(mockKeyword);
+		when(forwardAction.getGroup()).thenReturn(group);
+		when(forwardAction.getUnformattedForwardText()).thenReturn("Forwarded");
+		when(keywordActionDao.getAliveActions(eq(mockKeyword), anyLong())).thenReturn(Arrays.asList(forwardAction));
+		
+		Contact member1 = mock(Contact.class);
+		when(member1.getPhoneNumber()).thenReturn("+111");
+		Contact member2 = mock(Contact.class);
+		when(member2.getPhoneNumber()).thenReturn("+222");
+		when(groupMembershipDao.getActiveMembers(group)).thenReturn(Arrays.asList(member1, member2));
+		
+		imp.handleMessage(mockMessage);
+		
+		List<String> recipients = Arrays.asList("+111", "+222");
+		verify(frontline).sendTextMessages(eq(recipients), eq("Forwarded"), eq(Priority.BULK), eq(true));
+	}
+	
 	private KeywordAction mockKeywordAction(boolean isAlive) {
 		KeywordAction action = mock(KeywordAction.class);
 		when(action.isAlive(anyLong())).thenReturn(isAlive);
@@ -170,6 +204,47 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 		return mess;
 	}
 	
+	/**
+	 * Verify that when incoming messages are spread across several workers, messages from a
+	 * single sender are still processed in the order in which they were queued.
+	 */
+	public void testPerSenderOrderingWithMultipleWorkers() {
+		IncomingMessageProcessor multiImp = new IncomingMessageProcessor(frontline, 4, 8);
+		BlockingIncomingMessageEventListener listener = new BlockingIncomingMessageEventListener();
+		multiImp.setUiListener(listener);
+		multiImp.start();
+		try {
+			String[] senders = { "+111", "+222", "+333", "+444", "+555" };
+			int messagesPerSender = 20;
+			SmsService receiver = mock(SmsService.class);
+			for(int i=0; i<messagesPerSender; ++i) {
+				for(String sender : senders) {
+					multiImp.queue(receiver, new CIncomingMessage(sender, Integer.toString(i)));
+				}
+			}
+			
+			Map<String, Integer> lastSeen = new HashMap<String, Integer>();
+			for(int i=0; i<senders.length * messagesPerSender; ++i) {
+				FrontlineMessage m = listener.getIncomingMessage();
+				int index = Integer.parseInt(m.getTextContent());
+				Integer previous = lastSeen.put(m.getSenderMsisdn(), index);
+				int expected = previous == null ? 0 : previous + 1;
+				assertEquals("Message from " + m.getSenderMsisdn() + " processed out of order.", expected, index);
+			}
+		} finally {
+			multiImp.die();
+		}
+	}
+	
+	public void testPartitionIsStablePerSender() {
+		IncomingMessageProcessor multiImp = new IncomingMessageProcessor(frontline, 4, 8);
+		assertEquals(4, multiImp.getWorkerCount());
+		assertEquals(0, multiImp.getPartition(null));
+		int partition = multiImp.getPartition(TEST_ORIGINATOR);
+		assertTrue(partition >= 0 && partition < 4);
+		assertEquals(partition, multiImp.getPartition(new String(TEST_ORIGINATOR)));
+	}
+	
 	/**
 	 * Receive a {@link CIncomingMessage}, and return the corresponding {@link FrontlineMessage} 
 	 * @param message
@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.ConcatenatedSmsBuffer.ReleasedMessage;
+
+import org.smslib.CIncomingMessage;
+
+/**
+ * Unit tests for {@link ConcatenatedSmsBuffer}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ConcatenatedSmsBufferTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Timeout used for the buffer under test */
+	private static final long TIMEOUT = 60 * 1000;
+	/** Originator of the test messages */
+	private static final String ORIGINATOR = "+447700900123";
+
+//> INSTANCE PROPERTIES
+	/** The buffer under test */
+	private ConcatenatedSmsBuffer buffer;
+	/** A device receiving parts */
+	private SmsService modem1;
+	/** Another device receiving parts */
+	private SmsService modem2;
+
+//> TEST SETUP/TEARDOWN
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		buffer = new ConcatenatedSmsBuffer(TIMEOUT, 5);
+		modem1 = mock(SmsService.class);
+		modem2 = mock(SmsService.class);
+	}
+
+//> TEST METHODS
+	/** Parts received out of order, and on different devices, should be joined into one message. */
+	public void testReassembly() {
+		assertEquals(0, buffer.add(modem1, part(ORIGINATOR, 7, 3, 3, "c"), 0).size());
+		assertEquals(0, buffer.add(modem2, part(ORIGINATOR, 7, 3, 1, "a"), 1000).size());
+		assertEquals(2, buffer.getHeldPartCount());
+
+		List<ReleasedMessage> released = buffer.add(modem2, part(ORIGINATOR, 7, 3, 2, "b"), 2000);
+		assertEquals(1, released.size());
+		CIncomingMessage message = released.get(0).getMessage();
+		assertFalse(message instanceof IncomingMessagePart);
+		assertEquals("abc", message.getText());
+		assertEquals(ORIGINATOR, message.getOriginator());
+		assertEquals(modem1, released.get(0).getReceiver());
+
+		assertEquals(0, buffer.getHeldPartCount());
+		assertEquals(1, buffer.getReassembledCount());
+		assertEquals(0, buffer.getOrphanedPartCount());
+	}
+
+	/** Binary parts should be joined into one binary message. */
+	public void testBinaryReassembly() {
+		buffer.add(modem1, new IncomingMessagePart(ORIGINATOR, new byte[]{1, 2}, 7, 2, 1), 0);
+		List<ReleasedMessage> released = buffer.add(modem1, new IncomingMessagePart(ORIGINATOR, new byte[]{3}, 7, 2, 2), 0);
+		assertEquals(1, released.size());
+		byte[] binary = released.get(0).getMessage().getBinary();
+		assertEquals(3, binary.length);
+		assertEquals(1, binary[0]);
+		assertEquals(3, binary[2]);
+	}
+
+	/** Parts are only joined if their originator, reference number and part count all match. */
+	public void testKey() {
+		buffer.add(modem1, part(ORIGINATOR, 7, 2, 1, "a"), 0);
+		assertEquals(0, buffer.add(modem1, part("+447700900999", 7, 2, 2, "b"), 0).size());
+		assertEquals(0, buffer.add(modem1, part(ORIGINATOR, 8, 2, 2, "b"), 0).size());
+		assertEquals(0, buffer.add(modem1, part(ORIGINATOR, 7, 3, 2, "b"), 0).size());
+		assertEquals(4, buffer.getHeldPartCount());
+		assertEquals(1, buffer.add(modem1, part(ORIGINATOR, 7, 2, 2, "b"), 0).size());
+	}
+
+	/** A part received twice should only be held once. */
+	public void testDuplicatePart() {
+		buffer.add(modem1, part(ORIGINATOR, 7, 2, 1, "a"), 0);
+		assertEquals(0, buffer.add(modem2, part(ORIGINATOR, 7, 2, 1, "a"), 0).size());
+		assertEquals(1, buffer.getHeldPartCount());
+		assertEquals(1, buffer.getDuplicatePartCount());
+	}
+
+	/** Messages which are not concatenated are released immediately. */
+	public void testSinglePart() {
+		List<ReleasedMessage> released = buffer.add(modem1, part(ORIGINATOR, 7, 1, 1, "a"), 0);
+		assertEquals(1, released.size());
+		assertEquals(0, buffer.getHeldPartCount());
+	}
+
+	/** Parts of a message should be passed on separately if the rest of the message is not received in time. */
+	public void testTimeout() {
+		buffer.add(modem1, part(ORIGINATOR, 1, 3, 2, "b"), 0);
+		buffer.add(modem1, part(ORIGINATOR, 1, 3, 1, "a"), 1000);
+		buffer.add(modem1, part(ORIGINATOR, 2, 2, 1, "x"), 2000);
+		assertEquals(0, buffer.flushExpired(TIMEOUT).size());
+
+		// The timeout is measured from the last part received for each message
+		List<ReleasedMessage> released = buffer.flushExpired(TIMEOUT + 1000);
+		assertEquals(2, released.size());
+		assertEquals("a", released.get(0).getMessage().getText());
+		assertEquals("b", released.get(1).getMessage().getText());
+		assertEquals(1, buffer.getHeldPartCount());
+		assertEquals(2, buffer.getOrphanedPartCount());
+		assertEquals(1, buffer.getExpiredCount());
+
+		assertEquals(1, buffer.flushAll().size());
+		assertEquals(0, buffer.getHeldPartCount());
+		assertEquals(3, buffer.getOrphanedPartCount());
+	}
+
+	/** When the buffer is full, the message which last received a part longest ago should be passed on to make room. */
+	public void testMaxParts() {
+		buffer.add(modem1, part(ORIGINATOR, 1, 3, 1, "a"), 0);
+		buffer.add(modem1, part(ORIGINATOR, 2, 3, 1, "x"), 1);
+		buffer.add(modem1, part(ORIGINATOR, 1, 3, 2, "b"), 2);
+		buffer.add(modem1, part(ORIGINATOR, 3, 3, 1, "p"), 3);
+		buffer.add(modem1, part(ORIGINATOR, 3, 3, 2, "q"), 4);
+		assertEquals(5, buffer.getHeldPartCount());
+
+		List<ReleasedMessage> released = buffer.add(modem1, part(ORIGINATOR, 4, 3, 1, "m"), 5);
+		assertEquals(1, released.size());
+		assertEquals("x", released.get(0).getMessage().getText());
+		assertEquals(5, buffer.getHeldPartCount());
+		assertEquals(1, buffer.getEvictedCount());
+		assertEquals(1, buffer.getOrphanedPartCount());
+
+		// The message being added to is not passed on to make room for its own part
+		released = buffer.add(modem1, part(ORIGINATOR, 1, 3, 3, "c"), 6);
+		assertEquals(3, released.size());
+		assertEquals("p", released.get(0).getMessage().getText());
+		assertEquals("q", released.get(1).getMessage().getText());
+		assertEquals("abc", released.get(2).getMessage().getText());
+		assertEquals(1, buffer.getHeldPartCount());
+		assertEquals(2, buffer.getEvictedCount());
+	}
+
+//> PRIVATE HELPER METHODS
+	/** @return a new text part */
+	private static IncomingMessagePart part(String originator, int reference, int partCount, int partNumber, String text) {
+		return new IncomingMessagePart(0, originator, text, partNumber, "SM", reference, partCount, partNumber);
+	}
+}
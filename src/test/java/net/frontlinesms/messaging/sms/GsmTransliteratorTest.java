@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link GsmTransliterator}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GsmTransliteratorTest extends BaseTestCase {
+//> INSTANCE PROPERTIES
+	/** Transliterator using the default mappings */
+	private GsmTransliterator transliterator;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.transliterator = new GsmTransliterator(GsmTransliterator.getDefaultMappings());
+	}
+
+//> TEST METHODS
+	/** Curly quotes in a message too long for a single UCS-2 part should be replaced so it fits in a single part. */
+	public void testPartsSaved() {
+		String text = repeat("“Quoted” text, isn’t it? ", 100);
+		FrontlineMessage message = FrontlineMessage.createOutgoingMessage(0, "", "+123", text);
+		assertEquals(2, SmsSegmenter.DEFAULT.segmentUcs2(text).getPartCount());
+
+		assertEquals(1, transliterator.transliterate(message));
+		assertEquals(repeat("\"Quoted\" text, isn't it? ", 100), message.getTextContent());
+		assertEquals(1, transliterator.getTransliteratedCount());
+		assertEquals(1, transliterator.getPartsSaved());
+	}
+
+	/** Messages which are short enough to fit in a single part anyway should not be changed. */
+	public void testNoPartsSaved() {
+		String text = "“Quoted”";
+		FrontlineMessage message = FrontlineMessage.createOutgoingMessage(0, "", "+123", text);
+		assertEquals(0, transliterator.transliterate(message));
+		assertEquals(text, message.getTextContent());
+		assertEquals(0, transliterator.getTransliteratedCount());
+	}
+
+	/** Messages containing characters which cannot be transliterated should not be changed. */
+	public void testUntransliterable() {
+		String text = repeat("“Quoted” 中文 ", 100);
+		FrontlineMessage message = FrontlineMessage.createOutgoingMessage(0, "", "+123", text);
+		assertNull(transliterator.transliterate(text));
+		assertEquals(0, transliterator.transliterate(message));
+		assertEquals(text, message.getTextContent());
+	}
+
+	/** Test the default mappings, including Greek letters. */
+	public void testDefaultMappings() {
+		assertEquals("A-B... (c) 1/2", transliterator.transliterate("Á–B… © ½"));
+		assertEquals("ABΓΔ", transliterator.transliterate("αβγδ"));
+		assertEquals("Already GSM", transliterator.transliterate("Already GSM"));
+	}
+
+	/** Mappings supplied to the constructor should be used. */
+	public void testCustomMappings() {
+		Map<Character, String> mappings = new HashMap<Character, String>();
+		mappings.put('₹', "Rs");
+		GsmTransliterator custom = new GsmTransliterator(mappings);
+		assertEquals("Rs100", custom.transliterate("₹100"));
+		assertNull(custom.transliterate("‘100’"));
+	}
+
+	/** Test unescaping of configured mappings. */
+	public void testUnescape() {
+		assertEquals("a", GsmTransliterationProperties.unescape("a"));
+		assertEquals("\u00A0", GsmTransliterationProperties.unescape("\\u00A0"));
+		assertEquals("x= y", GsmTransliterationProperties.unescape("x\\u003d\\u0020y"));
+		assertEquals("\\u00G0", GsmTransliterationProperties.unescape("\\u00G0"));
+		assertEquals("\\u00", GsmTransliterationProperties.unescape("\\u00"));
+	}
+
+//> STATIC HELPER METHODS
+	/** @return text made by repeating the supplied text until it is the requested length */
+	private static String repeat(String text, int length) {
+		StringBuilder bob = new StringBuilder(length);
+		while(bob.length() < length) {
+			bob.append(text);
+		}
+		return bob.substring(0, length);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link PriorityOutbox}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class PriorityOutboxTest extends BaseTestCase {
+//> TEST METHODS
+	/** High priority messages should be taken before bulk messages, and each lane should be FIFO. */
+	public void testHighPriorityFirst() {
+		PriorityOutbox outbox = new PriorityOutbox();
+		FrontlineMessage bulk1 = createMessage(1, Priority.BULK);
+		FrontlineMessage bulk2 = createMessage(2, Priority.BULK);
+		FrontlineMessage high1 = createMessage(3, Priority.HIGH);
+		FrontlineMessage high2 = createMessage(4, Priority.HIGH);
+		outbox.add(bulk1);
+		outbox.add(bulk2);
+		outbox.add(high1);
+		outbox.add(high2);
+
+		assertEquals(4, outbox.size());
+		assertSame(high1, outbox.peek());
+		assertSame(high1, outbox.poll());
+		assertSame(high2, outbox.poll());
+		assertSame(bulk1, outbox.poll());
+		assertSame(bulk2, outbox.poll());
+		assertNull(outbox.poll());
+		assertEquals(0, outbox.size());
+	}
+
+	/** Bulk messages should still be sent while high priority messages keep arriving. */
+	public void testBulkNotStarved() {
+		PriorityOutbox outbox = new PriorityOutbox(3);
+		for (int i = 0; i < 5; i++) {
+			outbox.add(createMessage(i, Priority.BULK));
+		}
+		for (int i = 0; i < 10; i++) {
+			outbox.add(createMessage(100 + i, Priority.HIGH));
+		}
+
+		List<Priority> order = new ArrayList<Priority>();
+		FrontlineMessage m;
+		while((m = outbox.poll()) != null) {
+			order.add(m.getPriority());
+		}
+
+		// After every 3 high priority messages, one bulk message should be taken
+		Priority H = Priority.HIGH, B = Priority.BULK;
+		assertEquals(toList(H, H, H, B, H, H, H, B, H, H, H, B, H, B, B), order);
+	}
+
+	/** Messages without a priority, e.g. those saved by older versions, should be treated as high priority. */
+	public void testDefaultPriority() {
+		FrontlineMessage m = FrontlineMessage.createOutgoingMessage(0, "", "+123", "Hello");
+		assertEquals(Priority.HIGH, m.getPriority());
+		m.setPriority(null);
+		assertEquals(Priority.HIGH, m.getPriority());
+	}
+
+	/** Test removal of specific messages, and iteration. */
+	public void testRemoveAndIterate() {
+		PriorityOutbox outbox = new PriorityOutbox();
+		FrontlineMessage bulk = createMessage(1, Priority.BULK);
+		FrontlineMessage high = createMessage(2, Priority.HIGH);
+		outbox.add(bulk);
+		outbox.add(high);
+
+		List<FrontlineMessage> iterated = new ArrayList<FrontlineMessage>();
+		for(FrontlineMessage m : outbox) {
+			iterated.add(m);
+		}
+		assertEquals(toList(high, bulk), iterated);
+
+		assertTrue(outbox.contains(bulk));
+		assertTrue(outbox.remove(bulk));
+		assertFalse(outbox.contains(bulk));
+		assertFalse(outbox.remove(bulk));
+		assertEquals(1, outbox.size());
+	}
+
+	/** A blocked poll should return as soon as a message is added. */
+	public void testBlockingPoll() throws InterruptedException {
+		final PriorityOutbox outbox = new PriorityOutbox();
+		assertNull(outbox.poll(10, TimeUnit.MILLISECONDS));
+
+		final FrontlineMessage message = createMessage(1, Priority.HIGH);
+		new Thread() {
+			public void run() {
+				try { Thread.sleep(50); } catch(InterruptedException ex) {}
+				outbox.add(message);
+			}
+		}.start();
+		long start = System.currentTimeMillis();
+		assertSame(message, outbox.poll(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	/** Only messages with the same text and port, to recipients not already taken, should be drained together. */
+	public void testDrainSameContent() {
+		PriorityOutbox outbox = new PriorityOutbox();
+		FrontlineMessage first = FrontlineMessage.createOutgoingMessage(0, "", "+1230", "Hello");
+		FrontlineMessage same = FrontlineMessage.createOutgoingMessage(0, "", "+1231", "Hello");
+		FrontlineMessage sameRecipient = FrontlineMessage.createOutgoingMessage(0, "", "+1230", "Hello");
+		FrontlineMessage different = FrontlineMessage.createOutgoingMessage(0, "", "+1232", "Goodbye");
+		FrontlineMessage bulk = FrontlineMessage.createOutgoingMessage(0, "", "+1233", "Hello");
+		bulk.setPriority(Priority.BULK);
+		FrontlineMessage extra = FrontlineMessage.createOutgoingMessage(0, "", "+1234", "Hello");
+		extra.setPriority(Priority.BULK);
+		outbox.add(same);
+		outbox.add(sameRecipient);
+		outbox.add(different);
+		outbox.add(bulk);
+		outbox.add(extra);
+
+		List<FrontlineMessage> drained = new ArrayList<FrontlineMessage>();
+		assertEquals(2, outbox.drainSameContent(first, drained, 2));
+		assertEquals(toList(same, bulk), drained);
+		assertEquals(3, outbox.size());
+		assertTrue(outbox.contains(sameRecipient));
+		assertTrue(outbox.contains(different));
+		assertTrue(outbox.contains(extra));
+	}
+
+//> PRIVATE HELPER METHODS
+	/** @return a new outgoing message with the supplied priority */
+	private FrontlineMessage createMessage(int index, Priority priority) {
+		FrontlineMessage m = FrontlineMessage.createOutgoingMessage(index, "", "+123" + index, "Message " + index);
+		m.setPriority(priority);
+		return m;
+	}
+
+	/** @return the supplied values as a list */
+	private static <T> List<T> toList(T... values) {
+		List<T> list = new ArrayList<T>();
+		for(T value : values) list.add(value);
+		return list;
+	}
+}
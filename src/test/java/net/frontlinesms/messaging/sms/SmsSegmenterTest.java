@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.Random;
+
+import org.smslib.v3.MessageEncodings;
+import org.smslib.v3.OutboundMessage;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.SmsSegmentation.Encoding;
+
+/**
+ * Unit tests for {@link SmsSegmenter}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsSegmenterTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Characters from the GSM 7-bit default alphabet */
+	private static final String GSM_CHARACTERS = "abcdefXYZ 0123.,!?@£$è\nΔ_";
+	/** Characters from the GSM 7-bit extension table */
+	private static final String GSM_EXTENSION_CHARACTERS = "€[]{}^~|\\";
+	/** Characters which are not in the GSM 7-bit alphabet */
+	private static final String UCS2_CHARACTERS = "Жщώ中文‘’";
+	/** A character outside the basic multilingual plane, which is encoded as a UTF-16 surrogate pair */
+	private static final String SURROGATE_PAIR = "😀";
+	/** Number of random messages checked by each property test */
+	private static final int PROPERTY_ITERATIONS = 500;
+
+//> INSTANCE PROPERTIES
+	/** Segmenter for messages concatenated with 8-bit reference numbers */
+	private final SmsSegmenter segmenter = SmsSegmenter.DEFAULT;
+
+//> TEST METHODS
+	/** Test the part boundaries of GSM 7-bit messages. */
+	public void testGsm7Limits() {
+		assertSegmentation(segmenter.segmentText(""), Encoding.GSM7BIT, 0, 0, 160, 160, 0);
+		assertSegmentation(segmenter.segmentText(repeat('a', 160)), Encoding.GSM7BIT, 160, 1, 160, 0, 140);
+		assertSegmentation(segmenter.segmentText(repeat('a', 161)), Encoding.GSM7BIT, 161, 2, 153, 145, 140 + 14);
+		assertEquals(2, segmenter.segmentText(repeat('a', 306)).getPartCount());
+		assertEquals(3, segmenter.segmentText(repeat('a', 307)).getPartCount());
+		assertEquals(6, segmenter.segmentText(repeat('a', 306)).getUdhOctets());
+
+		// With 16-bit references, the user data header is a septet longer
+		SmsSegmenter sixteenBit = new SmsSegmenter(true);
+		assertEquals(1, sixteenBit.segmentText(repeat('a', 160)).getPartCount());
+		assertEquals(2, sixteenBit.segmentText(repeat('a', 304)).getPartCount());
+		assertEquals(3, sixteenBit.segmentText(repeat('a', 305)).getPartCount());
+		assertEquals(7, sixteenBit.segmentText(repeat('a', 305)).getUdhOctets());
+	}
+
+	/** Characters from the extension table take two septets, and should not be split between parts. */
+	public void testGsm7ExtensionCharacters() {
+		assertSegmentation(segmenter.segmentText(repeat('a', 158) + "€"), Encoding.GSM7BIT, 160, 1, 160, 0, 140);
+		assertEquals(2, segmenter.segmentText(repeat('a', 159) + "€").getPartCount());
+
+		// 306 septets would fit in two parts if the € could be split between them
+		SmsSegmentation segmentation = segmenter.segmentText(repeat('a', 152) + "€" + repeat('a', 152));
+		assertEquals(306, segmentation.getLength());
+		assertEquals(3, segmentation.getPartCount());
+		assertEquals(152, segmentation.getRemaining());
+	}
+
+	/** Test the part boundaries of UCS-2 messages. */
+	public void testUcs2Limits() {
+		assertSegmentation(segmenter.segmentText(repeat('Ж', 70)), Encoding.UCS2, 70, 1, 70, 0, 140);
+		assertSegmentation(segmenter.segmentText(repeat('Ж', 71)), Encoding.UCS2, 71, 2, 67, 63, 140 + 14);
+		assertEquals(2, segmenter.segmentText(repeat('Ж', 134)).getPartCount());
+		assertEquals(3, segmenter.segmentText(repeat('Ж', 135)).getPartCount());
+		// A single character outside the GSM alphabet makes the whole message UCS-2
+		assertEquals(Encoding.UCS2, segmenter.segmentText(repeat('a', 100) + "‘").getEncoding());
+		assertEquals(66, new SmsSegmenter(true).segmentText(repeat('Ж', 71)).getPartCapacity());
+	}
+
+	/** Surrogate pairs should not be split between parts. */
+	public void testSurrogatePairs() {
+		assertEquals(2, segmenter.segmentText(repeat('Ж', 66) + SURROGATE_PAIR + repeat('Ж', 65)).getPartCount());
+		assertEquals(3, segmenter.segmentText(repeat('Ж', 66) + SURROGATE_PAIR + repeat('Ж', 66)).getPartCount());
+	}
+
+	/** Test the part boundaries of binary messages, with and without port addressing. */
+	public void testBinary() {
+		assertSegmentation(segmenter.segmentBinary(140, false), Encoding.BINARY, 140, 1, 140, 0, 140);
+		assertSegmentation(segmenter.segmentBinary(141, false), Encoding.BINARY, 141, 2, 134, 127, 141 + 12);
+		assertSegmentation(segmenter.segmentBinary(133, true), Encoding.BINARY, 133, 1, 133, 0, 140);
+		assertSegmentation(segmenter.segmentBinary(134, true), Encoding.BINARY, 134, 2, 128, 122, 134 + 24);
+		assertEquals(12, segmenter.segmentBinary(134, true).getUdhOctets());
+	}
+
+	/** Messages longer than 255 parts cannot be sent. */
+	public void testTooLong() {
+		assertFalse(segmenter.segmentText(repeat('a', 153 * 255)).isTooLong());
+		assertTrue(segmenter.segmentText(repeat('a', 153 * 255 + 1)).isTooLong());
+	}
+
+	/** {@link FrontlineMessage#getNumberOfSMS()} should be calculated for messages whose part count has not been recorded. */
+	public void testFrontlineMessage() {
+		assertEquals(1, FrontlineMessage.createOutgoingMessage(0, "", "+123", "Hello").getNumberOfSMS());
+		assertEquals(2, FrontlineMessage.createOutgoingMessage(0, "", "+123", repeat('a', 161)).getNumberOfSMS());
+		assertEquals(3, FrontlineMessage.createOutgoingMessage(0, "", "+123", repeat('Ж', 135)).getNumberOfSMS());
+		assertEquals(2, FrontlineMessage.createBinaryOutgoingMessage(0, "", "+123", 1234, new byte[134]).getNumberOfSMS());
+	}
+
+	/**
+	 * Compare random text messages with smslib's {@link OutboundMessage}, which uses 16-bit references.  smslib
+	 * reserves 8 octets for the user data header of each part and ignores septet boundaries, so it should never
+	 * need fewer parts, and for UCS-2 messages without surrogate pairs it should need exactly as many.
+	 */
+	public void testTextAgainstOutboundMessage() {
+		SmsSegmenter sixteenBit = new SmsSegmenter(true);
+		Random random = new Random(1);
+		for(int i=0; i<PROPERTY_ITERATIONS; ++i) {
+			String characters = GSM_CHARACTERS + GSM_EXTENSION_CHARACTERS;
+			if(random.nextBoolean()) characters += UCS2_CHARACTERS;
+			String text = randomText(random, characters, 1 + random.nextInt(700));
+
+			OutboundMessage outbound = new OutboundMessage("+123", text);
+			SmsSegmentation segmentation = sixteenBit.segmentText(text);
+			String description = "Text: " + text + "; " + segmentation;
+
+			assertEquals(description, outbound.getEncoding() == MessageEncodings.ENC7BIT, segmentation.getEncoding() == Encoding.GSM7BIT);
+			assertEquals(description, outbound.isBig(), segmentation.getPartCount() > 1);
+			if(outbound.isBig()) {
+				if(segmentation.getEncoding() == Encoding.UCS2) {
+					assertEquals(description, outbound.getNoOfParts(), segmentation.getPartCount());
+				} else {
+					assertTrue(description, segmentation.getPartCount() <= outbound.getNoOfParts());
+				}
+			}
+			assertPartsConsistent(description, segmentation);
+		}
+	}
+
+	/** Compare random binary messages with smslib's {@link OutboundMessage}. */
+	public void testBinaryAgainstOutboundMessage() {
+		SmsSegmenter sixteenBit = new SmsSegmenter(true);
+		Random random = new Random(1);
+		for(int i=0; i<PROPERTY_ITERATIONS; ++i) {
+			byte[] data = new byte[1 + random.nextInt(2000)];
+			random.nextBytes(data);
+
+			OutboundMessage outbound = new OutboundMessage("+123", data);
+			SmsSegmentation segmentation = sixteenBit.segmentBinary(data.length, false);
+			String description = "Length: " + data.length + "; " + segmentation;
+
+			assertEquals(description, outbound.isBig(), segmentation.getPartCount() > 1);
+			if(outbound.isBig()) {
+				assertTrue(description, segmentation.getPartCount() <= outbound.getNoOfParts());
+			}
+			assertPartsConsistent(description, segmentation);
+		}
+	}
+
+//> PRIVATE HELPER METHODS
+	/** Check the values of a segmentation. */
+	private static void assertSegmentation(SmsSegmentation segmentation, Encoding encoding, int length, int partCount, int partCapacity, int remaining, int userDataOctets) {
+		String description = segmentation.toString();
+		assertEquals(description, encoding, segmentation.getEncoding());
+		assertEquals(description, length, segmentation.getLength());
+		assertEquals(description, partCount, segmentation.getPartCount());
+		assertEquals(description, partCapacity, segmentation.getPartCapacity());
+		assertEquals(description, remaining, segmentation.getRemaining());
+		assertEquals(description, userDataOctets, segmentation.getUserDataOctets());
+	}
+
+	/** Check that a segmentation's parts are no fuller than a TPDU allows, and have no more room than needed. */
+	private static void assertPartsConsistent(String description, SmsSegmentation segmentation) {
+		int partCount = segmentation.getPartCount();
+		int capacity = segmentation.getPartCapacity();
+		assertTrue(description, segmentation.getUserDataOctets() <= partCount * SmsSegmenter.MAX_USER_DATA_OCTETS);
+		assertTrue(description, segmentation.getLength() <= partCount * capacity);
+		// Each part may be left up to one unit short, to avoid splitting a character between parts
+		assertTrue(description, segmentation.getLength() > (partCount - 1) * (capacity - 1));
+		assertTrue(description, segmentation.getRemaining() >= 0 && segmentation.getRemaining() < capacity);
+	}
+
+	/** @return random text made from the supplied characters */
+	private static String randomText(Random random, String characters, int length) {
+		StringBuilder bob = new StringBuilder(length);
+		for(int i=0; i<length; ++i) {
+			bob.append(characters.charAt(random.nextInt(characters.length())));
+		}
+		return bob.toString();
+	}
+
+	/** @return text made by repeating a character */
+	private static String repeat(char c, int count) {
+		StringBuilder bob = new StringBuilder(count);
+		for(int i=0; i<count; ++i) {
+			bob.append(c);
+		}
+		return bob.toString();
+	}
+}
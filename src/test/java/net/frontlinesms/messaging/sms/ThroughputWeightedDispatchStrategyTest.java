@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.internet.SmsInternetService;
+import net.frontlinesms.messaging.sms.modem.SmsModem;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link ThroughputWeightedDispatchStrategy}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ThroughputWeightedDispatchStrategyTest extends BaseTestCase {
+	/** Instance of the class under test */
+	private ThroughputWeightedDispatchStrategy strategy;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.strategy = new ThroughputWeightedDispatchStrategy();
+	}
+
+//> TEST METHODS
+	/** Devices with no statistics and no queued messages should share messages equally. */
+	public void testEqualDevices() {
+		SmsModem one = createMockModem(0, null);
+		SmsModem two = createMockModem(0, null);
+		Map<SmsService, List<FrontlineMessage>> assigned = strategy.assign(Arrays.asList(one, two), generateMessages(10));
+		assertEquals(5, getAssignedCount(assigned, one));
+		assertEquals(5, getAssignedCount(assigned, two));
+	}
+
+	/** Messages should be shared in proportion to each device's send rate. */
+	public void testFasterDeviceGetsMoreMessages() {
+		SmsModem fast = createMockModem(0, createStatistics(30, 0, 10000));
+		SmsModem slow = createMockModem(0, createStatistics(10, 0, 10000));
+		Map<SmsService, List<FrontlineMessage>> assigned = strategy.assign(Arrays.asList(fast, slow), generateMessages(40));
+		assertEquals(30, getAssignedCount(assigned, fast));
+		assertEquals(10, getAssignedCount(assigned, slow));
+	}
+
+	/** Messages already waiting in a device's outbox should be taken into account. */
+	public void testQueueDepth() {
+		SmsModem busy = createMockModem(10, null);
+		SmsModem idle = createMockModem(0, null);
+		Map<SmsService, List<FrontlineMessage>> assigned = strategy.assign(Arrays.asList(busy, idle), generateMessages(12));
+		assertEquals(1, getAssignedCount(assigned, busy));
+		assertEquals(11, getAssignedCount(assigned, idle));
+	}
+
+	/** A device which is failing to send should be given fewer messages than a reliable device. */
+	public void testFailingDevice() {
+		SmsModem failing = createMockModem(0, createStatistics(10, 9, 1000));
+		SmsModem reliable = createMockModem(0, createStatistics(10, 0, 1000));
+		Map<SmsService, List<FrontlineMessage>> assigned = strategy.assign(Arrays.asList(failing, reliable), generateMessages(22));
+		assertEquals(2, getAssignedCount(assigned, failing));
+		assertEquals(20, getAssignedCount(assigned, reliable));
+	}
+
+	/** Internet services with no statistics should be preferred to modems for small batches. */
+	public void testInternetServicesPreferred() {
+		SmsInternetService service = mock(SmsInternetService.class);
+		SmsModem modem = createMockModem(0, null);
+		Map<SmsService, List<FrontlineMessage>> assigned = strategy.assign(Arrays.<SmsService>asList(service, modem), generateMessages(20));
+		assertEquals(20, getAssignedCount(assigned, service));
+		assertEquals(0, getAssignedCount(assigned, modem));
+	}
+
+	/** Multipart messages should count for as many messages as they have parts. */
+	public void testMultipartMessagesWeighted() {
+		SmsModem one = createMockModem(0, null);
+		SmsModem two = createMockModem(0, null);
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		StringBuilder longText = new StringBuilder();
+		while(longText.length() < 400) longText.append("Long message. ");
+		messages.add(FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", "+1230", longText.toString()));
+		messages.addAll(generateMessages(3));
+		Map<SmsService, List<FrontlineMessage>> assigned = strategy.assign(Arrays.asList(one, two), messages);
+		assertEquals(1, getAssignedCount(assigned, one));
+		assertEquals(3, getAssignedCount(assigned, two));
+	}
+
+	/** Test the moving averages in {@link SmsSendStatistics}. */
+	public void testSendStatistics() {
+		SmsSendStatistics statistics = new SmsSendStatistics();
+		assertFalse(statistics.hasSamples());
+
+		statistics.recordSend(0, 0, 1000);
+		assertFalse(statistics.hasSamples());
+
+		statistics.recordSend(10, 0, 1000);
+		assertTrue(statistics.hasSamples());
+		assertEquals(10.0, statistics.getSendRate(), 0.0001);
+		assertEquals(0.0, statistics.getFailureRate(), 0.0001);
+
+		statistics.recordSend(1, 1, 1000);
+		assertTrue(statistics.getSendRate() < 10);
+		assertTrue(statistics.getSendRate() > 1);
+		assertTrue(statistics.getFailureRate() > 0);
+		assertTrue(statistics.getFailureRate() < 1);
+		assertEquals(11, statistics.getTotalMessages());
+		assertEquals(1, statistics.getTotalFailures());
+	}
+
+//> PRIVATE HELPER METHODS
+	/** @return a mock {@link SmsModem} with the supplied outbox size and statistics */
+	private SmsModem createMockModem(int outboxSize, SmsSendStatistics statistics) {
+		SmsModem mock = mock(SmsModem.class);
+		when(mock.getOutboxSize()).thenReturn(outboxSize);
+		when(mock.getSendStatistics()).thenReturn(statistics);
+		return mock;
+	}
+
+	/** @return statistics with a single sample recorded */
+	private SmsSendStatistics createStatistics(int messageCount, int failureCount, long durationMillis) {
+		SmsSendStatistics statistics = new SmsSendStatistics();
+		statistics.recordSend(messageCount, failureCount, durationMillis);
+		return statistics;
+	}
+
+	/** @return the number of messages assigned to a device */
+	private int getAssignedCount(Map<SmsService, List<FrontlineMessage>> assigned, SmsService device) {
+		List<FrontlineMessage> messages = assigned.get(device);
+		return messages == null ? 0 : messages.size();
+	}
+
+	/** @return some generated SMS messages */
+	private List<FrontlineMessage> generateMessages(int count) {
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		for (int i = 0; i < count; i++) {
+			messages.add(FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", "+123" + i, "Message " + i));
+		}
+		return messages;
+	}
+}
@@ -5,6 +5,8 @@ package net.frontlinesms.messaging.sms.internet;
 
 import java.util.*;
 
+import net.frontlinesms.AppProperties;
+import net.frontlinesms.data.domain.SmsInternetServiceSettings;
 import net.frontlinesms.data.domain.SmsInternetServiceSettingsTest.Test;
 import net.frontlinesms.junit.BaseTestCase;
 import net.frontlinesms.messaging.sms.internet.AbstractSmsInternetService;
@@ -90,6 +92,25 @@ public class AbstractSmsInternetServicePropertiesTest extends BaseTestCase {
 		assertNull("Checking get value from null map", AbstractSmsInternetService.getValue(invalidKey, defaultSettings));
 	}
 	
+	/**
+	 * Unit tests for {@link AbstractSmsInternetService#getMaxConcurrentSends()}.  With the default settings, all of
+	 * a service's concurrent sends should get an HTTP connection to its host without waiting.
+	 */
+	public void testGetMaxConcurrentSends() {
+		int connectionsPerHost = AppProperties.getInstance().getHttpConnectionsPerHost();
+		ClickatellInternetService service = new ClickatellInternetService();
+		SmsInternetServiceSettings settings = new SmsInternetServiceSettings(service);
+		service.setSettings(settings);
+		assertTrue("Default window should fit in the HTTP connections per host", service.getMaxConcurrentSends() <= connectionsPerHost);
+		
+		// Larger windows are limited to the HTTP connections per host
+		settings.set(AbstractSmsInternetService.PROPERTY_MAX_CONCURRENT_SENDS, connectionsPerHost + 3);
+		assertEquals(connectionsPerHost, service.getMaxConcurrentSends());
+		
+		settings.set(AbstractSmsInternetService.PROPERTY_MAX_CONCURRENT_SENDS, 0);
+		assertEquals(1, service.getMaxConcurrentSends());
+	}
+	
 	@Override
 	protected void tearDown() throws Exception {
 		defaultSettings.clear();
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import java.util.Arrays;
+
+import IntelliSoftware.SMSGateway.SDK.IntelliSMSJavaSDK.ResultCodes;
+import IntelliSoftware.SMSGateway.SDK.IntelliSMSJavaSDK.SendStatus;
+import IntelliSoftware.SMSGateway.SDK.IntelliSMSJavaSDK.SendStatusCollection;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Tests for the mapping of per-recipient send results by {@link IntelliSmsInternetService}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class IntelliSmsInternetServiceTest extends BaseTestCase {
+//> TEST METHODS
+	/** Each message should take its status and reference from the result for its recipient, however the number is formatted. */
+	public void testApplyResults() {
+		FrontlineMessage sent = createMessage("+44 7700 900001");
+		FrontlineMessage noCredit = createMessage("+447700900002");
+		FrontlineMessage missing = createMessage("+447700900003");
+
+		SendStatusCollection results = new SendStatusCollection();
+		results.add(createResult("447700900002", null, ResultCodes.InsufficientCredit));
+		results.add(createResult("447700900001", "12345", ResultCodes.OK));
+
+		assertTrue(IntelliSmsInternetService.applyResults(Arrays.asList(sent, noCredit, missing), results));
+		assertEquals(Status.SENT, sent.getStatus());
+		assertEquals(Integer.valueOf(12345), sent.getSmscReference());
+		assertEquals(Status.FAILED, noCredit.getStatus());
+		assertEquals(Status.FAILED, missing.getStatus());
+	}
+
+	/** Message IDs which are not numeric should not prevent a message being marked as sent. */
+	public void testApplyResultsWithNonNumericId() {
+		FrontlineMessage message = createMessage("+447700900001");
+		SendStatusCollection results = new SendStatusCollection();
+		results.add(createResult("447700900001", "a1b2c3", ResultCodes.OK));
+
+		assertFalse(IntelliSmsInternetService.applyResults(Arrays.asList(message), results));
+		assertEquals(Status.SENT, message.getStatus());
+	}
+
+//> PRIVATE HELPER METHODS
+	/** @return a new outgoing message to the supplied number */
+	private static FrontlineMessage createMessage(String recipient) {
+		return FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", recipient, "Hello");
+	}
+
+	/** @return a new result for a single recipient */
+	private static SendStatus createResult(String to, String messageId, ResultCodes resultCode) {
+		SendStatus result = new SendStatus();
+		result.To = to;
+		result.MessageId = messageId;
+		result.ResultCode = resultCode;
+		return result;
+	}
+}
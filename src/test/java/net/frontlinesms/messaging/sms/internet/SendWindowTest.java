@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link SendWindow}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SendWindowTest extends BaseTestCase {
+	/** Instance of the class under test */
+	private SendWindow window;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(window != null) {
+			window.shutdown();
+		}
+		super.tearDown();
+	}
+
+//> TEST METHODS
+	/** A window of size 1 should send and complete each message on the calling thread. */
+	public void testSingleSlot() throws InterruptedException {
+		window = new SendWindow("test", 1);
+		RecordingSender sender = new RecordingSender();
+		FrontlineMessage message = createMessage(0);
+
+		assertTrue(window.tryAcquire(0, TimeUnit.MILLISECONDS));
+		assertFalse(window.tryAcquire(0, TimeUnit.MILLISECONDS));
+		window.send(Collections.singletonList(message), sender);
+
+		assertEquals(Collections.singletonList(message), sender.completed);
+		assertEquals(Thread.currentThread(), sender.sendThreads.get(message));
+		assertEquals(0, window.getInFlightCount());
+	}
+
+	/** Messages should be sent concurrently, but completed in the order they were sent. */
+	public void testOrderedCompletion() throws InterruptedException {
+		window = new SendWindow("test", 4);
+		RecordingSender sender = new RecordingSender();
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		for(int i=0; i<4; ++i) {
+			FrontlineMessage message = createMessage(i);
+			messages.add(message);
+			sender.block(message);
+			assertTrue(window.tryAcquire(0, TimeUnit.MILLISECONDS));
+			window.send(Collections.singletonList(message), sender);
+		}
+		assertTrue(sender.allStarted(4));
+		assertFalse("Window should be full.", window.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+		// Finishing later messages first should not complete them before the first message
+		sender.unblock(messages.get(3));
+		sender.unblock(messages.get(1));
+		Thread.sleep(50);
+		assertEquals(0, sender.completed.size());
+		assertEquals(4, window.getInFlightCount());
+
+		sender.unblock(messages.get(0));
+		sender.waitForCompleted(2);
+		assertEquals(messages.subList(0, 2), new ArrayList<FrontlineMessage>(sender.completed));
+		assertEquals(2, window.getInFlightCount());
+
+		sender.unblock(messages.get(2));
+		sender.waitForCompleted(4);
+		assertEquals(messages, sender.completed);
+		assertEquals(0, window.getInFlightCount());
+		assertEquals(4, sender.maxConcurrentSends.get());
+	}
+
+	/** A message whose send fails with an exception should still be completed, and its slot released. */
+	public void testSendException() throws InterruptedException {
+		window = new SendWindow("test", 2);
+		RecordingSender sender = new RecordingSender() {
+			@Override
+			public void send(List<FrontlineMessage> messages) {
+				throw new RuntimeException("Expected failure");
+			}
+		};
+		FrontlineMessage message = createMessage(0);
+		assertTrue(window.tryAcquire(0, TimeUnit.MILLISECONDS));
+		window.send(Collections.singletonList(message), sender);
+		sender.waitForCompleted(1);
+		assertEquals(0, window.getInFlightCount());
+	}
+
+	/** All messages in a batch should be sent and completed together, using a single slot. */
+	public void testBatch() throws InterruptedException {
+		window = new SendWindow("test", 2);
+		RecordingSender sender = new RecordingSender();
+		List<FrontlineMessage> batch = new ArrayList<FrontlineMessage>();
+		for(int i=0; i<3; ++i) {
+			batch.add(createMessage(i));
+		}
+		sender.block(batch.get(0));
+		assertTrue(window.tryAcquire(0, TimeUnit.MILLISECONDS));
+		window.send(batch, sender);
+		assertTrue(sender.allStarted(1));
+		assertEquals(1, window.getInFlightCount());
+
+		sender.unblock(batch.get(0));
+		sender.waitForCompleted(3);
+		assertEquals(batch, sender.completed);
+		for(FrontlineMessage message : batch) {
+			assertEquals(Status.SENT, message.getStatus());
+		}
+		assertEquals(0, window.getInFlightCount());
+	}
+
+//> PRIVATE HELPER METHODS
+	/** @return a new outgoing message */
+	private static FrontlineMessage createMessage(int index) {
+		FrontlineMessage message = FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", "+123456" + index, "Message " + index);
+		message.setStatus(Status.PENDING);
+		return message;
+	}
+
+//> INNER CLASSES
+	/** {@link SendWindow.Sender} which records the order messages are completed in, and can block sending of batches starting with chosen messages. */
+	private static class RecordingSender implements SendWindow.Sender {
+		/** Messages completed, in order */
+		private final List<FrontlineMessage> completed = Collections.synchronizedList(new ArrayList<FrontlineMessage>());
+		/** Thread each message was sent on */
+		private final Map<FrontlineMessage, Thread> sendThreads = new ConcurrentHashMap<FrontlineMessage, Thread>();
+		/** Latches which sending of blocked messages waits for */
+		private final Map<FrontlineMessage, CountDownLatch> blocks = new ConcurrentHashMap<FrontlineMessage, CountDownLatch>();
+		/** Number of messages being sent */
+		private final AtomicInteger concurrentSends = new AtomicInteger();
+		/** Highest value seen of {@link #concurrentSends} */
+		private final AtomicInteger maxConcurrentSends = new AtomicInteger();
+		/** Number of sends started */
+		private final AtomicInteger startedSends = new AtomicInteger();
+
+		void block(FrontlineMessage message) {
+			blocks.put(message, new CountDownLatch(1));
+		}
+
+		void unblock(FrontlineMessage message) {
+			blocks.get(message).countDown();
+		}
+
+		boolean allStarted(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while(startedSends.get() < count && System.currentTimeMillis() < end) Thread.sleep(10);
+			return startedSends.get() == count;
+		}
+
+		void waitForCompleted(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while(completed.size() < count) {
+				assertTrue("Expected " + count + " completed messages, but got " + completed.size(), System.currentTimeMillis() < end);
+				Thread.sleep(10);
+			}
+		}
+
+		public void send(List<FrontlineMessage> messages) {
+			FrontlineMessage first = messages.get(0);
+			sendThreads.put(first, Thread.currentThread());
+			startedSends.incrementAndGet();
+			int concurrent = concurrentSends.incrementAndGet();
+			while(true) {
+				int max = maxConcurrentSends.get();
+				if(concurrent <= max || maxConcurrentSends.compareAndSet(max, concurrent)) break;
+			}
+			try {
+				CountDownLatch block = blocks.get(first);
+				if(block != null) block.await();
+				for(FrontlineMessage message : messages) message.setStatus(Status.SENT);
+			} catch(InterruptedException ex) {
+				for(FrontlineMessage message : messages) message.setStatus(Status.FAILED);
+			} finally {
+				concurrentSends.decrementAndGet();
+			}
+		}
+
+		public void sendComplete(List<FrontlineMessage> messages, long durationMillis) {
+			completed.addAll(messages);
+		}
+	}
+}
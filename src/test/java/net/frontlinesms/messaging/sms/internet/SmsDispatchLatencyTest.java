@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.SmsServiceManager;
+
+/**
+ * Benchmark for the time taken between an outgoing message being queued with {@link SmsServiceManager#sendSMS(FrontlineMessage)}
+ * and it being handed to {@link AbstractSmsInternetService#sendSmsDirect(FrontlineMessage)}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsDispatchLatencyTest extends BaseTestCase {
+	/** Number of messages to send */
+	private static final int MESSAGE_COUNT = 50;
+	/** Maximum acceptable latency, in millis, for any single message */
+	private static final long MAX_LATENCY = 500;
+	/** Maximum acceptable mean latency, in millis */
+	private static final long MAX_MEAN_LATENCY = 100;
+
+	/** Logging object */
+	private final Logger log = Logger.getLogger(this.getClass());
+
+//> TEST METHODS
+	/** Send messages one at a time, and check each is passed to the service without waiting for a polling interval. */
+	public void testDispatchLatency() throws InterruptedException {
+		SmsServiceManager manager = new SmsServiceManager();
+		LatencyRecordingSmsInternetService service = new LatencyRecordingSmsInternetService();
+		manager.addSmsInternetService(service);
+		manager.start();
+		try {
+			long totalLatency = 0;
+			long maxLatency = 0;
+			for (int i = 0; i < MESSAGE_COUNT; i++) {
+				FrontlineMessage m = FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", "+123456" + i, "Message " + i);
+				CountDownLatch sent = service.expect(m);
+				long queuedTime = System.nanoTime();
+				manager.sendSMS(m);
+				assertTrue("Message was not sent.", sent.await(5, TimeUnit.SECONDS));
+
+				long latency = TimeUnit.NANOSECONDS.toMillis(service.getSendTime(m) - queuedTime);
+				totalLatency += latency;
+				maxLatency = Math.max(maxLatency, latency);
+			}
+
+			long meanLatency = totalLatency / MESSAGE_COUNT;
+			log.info("Dispatch latency for " + MESSAGE_COUNT + " messages: mean=" + meanLatency + "ms, max=" + maxLatency + "ms");
+			assertTrue("Mean dispatch latency too high: " + meanLatency + "ms", meanLatency <= MAX_MEAN_LATENCY);
+			assertTrue("Maximum dispatch latency too high: " + maxLatency + "ms", maxLatency <= MAX_LATENCY);
+		} finally {
+			manager.stopRunning();
+		}
+	}
+
+//> INNER CLASSES
+	/**
+	 * In-memory {@link SmsInternetService} which records the time at which each message reaches
+	 * {@link #sendSmsDirect(FrontlineMessage)}.
+	 */
+	private static class LatencyRecordingSmsInternetService extends AbstractSmsInternetService {
+		/** Latches for messages which are expected to be sent */
+		private final Map<FrontlineMessage, CountDownLatch> expectedMessages = new ConcurrentHashMap<FrontlineMessage, CountDownLatch>();
+		/** Time, from {@link System#nanoTime()}, at which each message was sent */
+		private final Map<FrontlineMessage, Long> sendTimes = new ConcurrentHashMap<FrontlineMessage, Long>();
+		/** Flag indicating whether this service is connected */
+		private volatile boolean connected;
+
+		/**
+		 * @param message
+		 * @return a latch which is counted down when the message is sent
+		 */
+		CountDownLatch expect(FrontlineMessage message) {
+			CountDownLatch latch = new CountDownLatch(1);
+			expectedMessages.put(message, latch);
+			return latch;
+		}
+
+		/** @return the time, from {@link System#nanoTime()}, at which the message was sent */
+		long getSendTime(FrontlineMessage message) {
+			return sendTimes.get(message);
+		}
+
+		@Override
+		protected void init() throws SmsInternetServiceInitialisationException {
+			this.connected = true;
+		}
+
+		@Override
+		protected void deinit() {
+			this.connected = false;
+		}
+
+		@Override
+		protected void sendSmsDirect(FrontlineMessage message) {
+			sendTimes.put(message, System.nanoTime());
+			message.setStatus(Status.SENT);
+			CountDownLatch latch = expectedMessages.remove(message);
+			if(latch != null) latch.countDown();
+		}
+
+		@Override
+		protected void receiveSms() throws SmsInternetServiceReceiveException {}
+
+		public String getIdentifier() {
+			return "latency";
+		}
+
+		public boolean isEncrypted() {
+			return false;
+		}
+
+		public String getMsisdn() {
+			return "+000";
+		}
+
+		public Map<String, Object> getPropertiesStructure() {
+			return new LinkedHashMap<String, Object>();
+		}
+
+		public boolean isConnected() {
+			return connected;
+		}
+
+		public boolean supportsReceive() {
+			return false;
+		}
+
+		public void setUseForReceiving(boolean use) {}
+
+		public void setUseForSending(boolean use) {}
+
+		public boolean isUseForReceiving() {
+			return false;
+		}
+
+		public boolean isUseForSending() {
+			return true;
+		}
+
+		public boolean isBinarySendingSupported() {
+			return false;
+		}
+
+		public boolean isUcs2SendingSupported() {
+			return false;
+		}
+
+		public String getServiceName() {
+			return "Latency";
+		}
+
+		public String getDisplayPort() {
+			return null;
+		}
+	}
+}
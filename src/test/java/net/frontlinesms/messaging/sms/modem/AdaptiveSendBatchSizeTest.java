@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link AdaptiveSendBatchSize}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class AdaptiveSendBatchSizeTest extends BaseTestCase {
+//> INSTANCE PROPERTIES
+	/** Batch size being tested */
+	private AdaptiveSendBatchSize batchSize;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.batchSize = new AdaptiveSendBatchSize();
+	}
+
+//> TEST METHODS
+	/** The batch size should grow while full batches are sent at a stable rate, up to the maximum. */
+	public void testGrowsWhileStable() {
+		assertEquals(AdaptiveSendBatchSize.DEFAULT_BATCH_SIZE, batchSize.get());
+		// The first batch only sets the usual send time
+		recordFullBatch(1000);
+		assertEquals(10, batchSize.get());
+		recordFullBatch(1000);
+		assertEquals(11, batchSize.get());
+		recordFullBatch(1200);
+		assertEquals(12, batchSize.get());
+		for(int i=0; i<100; ++i) {
+			recordFullBatch(1000);
+		}
+		assertEquals(AdaptiveSendBatchSize.MAX_BATCH_SIZE, batchSize.get());
+	}
+
+	/** Batches which were not full say nothing about whether larger batches can be sent. */
+	public void testPartialBatchesDoNotGrow() {
+		recordFullBatch(1000);
+		batchSize.recordBatch(3, 0, 3000, 1000);
+		assertEquals(10, batchSize.get());
+	}
+
+	/** The batch size should shrink when sending slows down. */
+	public void testShrinksWhenSlow() {
+		recordFullBatch(1000);
+		recordFullBatch(3000);
+		assertEquals(9, batchSize.get());
+		// Send times which are slower, but not much slower, than usual do not change the batch size
+		recordFullBatch(2500);
+		assertEquals(9, batchSize.get());
+	}
+
+	/** Errors and timeouts should halve the batch size, down to the minimum. */
+	public void testErrorsAndTimeouts() {
+		batchSize.set(40);
+		batchSize.recordBatch(40, 1, 40000, 1000);
+		assertEquals(20, batchSize.get());
+		batchSize.recordBatch(20, 0, 20000 + AdaptiveSendBatchSize.SEND_TIMEOUT, AdaptiveSendBatchSize.SEND_TIMEOUT);
+		assertEquals(10, batchSize.get());
+		// A batch which was stopped by an error may not have attempted any messages
+		batchSize.recordBatch(0, 1, 0, 0);
+		assertEquals(5, batchSize.get());
+		for(int i=0; i<10; ++i) {
+			batchSize.recordBatch(1, 1, 1000, 1000);
+		}
+		assertEquals(AdaptiveSendBatchSize.MIN_BATCH_SIZE, batchSize.get());
+		// The usual send time is learned again after an error
+		batchSize.recordBatch(1, 0, 5000, 5000);
+		assertEquals(1, batchSize.get());
+		batchSize.recordBatch(1, 0, 5000, 5000);
+		assertEquals(2, batchSize.get());
+	}
+
+	/** Batch sizes which are set should be kept within limits. */
+	public void testSet() {
+		batchSize.set(0);
+		assertEquals(AdaptiveSendBatchSize.MIN_BATCH_SIZE, batchSize.get());
+		batchSize.set(1000);
+		assertEquals(AdaptiveSendBatchSize.MAX_BATCH_SIZE, batchSize.get());
+		batchSize.set(17);
+		assertEquals(17, batchSize.get());
+	}
+
+//> INSTANCE HELPER METHODS
+	/** Records a full batch in which each message took the same time to send. */
+	private void recordFullBatch(long latency) {
+		int size = batchSize.get();
+		batchSize.recordBatch(size, 0, size * latency, latency);
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.util.List;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link NewMessageIndications}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class NewMessageIndicationsTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Time, in millis, between full scans */
+	private static final long SCAN_INTERVAL = 60000;
+
+//> INSTANCE PROPERTIES
+	/** Indications being tested, whose first full scan has already been made */
+	private NewMessageIndications indications;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.indications = new NewMessageIndications(SCAN_INTERVAL);
+		assertTrue(indications.isFullScanDue(1000));
+		indications.fullScanComplete(1000);
+	}
+
+//> TEST METHODS
+	/** Indicated slots should be returned once each, in order. */
+	public void testIndications() {
+		indications.parse("\r\n+CMTI: \"SM\",3\r\n+CMTI: \"SM\", 4\r\n+CMTI: \"SM\",3\r\n+CPMS: \"SM\",2,30,\"SM\",2,30,\"SM\",2,30\r\n\r\nOK\r\n");
+		assertEquals("SM", indications.getReadStorage());
+		List<NewMessageIndications.Slot> slots = indications.poll();
+		assertEquals(2, slots.size());
+		assertEquals(new NewMessageIndications.Slot("SM", 3), slots.get(0));
+		assertEquals(4, slots.get(1).getIndex());
+		assertEquals(0, indications.poll().size());
+		assertFalse(indications.isFullScanDue(2000));
+	}
+
+	/** A full scan should be due at the configured interval. */
+	public void testScanInterval() {
+		assertFalse(indications.isFullScanDue(1000 + SCAN_INTERVAL - 1));
+		assertTrue(indications.isFullScanDue(1000 + SCAN_INTERVAL));
+		indications.fullScanComplete(1000 + SCAN_INTERVAL);
+		assertFalse(indications.isFullScanDue(1000 + SCAN_INTERVAL + 1));
+	}
+
+	/** Status reports should be read with a full scan. */
+	public void testStatusReports() {
+		indications.parse("\r\n+CDSI: \"SM\",5\r\n\r\nOK\r\n");
+		assertTrue(indications.isFullScanDue(2000));
+		indications.fullScanComplete(2000);
+		assertFalse(indications.isFullScanDue(2001));
+		assertEquals(0, indications.poll().size());
+	}
+
+	/** If more messages are stored without an indication, one must have been missed. */
+	public void testMissedIndication() {
+		indications.parse("+CPMS: \"SM\",2,30,\"SM\",2,30,\"SM\",2,30\r\nOK");
+		indications.parse("+CPMS: \"SM\",1,30,\"SM\",1,30,\"SM\",1,30\r\nOK");
+		assertFalse(indications.isFullScanDue(2000));
+		indications.parse("+CMTI: \"SM\",1\r\n+CPMS: \"SM\",2,30,\"SM\",2,30,\"SM\",2,30\r\nOK");
+		assertFalse(indications.isFullScanDue(2000));
+		indications.poll();
+		indications.parse("+CPMS: \"SM\",3,30,\"SM\",3,30,\"SM\",3,30\r\nOK");
+		assertTrue(indications.isFullScanDue(2000));
+	}
+
+	/** Requesting a full scan should make it due immediately. */
+	public void testRequestFullScan() {
+		indications.requestFullScan();
+		assertTrue(indications.isFullScanDue(1000));
+	}
+}
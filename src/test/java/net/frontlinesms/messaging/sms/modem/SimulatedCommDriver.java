@@ -0,0 +1,498 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TooManyListenersException;
+
+import javax.comm.CommDriver;
+import javax.comm.CommPort;
+import javax.comm.CommPortIdentifier;
+import javax.comm.SerialPort;
+import javax.comm.SerialPortEvent;
+import javax.comm.SerialPortEventListener;
+import javax.comm.UnsupportedCommOperationException;
+
+import net.frontlinesms.FrontlineUtils;
+
+import org.apache.log4j.Logger;
+
+import serial.SerialClassFactory;
+
+/**
+ * javax.comm driver which attaches {@link SimulatedModem}s to virtual serial ports, so that {@link SmsModem} and
+ * smslib's CService can connect to them as they would to a physical device.
+ * <p>Ports are added with {@link #addPort(String, SimulatedModem)}, which also selects javax.comm as the serial
+ * library.  The driver may instead be listed in <code>javax.comm.properties</code>, as loaded by
+ * {@link net.frontlinesms.CommUtils}, in which case ports added before the driver is loaded are registered when it
+ * is initialised.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SimulatedCommDriver implements CommDriver {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(SimulatedCommDriver.class);
+	/** Time, in millis, between checks for unsolicited output from a device */
+	private static final long OUTPUT_POLL_INTERVAL = 10;
+	/** Character set used to convert between a device's text and the bytes on its port */
+	private static final String CHARSET = "ISO-8859-1";
+
+//> STATIC PROPERTIES
+	/** The devices attached to each port, by port name */
+	private static final Map<String, SimulatedModem> modems = new HashMap<String, SimulatedModem>();
+	/** Names of the ports which have been registered with {@link CommPortIdentifier} */
+	private static final Set<String> registeredPorts = new HashSet<String>();
+	/** <code>true</code> once javax.comm has been selected as the serial library */
+	private static boolean setPackage;
+
+//> STATIC METHODS
+	/**
+	 * Attaches a device to a virtual serial port, replacing any device already attached to it.
+	 * @param portName the name of the port
+	 * @param modem the device to attach
+	 */
+	public static synchronized void addPort(String portName, SimulatedModem modem) {
+		if(!setPackage) {
+			SerialClassFactory.init(SerialClassFactory.PACKAGE_JAVAXCOMM);
+			setPackage = true;
+		}
+		modems.put(portName, modem);
+		register(portName, new SimulatedCommDriver());
+	}
+
+	/** @return the device attached to a port, or <code>null</code> if there is none */
+	private static synchronized SimulatedModem getModem(String portName) {
+		return modems.get(portName);
+	}
+
+	/**
+	 * Registers a port with {@link CommPortIdentifier}, if it has not already been registered.
+	 * @param portName
+	 * @param driver the driver which opens the port
+	 */
+	private static synchronized void register(String portName, CommDriver driver) {
+		if(registeredPorts.add(portName)) {
+			CommPortIdentifier.addPortName(portName, CommPortIdentifier.PORT_SERIAL, driver);
+		}
+	}
+
+//> COMMDRIVER METHODS
+	/** @see CommDriver#initialize() */
+	public void initialize() {
+		synchronized(SimulatedCommDriver.class) {
+			for(String portName : modems.keySet()) {
+				register(portName, this);
+			}
+		}
+	}
+
+	/** @see CommDriver#getCommPort(String, int) */
+	public CommPort getCommPort(String portName, int portType) {
+		SimulatedModem modem = getModem(portName);
+		if(modem == null || portType != CommPortIdentifier.PORT_SERIAL) return null;
+		return new SimulatedSerialPort(portName, modem);
+	}
+
+//> INNER CLASSES
+	/**
+	 * Serial port attached to a {@link SimulatedModem}.  Data written to the port is sent to the device, and the
+	 * device's output, including unsolicited result codes, is read from the port.
+	 */
+	private static class SimulatedSerialPort extends SerialPort {
+		/** The device attached to this port */
+		private final SimulatedModem modem;
+		/** Output from the device which has not yet been read from the port */
+		private final StringBuilder received = new StringBuilder();
+		/** Thread collecting unsolicited output from the device */
+		private final Thread outputPoller;
+		/** The listener for events on this port, or <code>null</code> if there is none */
+		private SerialPortEventListener listener;
+		/** <code>true</code> if {@link #listener} should be notified when data is available */
+		private boolean notifyOnDataAvailable;
+		/** Time, in millis, that reads wait for data, or -1 if they wait indefinitely */
+		private int receiveTimeout = -1;
+		/** <code>true</code> once this port has been closed */
+		private boolean closed;
+		/** Baud rate set on the port, which makes no difference to the device */
+		private int baudRate = 9600;
+		/** Data bits set on the port */
+		private int dataBits = DATABITS_8;
+		/** Stop bits set on the port */
+		private int stopBits = STOPBITS_1;
+		/** Parity set on the port */
+		private int parity = PARITY_NONE;
+		/** Flow control set on the port */
+		private int flowControlMode = FLOWCONTROL_NONE;
+		/** Data terminal ready */
+		private boolean dtr = true;
+		/** Request to send */
+		private boolean rts = true;
+
+		/**
+		 * Create a new {@link SimulatedSerialPort}.
+		 * @param portName
+		 * @param modem value for {@link #modem}
+		 */
+		SimulatedSerialPort(String portName, SimulatedModem modem) {
+			this.name = portName;
+			this.modem = modem;
+			this.outputPoller = new Thread("Simulated port: " + portName) {
+				@Override
+				public void run() {
+					while(!isClosed()) {
+						collectOutput();
+						FrontlineUtils.sleep_ignoreInterrupts(OUTPUT_POLL_INTERVAL);
+					}
+				}
+			};
+			this.outputPoller.setDaemon(true);
+			this.outputPoller.start();
+		}
+
+	//> DATA METHODS
+		/** Moves any output from the device to {@link #received}, and notifies {@link #listener} of it. */
+		private void collectOutput() {
+			SerialPortEventListener listener;
+			synchronized(this) {
+				// Output is collected while holding the lock so that it is kept in order
+				String output = modem.getResponse();
+				if(output.length() == 0) return;
+				received.append(output);
+				notifyAll();
+				listener = notifyOnDataAvailable ? this.listener : null;
+			}
+			if(listener != null) {
+				listener.serialEvent(new SerialPortEvent(this, SerialPortEvent.DATA_AVAILABLE, false, true));
+			}
+		}
+
+		/**
+		 * Waits for output from the device.
+		 * @return the next byte of output, or -1 if none arrived before {@link #receiveTimeout}, or the port was closed
+		 */
+		private synchronized int readByte() {
+			long deadline = receiveTimeout < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + receiveTimeout;
+			while(received.length() == 0 && !closed) {
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0) return -1;
+				try {
+					wait(Math.min(wait, OUTPUT_POLL_INTERVAL));
+				} catch(InterruptedException ex) {
+					LOG.debug("", ex);
+				}
+			}
+			if(received.length() == 0) return -1;
+			int b = received.charAt(0) & 0xff;
+			received.deleteCharAt(0);
+			return b;
+		}
+
+		/** @return the number of bytes of output which can be read without waiting */
+		private synchronized int getAvailable() {
+			return received.length();
+		}
+
+		/** @return {@link #closed} */
+		private synchronized boolean isClosed() {
+			return closed;
+		}
+
+	//> COMMPORT METHODS
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return new InputStream() {
+				@Override
+				public int read() throws IOException {
+					return readByte();
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if(len == 0) return 0;
+					int first = readByte();
+					if(first < 0) return -1;
+					b[off] = (byte) first;
+					int count = 1;
+					while(count < len && getAvailable() > 0) {
+						b[off + count++] = (byte) readByte();
+					}
+					return count;
+				}
+
+				@Override
+				public int available() throws IOException {
+					return getAvailable();
+				}
+			};
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					if(isClosed()) throw new IOException("Port closed: " + name);
+					try {
+						modem.send(new String(b, off, len, CHARSET));
+					} catch(UnsupportedEncodingException ex) {
+						throw new IllegalStateException(ex);
+					}
+					collectOutput();
+				}
+			};
+		}
+
+		@Override
+		public void close() {
+			synchronized(this) {
+				if(closed) return;
+				closed = true;
+				notifyAll();
+			}
+			super.close();
+		}
+
+		@Override
+		public synchronized void enableReceiveTimeout(int receiveTimeout) throws UnsupportedCommOperationException {
+			this.receiveTimeout = Math.max(0, receiveTimeout);
+		}
+
+		@Override
+		public synchronized void disableReceiveTimeout() {
+			this.receiveTimeout = -1;
+		}
+
+		@Override
+		public synchronized boolean isReceiveTimeoutEnabled() {
+			return receiveTimeout >= 0;
+		}
+
+		@Override
+		public synchronized int getReceiveTimeout() {
+			return receiveTimeout;
+		}
+
+		@Override
+		public void enableReceiveThreshold(int threshold) throws UnsupportedCommOperationException {
+			/* do nothing; reads return as soon as any data is available */
+		}
+
+		@Override
+		public void disableReceiveThreshold() {
+			/* do nothing */
+		}
+
+		@Override
+		public boolean isReceiveThresholdEnabled() {
+			return false;
+		}
+
+		@Override
+		public int getReceiveThreshold() {
+			return 0;
+		}
+
+		@Override
+		public void enableReceiveFraming(int framingByte) throws UnsupportedCommOperationException {
+			throw new UnsupportedCommOperationException("Receive framing is not supported.");
+		}
+
+		@Override
+		public void disableReceiveFraming() {
+			/* do nothing */
+		}
+
+		@Override
+		public boolean isReceiveFramingEnabled() {
+			return false;
+		}
+
+		@Override
+		public int getReceiveFramingByte() {
+			return 0;
+		}
+
+		@Override
+		public void setInputBufferSize(int size) {
+			/* do nothing; the buffer is unbounded */
+		}
+
+		@Override
+		public int getInputBufferSize() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public void setOutputBufferSize(int size) {
+			/* do nothing; data is sent to the device as it is written */
+		}
+
+		@Override
+		public int getOutputBufferSize() {
+			return 0;
+		}
+
+	//> SERIALPORT METHODS
+		@Override
+		public synchronized void setSerialPortParams(int baudRate, int dataBits, int stopBits, int parity) throws UnsupportedCommOperationException {
+			this.baudRate = baudRate;
+			this.dataBits = dataBits;
+			this.stopBits = stopBits;
+			this.parity = parity;
+		}
+
+		@Override
+		public synchronized int getBaudRate() {
+			return baudRate;
+		}
+
+		@Override
+		public synchronized int getDataBits() {
+			return dataBits;
+		}
+
+		@Override
+		public synchronized int getStopBits() {
+			return stopBits;
+		}
+
+		@Override
+		public synchronized int getParity() {
+			return parity;
+		}
+
+		@Override
+		public synchronized void setFlowControlMode(int flowControlMode) throws UnsupportedCommOperationException {
+			this.flowControlMode = flowControlMode;
+		}
+
+		@Override
+		public synchronized int getFlowControlMode() {
+			return flowControlMode;
+		}
+
+		/** Deprecated in javax.comm; does nothing. */
+		public void setRcvFifoTrigger(int trigger) {
+			/* do nothing */
+		}
+
+		@Override
+		public void sendBreak(int millis) {
+			/* do nothing */
+		}
+
+		@Override
+		public synchronized void setDTR(boolean dtr) {
+			this.dtr = dtr;
+		}
+
+		@Override
+		public synchronized boolean isDTR() {
+			return dtr;
+		}
+
+		@Override
+		public synchronized void setRTS(boolean rts) {
+			this.rts = rts;
+		}
+
+		@Override
+		public synchronized boolean isRTS() {
+			return rts;
+		}
+
+		@Override
+		public boolean isCTS() {
+			return true;
+		}
+
+		@Override
+		public boolean isDSR() {
+			return true;
+		}
+
+		@Override
+		public boolean isRI() {
+			return false;
+		}
+
+		@Override
+		public boolean isCD() {
+			return true;
+		}
+
+		@Override
+		public synchronized void addEventListener(SerialPortEventListener listener) throws TooManyListenersException {
+			if(this.listener != null) throw new TooManyListenersException();
+			this.listener = listener;
+		}
+
+		@Override
+		public synchronized void removeEventListener() {
+			this.listener = null;
+		}
+
+		@Override
+		public synchronized void notifyOnDataAvailable(boolean enable) {
+			this.notifyOnDataAvailable = enable;
+		}
+
+		@Override
+		public void notifyOnOutputEmpty(boolean enable) {
+			/* do nothing; output is never buffered */
+		}
+
+		@Override
+		public void notifyOnCTS(boolean enable) {
+			/* do nothing; line states do not change */
+		}
+
+		@Override
+		public void notifyOnDSR(boolean enable) {
+			/* do nothing; line states do not change */
+		}
+
+		@Override
+		public void notifyOnRingIndicator(boolean enable) {
+			/* do nothing; line states do not change */
+		}
+
+		@Override
+		public void notifyOnCarrierDetect(boolean enable) {
+			/* do nothing; line states do not change */
+		}
+
+		@Override
+		public void notifyOnOverrunError(boolean enable) {
+			/* do nothing; errors do not happen on a virtual port */
+		}
+
+		@Override
+		public void notifyOnParityError(boolean enable) {
+			/* do nothing; errors do not happen on a virtual port */
+		}
+
+		@Override
+		public void notifyOnFramingError(boolean enable) {
+			/* do nothing; errors do not happen on a virtual port */
+		}
+
+		@Override
+		public void notifyOnBreakInterrupt(boolean enable) {
+			/* do nothing; breaks are not simulated */
+		}
+	}
+}
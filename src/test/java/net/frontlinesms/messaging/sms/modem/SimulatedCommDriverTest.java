@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.comm.CommPortIdentifier;
+import javax.comm.SerialPort;
+import javax.comm.SerialPortEvent;
+import javax.comm.SerialPortEventListener;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link SimulatedCommDriver}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SimulatedCommDriverTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Name of the port the device under test is attached to */
+	private static final String PORT_NAME = "SIMULATEDTEST";
+	/** Time, in millis, to wait for the device to respond */
+	private static final int TIMEOUT = 5000;
+
+//> INSTANCE PROPERTIES
+	/** The device attached to the port */
+	private SimulatedModem modem;
+	/** The port under test */
+	private SerialPort port;
+
+//> TEST SETUP/TEARDOWN
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		modem = new SimulatedModem("123456789", 1);
+		SimulatedCommDriver.addPort(PORT_NAME, modem);
+		port = (SerialPort) CommPortIdentifier.getPortIdentifier(PORT_NAME).open(getClass().getName(), TIMEOUT);
+		port.enableReceiveTimeout(TIMEOUT);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		port.close();
+		super.tearDown();
+	}
+
+//> TEST METHODS
+	/** Commands written to the port should be answered by the device. */
+	public void testCommand() throws Exception {
+		assertEquals(CommPortIdentifier.PORT_SERIAL, CommPortIdentifier.getPortIdentifier(PORT_NAME).getPortType());
+		port.getOutputStream().write("AT+CGSN\r".getBytes("ISO-8859-1"));
+		assertEquals("\r\n123456789\r\n\r\nOK\r\n", readResponse(port.getInputStream(), "OK\r\n"));
+	}
+
+	/** Unsolicited output from the device should be readable, and notified to the port's listener. */
+	public void testUnsolicitedOutput() throws Exception {
+		final CountDownLatch dataAvailable = new CountDownLatch(1);
+		port.addEventListener(new SerialPortEventListener() {
+			public void serialEvent(SerialPortEvent event) {
+				if(event.getEventType() == SerialPortEvent.DATA_AVAILABLE) dataAvailable.countDown();
+			}
+		});
+		port.notifyOnDataAvailable(true);
+
+		OutputStream out = port.getOutputStream();
+		InputStream in = port.getInputStream();
+		out.write("AT+CNMI=2,1,0,0,0\r".getBytes("ISO-8859-1"));
+		readResponse(in, "OK\r\n");
+
+		modem.deliver("+447700900123", "Hello");
+		assertEquals("\r\n+CMTI: \"SM\",1\r\n", readResponse(in, "1\r\n"));
+		assertTrue(dataAvailable.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	/** A read should give up once the receive timeout has passed without any output. */
+	public void testReceiveTimeout() throws Exception {
+		port.enableReceiveTimeout(50);
+		assertEquals(-1, port.getInputStream().read());
+	}
+
+//> PRIVATE HELPER METHODS
+	/**
+	 * Reads from the port until the output ends with the supplied text.
+	 * @param in
+	 * @param end
+	 * @return the output read
+	 */
+	private static String readResponse(InputStream in, String end) throws Exception {
+		StringBuilder response = new StringBuilder();
+		while(!response.toString().endsWith(end)) {
+			int b = in.read();
+			if(b < 0) fail("Timed out waiting for [" + end.trim() + "] after [" + response + "]");
+			response.append((char) b);
+		}
+		return response.toString();
+	}
+}
@@ -0,0 +1,635 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import net.frontlinesms.FrontlineUtils;
+
+import org.smslib.util.GsmAlphabet;
+import org.smslib.v3.helper.GSMAlphabet;
+
+/**
+ * An in-process simulation of a GSM device attached to a serial port, for load-testing the SMS stack without
+ * physical phones.  Data is written to the device with {@link #send(String)}, and its output read with
+ * {@link #getResponse()}, as with a serial driver.  {@link SimulatedCommDriver} attaches the device to a serial
+ * port, so that it can be used by {@link SmsModem}.
+ * <p>The device understands the subset of AT commands used by the CAT handlers to connect, and to send and
+ * receive messages in PDU mode: AT+CMGS, AT+CMGL, AT+CMGR, AT+CMGD, AT+CNMI, AT+CPMS, AT+CMGF, AT+CPIN,
+ * AT+CREG, AT+CGMI, AT+CGMM, AT+CGMR, AT+CGSN, AT+CIMI, AT+CNUM, AT+CSQ and AT+CBC.  Settings made with other
+ * commands used when connecting, such as AT+CMEE, are accepted and ignored.  Each command can be given a latency
+ * and a failure rate, and received messages are generated with {@link #deliver(String, String)}.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SimulatedModem {
+//> STATIC CONSTANTS
+	/** Default number of messages the device's storage can hold, as on a typical SIM */
+	public static final int DEFAULT_STORAGE_CAPACITY = 30;
+	/** Name of the storage received messages are saved to */
+	static final String STORAGE = "SM";
+	/** Character ending a PDU sent after AT+CMGS */
+	static final char CTRL_Z = 0x1A;
+	/** Character cancelling a PDU sent after AT+CMGS */
+	private static final char ESC = 0x1B;
+	/** Largest number of GSM 7-bit septets in the user data of a single message */
+	private static final int MAX_SEPTETS = 160;
+	/** Largest number of octets in the user data of a single message */
+	private static final int MAX_OCTETS = 140;
+	/** User data header octets of a concatenated message part, with an 8-bit reference number */
+	private static final int CONCATENATED_UDH_OCTETS = 6;
+	/** Message status of a received message which has not been read, as used by AT+CMGL */
+	private static final int STAT_UNREAD = 0;
+	/** Message status of a received message which has been read, as used by AT+CMGL */
+	private static final int STAT_READ = 1;
+	/** Message status used by AT+CMGL to list all messages */
+	private static final int STAT_ALL = 4;
+	/** Result code for a successful command */
+	private static final String OK = "OK";
+	/** Result code for a failed command */
+	private static final String ERROR = "ERROR";
+	/** Message service error for an unknown failure */
+	private static final String CMS_ERROR_UNKNOWN = "+CMS ERROR: 500";
+	/** Message service error for a PDU which could not be understood */
+	private static final String CMS_ERROR_INVALID_PDU = "+CMS ERROR: 304";
+	/** Message service error for a storage slot which does not exist, or is empty */
+	private static final String CMS_ERROR_INVALID_INDEX = "+CMS ERROR: 321";
+	/** Manufacturer reported by AT+CGMI */
+	static final String MANUFACTURER = "FrontlineSMS";
+	/** Model reported by AT+CGMM */
+	static final String MODEL = "Simulated Modem";
+	/** Commands whose settings are accepted and ignored */
+	private static final Set<String> IGNORED_SETTINGS = new HashSet<String>(Arrays.asList(
+			"&F", "&C1", "&D2", "+CMEE", "+CLIP", "+COPS", "+CSCS", "+CSCA", "+CSMP", "+CSMS", "+CRC", "+CSDH"));
+
+//> INSTANCE PROPERTIES
+	/** The serial number reported by AT+CGSN */
+	private final String serialNumber;
+	/** The IMSI reported by AT+CIMI */
+	private final String imsi;
+	/** Random number generator used for injecting failures */
+	private final Random random;
+	/** Time, in millis, which each command takes, keyed by command name, e.g. <code>"+CMGS"</code> */
+	private final Map<String, Long> latencies = new HashMap<String, Long>();
+	/** Proportion of each command which fails, between 0 and 1, keyed by command name */
+	private final Map<String, Double> failureRates = new HashMap<String, Double>();
+	/** Received messages stored on the device, keyed by storage index */
+	private final TreeMap<Integer, StoredMessage> storage = new TreeMap<Integer, StoredMessage>();
+	/** Data written to the device which has not yet been handled */
+	private final StringBuilder input = new StringBuilder();
+	/** Output from the device which has not yet been read */
+	private final StringBuilder output = new StringBuilder();
+	/** The number of messages {@link #storage} can hold */
+	private int storageCapacity = DEFAULT_STORAGE_CAPACITY;
+	/** Signal strength reported by AT+CSQ, from 0 to 31 */
+	private int signalStrength = 20;
+	/** Battery charge, in percent, reported by AT+CBC */
+	private int batteryPercent = 100;
+	/** <code>true</code> if the device sends +CMTI indications when messages are received */
+	private boolean indicationsEnabled;
+	/** Length, in octets, of the PDU the device is waiting for after AT+CMGS, or -1 if it is not waiting for one */
+	private int expectedPduLength = -1;
+	/** Reference number of the next message sent, as reported by AT+CMGS */
+	private int nextMessageReference;
+	/** Reference number of the next concatenated message received */
+	private int nextConcatenatedReference;
+	/** The number of messages sent with AT+CMGS */
+	private long submittedCount;
+	/** The number of commands which failed, including injected failures */
+	private long failedCommandCount;
+	/** The number of message parts received and saved to {@link #storage} */
+	private long receivedCount;
+	/** The number of message parts which could not be received because {@link #storage} was full */
+	private long rejectedCount;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link SimulatedModem}.
+	 * @param serialNumber value for {@link #serialNumber}
+	 * @param seed seed for {@link #random}, so that injected failures can be repeated
+	 */
+	public SimulatedModem(String serialNumber, long seed) {
+		this.serialNumber = serialNumber;
+		this.imsi = "00101" + String.format("%010d", Math.abs(seed) % 10000000000L);
+		this.random = new Random(seed);
+	}
+
+//> ACCESSORS
+	/** @return {@link #serialNumber} */
+	public String getSerialNumber() {
+		return serialNumber;
+	}
+
+	/**
+	 * Sets the time a command takes.
+	 * @param command the name of the command, e.g. <code>"+CMGS"</code>
+	 * @param latencyMillis the time, in millis, which the command takes
+	 */
+	public synchronized void setLatency(String command, long latencyMillis) {
+		latencies.put(command.toUpperCase(), latencyMillis);
+	}
+
+	/**
+	 * Sets the proportion of a command which fails.  Failures of AT+CMGS happen once the PDU has been sent.
+	 * @param command the name of the command, e.g. <code>"+CMGS"</code>
+	 * @param failureRate the proportion of the command which fails, between 0 and 1
+	 */
+	public synchronized void setFailureRate(String command, double failureRate) {
+		failureRates.put(command.toUpperCase(), failureRate);
+	}
+
+	/** @param storageCapacity new value for {@link #storageCapacity} */
+	public synchronized void setStorageCapacity(int storageCapacity) {
+		this.storageCapacity = storageCapacity;
+	}
+
+	/** @param signalStrength new value for {@link #signalStrength} */
+	public synchronized void setSignalStrength(int signalStrength) {
+		this.signalStrength = signalStrength;
+	}
+
+	/** @param batteryPercent new value for {@link #batteryPercent} */
+	public synchronized void setBatteryPercent(int batteryPercent) {
+		this.batteryPercent = batteryPercent;
+	}
+
+	/** @return the number of messages currently stored on the device */
+	public synchronized int getStoredCount() {
+		return storage.size();
+	}
+
+	/** @return {@link #submittedCount} */
+	public synchronized long getSubmittedCount() {
+		return submittedCount;
+	}
+
+	/** @return {@link #failedCommandCount} */
+	public synchronized long getFailedCommandCount() {
+		return failedCommandCount;
+	}
+
+	/** @return {@link #receivedCount} */
+	public synchronized long getReceivedCount() {
+		return receivedCount;
+	}
+
+	/** @return {@link #rejectedCount} */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+//> SERIAL METHODS
+	/**
+	 * Writes data to the device.  Commands are handled when their terminating carriage return is written, and
+	 * this method does not return until they have completed, including any latency set for them.
+	 * @param data
+	 */
+	public void send(String data) {
+		long latency;
+		synchronized(this) {
+			latency = handleInput(data);
+		}
+		if(latency > 0) FrontlineUtils.sleep_ignoreInterrupts(latency);
+	}
+
+	/** @return the output from the device since this was last called, including any unsolicited result codes */
+	public synchronized String getResponse() {
+		String response = output.toString();
+		output.setLength(0);
+		return response;
+	}
+
+//> NETWORK METHODS
+	/**
+	 * Receives a text message from the network.  Messages which do not fit in a single part are received as
+	 * concatenated parts, each stored separately.  A +CMTI indication is sent for each part if indications have
+	 * been enabled with AT+CNMI.
+	 * @param originator the number the message was sent from
+	 * @param text the text of the message
+	 * @return the number of parts stored, which is less than the number of parts the message was sent as if the
+	 * device's storage was full
+	 */
+	public synchronized int deliver(String originator, String text) {
+		boolean gsm7bit = GsmAlphabet.areAllCharactersValidGSM(text);
+		String[] parts = split(text, gsm7bit);
+		int reference = parts.length > 1 ? nextConcatenatedReference++ & 0xff : -1;
+		int stored = 0;
+		for(int i=0; i<parts.length; ++i) {
+			int index = getFreeIndex();
+			if(index < 0) {
+				++rejectedCount;
+				continue;
+			}
+			byte[] udh = reference < 0 ? null : new byte[] { 5, 0, 3, (byte) reference, (byte) parts.length, (byte) (i + 1) };
+			storage.put(index, new StoredMessage(encodeDeliverPdu(originator, parts[i], gsm7bit, udh)));
+			++receivedCount;
+			++stored;
+			if(indicationsEnabled) output.append("\r\n+CMTI: \"").append(STORAGE).append("\",").append(index).append("\r\n");
+		}
+		return stored;
+	}
+
+//> COMMAND METHODS
+	/**
+	 * Handles data written to the device.
+	 * @param data
+	 * @return the total latency, in millis, of the commands which were handled
+	 */
+	private long handleInput(String data) {
+		long latency = 0;
+		for(int i=0; i<data.length(); ++i) {
+			char c = data.charAt(i);
+			if(expectedPduLength >= 0) {
+				if(c == CTRL_Z) {
+					latency += submit(input.toString().trim());
+					input.setLength(0);
+				} else if(c == ESC) {
+					expectedPduLength = -1;
+					input.setLength(0);
+					respond();
+				} else input.append(c);
+			} else if(c == '\r') {
+				String command = input.toString().trim();
+				input.setLength(0);
+				if(command.length() > 0) latency += execute(command);
+			} else if(c != '\n') {
+				input.append(c);
+			}
+		}
+		return latency;
+	}
+
+	/**
+	 * Executes an AT command.
+	 * @param command the command, without its terminating carriage return
+	 * @return the latency, in millis, of the command
+	 */
+	private long execute(String command) {
+		String upper = command.toUpperCase();
+		if(!upper.startsWith("AT")) {
+			fail(ERROR);
+			return 0;
+		}
+		String name = getCommandName(upper);
+		String arguments = upper.substring(2 + name.length());
+		long latency = getLatency(name);
+
+		// Failures of AT+CMGS are injected when the PDU is sent
+		if(!name.equals("+CMGS") && isInjectedFailure(name)) {
+			fail(name.startsWith("+CMG") ? CMS_ERROR_UNKNOWN : ERROR);
+			return latency;
+		}
+
+		try {
+			if(name.equals("") || name.equals("E0") || name.equals("E1") || name.equals("Z")) {
+				respond();
+			} else if(IGNORED_SETTINGS.contains(name)) {
+				if(arguments.equals("?")) fail(ERROR);
+				else respond();
+			} else if(name.equals("+CPIN")) {
+				if(arguments.equals("?")) respond("+CPIN: READY");
+				else respond();
+			} else if(name.equals("+CREG")) {
+				if(arguments.equals("?")) respond("+CREG: 0,1");
+				else respond();
+			} else if(name.equals("+CMGF")) {
+				// Only PDU mode is simulated
+				if(arguments.equals("?")) respond("+CMGF: 0");
+				else if(arguments.equals("=0")) respond();
+				else fail(ERROR);
+			} else if(name.equals("+CGMI")) {
+				respond(MANUFACTURER);
+			} else if(name.equals("+CGMM")) {
+				respond(MODEL);
+			} else if(name.equals("+CGMR")) {
+				respond("1.0");
+			} else if(name.equals("+CGSN")) {
+				respond(serialNumber);
+			} else if(name.equals("+CIMI")) {
+				respond(imsi);
+			} else if(name.equals("+CNUM")) {
+				// The SIM does not store its own number
+				respond();
+			} else if(name.equals("+CSQ")) {
+				respond("+CSQ: " + signalStrength + ",99");
+			} else if(name.equals("+CBC")) {
+				respond("+CBC: 0," + batteryPercent);
+			} else if(name.equals("+CNMI")) {
+				if(arguments.equals("?")) {
+					respond("+CNMI: 2," + (indicationsEnabled ? 1 : 0) + ",0,0,0");
+				} else {
+					String[] values = getValues(arguments);
+					indicationsEnabled = values.length > 1 && Integer.parseInt(values[1]) == 1;
+					respond();
+				}
+			} else if(name.equals("+CPMS")) {
+				if(arguments.equals("=?")) {
+					String storages = "(\"" + STORAGE + "\")";
+					respond("+CPMS: " + storages + "," + storages + "," + storages);
+					return latency;
+				}
+				String usage = "\"" + STORAGE + "\"," + storage.size() + "," + storageCapacity;
+				respond("+CPMS: " + usage + "," + usage + "," + usage);
+			} else if(name.equals("+CMGS")) {
+				expectedPduLength = Integer.parseInt(getValues(arguments)[0]);
+				output.append("\r\n> ");
+			} else if(name.equals("+CMGL")) {
+				list(Integer.parseInt(getValues(arguments)[0]));
+			} else if(name.equals("+CMGR")) {
+				read(Integer.parseInt(getValues(arguments)[0]));
+			} else if(name.equals("+CMGD")) {
+				String[] values = getValues(arguments);
+				if(values.length > 1 && Integer.parseInt(values[1]) == 4) storage.clear();
+				else storage.remove(Integer.parseInt(values[0]));
+				respond();
+			} else {
+				fail(ERROR);
+			}
+		} catch(NumberFormatException ex) {
+			fail(ERROR);
+		} catch(ArrayIndexOutOfBoundsException ex) {
+			fail(ERROR);
+		}
+		return latency;
+	}
+
+	/**
+	 * Sends a message with the PDU written after AT+CMGS.
+	 * @param pdu the hex-encoded PDU, starting with the service centre address
+	 * @return the latency, in millis, of sending the message
+	 */
+	private long submit(String pdu) {
+		int length = expectedPduLength;
+		expectedPduLength = -1;
+		long latency = getLatency("+CMGS");
+
+		byte[] octets = fromHex(pdu);
+		if(octets == null || octets.length < 2 || octets.length - 1 - (octets[0] & 0xff) != length
+				|| (octets[1 + (octets[0] & 0xff)] & 0x03) != 0x01) {
+			// The PDU is malformed, its length is not as given, or it is not an SMS-SUBMIT
+			fail(CMS_ERROR_INVALID_PDU);
+		} else if(isInjectedFailure("+CMGS")) {
+			fail(CMS_ERROR_UNKNOWN);
+		} else {
+			++submittedCount;
+			respond("+CMGS: " + (nextMessageReference++ & 0xff));
+		}
+		return latency;
+	}
+
+	/**
+	 * Lists the stored messages with a status, marking unread messages as read.
+	 * @param stat the status of messages to list, or {@link #STAT_ALL}
+	 */
+	private void list(int stat) {
+		if(stat != STAT_UNREAD && stat != STAT_READ && stat != STAT_ALL) {
+			fail(CMS_ERROR_UNKNOWN);
+			return;
+		}
+		StringBuilder listing = new StringBuilder();
+		for(Map.Entry<Integer, StoredMessage> entry : storage.entrySet()) {
+			StoredMessage message = entry.getValue();
+			int messageStat = message.read ? STAT_READ : STAT_UNREAD;
+			if(stat == STAT_ALL || stat == messageStat) {
+				listing.append("\r\n+CMGL: ").append(entry.getKey()).append(',').append(messageStat)
+						.append(",,").append(message.getLength()).append("\r\n").append(message.pdu);
+				message.read = true;
+			}
+		}
+		output.append(listing);
+		if(listing.length() > 0) output.append("\r\n");
+		respond();
+	}
+
+	/**
+	 * Reads a stored message, marking it as read.
+	 * @param index the storage index of the message
+	 */
+	private void read(int index) {
+		StoredMessage message = storage.get(index);
+		if(message == null) {
+			fail(CMS_ERROR_INVALID_INDEX);
+		} else {
+			int stat = message.read ? STAT_READ : STAT_UNREAD;
+			message.read = true;
+			respond("+CMGR: " + stat + ",," + message.getLength(), message.pdu);
+		}
+	}
+
+	/**
+	 * Writes a successful response to {@link #output}.
+	 * @param lines information lines to write before the result code
+	 */
+	private void respond(String... lines) {
+		for(String line : lines) {
+			output.append("\r\n").append(line).append("\r\n");
+		}
+		output.append("\r\n").append(OK).append("\r\n");
+	}
+
+	/**
+	 * Writes a failure to {@link #output}.
+	 * @param result the result code, e.g. {@link #ERROR}
+	 */
+	private void fail(String result) {
+		++failedCommandCount;
+		output.append("\r\n").append(result).append("\r\n");
+	}
+
+	/** @return the latency, in millis, of a command */
+	private long getLatency(String name) {
+		Long latency = latencies.get(name);
+		return latency == null ? 0 : latency;
+	}
+
+	/** @return <code>true</code> if a failure should be injected for a command */
+	private boolean isInjectedFailure(String name) {
+		Double failureRate = failureRates.get(name);
+		return failureRate != null && random.nextDouble() < failureRate;
+	}
+
+	/** @return the lowest free storage index, or -1 if the storage is full */
+	private int getFreeIndex() {
+		for(int index=1; index<=storageCapacity; ++index) {
+			if(!storage.containsKey(index)) return index;
+		}
+		return -1;
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * Gets the name of an AT command, e.g. <code>"+CMGS"</code> for <code>"AT+CMGS=23"</code>.
+	 * @param command the command in upper case, starting with <code>"AT"</code>
+	 * @return the name of the command, which is empty for <code>"AT"</code>
+	 */
+	static String getCommandName(String command) {
+		int end = 2;
+		while(end < command.length() && command.charAt(end) != '=' && command.charAt(end) != '?') ++end;
+		return command.substring(2, end);
+	}
+
+	/** @return the comma-separated values following the <code>=</code> of a command's arguments */
+	private static String[] getValues(String arguments) {
+		if(!arguments.startsWith("=")) throw new NumberFormatException("No values: " + arguments);
+		String[] values = arguments.substring(1).split(",");
+		for(int i=0; i<values.length; ++i) values[i] = values[i].trim();
+		return values;
+	}
+
+	/**
+	 * Splits text into the parts it is received as.
+	 * @param text
+	 * @param gsm7bit <code>true</code> if the text is encoded in the GSM 7-bit alphabet, <code>false</code> if UCS-2
+	 * @return the text of each part
+	 */
+	private static String[] split(String text, boolean gsm7bit) {
+		int singleCapacity = gsm7bit ? MAX_SEPTETS : MAX_OCTETS / 2;
+		int partCapacity = gsm7bit ? (MAX_OCTETS - CONCATENATED_UDH_OCTETS) * 8 / 7 : (MAX_OCTETS - CONCATENATED_UDH_OCTETS) / 2;
+		if(getLength(text, gsm7bit) <= singleCapacity) return new String[] { text };
+
+		List<String> parts = new ArrayList<String>();
+		int start = 0, length = 0;
+		for(int i=0; i<text.length(); ++i) {
+			int charLength = gsm7bit ? GSMAlphabet.noOfChars(text.charAt(i)) : 1;
+			if(length + charLength > partCapacity) {
+				parts.add(text.substring(start, i));
+				start = i;
+				length = 0;
+			}
+			length += charLength;
+		}
+		parts.add(text.substring(start));
+		return parts.toArray(new String[parts.size()]);
+	}
+
+	/** @return the length of text, in septets if it is GSM 7-bit, or in characters if it is UCS-2 */
+	private static int getLength(String text, boolean gsm7bit) {
+		return gsm7bit ? GSMAlphabet.noOfChars(text) : text.length();
+	}
+
+	/**
+	 * Encodes an SMS-DELIVER PDU, preceded by an empty service centre address as returned by AT+CMGR.
+	 * @param originator the number the message was sent from
+	 * @param text the text of the message
+	 * @param gsm7bit <code>true</code> if the text should be encoded in the GSM 7-bit alphabet, <code>false</code> for UCS-2
+	 * @param udh the user data header, including its length octet, or <code>null</code> if there is none
+	 * @return the hex-encoded PDU
+	 */
+	static String encodeDeliverPdu(String originator, String text, boolean gsm7bit, byte[] udh) {
+		StringBuilder pdu = new StringBuilder();
+		// No service centre address; SMS-DELIVER, with the user data header indicator if needed
+		pdu.append("00");
+		appendOctet(pdu, udh == null ? 0x04 : 0x44);
+
+		boolean international = originator.startsWith("+");
+		String digits = international ? originator.substring(1) : originator;
+		appendOctet(pdu, digits.length());
+		appendOctet(pdu, international ? 0x91 : 0x81);
+		for(int i=0; i<digits.length(); i+=2) {
+			int low = digits.charAt(i) - '0';
+			int high = i + 1 < digits.length() ? digits.charAt(i + 1) - '0' : 0x0f;
+			appendOctet(pdu, (high << 4) | low);
+		}
+
+		// Protocol identifier, data coding scheme and service centre timestamp
+		appendOctet(pdu, 0x00);
+		appendOctet(pdu, gsm7bit ? 0x00 : 0x08);
+		Calendar now = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		appendSwappedDecimal(pdu, now.get(Calendar.YEAR) % 100);
+		appendSwappedDecimal(pdu, now.get(Calendar.MONTH) + 1);
+		appendSwappedDecimal(pdu, now.get(Calendar.DAY_OF_MONTH));
+		appendSwappedDecimal(pdu, now.get(Calendar.HOUR_OF_DAY));
+		appendSwappedDecimal(pdu, now.get(Calendar.MINUTE));
+		appendSwappedDecimal(pdu, now.get(Calendar.SECOND));
+		appendOctet(pdu, 0x00);
+
+		int udhOctets = udh == null ? 0 : udh.length;
+		if(gsm7bit) {
+			// The user data header is followed by fill bits up to the next septet boundary
+			int headerSeptets = (udhOctets * 8 + 6) / 7;
+			byte[] textSeptets = new byte[text.length() * 2];
+			int textSeptetCount = GSMAlphabet.stringToBytes(text, textSeptets);
+			int septetCount = headerSeptets + textSeptetCount;
+			byte[] septets = new byte[septetCount];
+			System.arraycopy(textSeptets, 0, septets, headerSeptets, textSeptetCount);
+			byte[] packed = new byte[GSMAlphabet.packedLength(septetCount)];
+			GSMAlphabet.packSeptets(septets, septetCount, packed);
+			if(udh != null) System.arraycopy(udh, 0, packed, 0, udhOctets);
+			appendOctet(pdu, septetCount);
+			appendOctets(pdu, packed);
+		} else {
+			try {
+				byte[] content = text.getBytes("UTF-16BE");
+				appendOctet(pdu, udhOctets + content.length);
+				if(udh != null) appendOctets(pdu, udh);
+				appendOctets(pdu, content);
+			} catch(UnsupportedEncodingException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		return pdu.toString();
+	}
+
+	/** Appends an octet to a hex-encoded PDU. */
+	private static void appendOctet(StringBuilder pdu, int octet) {
+		pdu.append(Character.toUpperCase(Character.forDigit((octet >> 4) & 0x0f, 16)));
+		pdu.append(Character.toUpperCase(Character.forDigit(octet & 0x0f, 16)));
+	}
+
+	/** Appends octets to a hex-encoded PDU. */
+	private static void appendOctets(StringBuilder pdu, byte[] octets) {
+		for(byte octet : octets) appendOctet(pdu, octet);
+	}
+
+	/** Appends a decimal value from 0 to 99 to a PDU as two swapped semi-octets. */
+	private static void appendSwappedDecimal(StringBuilder pdu, int value) {
+		appendOctet(pdu, ((value % 10) << 4) | (value / 10));
+	}
+
+	/** @return the octets encoded in a hex string, or <code>null</code> if it is not valid hex */
+	private static byte[] fromHex(String hex) {
+		if(hex.length() == 0 || hex.length() % 2 != 0) return null;
+		byte[] octets = new byte[hex.length() / 2];
+		for(int i=0; i<octets.length; ++i) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if(high < 0 || low < 0) return null;
+			octets[i] = (byte) ((high << 4) | low);
+		}
+		return octets;
+	}
+
+//> INNER CLASSES
+	/** A received message stored on the device. */
+	private static class StoredMessage {
+		/** The hex-encoded SMS-DELIVER PDU, starting with the service centre address */
+		private final String pdu;
+		/** <code>true</code> if the message has been read */
+		private boolean read;
+
+		/**
+		 * Create a new {@link StoredMessage}.
+		 * @param pdu value for {@link #pdu}
+		 */
+		StoredMessage(String pdu) {
+			this.pdu = pdu;
+		}
+
+		/** @return the length, in octets, of the PDU excluding the service centre address */
+		int getLength() {
+			return pdu.length() / 2 - 1 - Integer.parseInt(pdu.substring(0, 2), 16);
+		}
+	}
+}
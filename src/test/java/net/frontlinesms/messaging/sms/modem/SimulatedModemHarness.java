@@ -0,0 +1,308 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.listener.IncomingMessageListener;
+import net.frontlinesms.listener.SmsListener;
+import net.frontlinesms.messaging.IncomingMessageProcessor;
+import net.frontlinesms.messaging.sms.SmsService;
+import net.frontlinesms.messaging.sms.SmsServiceManager;
+import net.frontlinesms.messaging.sms.SmsServiceStatus;
+
+import org.apache.log4j.Logger;
+import org.smslib.CIncomingMessage;
+
+import serial.NoSuchPortException;
+
+/**
+ * Load-tests the SMS stack by running a number of {@link SimulatedModem}s in parallel behind a
+ * {@link SmsServiceManager}, and measuring the sustained rates at which messages are sent and received.
+ * <p>Each {@link SimulatedModem} is attached to a virtual serial port by {@link SimulatedCommDriver}, and the
+ * {@link SmsServiceManager} connects an {@link SmsModem} to each port as it would to a physical device.  Outgoing
+ * messages are queued with the {@link SmsServiceManager}, which dispatches them to the {@link SmsModem}s.
+ * Incoming messages are generated on the {@link SimulatedModem}s, and once read are passed to an
+ * {@link IncomingMessageProcessor} if one has been set, as they are by {@link net.frontlinesms.FrontlineSMS}.</p>
+ * <p>This can be run from the command line with:</p>
+ * <pre>SimulatedModemHarness [modemCount] [outgoingCount] [incomingCountPerModem] [cmgsLatencyMillis] [cmgsFailureRate]</pre>
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SimulatedModemHarness implements SmsListener, IncomingMessageListener {
+	public static void main(String[] args) {
+		int modemCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int outgoingCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int incomingCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		long latency = args.length > 3 ? Long.parseLong(args[3]) : 50;
+		double failureRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.01;
+
+		SimulatedModemHarness harness = new SimulatedModemHarness(modemCount);
+		for(SimulatedModem modem : harness.getModems()) {
+			modem.setLatency("+CMGS", latency);
+			modem.setFailureRate("+CMGS", failureRate);
+		}
+		LOG.info(harness.run(outgoingCount, incomingCount, 10 * 60 * 1000));
+	}
+
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(SimulatedModemHarness.class);
+	/** Prefix of the names of the virtual serial ports the modems are attached to */
+	private static final String PORT_PREFIX = "SIMULATED";
+	/** Baud rate used to connect to the modems, which makes no difference to their speed */
+	private static final int BAUD_RATE = 115200;
+	/** Number the generated incoming messages are sent from */
+	private static final String ORIGINATOR = "+447700900";
+	/** Number the outgoing messages are sent to */
+	private static final String RECIPIENT = "+447700901";
+	/** Time, in millis, between checks that the run has completed */
+	private static final long POLL_INTERVAL = 20;
+
+//> INSTANCE PROPERTIES
+	/** The simulated devices */
+	private final List<SimulatedModem> modems = new ArrayList<SimulatedModem>();
+	/** The names of the ports {@link #modems} are attached to */
+	private final List<String> portNames = new ArrayList<String>();
+	/** Processor which received messages are passed to, or <code>null</code> if they are only counted */
+	private IncomingMessageProcessor incomingMessageProcessor;
+	/** Outgoing messages which have been sent or have failed.  The same message may be reported by both the
+	 * {@link SmsServiceManager} and the service sending it, so messages are tracked by identity. */
+	private final Map<FrontlineMessage, Status> completed = Collections.synchronizedMap(new IdentityHashMap<FrontlineMessage, Status>());
+	/** The number of messages sent */
+	private final AtomicLong sentCount = new AtomicLong();
+	/** The number of messages which failed to send */
+	private final AtomicLong failedCount = new AtomicLong();
+	/** The number of messages received by the {@link SmsServiceManager} */
+	private final AtomicLong receivedCount = new AtomicLong();
+	/** The number of messages processed by {@link #incomingMessageProcessor} */
+	private final AtomicLong processedCount = new AtomicLong();
+	/** Time, in millis, when the last message was sent or failed */
+	private volatile long lastSendTime;
+	/** Time, in millis, when the last message was received, or processed if there is an {@link #incomingMessageProcessor} */
+	private volatile long lastReceiveTime;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link SimulatedModemHarness}.
+	 * @param modemCount the number of {@link SimulatedModem}s to run
+	 */
+	public SimulatedModemHarness(int modemCount) {
+		for(int i=0; i<modemCount; ++i) {
+			String portName = PORT_PREFIX + i;
+			SimulatedModem modem = new SimulatedModem(portName, i);
+			SimulatedCommDriver.addPort(portName, modem);
+			modems.add(modem);
+			portNames.add(portName);
+		}
+	}
+
+//> ACCESSORS
+	/** @return {@link #modems}, which may be configured before {@link #run(int, int, long)} */
+	public List<SimulatedModem> getModems() {
+		return Collections.unmodifiableList(modems);
+	}
+
+	/** @param incomingMessageProcessor new value for {@link #incomingMessageProcessor} */
+	public void setIncomingMessageProcessor(IncomingMessageProcessor incomingMessageProcessor) {
+		this.incomingMessageProcessor = incomingMessageProcessor;
+		incomingMessageProcessor.addIncomingMessageListener(this);
+	}
+
+//> RUN METHODS
+	/**
+	 * Sends and receives messages with all modems until every message has been sent or has failed, and every
+	 * incoming message has been received, or until the timeout is reached.
+	 * @param outgoingCount the number of messages to send, spread over all modems
+	 * @param incomingCountPerModem the number of messages each modem should receive
+	 * @param timeoutMillis the longest time, in millis, to run for
+	 * @return the results of the run
+	 */
+	public Result run(int outgoingCount, int incomingCountPerModem, long timeoutMillis) {
+		completed.clear();
+		sentCount.set(0);
+		failedCount.set(0);
+		receivedCount.set(0);
+		processedCount.set(0);
+
+		SmsServiceManager manager = new SmsServiceManager();
+		manager.setSmsListener(this);
+		manager.start();
+		for(String portName : portNames) {
+			try {
+				manager.requestConnect(portName, BAUD_RATE, "");
+			} catch(NoSuchPortException ex) {
+				throw new IllegalStateException("Simulated port was not registered: " + portName, ex);
+			}
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(!isConnected(manager) && System.currentTimeMillis() < deadline) {
+			FrontlineUtils.sleep_ignoreInterrupts(POLL_INTERVAL);
+		}
+
+		long startTime = System.currentTimeMillis();
+		lastSendTime = startTime;
+		lastReceiveTime = startTime;
+		List<FrontlineMessage> outgoing = new ArrayList<FrontlineMessage>(outgoingCount);
+		for(int i=0; i<outgoingCount; ++i) {
+			outgoing.add(FrontlineMessage.createOutgoingMessage(startTime, "", RECIPIENT + (i % 1000), "Load test message " + i));
+		}
+		manager.sendSMS(outgoing);
+
+		long expectedIncoming = (long) incomingCountPerModem * modems.size();
+		int[] delivered = new int[modems.size()];
+		while(System.currentTimeMillis() < deadline
+				&& (sentCount.get() + failedCount.get() < outgoingCount || getIncomingCount() < expectedIncoming)) {
+			// Generate incoming messages as fast as the devices' storage allows
+			for(int i=0; i<modems.size(); ++i) {
+				while(delivered[i] < incomingCountPerModem
+						&& modems.get(i).deliver(ORIGINATOR + (delivered[i] % 1000), "Load test reply " + delivered[i]) > 0) {
+					++delivered[i];
+				}
+			}
+			FrontlineUtils.sleep_ignoreInterrupts(POLL_INTERVAL);
+		}
+
+		manager.stopRunning();
+		return new Result(modems.size(), sentCount.get(), failedCount.get(), lastSendTime - startTime,
+				receivedCount.get(), incomingMessageProcessor == null ? -1 : processedCount.get(), lastReceiveTime - startTime);
+	}
+
+	/**
+	 * @param manager
+	 * @return <code>true</code> if an {@link SmsModem} has connected to each of {@link #portNames}
+	 */
+	private boolean isConnected(SmsServiceManager manager) {
+		int connected = 0;
+		for(SmsService service : manager.getAll()) {
+			if(service instanceof SmsModem
+					&& portNames.contains(((SmsModem) service).getPort())
+					&& ((SmsModem) service).getStatus() == SmsModemStatus.CONNECTED) {
+				++connected;
+			}
+		}
+		return connected == portNames.size();
+	}
+
+	/** @return the number of incoming messages which have been received, or processed if there is an {@link #incomingMessageProcessor} */
+	private long getIncomingCount() {
+		return incomingMessageProcessor == null ? receivedCount.get() : processedCount.get();
+	}
+
+//> LISTENER METHODS
+	/** @see SmsListener#incomingMessageEvent(SmsService, CIncomingMessage) */
+	public void incomingMessageEvent(SmsService receiver, CIncomingMessage incomingMessage) {
+		receivedCount.incrementAndGet();
+		if(incomingMessageProcessor != null) {
+			incomingMessageProcessor.queue(receiver, incomingMessage);
+		} else {
+			lastReceiveTime = System.currentTimeMillis();
+		}
+	}
+
+	/** @see IncomingMessageListener#incomingMessageEvent(FrontlineMessage) */
+	public void incomingMessageEvent(FrontlineMessage message) {
+		processedCount.incrementAndGet();
+		lastReceiveTime = System.currentTimeMillis();
+	}
+
+	/** @see SmsListener#outgoingMessageEvent(SmsService, FrontlineMessage) */
+	public void outgoingMessageEvent(SmsService sender, FrontlineMessage outgoingMessage) {
+		Status status = outgoingMessage.getStatus();
+		if((status == Status.SENT || status == Status.FAILED) && completed.put(outgoingMessage, status) == null) {
+			if(status == Status.SENT) sentCount.incrementAndGet();
+			else failedCount.incrementAndGet();
+			lastSendTime = System.currentTimeMillis();
+		}
+	}
+
+	/** @see SmsListener#smsDeviceEvent(SmsService, SmsServiceStatus) */
+	public void smsDeviceEvent(SmsService activeDevice, SmsServiceStatus smsDeviceStatus) {
+		/* do nothing */
+	}
+
+//> INNER CLASSES
+	/** The results of a run of {@link SimulatedModemHarness}. */
+	public static class Result {
+		/** The number of modems used */
+		private final int modemCount;
+		/** The number of messages sent */
+		private final long sentCount;
+		/** The number of messages which failed to send */
+		private final long failedCount;
+		/** Time, in millis, from the start of the run until the last message was sent or failed */
+		private final long sendDuration;
+		/** The number of messages received */
+		private final long receivedCount;
+		/** The number of messages processed by the {@link IncomingMessageProcessor}, or -1 if there was none */
+		private final long processedCount;
+		/** Time, in millis, from the start of the run until the last message was received or processed */
+		private final long receiveDuration;
+
+		/**
+		 * Create a new {@link Result}.
+		 * @param modemCount value for {@link #modemCount}
+		 * @param sentCount value for {@link #sentCount}
+		 * @param failedCount value for {@link #failedCount}
+		 * @param sendDuration value for {@link #sendDuration}
+		 * @param receivedCount value for {@link #receivedCount}
+		 * @param processedCount value for {@link #processedCount}
+		 * @param receiveDuration value for {@link #receiveDuration}
+		 */
+		Result(int modemCount, long sentCount, long failedCount, long sendDuration, long receivedCount, long processedCount, long receiveDuration) {
+			this.modemCount = modemCount;
+			this.sentCount = sentCount;
+			this.failedCount = failedCount;
+			this.sendDuration = sendDuration;
+			this.receivedCount = receivedCount;
+			this.processedCount = processedCount;
+			this.receiveDuration = receiveDuration;
+		}
+
+		/** @return {@link #sentCount} */
+		public long getSentCount() {
+			return sentCount;
+		}
+
+		/** @return {@link #failedCount} */
+		public long getFailedCount() {
+			return failedCount;
+		}
+
+		/** @return {@link #receivedCount} */
+		public long getReceivedCount() {
+			return receivedCount;
+		}
+
+		/** @return {@link #processedCount} */
+		public long getProcessedCount() {
+			return processedCount;
+		}
+
+		/** @return the rate, in messages per second, at which messages were sent or failed */
+		public double getSendRate() {
+			return (sentCount + failedCount) * 1000.0 / Math.max(1, sendDuration);
+		}
+
+		/** @return the rate, in messages per second, at which messages were received, or processed if there was an {@link IncomingMessageProcessor} */
+		public double getReceiveRate() {
+			return (processedCount < 0 ? receivedCount : processedCount) * 1000.0 / Math.max(1, receiveDuration);
+		}
+
+		@Override
+		public String toString() {
+			return modemCount + " modem(s): sent " + sentCount + " (" + failedCount + " failed) at "
+					+ String.format("%.1f", getSendRate()) + " msg/s; received " + receivedCount
+					+ (processedCount < 0 ? "" : " (" + processedCount + " processed)")
+					+ " at " + String.format("%.1f", getReceiveRate()) + " msg/s";
+		}
+	}
+}
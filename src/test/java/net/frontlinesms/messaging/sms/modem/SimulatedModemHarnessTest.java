@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import static org.mockito.Mockito.*;
+
+import net.frontlinesms.FrontlineSMS;
+import net.frontlinesms.data.repository.ContactDao;
+import net.frontlinesms.data.repository.KeywordActionDao;
+import net.frontlinesms.data.repository.KeywordDao;
+import net.frontlinesms.data.repository.MessageDao;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.IncomingMessageProcessor;
+
+/**
+ * Tests for {@link SimulatedModemHarness}, running a small load through the SMS stack, including
+ * {@link SmsModem} and smslib's CService.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SimulatedModemHarnessTest extends BaseTestCase {
+	/** Time, in millis, allowed for each run */
+	private static final long TIMEOUT = 60 * 1000;
+
+	/** All messages should be sent and received, and failures injected on the devices should be reported. */
+	public void testRun() {
+		SimulatedModemHarness harness = new SimulatedModemHarness(3);
+		for(SimulatedModem modem : harness.getModems()) {
+			modem.setLatency("+CMGS", 5);
+		}
+		harness.getModems().get(0).setFailureRate("+CMGS", 1);
+
+		SimulatedModemHarness.Result result = harness.run(60, 40, TIMEOUT);
+		assertEquals(60, result.getSentCount() + result.getFailedCount());
+		assertTrue(result.getFailedCount() > 0);
+		assertEquals(120, result.getReceivedCount());
+		assertEquals(-1, result.getProcessedCount());
+		assertTrue(result.getSendRate() > 0);
+		assertTrue(result.getReceiveRate() > 0);
+	}
+
+	/** Received messages should be processed by the {@link IncomingMessageProcessor}. */
+	public void testRunWithIncomingMessageProcessor() {
+		FrontlineSMS frontline = mock(FrontlineSMS.class);
+		when(frontline.getContactDao()).thenReturn(mock(ContactDao.class));
+		when(frontline.getMessageDao()).thenReturn(mock(MessageDao.class));
+		when(frontline.getKeywordDao()).thenReturn(mock(KeywordDao.class));
+		when(frontline.getKeywordActionDao()).thenReturn(mock(KeywordActionDao.class));
+		IncomingMessageProcessor imp = new IncomingMessageProcessor(frontline);
+		imp.start();
+
+		try {
+			SimulatedModemHarness harness = new SimulatedModemHarness(2);
+			harness.setIncomingMessageProcessor(imp);
+
+			SimulatedModemHarness.Result result = harness.run(20, 50, TIMEOUT);
+			assertEquals(20, result.getSentCount());
+			assertEquals(100, result.getReceivedCount());
+			assertEquals(100, result.getProcessedCount());
+		} finally {
+			imp.die();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+import org.smslib.v3.OutboundMessage;
+
+/**
+ * Unit tests for {@link SimulatedModem}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SimulatedModemTest extends BaseTestCase {
+//> INSTANCE PROPERTIES
+	/** The device under test */
+	private SimulatedModem modem;
+
+//> TEST SETUP/TEARDOWN
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		modem = new SimulatedModem("123456789", 1);
+	}
+
+//> TEST METHODS
+	/** Test the commands which report on the device. */
+	public void testDeviceInfo() {
+		assertResponse("\r\nOK\r\n", "AT");
+		assertResponse("\r\n123456789\r\n\r\nOK\r\n", "AT+CGSN");
+		assertResponse("\r\n+CSQ: 20,99\r\n\r\nOK\r\n", "AT+CSQ");
+		modem.setBatteryPercent(42);
+		assertResponse("\r\n+CBC: 0,42\r\n\r\nOK\r\n", "AT+CBC");
+		assertResponse("\r\n+CMGF: 0\r\n\r\nOK\r\n", "AT+CMGF?");
+		assertResponse("\r\n+CPIN: READY\r\n\r\nOK\r\n", "AT+CPIN?");
+		assertResponse("\r\n+CREG: 0,1\r\n\r\nOK\r\n", "AT+CREG?");
+		assertResponse("\r\n" + SimulatedModem.MANUFACTURER + "\r\n\r\nOK\r\n", "AT+CGMI");
+		// Settings made when connecting are accepted
+		assertResponse("\r\nOK\r\n", "AT+CMEE=1");
+		// Text mode is not simulated
+		assertResponse("\r\nERROR\r\n", "AT+CMGF=1");
+		assertResponse("\r\nERROR\r\n", "AT+NOTACOMMAND");
+	}
+
+	/** Test sending a message with AT+CMGS. */
+	public void testSend() {
+		String pdu = new OutboundMessage("+447700900123", "Hello").getPDU("", 0, 1);
+		assertResponse("\r\n> ", "AT+CMGS=" + (pdu.length() / 2 - 1));
+		modem.send(pdu + SimulatedModem.CTRL_Z);
+		assertEquals("\r\n+CMGS: 0\r\n\r\nOK\r\n", modem.getResponse());
+		assertEquals(1, modem.getSubmittedCount());
+
+		// A PDU whose length is not as given is rejected
+		modem.send("AT+CMGS=" + pdu.length() / 2 + "\r");
+		modem.send(pdu + SimulatedModem.CTRL_Z);
+		assertTrue(modem.getResponse().contains("+CMS ERROR: 304"));
+		assertEquals(1, modem.getSubmittedCount());
+	}
+
+	/** Failures can be injected for any command. */
+	public void testFailureInjection() {
+		modem.setFailureRate("+CSQ", 1);
+		assertResponse("\r\nERROR\r\n", "AT+CSQ");
+		modem.setFailureRate("+CSQ", 0);
+		assertResponse("\r\n+CSQ: 20,99\r\n\r\nOK\r\n", "AT+CSQ");
+		assertEquals(1, modem.getFailedCommandCount());
+
+		// AT+CMGS fails after the PDU is sent
+		modem.setFailureRate("+CMGS", 1);
+		String pdu = new OutboundMessage("+447700900123", "Hello").getPDU("", 0, 1);
+		assertResponse("\r\n> ", "AT+CMGS=" + (pdu.length() / 2 - 1));
+		modem.send(pdu + SimulatedModem.CTRL_Z);
+		assertEquals("\r\n+CMS ERROR: 500\r\n", modem.getResponse());
+		assertEquals(0, modem.getSubmittedCount());
+	}
+
+	/** Commands should take at least as long as the latency set for them. */
+	public void testLatency() {
+		modem.setLatency("+CBC", 100);
+		long startTime = System.currentTimeMillis();
+		modem.send("AT+CBC\r");
+		assertTrue(System.currentTimeMillis() - startTime >= 100);
+	}
+
+	/** Test receiving messages, and reading them with AT+CMGL and AT+CMGR. */
+	public void testReceive() {
+		assertEquals(1, modem.deliver("+447700900123", "Hello"));
+		assertEquals(1, modem.deliver("+447700900123", "Привет"));
+		assertResponse("\r\n+CPMS: \"SM\",2,30,\"SM\",2,30,\"SM\",2,30\r\n\r\nOK\r\n", "AT+CPMS?");
+
+		modem.send("AT+CMGL=0\r");
+		String[] lines = modem.getResponse().trim().split("[\r\n]+");
+		assertEquals(5, lines.length);
+		assertTrue(lines[0].startsWith("+CMGL: 1,0,,"));
+		assertEquals("Hello", SmsDeliverPdu.decode(lines[1]).getText());
+		assertEquals("+447700900123", SmsDeliverPdu.decode(lines[1]).getOriginator());
+		assertTrue(lines[2].startsWith("+CMGL: 2,0,,"));
+		assertEquals("Привет", SmsDeliverPdu.decode(lines[3]).getText());
+
+		// Listed messages are marked as read
+		assertResponse("\r\nOK\r\n", "AT+CMGL=0");
+		modem.send("AT+CMGR=2\r");
+		String response = modem.getResponse();
+		assertTrue(response.startsWith("\r\n+CMGR: 1,,"));
+		assertEquals("Привет", SmsDeliverPdu.decode(SmsDeliverPdu.extractPdu(response)).getText());
+
+		assertResponse("\r\nOK\r\n", "AT+CMGD=2");
+		assertResponse("\r\n+CMS ERROR: 321\r\n", "AT+CMGR=2");
+		assertEquals(1, modem.getStoredCount());
+	}
+
+	/** Long messages are received as concatenated parts, which each take a storage slot. */
+	public void testConcatenatedReceive() {
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<40; ++i) text.append("0123456789");
+		assertEquals(3, modem.deliver("+447700900123", text.toString()));
+
+		modem.send("AT+CMGL=4\r");
+		String[] lines = modem.getResponse().trim().split("[\r\n]+");
+		StringBuilder received = new StringBuilder();
+		for(int i=1; i<6; i+=2) {
+			SmsDeliverPdu pdu = SmsDeliverPdu.decode(lines[i]);
+			assertTrue(pdu.hasUserDataHeader());
+			received.append(pdu.getText());
+		}
+		assertEquals(text.toString(), received.toString());
+	}
+
+	/** Messages which arrive when the storage is full are rejected. */
+	public void testStorageFull() {
+		modem.setStorageCapacity(1);
+		assertEquals(1, modem.deliver("+447700900123", "One"));
+		assertEquals(0, modem.deliver("+447700900123", "Two"));
+		assertEquals(1, modem.getReceivedCount());
+		assertEquals(1, modem.getRejectedCount());
+	}
+
+	/** Once enabled with AT+CNMI, an indication is sent for each message received. */
+	public void testNewMessageIndications() {
+		modem.deliver("+447700900123", "Before");
+		assertResponse("\r\nOK\r\n", "AT+CNMI=2,1,0,0,0");
+		modem.deliver("+447700900123", "After");
+		assertEquals("\r\n+CMTI: \"SM\",2\r\n", modem.getResponse());
+		assertResponse("\r\n+CNMI: 2,1,0,0,0\r\n\r\nOK\r\n", "AT+CNMI?");
+	}
+
+//> PRIVATE HELPER METHODS
+	/** Sends a command to {@link #modem}, and checks its response. */
+	private void assertResponse(String expected, String command) {
+		modem.send(command + "\r");
+		assertEquals(command, expected, modem.getResponse());
+	}
+}
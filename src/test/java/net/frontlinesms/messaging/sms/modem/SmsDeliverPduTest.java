@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.IncomingMessagePart;
+
+/**
+ * Unit tests for {@link SmsDeliverPdu}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsDeliverPduTest extends BaseTestCase {
+//> TEST METHODS
+	/** Test decoding a GSM 7-bit message, including its service centre address and timestamp. */
+	public void testGsm7() {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode("07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37");
+		assertEquals("27838890001", pdu.getOriginator());
+		assertEquals("hellohello", pdu.getText());
+		assertFalse(pdu.isBinary());
+		assertFalse(pdu.hasUserDataHeader());
+		// 1999-03-29 15:16:59 GMT+2
+		assertEquals(utc(1999, 3, 29, 13, 16, 59), pdu.getTimestamp());
+	}
+
+	/** Test decoding a UCS-2 message from an international number. */
+	public void testUcs2() {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode("00040C9144770009103200082101012143650004041F0440");
+		assertEquals("+447700900123", pdu.getOriginator());
+		assertEquals("Пр", pdu.getText());
+		assertEquals(utc(2012, 10, 10, 12, 34, 56), pdu.getTimestamp());
+	}
+
+	/** The user data header of a message part should be skipped, including the fill bits of GSM 7-bit messages. */
+	public void testUserDataHeader() {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode("00440BC87238880900F1000099309251619580" + "09050003AB0201D069");
+		assertTrue(pdu.hasUserDataHeader());
+		assertEquals("hi", pdu.getText());
+
+		pdu = SmsDeliverPdu.decode("00440BC87238880900F1000899309251619580" + "0A050003AB0201041F0440");
+		assertTrue(pdu.hasUserDataHeader());
+		assertEquals("Пр", pdu.getText());
+	}
+
+	/** The concatenation information element should be read from the user data header. */
+	public void testConcatenation() {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode("00440BC87238880900F1000099309251619580" + "09050003AB0201D069");
+		assertTrue(pdu.isConcatenated());
+		assertEquals(0xAB, pdu.getConcatenatedReference());
+		assertEquals(2, pdu.getConcatenatedPartCount());
+		assertEquals(1, pdu.getConcatenatedPartNumber());
+		assertTrue(pdu.toIncomingMessage(3, "SM") instanceof IncomingMessagePart);
+
+		// 16-bit reference number
+		pdu = SmsDeliverPdu.decode("00440BC87238880900F1000899309251619580" + "0B06080412340302041F0440");
+		assertTrue(pdu.isConcatenated());
+		assertEquals(0x1234, pdu.getConcatenatedReference());
+		assertEquals(3, pdu.getConcatenatedPartCount());
+		assertEquals(2, pdu.getConcatenatedPartNumber());
+		assertEquals("Пр", pdu.getText());
+
+		// Part numbers outside the message are ignored
+		pdu = SmsDeliverPdu.decode("00440BC87238880900F1000899309251619580" + "0A050003AB0203041F0440");
+		assertTrue(pdu.hasUserDataHeader());
+		assertFalse(pdu.isConcatenated());
+		assertFalse(pdu.toIncomingMessage(3, "SM") instanceof IncomingMessagePart);
+
+		pdu = SmsDeliverPdu.decode("07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37");
+		assertFalse(pdu.isConcatenated());
+		assertEquals(1, pdu.getConcatenatedPartCount());
+	}
+
+	/** Test decoding an 8-bit message. */
+	public void testBinary() {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode("00040C9144770009103200042101012143650003CAFE01");
+		assertTrue(pdu.isBinary());
+		assertNull(pdu.getText());
+		assertEquals(3, pdu.getBinary().length);
+		assertEquals((byte) 0xCA, pdu.getBinary()[0]);
+		assertEquals((byte) 0x01, pdu.getBinary()[2]);
+	}
+
+	/** Test decoding an alphanumeric originator. */
+	public void testAlphanumericOriginator() {
+		SmsDeliverPdu pdu = SmsDeliverPdu.decode("000407D049B7F90D0000993092516195800AE8329BFD4697D9EC37");
+		assertEquals("Info", pdu.getOriginator());
+		assertEquals("hellohello", pdu.getText());
+	}
+
+	/** PDUs which are not SMS-DELIVER, or cannot be decoded, should be rejected. */
+	public void testInvalid() {
+		// SMS-STATUS-REPORT
+		assertNull(SmsDeliverPdu.decode("000601"));
+		// Truncated
+		assertNull(SmsDeliverPdu.decode("00040C9144770009103200082101012143650004041F"));
+		assertNull(SmsDeliverPdu.decode("00040C91447700"));
+		// Not hex
+		assertNull(SmsDeliverPdu.decode("0G"));
+		assertNull(SmsDeliverPdu.decode(""));
+		assertNull(SmsDeliverPdu.decode(null));
+	}
+
+	/** Test extracting the PDU from a response to AT+CMGR. */
+	public void testExtractPdu() {
+		assertEquals("0011AA", SmsDeliverPdu.extractPdu("\r\n+CMGR: 0,,24\r\n0011AA\r\n\r\nOK\r\n"));
+		assertNull(SmsDeliverPdu.extractPdu("\r\nERROR\r\n"));
+		assertNull(SmsDeliverPdu.extractPdu(null));
+	}
+
+//> STATIC HELPER METHODS
+	/** @return the time, in millis, of a date and time in UTC */
+	private static long utc(int year, int month, int day, int hour, int minute, int second) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.IncomingMessagePart;
+
+import org.smslib.CIncomingMessage;
+
+/**
+ * Unit tests for the reading of received messages by {@link SmsModem}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsModemTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Response to AT+CMGR for the first of two parts of a concatenated message from 27838890001 */
+	private static final String CONCATENATED_PART_RESPONSE = "\r\n+CMGR: 1,,24\r\n"
+			+ "00440BC87238880900F1000099309251619580" + "09050003AB0201D069\r\n\r\nOK\r\n";
+
+//> TEST METHODS
+	/** A message polled from the device should be passed on as a part if its PDU has a concatenation header. */
+	public void testReadConcatenation() {
+		CIncomingMessage msg = new CIncomingMessage(0, "27838890001", "hi", 3, "SM");
+		CIncomingMessage read = SmsModem.readConcatenation(msg, CONCATENATED_PART_RESPONSE);
+		assertTrue(read instanceof IncomingMessagePart);
+		IncomingMessagePart part = (IncomingMessagePart) read;
+		assertEquals(0xAB, part.getReference());
+		assertEquals(2, part.getPartCount());
+		assertEquals(1, part.getPartNumber());
+		assertEquals("hi", part.getText());
+		assertEquals(3, part.getMemIndex());
+		assertEquals("SM", part.getMemLocation());
+	}
+
+	/** A message which is not concatenated, or whose PDU cannot be read, should be passed on as it was polled. */
+	public void testReadWithoutConcatenation() {
+		CIncomingMessage msg = new CIncomingMessage(0, "27838890001", "hellohello", 3, "SM");
+		assertSame(msg, SmsModem.readConcatenation(msg, "\r\n+CMGR: 1,,26\r\n"
+				+ "07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37\r\n\r\nOK\r\n"));
+		assertSame(msg, SmsModem.readConcatenation(msg, "\r\nERROR\r\n"));
+		assertSame(msg, SmsModem.readConcatenation(msg, null));
+	}
+
+	/** If the message at the index has changed since it was polled, it should be passed on as it was polled. */
+	public void testReadConcatenationOfDifferentMessage() {
+		CIncomingMessage msg = new CIncomingMessage(0, "+447700900123", "hi", 3, "SM");
+		assertSame(msg, SmsModem.readConcatenation(msg, CONCATENATED_PART_RESPONSE));
+	}
+}
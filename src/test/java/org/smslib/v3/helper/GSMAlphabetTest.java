@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package org.smslib.v3.helper;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Tests for {@link GSMAlphabet}, including a benchmark comparing it with the previous implementation,
+ * which searched the alphabet tables for every character.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GSMAlphabetTest extends BaseTestCase {
+//> STATIC CONSTANTS
+	/** Text containing every character in the standard and extension tables */
+	private static final String ALPHABET = "@£$¥èéùìòÇ\nØø\rÅå"
+			+ "Δ_ΦΓΛΩΠΨΣΘΞÆæßÉ"
+			+ " !\"#¤%&'()*+,-./0123456789:;<=>?¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§"
+			+ "¿abcdefghijklmnopqrstuvwxyzäöñüà"
+			+ "\u000C^{}\\[~]|€";
+	/** Single-part message text of 160 characters */
+	private static final String SINGLE_PART_TEXT = repeat("The quick brown fox jumps over the lazy dog. ", 160);
+	/** Three-part message text, including some extension table characters */
+	private static final String MULTIPART_TEXT = repeat("Price: 10€ [approx] {see notes} ", 459);
+	/** Number of times each text is encoded in {@link #testPerformance()} */
+	private static final int ITERATIONS = 20000;
+
+//> INSTANCE PROPERTIES
+	/** Logging object */
+	private final Logger log = Logger.getLogger(this.getClass());
+
+//> TEST METHODS
+	/** Encoding should produce the same septets, PDUs and character counts as the previous implementation. */
+	public void testEncodingMatchesPrevious() {
+		String[] texts = {
+				"",
+				"Testing...",
+				ALPHABET,
+				// Greek characters which are remapped to the standard table
+				"Άαβγςωώ",
+				// Characters which are not in the alphabet
+				"ç中文 Аÿ",
+				SINGLE_PART_TEXT,
+				MULTIPART_TEXT,
+		};
+		for(String text : texts) {
+			byte[] expected = new byte[text.length() * 2];
+			int expectedLength = PreviousGSMAlphabet.stringToBytes(text, expected);
+			byte[] actual = new byte[text.length() * 2];
+			assertEquals(expectedLength, GSMAlphabet.stringToBytes(text, actual));
+			assertTrue("Septets differ for: " + text, Arrays.equals(expected, actual));
+
+			assertEquals(PreviousGSMAlphabet.textToPDU(text), GSMAlphabet.textToPDU(text));
+			assertEquals(expectedLength, GSMAlphabet.noOfChars(text));
+		}
+	}
+
+	/** Test packing against a known PDU. */
+	public void testTextToPdu() {
+		assertEquals("e8329bfd4697d9ec37", GSMAlphabet.textToPDU("hellohello"));
+		assertEquals("", GSMAlphabet.textToPDU(""));
+	}
+
+	/** Every character in the alphabet should survive encoding and decoding. */
+	public void testRoundTrip() {
+		byte[] septets = new byte[ALPHABET.length() * 2];
+		int length = GSMAlphabet.stringToBytes(ALPHABET, septets);
+		assertEquals(ALPHABET, GSMAlphabet.bytesToString(truncate(septets, length)));
+	}
+
+	/** Decoding should produce the same text as the previous implementation. */
+	public void testDecodingMatchesPrevious() {
+		String text = ALPHABET.replace("\u000C", "");
+		byte[] septets = new byte[text.length() * 2];
+		septets = truncate(septets, GSMAlphabet.stringToBytes(text, septets));
+		assertEquals(PreviousGSMAlphabet.bytesToString(septets), GSMAlphabet.bytesToString(septets));
+	}
+
+	/** Compare the speed of encoding single-part and multipart texts with the previous implementation. */
+	public void testPerformance() {
+		for(String text : new String[]{ SINGLE_PART_TEXT, MULTIPART_TEXT }) {
+			// Warm up both implementations before timing them
+			for(int i=0; i<ITERATIONS / 10; ++i) {
+				PreviousGSMAlphabet.textToPDU(text);
+				GSMAlphabet.textToPDU(text);
+			}
+
+			long start = System.nanoTime();
+			for(int i=0; i<ITERATIONS; ++i) {
+				PreviousGSMAlphabet.textToPDU(text);
+			}
+			long previousNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int i=0; i<ITERATIONS; ++i) {
+				GSMAlphabet.textToPDU(text);
+			}
+			long currentNanos = System.nanoTime() - start;
+
+			log.info("textToPDU() of " + text.length() + " characters: previous=" + (previousNanos / ITERATIONS) + "ns"
+					+ ", current=" + (currentNanos / ITERATIONS) + "ns");
+			assertTrue("Encoding " + text.length() + " characters was not faster than the previous implementation.",
+					currentNanos < previousNanos);
+		}
+	}
+
+//> STATIC HELPER METHODS
+	/** @return the first <code>length</code> bytes of the supplied array */
+	private static byte[] truncate(byte[] bytes, int length) {
+		byte[] truncated = new byte[length];
+		System.arraycopy(bytes, 0, truncated, 0, length);
+		return truncated;
+	}
+
+	/** @return text made by repeating the supplied text until it is the requested length */
+	private static String repeat(String text, int length) {
+		StringBuilder bob = new StringBuilder(length);
+		while(bob.length() < length) {
+			bob.append(text);
+		}
+		return bob.substring(0, length);
+	}
+
+//> INNER CLASSES
+	/** The previous implementation of {@link GSMAlphabet}'s encoding, which searched the alphabet tables for every character. */
+	private static class PreviousGSMAlphabet {
+		private static final char[][] grcAlphabetRemapping = {
+			{ 'Ά', 'A' }, { 'Έ', 'E' }, { 'Ή', 'H' }, { 'Ί', 'I' },
+			{ 'Ό', 'O' }, { 'Ύ', 'Y' }, { 'Ώ', 'Ω' }, { 'ΐ', 'I' },
+			{ 'Α', 'A' }, { 'Β', 'B' }, { 'Γ', 'Γ' }, { 'Δ', 'Δ' },
+			{ 'Ε', 'E' }, { 'Ζ', 'Z' }, { 'Η', 'H' }, { 'Θ', 'Θ' },
+			{ 'Ι', 'I' }, { 'Κ', 'K' }, { 'Λ', 'Λ' }, { 'Μ', 'M' },
+			{ 'Ν', 'N' }, { 'Ξ', 'Ξ' }, { 'Ο', 'O' }, { 'Π', 'Π' },
+			{ 'Ρ', 'P' }, { 'Σ', 'Σ' }, { 'Τ', 'T' }, { 'Υ', 'Y' },
+			{ 'Φ', 'Φ' }, { 'Χ', 'X' }, { 'Ψ', 'Ψ' }, { 'Ω', 'Ω' },
+			{ 'Ϊ', 'I' }, { 'Ϋ', 'Y' }, { 'ά', 'A' }, { 'έ', 'E' },
+			{ 'ή', 'H' }, { 'ί', 'I' }, { 'ΰ', 'Y' }, { 'α', 'A' },
+			{ 'β', 'B' }, { 'γ', 'Γ' }, { 'δ', 'Δ' }, { 'ε', 'E' },
+			{ 'ζ', 'Z' }, { 'η', 'H' }, { 'θ', 'Θ' }, { 'ι', 'I' },
+			{ 'κ', 'K' }, { 'λ', 'Λ' }, { 'μ', 'M' }, { 'ν', 'N' },
+			{ 'ξ', 'Ξ' }, { 'ο', 'O' }, { 'π', 'Π' }, { 'ρ', 'P' },
+			{ 'ς', 'Σ' }, { 'σ', 'Σ' }, { 'τ', 'T' }, { 'υ', 'Y' },
+			{ 'φ', 'Φ' }, { 'χ', 'X' }, { 'ψ', 'Ψ' }, { 'ω', 'Ω' },
+			{ 'ϊ', 'I' }, { 'ϋ', 'Y' }, { 'ό', 'O' }, { 'ύ', 'Y' },
+			{ 'ώ', 'Ω' }
+		};
+		private static final char[] extAlphabet = { '\u000c', '^', '{', '}', '\\', '[', '~', ']', '|', '€' };
+		private static final String[] extBytes = { "1b0a", "1b14", "1b28", "1b29", "1b2f", "1b3c", "1b3d", "1b3e", "1b40", "1b65" };
+		private static final char[] stdAlphabet = ("@£$¥èéùìòÇ\nØø\rÅå"
+				+ "Δ_ΦΓΛΩΠΨΣΘΞ\u00A0ÆæßÉ"
+				+ " !\"#¤%&'()*+,-./0123456789:;<=>?¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§"
+				+ "¿abcdefghijklmnopqrstuvwxyzäöñüà").toCharArray();
+
+		static String bytesToString(byte[] bytes) {
+			StringBuffer text = new StringBuffer();
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] == 0x1b) {
+					String extChar = "1b" + Integer.toHexString(bytes[++i]);
+					for (int j = 0; j < extBytes.length; j++)
+						if (extBytes[j].equalsIgnoreCase(extChar)) text.append(extAlphabet[j]);
+				}
+				else text.append(stdAlphabet[bytes[i]]);
+			}
+			return text.toString();
+		}
+
+		static int stringToBytes(String text, byte[] bytes) {
+			int k = 0;
+			for (int i = 0; i < text.length(); i++) {
+				char ch = text.charAt(i);
+				int index = -1;
+				for (int j = 0; j < extAlphabet.length; j++)
+					if (extAlphabet[j] == ch) {
+						index = j;
+						break;
+					}
+				if (index != -1) {
+					bytes[k++] = (byte) Integer.parseInt(extBytes[index].substring(0, 2), 16);
+					bytes[k++] = (byte) Integer.parseInt(extBytes[index].substring(2, 4), 16);
+				} else {
+					for (int j = 0; j < stdAlphabet.length; j++)
+						if (stdAlphabet[j] == ch) {
+							index = j;
+							bytes[k++] = (byte) j;
+							break;
+						}
+					if (index == -1) {
+						for (int j = 0; j < grcAlphabetRemapping.length; j++)
+							if (grcAlphabetRemapping[j][0] == ch) {
+								index = j;
+								ch = grcAlphabetRemapping[j][1];
+								break;
+							}
+						if (index != -1) {
+							for (int j = 0; j < stdAlphabet.length; j++)
+								if (stdAlphabet[j] == ch) {
+									bytes[k++] = (byte) j;
+									break;
+								}
+						} else bytes[k++] = (byte) ' ';
+					}
+				}
+			}
+			return k;
+		}
+
+		static String textToPDU(String txt) {
+			byte[] txtBytes = new byte[txt.length() * 2];
+			int txtBytesLen = stringToBytes(txt, txtBytes);
+			BitSet bits = new BitSet();
+			for (int i = 0; i < txtBytesLen; i++)
+				for (int j = 0; j < 7; j++)
+					if ((txtBytes[i] & (1 << j)) != 0) bits.set((i * 7) + j);
+			int txtSeptetsLen = (int) Math.ceil(((double) (txtBytesLen * 7) / 8));
+			short[] txtSeptets = new short[txtSeptetsLen];
+			for (int i = 0; i < txtSeptetsLen; i++)
+				for (int j = 0; j < 8; j++)
+					txtSeptets[i] |= (short) ((bits.get((i * 8) + j) ? 1 : 0) << j);
+			String pdu = "";
+			for (int i = 0; i < txtSeptetsLen; i++) {
+				String c = Integer.toHexString(txtSeptets[i]);
+				if (c.length() < 2) c = "0" + c;
+				pdu += c;
+			}
+			return pdu;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package org.smslib.v3.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.smslib.v3.FailureCauses;
+import org.smslib.v3.MessageStatuses;
+import org.smslib.v3.OutboundMessage;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Tests for the parsing of send results by {@link ClickatellHTTPGateway}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ClickatellHTTPGatewayTest extends BaseTestCase {
+//> TEST METHODS
+	/** Each result of a multi-destination request should be applied to the message for its recipient. */
+	public void testMultiDestinationResults() throws IOException {
+		OutboundMessage sent = new OutboundMessage("+447700900001", "Hello");
+		OutboundMessage noCredit = new OutboundMessage("+447700900002", "Hello");
+		OutboundMessage missing = new OutboundMessage("+447700900003", "Hello");
+		ClickatellHTTPGateway gateway = createGateway(
+				"ID: 6d7b2f3e To: 447700900001",
+				"ERR: 301, No Credit Left To: 447700900002");
+
+		assertEquals(1, gateway.sendRequest(Arrays.asList(sent, noCredit, missing), new URL("http://localhost/"), new ArrayList<Object>()));
+
+		assertEquals(MessageStatuses.SENT, sent.getMessageStatus());
+		assertEquals("6d7b2f3e", sent.getRefNo());
+
+		assertEquals(MessageStatuses.FAILED, noCredit.getMessageStatus());
+		assertEquals(FailureCauses.NO_CREDIT, noCredit.getFailureCause());
+		assertNull(noCredit.getRefNo());
+
+		// A recipient with no result has not been sent
+		assertFalse(MessageStatuses.SENT == missing.getMessageStatus());
+		assertEquals(FailureCauses.UNKNOWN, missing.getFailureCause());
+	}
+
+	/** A result without a recipient should be applied to every message in the request. */
+	public void testResultWithoutRecipient() throws IOException {
+		OutboundMessage one = new OutboundMessage("+447700900001", "Hello");
+		ClickatellHTTPGateway gateway = createGateway("ID: 6d7b2f3e");
+		assertEquals(1, gateway.sendRequest(Arrays.asList(one), new URL("http://localhost/"), new ArrayList<Object>()));
+		assertEquals(MessageStatuses.SENT, one.getMessageStatus());
+		assertEquals("6d7b2f3e", one.getRefNo());
+
+		OutboundMessage two = new OutboundMessage("+447700900001", "Hello");
+		OutboundMessage three = new OutboundMessage("+447700900002", "Hello");
+		gateway = createGateway("ERR: 001, Authentication failed");
+		assertEquals(0, gateway.sendRequest(Arrays.asList(two, three), new URL("http://localhost/"), new ArrayList<Object>()));
+		assertEquals(MessageStatuses.FAILED, two.getMessageStatus());
+		assertEquals(FailureCauses.GATEWAY_AUTH, two.getFailureCause());
+		assertEquals(MessageStatuses.FAILED, three.getMessageStatus());
+		assertEquals(FailureCauses.GATEWAY_AUTH, three.getFailureCause());
+	}
+
+//> PRIVATE HELPER METHODS
+	/**
+	 * @param responseLines the lines of the response to every request
+	 * @return a gateway which responds to every request with the supplied lines, without connecting to Clickatell
+	 */
+	private static ClickatellHTTPGateway createGateway(final String... responseLines) {
+		return new ClickatellHTTPGateway("test", "api", "user", "password") {
+			@Override
+			List HttpPost(URL url, List requestList) {
+				return Arrays.asList(responseLines);
+			}
+		};
+	}
+}